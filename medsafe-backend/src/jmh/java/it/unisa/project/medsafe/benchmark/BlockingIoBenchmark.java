@@ -0,0 +1,81 @@
+package it.unisa.project.medsafe.benchmark;
+
+import it.unisa.project.medsafe.utils.Bulkhead;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput di richieste bloccanti (I/O simulato verso Blob Storage e database)
+ * servite da un pool di platform thread grande come quello di Tomcat (200 thread)
+ * oppure da un virtual thread per richiesta, con il bulkhead dello storage davanti alla risorsa.
+ *
+ * Esecuzione: mvn -Pbenchmark test-compile exec:exec -Djmh.args="BlockingIoBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class BlockingIoBenchmark {
+
+    private static final int RICHIESTE = 5_000;
+    private static final int THREAD_TOMCAT = 200;
+
+    @Param({ "platform", "virtual" })
+    public String modello;
+
+    /**
+     * Latenza di una chiamata allo storage / al database
+     */
+    @Param({ "20" })
+    public int latenzaMs;
+
+    @Param({ "1000" })
+    public int bulkheadStorage;
+
+    private ExecutorService executor;
+    private Bulkhead bulkhead;
+
+    @Setup
+    public void setUp() {
+        executor = modello.equals("virtual")
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(THREAD_TOMCAT);
+        bulkhead = new Bulkhead("storage", bulkheadStorage, Duration.ofSeconds(30));
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Una raffica di RICHIESTE richieste concorrenti: il risultato è in richieste al secondo
+     */
+    @Benchmark
+    @OperationsPerInvocation(RICHIESTE)
+    public void raffica() throws InterruptedException {
+        CountDownLatch completate = new CountDownLatch(RICHIESTE);
+        for (int i = 0; i < RICHIESTE; i++) {
+            executor.execute(() -> {
+                try {
+                    bulkhead.esegui(() -> {
+                        Thread.sleep(latenzaMs);
+                        return null;
+                    });
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    completate.countDown();
+                }
+            });
+        }
+        completate.await();
+    }
+}
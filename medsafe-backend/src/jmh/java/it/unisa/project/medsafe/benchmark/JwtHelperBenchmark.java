@@ -0,0 +1,56 @@
+package it.unisa.project.medsafe.benchmark;
+
+import it.unisa.project.medsafe.utils.JwtHelper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lettura dell'email dell'utente dal JWT, ripetuta nei controlli di autorizzazione
+ * di quasi ogni richiesta.
+ * Esecuzione: mvn -Pbenchmark test-compile exec:exec -Djmh.args="JwtHelperBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtHelperBenchmark {
+
+    /**
+     * Token Azure AD con l'email nel claim "email" oppure solo in "preferred_username"
+     */
+    @Param({ "email", "preferred_username" })
+    public String claimEmail;
+
+    private final JwtHelper jwtHelper = new JwtHelper();
+
+    @Setup
+    public void setUp() {
+        Jwt jwt = Jwt.withTokenValue("token")
+                .header("alg", "RS256")
+                .claim(claimEmail, "medico@medsafe.local")
+                .claim("name", "Mario Rossi")
+                .claim("oid", "00000000-0000-0000-0000-000000000001")
+                .issuedAt(Instant.now())
+                .expiresAt(Instant.now().plusSeconds(3600))
+                .build();
+        // Il SecurityContext è per thread: con Scope.Thread ogni thread del benchmark ha il suo
+        SecurityContextHolder.getContext().setAuthentication(new JwtAuthenticationToken(jwt));
+    }
+
+    @TearDown
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Benchmark
+    public String emailUtenteCorrente() {
+        return jwtHelper.getCurrentUserEmail();
+    }
+}
@@ -0,0 +1,104 @@
+package it.unisa.project.medsafe.benchmark;
+
+import it.unisa.project.medsafe.dto.RefertoDTO;
+import it.unisa.project.medsafe.entity.TipoEsame;
+import it.unisa.project.medsafe.service.PdfServiceImpl;
+import it.unisa.project.medsafe.utils.BufferABlocchi;
+import it.unisa.project.medsafe.utils.ImmaginePdfHelper;
+import it.unisa.project.medsafe.utils.PoolBlocchi;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tempo di CPU e allocazione per la generazione di un referto PDF, al variare della
+ * lunghezza del testo e della dimensione dell'immagine allegata (0 = senza immagine).
+ * Esecuzione: mvn -Pbenchmark test-compile exec:exec -Djmh.args="PdfGenerationBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PdfGenerationBenchmark {
+
+    /**
+     * Caratteri di testo del referto e delle conclusioni
+     */
+    @Param({ "200", "5000" })
+    public int lunghezzaTesto;
+
+    /**
+     * Lato in pixel dell'immagine dell'esame (PNG con rumore, poco comprimibile)
+     */
+    @Param({ "0", "1024", "3000" })
+    public int latoImmagine;
+
+    private PdfServiceImpl pdfService;
+    private PoolBlocchi poolBlocchi;
+    private RefertoDTO dto;
+    private byte[] immagine;
+
+    @Setup
+    public void setUp() throws IOException {
+        // Senza autore e senza URL dell'immagine non servono né il repository né lo storage
+        pdfService = new PdfServiceImpl(null, null, new ImmaginePdfHelper(150, 0.85f));
+        poolBlocchi = new PoolBlocchi(DataSize.ofKilobytes(64), 256);
+        dto = RefertoDTO.builder()
+                .nomePaziente("Mario Rossi")
+                .tipoEsame(TipoEsame.Radiografia)
+                .testoReferto(testo("Esame eseguito in proiezione antero-posteriore e laterale. ", lunghezzaTesto))
+                .conclusioni(testo("Non si evidenziano lesioni ossee a carattere traumatico. ", lunghezzaTesto))
+                .build();
+        immagine = latoImmagine > 0 ? immagine(latoImmagine) : null;
+    }
+
+    /**
+     * PDF scritto in un ByteArrayOutputStream che cresce per copie successive, come confronto
+     */
+    @Benchmark
+    public int generaReferto() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pdfService.generaPdf(dto, immagine, out);
+        return out.size();
+    }
+
+    /**
+     * Percorso usato prima dell'upload: il PDF viene scritto in blocchi riusati dal pool
+     */
+    @Benchmark
+    public long generaRefertoInBuffer() throws IOException {
+        try (BufferABlocchi buffer = poolBlocchi.nuovoBuffer()) {
+            pdfService.generaPdf(dto, immagine, buffer);
+            return buffer.dimensione();
+        }
+    }
+
+    static String testo(String frase, int lunghezza) {
+        StringBuilder sb = new StringBuilder(lunghezza + frase.length());
+        while (sb.length() < lunghezza) {
+            sb.append(frase);
+        }
+        return sb.substring(0, lunghezza);
+    }
+
+    private static byte[] immagine(int lato) throws IOException {
+        BufferedImage img = new BufferedImage(lato, lato, BufferedImage.TYPE_BYTE_GRAY);
+        Random random = new Random(42);
+        for (int x = 0; x < lato; x++) {
+            for (int y = 0; y < lato; y++) {
+                img.setRGB(x, y, random.nextInt());
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,33 @@
+package it.unisa.project.medsafe.benchmark;
+
+import it.unisa.project.medsafe.utils.PercorsoBlob;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estrazione del percorso del blob dall'URL salvato nel referto, eseguita per ogni
+ * download, eliminazione e voce di export.
+ * Esecuzione: mvn -Pbenchmark test-compile exec:exec -Djmh.args="PercorsoBlobBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PercorsoBlobBenchmark {
+
+    /**
+     * URL senza caratteri da decodificare, oppure con spazi e lettere accentate
+     */
+    @Param({
+            "https://account.blob.core.windows.net/upload-dir/pdf/referto_rossi.pdf",
+            "https://account.blob.core.windows.net/upload-dir/immagini/TAC%20torace%20%C3%A8%20urgente.png" })
+    public String url;
+
+    @Benchmark
+    public String percorsoBlob() {
+        return PercorsoBlob.daUrl(url);
+    }
+}
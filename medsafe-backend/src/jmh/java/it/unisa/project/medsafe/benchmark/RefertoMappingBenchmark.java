@@ -0,0 +1,77 @@
+package it.unisa.project.medsafe.benchmark;
+
+import it.unisa.project.medsafe.dto.RefertoDTO;
+import it.unisa.project.medsafe.entity.Referto;
+import it.unisa.project.medsafe.entity.TipoEsame;
+import it.unisa.project.medsafe.utils.RefertoMapper;
+import it.unisa.project.medsafe.utils.RefertoMapperImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversioni di RefertoMapper eseguite a ogni richiesta: DTO -> entity (con il calcolo
+ * dell'impronta SHA-256) e lista di entity -> DTO, come nelle ricerche per paziente.
+ * Esecuzione: mvn -Pbenchmark test-compile exec:exec -Djmh.args="RefertoMappingBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RefertoMappingBenchmark {
+
+    @Param({ "200", "5000" })
+    public int lunghezzaTesto;
+
+    /**
+     * Referti restituiti da una ricerca
+     */
+    @Param({ "50" })
+    public int referti;
+
+    private final RefertoMapper mapper = new RefertoMapperImpl();
+    private RefertoDTO dto;
+    private Referto referto;
+    private List<Referto> elenco;
+
+    @Setup
+    public void setUp() {
+        dto = RefertoDTO.builder()
+                .nomePaziente("Mario Rossi")
+                .codiceFiscale("RSSMRA80A01H501Z")
+                .tipoEsame(TipoEsame.TAC)
+                .testoReferto(PdfGenerationBenchmark.testo("Esame eseguito con mezzo di contrasto. ", lunghezzaTesto))
+                .conclusioni(PdfGenerationBenchmark.testo("Quadro nei limiti della norma. ", lunghezzaTesto))
+                .autoreEmail("medico@medsafe.local")
+                .fileUrlImmagine("https://account.blob.core.windows.net/upload-dir/immagini/tac.png")
+                .urlPdfGenerato("https://account.blob.core.windows.net/upload-dir/pdf/referto.pdf")
+                .nomeFile("referto_rossi")
+                .dataCaricamento(LocalDateTime.now())
+                .build();
+        referto = mapper.refertoDTOToReferto(dto);
+        elenco = new ArrayList<>();
+        for (int i = 0; i < referti; i++) {
+            elenco.add(mapper.refertoDTOToReferto(dto));
+        }
+    }
+
+    @Benchmark
+    public Referto dtoInEntity() {
+        return mapper.refertoDTOToReferto(dto);
+    }
+
+    @Benchmark
+    public RefertoDTO entityInDto() {
+        return mapper.refertoToRefertoDTO(referto);
+    }
+
+    @Benchmark
+    public List<RefertoDTO> elencoInDto() {
+        return mapper.refertiToRefertiDTO(elenco);
+    }
+}
@@ -1,9 +1,11 @@
 package it.unisa.project.medsafe.config;
 
 import com.azure.identity.DefaultAzureCredentialBuilder;
+import com.azure.core.http.policy.HttpPipelinePolicy;
 import com.azure.storage.blob.BlobContainerClient;
 import com.azure.storage.blob.BlobServiceClient;
 import com.azure.storage.blob.BlobServiceClientBuilder;
+import com.azure.storage.common.policy.RequestRetryOptions;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -28,10 +30,12 @@ public class AzureBlobConfig {
     private String containerName;
 
     @Bean
-    public BlobServiceClient blobServiceClient() {
+    public BlobServiceClient blobServiceClient(RequestRetryOptions blobRetryOptions, HttpPipelinePolicy blobMetricsPolicy) {
         return new BlobServiceClientBuilder()
                 .endpoint(storageEndpoint)
                 .credential(new DefaultAzureCredentialBuilder().build())
+                .retryOptions(blobRetryOptions)
+                .addPolicy(blobMetricsPolicy)
                 .buildClient();
     }
 
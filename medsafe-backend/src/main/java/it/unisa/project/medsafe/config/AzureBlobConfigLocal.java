@@ -1,8 +1,10 @@
 package it.unisa.project.medsafe.config;
 
+import com.azure.core.http.policy.HttpPipelinePolicy;
 import com.azure.storage.blob.BlobContainerClient;
 import com.azure.storage.blob.BlobServiceClient;
 import com.azure.storage.blob.BlobServiceClientBuilder;
+import com.azure.storage.common.policy.RequestRetryOptions;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -25,9 +27,11 @@ public class AzureBlobConfigLocal {
     private String containerName;
 
     @Bean
-    public BlobServiceClient blobServiceClient() {
+    public BlobServiceClient blobServiceClient(RequestRetryOptions blobRetryOptions, HttpPipelinePolicy blobMetricsPolicy) {
         return new BlobServiceClientBuilder()
                 .connectionString(connectionString)
+                .retryOptions(blobRetryOptions)
+                .addPolicy(blobMetricsPolicy)
                 .buildClient();
     }
 
@@ -0,0 +1,84 @@
+package it.unisa.project.medsafe.config;
+
+import com.azure.core.http.HttpMethod;
+import com.azure.core.http.HttpPipelineCallContext;
+import com.azure.core.http.HttpPipelineNextPolicy;
+import com.azure.core.http.HttpPipelinePosition;
+import com.azure.core.http.HttpResponse;
+import com.azure.core.http.policy.HttpPipelinePolicy;
+import com.azure.storage.common.policy.RequestRetryOptions;
+import com.azure.storage.common.policy.RetryPolicyType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * Politiche di trasferimento comuni ai client Blob Storage (Azure e Azurite).
+ * I file grandi vengono caricati a blocchi in parallelo: ogni blocco è una richiesta
+ * separata, quindi i tentativi ripetono solo il blocco fallito e non l'intero file.
+ */
+@Configuration
+public class BlobTransferConfig {
+
+    /**
+     * Chiave del contesto della pipeline con il numero di tentativi della richiesta corrente
+     */
+    private static final String TENTATIVO = "medsafe-tentativo";
+
+    /**
+     * Tentativi per singola richiesta (blocco) con backoff esponenziale
+     */
+    @Bean
+    public RequestRetryOptions blobRetryOptions(
+            @Value("${azure.storage.retry.max-tries:4}") int maxTentativi,
+            @Value("${azure.storage.retry.try-timeout:60s}") Duration timeoutTentativo,
+            @Value("${azure.storage.retry.delay:1s}") Duration attesa,
+            @Value("${azure.storage.retry.max-delay:30s}") Duration attesaMassima) {
+        return new RequestRetryOptions(RetryPolicyType.EXPONENTIAL, maxTentativi, timeoutTentativo, attesa,
+                attesaMassima, null);
+    }
+
+    /**
+     * Conta i blocchi inviati e quelli ritentati (eseguita a ogni tentativo, dopo la retry policy)
+     */
+    @Bean
+    public HttpPipelinePolicy blobMetricsPolicy(MeterRegistry meterRegistry) {
+        Counter blocchi = Counter.builder("medsafe.storage.blocchi")
+                .description("Blocchi inviati allo storage durante gli upload paralleli")
+                .register(meterRegistry);
+        Counter ritentati = Counter.builder("medsafe.storage.blocchi.ritentati")
+                .description("Blocchi inviati di nuovo dopo un errore")
+                .register(meterRegistry);
+
+        return new HttpPipelinePolicy() {
+            @Override
+            public Mono<HttpResponse> process(HttpPipelineCallContext context, HttpPipelineNextPolicy next) {
+                if (isStageBlock(context)) {
+                    int tentativo = (int) context.getData(TENTATIVO).orElse(0) + 1;
+                    context.setData(TENTATIVO, tentativo);
+                    (tentativo == 1 ? blocchi : ritentati).increment();
+                }
+                return next.process();
+            }
+
+            @Override
+            public HttpPipelinePosition getPipelinePosition() {
+                return HttpPipelinePosition.PER_RETRY;
+            }
+        };
+    }
+
+    /**
+     * Put Block: PUT con parametro comp=block
+     */
+    private static boolean isStageBlock(HttpPipelineCallContext context) {
+        String query = context.getHttpRequest().getUrl().getQuery();
+        return context.getHttpRequest().getHttpMethod() == HttpMethod.PUT
+                && query != null && query.contains("comp=block") && !query.contains("comp=blocklist");
+    }
+}
@@ -0,0 +1,26 @@
+package it.unisa.project.medsafe.config;
+
+import it.unisa.project.medsafe.utils.Bulkhead;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Bulkhead sulle risorse bloccanti condivise.
+ * Con spring.threads.virtual.enabled=true le richieste non sono più limitate dal pool di
+ * thread di Tomcat: il bulkhead evita che migliaia di richieste concorrenti esauriscano
+ * le connessioni verso Blob Storage. Per il database il limite è il pool Hikari stesso
+ * (spring.datasource.hikari.*), con un'attesa massima breve per la connessione.
+ */
+@Configuration
+public class BulkheadConfig {
+
+    @Bean
+    public Bulkhead storageBulkhead(
+            @Value("${medsafe.bulkhead.storage.max-concurrent:100}") int maxConcorrenti,
+            @Value("${medsafe.bulkhead.storage.timeout:5s}") Duration attesaMassima) {
+        return new Bulkhead("Azure Blob Storage", maxConcorrenti, attesaMassima);
+    }
+}
@@ -0,0 +1,158 @@
+package it.unisa.project.medsafe.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Pool di thread del servizio referti:
+ * - uploadExecutor: upload dell'immagine in parallelo alla generazione del PDF.
+ *   Quando pool e coda sono pieni il lavoro viene eseguito dal thread della richiesta
+ *   (CallerRunsPolicy), tornando al flusso sequenziale invece di rifiutare l'upload.
+ * - ingestionExecutor: elaborazione dei caricamenti asincroni (POST /referti/async).
+ *   Quando la coda è piena il caricamento viene rifiutato (503) invece di bloccare la richiesta.
+ * - exportExecutor: apertura in anticipo dei file esportati nello ZIP di un paziente.
+ *   Come uploadExecutor, quando pool e coda sono pieni il file viene aperto dal thread della richiesta.
+ * - pdfExecutor: scrittura dei PDF, di default un thread per core. Il nome del medico e l'immagine
+ *   dell'esame vengono letti prima, sul thread della richiesta (PdfService.prepara): sul pool resta
+ *   solo lavoro CPU-bound, senza connessioni al database né download dallo storage.
+ *   Quando la coda è piena la generazione viene rifiutata (503), così un picco di caricamenti
+ *   non sottrae CPU alle richieste di lettura.
+ * - fullTextExecutor: aggiornamento dell'indice full-text, con un solo thread così le scritture
+ *   sull'indice non si sovrappongono. Quando la coda è piena chi accoda attende che si liberi
+ *   un posto: l'aggiornamento non va perso e viene comunque eseguito dall'unico thread del pool.
+ *
+ * Con spring.threads.virtual.enabled=true i pool di upload e ingestion mantengono gli stessi
+ * limiti di concorrenza e di coda, ma i loro thread sono virtual thread; pdfExecutor usa sempre
+ * thread di piattaforma, perché la scrittura dei PDF non si blocca su I/O.
+ */
+@Configuration
+public class ExecutorConfig {
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Value("${medsafe.upload.pool-size:8}")
+    private int poolSize;
+
+    @Value("${medsafe.upload.queue-capacity:32}")
+    private int queueCapacity;
+
+    @Value("${medsafe.ingestion.pool-size:4}")
+    private int ingestionPoolSize;
+
+    @Value("${medsafe.ingestion.queue-capacity:100}")
+    private int ingestionQueueCapacity;
+
+    @Value("${medsafe.export.pool-size:8}")
+    private int exportPoolSize;
+
+    @Value("${medsafe.export.queue-capacity:64}")
+    private int exportQueueCapacity;
+
+    /**
+     * 0 = numero di core disponibili
+     */
+    @Value("${medsafe.pdf.render.pool-size:0}")
+    private int pdfPoolSize;
+
+    @Value("${medsafe.pdf.render.queue-capacity:32}")
+    private int pdfQueueCapacity;
+
+    @Value("${medsafe.fulltext.queue-capacity:1000}")
+    private int fullTextQueueCapacity;
+
+    @Bean
+    public ThreadPoolTaskExecutor uploadExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("upload-");
+        usaVirtualThread(executor, "upload-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor ingestionExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(ingestionPoolSize);
+        executor.setMaxPoolSize(ingestionPoolSize);
+        executor.setQueueCapacity(ingestionQueueCapacity);
+        executor.setThreadNamePrefix("ingestion-");
+        usaVirtualThread(executor, "ingestion-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(60);
+        return executor;
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor exportExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(exportPoolSize);
+        executor.setMaxPoolSize(exportPoolSize);
+        executor.setQueueCapacity(exportQueueCapacity);
+        executor.setThreadNamePrefix("export-");
+        usaVirtualThread(executor, "export-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return executor;
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor pdfExecutor() {
+        int threads = pdfPoolSize > 0 ? pdfPoolSize : Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(pdfQueueCapacity);
+        executor.setThreadNamePrefix("pdf-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor fullTextExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(fullTextQueueCapacity);
+        executor.setThreadNamePrefix("fulltext-");
+        executor.setRejectedExecutionHandler(attendiPostoInCoda());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+
+    /**
+     * Con la coda piena blocca il chiamante finché si libera un posto, invece di eseguire
+     * il task sul suo thread (rifiuta solo se l'executor è in chiusura)
+     */
+    private static RejectedExecutionHandler attendiPostoInCoda() {
+        return (task, pool) -> {
+            if (pool.isShutdown()) {
+                throw new RejectedExecutionException("Executor in chiusura");
+            }
+            try {
+                pool.getQueue().put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Attesa di un posto in coda interrotta", e);
+            }
+        };
+    }
+
+    private void usaVirtualThread(ThreadPoolTaskExecutor executor, String prefisso) {
+        if (virtualThreads) {
+            executor.setThreadFactory(Thread.ofVirtual().name(prefisso, 1).factory());
+        }
+    }
+}
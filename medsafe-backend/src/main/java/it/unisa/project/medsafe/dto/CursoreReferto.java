@@ -0,0 +1,34 @@
+package it.unisa.project.medsafe.dto;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Posizione nello scorrimento cronologico dei referti: data di caricamento e id
+ * dell'ultimo referto ricevuto. In forma testuale "2025-01-31T10:15:30.123,42".
+ */
+public record CursoreReferto(LocalDateTime dataCaricamento, int id) {
+
+    /**
+     * Interpreta il parametro "after" della richiesta (usato da Spring per la conversione).
+     *
+     * @throws IllegalArgumentException se il formato non è "dataCaricamento,id"
+     */
+    public static CursoreReferto valueOf(String valore) {
+        int separatore = valore.lastIndexOf(',');
+        if (separatore <= 0) {
+            throw new IllegalArgumentException("Cursore non valido, formato atteso: dataCaricamento,id");
+        }
+        try {
+            return new CursoreReferto(LocalDateTime.parse(valore.substring(0, separatore).trim()),
+                    Integer.parseInt(valore.substring(separatore + 1).trim()));
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new IllegalArgumentException("Cursore non valido, formato atteso: dataCaricamento,id", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return dataCaricamento + "," + id;
+    }
+}
@@ -0,0 +1,41 @@
+package it.unisa.project.medsafe.dto;
+
+import it.unisa.project.medsafe.entity.TipoEsame;
+import lombok.*;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.LocalDate;
+
+/**
+ * Criteri della ricerca combinata (GET /referti/search): i campi null non filtrano,
+ * quelli valorizzati devono essere soddisfatti tutti.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class FiltroRefertiDTO {
+
+    private String codiceFiscale;
+
+    private TipoEsame tipoEsame;
+
+    private String autoreEmail;
+
+    /**
+     * Primo giorno di caricamento (incluso)
+     */
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate dal;
+
+    /**
+     * Ultimo giorno di caricamento (incluso)
+     */
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate al;
+
+    /**
+     * Parte del nome file, senza distinzione tra maiuscole e minuscole
+     */
+    private String nomeFile;
+}
@@ -0,0 +1,23 @@
+package it.unisa.project.medsafe.dto;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Blocco di referti dello scorrimento cronologico (GET /referti/cronologia),
+ * dal più recente al meno recente.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class FinestraRefertiDTO {
+
+    private List<RefertoSummary> content;
+
+    /**
+     * Cursore da passare come "after" per il blocco successivo, null se non ci sono altri referti
+     */
+    private String successivo;
+}
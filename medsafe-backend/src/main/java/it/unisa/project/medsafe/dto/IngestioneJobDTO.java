@@ -0,0 +1,31 @@
+package it.unisa.project.medsafe.dto;
+
+import it.unisa.project.medsafe.entity.StatoIngestione;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Stato di un caricamento asincrono di un referto (POST /referti/async).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder(toBuilder = true)
+public class IngestioneJobDTO {
+
+    private String id;
+
+    private StatoIngestione stato;
+
+    private String nomeFile;
+
+    /**
+     * Messaggio di errore, valorizzato solo se lo stato è FALLITO
+     */
+    private String errore;
+
+    private LocalDateTime dataCreazione;
+
+    private LocalDateTime dataAggiornamento;
+}
@@ -54,4 +54,6 @@ public class RefertoDTO {
     private String autoreEmail;
 
     private LocalDateTime dataCaricamento;
+
+    private int versione;
 }
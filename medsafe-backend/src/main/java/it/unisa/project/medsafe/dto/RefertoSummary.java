@@ -0,0 +1,14 @@
+package it.unisa.project.medsafe.dto;
+
+import it.unisa.project.medsafe.entity.TipoEsame;
+
+import java.time.LocalDateTime;
+
+/**
+ * Riepilogo di un referto per gli elenchi: le query che lo restituiscono leggono solo
+ * queste colonne, senza testo, conclusioni e URL dei file.
+ * Il referto completo si ottiene da GET /referti/{id}.
+ */
+public record RefertoSummary(int id, String nomePaziente, String codiceFiscale, TipoEsame tipoEsame,
+        String nomeFile, String autoreEmail, LocalDateTime dataCaricamento) {
+}
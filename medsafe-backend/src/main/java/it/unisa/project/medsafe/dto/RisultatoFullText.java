@@ -0,0 +1,11 @@
+package it.unisa.project.medsafe.dto;
+
+/**
+ * Referto trovato dalla ricerca full-text (GET /referti/fulltext).
+ * testoReferto e conclusioni contengono solo i passaggi con le parole cercate, evidenziate
+ * con &lt;mark&gt; (il resto del testo è già convertito in HTML con escape); null se il campo
+ * non contiene parole cercate.
+ */
+public record RisultatoFullText(RefertoSummary referto, float punteggio, String testoReferto,
+        String conclusioni) {
+}
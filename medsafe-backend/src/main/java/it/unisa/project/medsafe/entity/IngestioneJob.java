@@ -0,0 +1,50 @@
+package it.unisa.project.medsafe.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Caricamento asincrono di un referto (POST /referti/async).
+ * Salvato su database così che lo stato resti consultabile dopo un riavvio
+ * e da qualsiasi istanza dell'applicazione.
+ */
+@Entity
+@Table(indexes = {
+        // Pulizia dei job terminati e di quelli abbandonati. Creato dalla migrazione V4__ingestione_job
+        @Index(name = "idx_ingestione_job_stato", columnList = "stato, dataAggiornamento")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class IngestioneJob {
+
+    /**
+     * UUID del job, usato anche come nome del file in staging
+     */
+    @Id
+    @Column(length = 36)
+    private String id;
+
+    @Column(nullable = false)
+    @Enumerated(EnumType.STRING)
+    private StatoIngestione stato;
+
+    @Column(nullable = false)
+    private String nomeFile;
+
+    /**
+     * Messaggio di errore, valorizzato solo se lo stato è FALLITO
+     */
+    @Column(length = 1000)
+    private String errore;
+
+    @Column(nullable = false, updatable = false)
+    private LocalDateTime dataCreazione;
+
+    @Column(nullable = false)
+    private LocalDateTime dataAggiornamento;
+}
@@ -2,11 +2,19 @@ package it.unisa.project.medsafe.entity;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.ColumnDefault;
 
 import java.time.LocalDateTime;
 
 @Entity
-@Table
+@Table(indexes = {
+        // Ricerche paginate e scorrimento a cursore, ordinati per data di caricamento e id.
+        // Creati dalla migrazione V2__indici_referto: qui servono allo schema H2 generato nei test
+        @Index(name = "idx_referto_codice_fiscale", columnList = "codiceFiscale, dataCaricamento, id"),
+        @Index(name = "idx_referto_tipo_esame", columnList = "tipoEsame, dataCaricamento, id"),
+        @Index(name = "idx_referto_autore_email", columnList = "autoreEmail, dataCaricamento, id"),
+        @Index(name = "idx_referto_data_caricamento", columnList = "dataCaricamento, id")
+})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -36,7 +44,10 @@ public class Referto {
     @Column(nullable = false, length = 1000)
     private String fileUrlImmagine;
 
-    @Column(nullable = false, length = 1000)
+    /**
+     * Nullo finché il PDF non viene generato (con medsafe.pdf.lazy=true al primo download)
+     */
+    @Column(length = 1000)
     private String urlPdfGenerato;
 
     @Column(nullable = false, unique = true)
@@ -47,4 +58,17 @@ public class Referto {
 
     @Column(updatable = false)
     private LocalDateTime dataCaricamento;
+
+    /**
+     * Incrementata a ogni modifica del contenuto stampato: identifica la versione del PDF
+     */
+    @Column(nullable = false)
+    @ColumnDefault("0")
+    private int versione;
+
+    /**
+     * Impronta SHA-256 dei campi stampati nel PDF (vedi ImprontaReferto)
+     */
+    @Column(length = 64)
+    private String impronta;
 }
@@ -0,0 +1,8 @@
+package it.unisa.project.medsafe.entity;
+
+/**
+ * Stato di un caricamento asincrono di un referto
+ */
+public enum StatoIngestione {
+    IN_CODA, IN_CORSO, COMPLETATO, FALLITO
+}
@@ -1,5 +1,9 @@
 package it.unisa.project.medsafe.exception;
 
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.mapping.PropertyReferenceException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.FieldError;
@@ -10,12 +14,18 @@ import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.method.annotation.MethodArgumentTypeMismatchException;
 import org.springframework.web.multipart.MaxUploadSizeExceededException;
 
+import java.sql.SQLTransientConnectionException;
 import java.util.HashMap;
 import java.util.Map;
 
 @ControllerAdvice
 public class GlobalExceptionHandler {
 
+    /**
+     * Secondi suggeriti al client prima di riprovare quando code, bulkhead o pool di connessioni sono saturi
+     */
+    private static final int RETRY_AFTER_SECONDI = 10;
+
     @ExceptionHandler(MaxUploadSizeExceededException.class)
     public ResponseEntity<?> handleMaxSizeException(MaxUploadSizeExceededException exc) {
         Map<String, String> response = new HashMap<>();
@@ -38,6 +48,23 @@ public class GlobalExceptionHandler {
         return ResponseEntity.badRequest().body(response);
     }
 
+    @ExceptionHandler(PropertyReferenceException.class)
+    public ResponseEntity<?> handleSortNonValido(PropertyReferenceException exc) {
+        Map<String, String> response = new HashMap<>();
+        response.put("error", "Errore di validazione dati");
+        response.put("details", String.format("Impossibile ordinare per '%s': campo inesistente",
+                exc.getPropertyName()));
+        return ResponseEntity.badRequest().body(response);
+    }
+
+    @ExceptionHandler(RicercaNonValidaException.class)
+    public ResponseEntity<?> handleRicercaNonValida(RicercaNonValidaException exc) {
+        Map<String, String> response = new HashMap<>();
+        response.put("error", "Errore di validazione dati");
+        response.put("details", exc.getMessage());
+        return ResponseEntity.badRequest().body(response);
+    }
+
     @ExceptionHandler(MissingServletRequestParameterException.class)
     public ResponseEntity<?> handleMissingParams(MissingServletRequestParameterException exc) {
         String name = exc.getParameterName();
@@ -57,6 +84,16 @@ public class GlobalExceptionHandler {
         return ResponseEntity.status(HttpStatus.FORBIDDEN).body(response);
     }
 
+    @ExceptionHandler(TaskRejectedException.class)
+    public ResponseEntity<?> handleTaskRejected(TaskRejectedException exc) {
+        return serviceUnavailable();
+    }
+
+    @ExceptionHandler(ServizioSovraccaricoException.class)
+    public ResponseEntity<?> handleServizioSovraccarico(ServizioSovraccaricoException exc) {
+        return serviceUnavailable();
+    }
+
     @ExceptionHandler(MethodArgumentNotValidException.class)
     public ResponseEntity<?> handleValidationExceptions(MethodArgumentNotValidException exc) {
         Map<String, String> errors = new HashMap<>();
@@ -70,9 +107,24 @@ public class GlobalExceptionHandler {
 
     @ExceptionHandler(Exception.class)
     public ResponseEntity<?> handleGeneralException(Exception exc) {
+        // Pool del database esaurito: l'attesa della connessione arriva avvolta da Spring
+        // (es. CannotCreateTransactionException)
+        Throwable causa = NestedExceptionUtils.getMostSpecificCause(exc);
+        if (causa instanceof ServizioSovraccaricoException || causa instanceof SQLTransientConnectionException) {
+            return serviceUnavailable();
+        }
         Map<String, String> response = new HashMap<>();
         response.put("error", "Errore generico del server");
         response.put("details", exc.getMessage());
         return ResponseEntity.internalServerError().body(response);
     }
-}
\ No newline at end of file
+
+    private ResponseEntity<?> serviceUnavailable() {
+        Map<String, String> response = new HashMap<>();
+        response.put("error", "Il server è temporaneamente sovraccarico, riprovare tra poco");
+        response.put("status", "503 Service Unavailable");
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(RETRY_AFTER_SECONDI))
+                .body(response);
+    }
+}
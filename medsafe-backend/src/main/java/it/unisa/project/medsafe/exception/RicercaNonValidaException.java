@@ -0,0 +1,17 @@
+package it.unisa.project.medsafe.exception;
+
+/**
+ * Eccezione lanciata quando i parametri di una ricerca full-text non sono validi
+ * (sintassi non interpretabile, ricerca troppo ampia, ordinamento non supportato).
+ * Viene restituita al client come 400.
+ */
+public class RicercaNonValidaException extends RuntimeException {
+
+    public RicercaNonValidaException(String message) {
+        super(message);
+    }
+
+    public RicercaNonValidaException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,12 @@
+package it.unisa.project.medsafe.exception;
+
+/**
+ * Eccezione lanciata quando una risorsa condivisa (storage, database, code di elaborazione)
+ * è satura e la richiesta non può essere servita subito. Viene restituita al client come 503.
+ */
+public class ServizioSovraccaricoException extends RuntimeException {
+
+    public ServizioSovraccaricoException(String message) {
+        super(message);
+    }
+}
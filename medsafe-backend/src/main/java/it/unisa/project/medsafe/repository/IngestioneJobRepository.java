@@ -0,0 +1,55 @@
+package it.unisa.project.medsafe.repository;
+
+import it.unisa.project.medsafe.entity.IngestioneJob;
+import it.unisa.project.medsafe.entity.StatoIngestione;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+
+@Repository
+public interface IngestioneJobRepository extends JpaRepository<IngestioneJob, String> {
+
+    /**
+     * Aggiorna lo stato di un job solo se si trova ancora in uno degli stati attesi
+     * (un job già chiuso, ad esempio dalla pulizia all'avvio, non viene riaperto)
+     *
+     * @return 1 se il job è stato aggiornato, 0 altrimenti
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE IngestioneJob j SET j.stato = :stato, j.errore = :errore, j.dataAggiornamento = :adesso "
+            + "WHERE j.id = :id AND j.stato IN :attesi")
+    int aggiornaStato(@Param("id") String id, @Param("attesi") Collection<StatoIngestione> attesi,
+            @Param("stato") StatoIngestione stato, @Param("errore") String errore,
+            @Param("adesso") LocalDateTime adesso);
+
+    /**
+     * Chiude come FALLITO i job rimasti in uno degli stati indicati senza aggiornamenti dal limite
+     * (il server che li elaborava è stato riavviato o non esiste più)
+     *
+     * @return numero di job chiusi
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE IngestioneJob j SET j.stato = it.unisa.project.medsafe.entity.StatoIngestione.FALLITO, "
+            + "j.errore = :errore, j.dataAggiornamento = :adesso "
+            + "WHERE j.stato IN :stati AND j.dataAggiornamento < :limite")
+    int chiudiAbbandonati(@Param("stati") Collection<StatoIngestione> stati, @Param("limite") LocalDateTime limite,
+            @Param("errore") String errore, @Param("adesso") LocalDateTime adesso);
+
+    /**
+     * Elimina i job negli stati indicati aggiornati l'ultima volta prima del limite
+     *
+     * @return numero di job eliminati
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM IngestioneJob j WHERE j.stato IN :stati AND j.dataAggiornamento < :limite")
+    int eliminaPrima(@Param("stati") Collection<StatoIngestione> stati, @Param("limite") LocalDateTime limite);
+}
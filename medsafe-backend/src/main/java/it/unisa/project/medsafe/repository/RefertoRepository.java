@@ -1,14 +1,25 @@
 package it.unisa.project.medsafe.repository;
 
+import it.unisa.project.medsafe.dto.RefertoSummary;
 import it.unisa.project.medsafe.entity.Referto;
 import it.unisa.project.medsafe.entity.TipoEsame;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
 @Repository
-public interface RefertoRepository extends JpaRepository<Referto, Integer> {
+public interface RefertoRepository extends JpaRepository<Referto, Integer>, RefertoRepositoryCustom {
     List<Referto> findByCodiceFiscale(String codiceFiscale);
 
     List<Referto> findByTipoEsame(TipoEsame tipoEsame);
@@ -16,4 +27,52 @@ public interface RefertoRepository extends JpaRepository<Referto, Integer> {
     Referto findByNomeFile(String nomeFile);
 
     List<Referto> findByAutoreEmail(String autoreEmail);
+
+    /**
+     * Elenchi paginati in forma di riepilogo: la select legge solo le colonne di RefertoSummary,
+     * non il testo e le conclusioni (fino a 4000 caratteri ciascuno).
+     */
+    Page<RefertoSummary> findSummaryBy(Pageable pageable);
+
+    Page<RefertoSummary> findSummaryByCodiceFiscale(String codiceFiscale, Pageable pageable);
+
+    Page<RefertoSummary> findSummaryByTipoEsame(TipoEsame tipoEsame, Pageable pageable);
+
+    Page<RefertoSummary> findSummaryByAutoreEmail(String autoreEmail, Pageable pageable);
+
+    /**
+     * Scorrimento a cursore (keyset): con una KeysetScrollPosition la query riparte dai valori
+     * di ordinamento dell'ultimo referto ricevuto invece di saltare le righe precedenti,
+     * quindi il costo non cresce con la profondità.
+     */
+    Window<RefertoSummary> findSummaryBy(ScrollPosition position, Sort sort, Limit limit);
+
+    Window<RefertoSummary> findSummaryByAutoreEmail(String autoreEmail, ScrollPosition position, Sort sort,
+            Limit limit);
+
+    Window<RefertoSummary> findSummaryByCodiceFiscale(String codiceFiscale, ScrollPosition position, Sort sort,
+            Limit limit);
+
+    Window<RefertoSummary> findSummaryByAutoreEmailAndCodiceFiscale(String autoreEmail, String codiceFiscale,
+            ScrollPosition position, Sort sort, Limit limit);
+
+    /**
+     * Referti completi a blocchi in ordine di id, ripartendo dall'ultimo id letto
+     * (ricostruzione dell'indice full-text)
+     */
+    List<Referto> findByIdGreaterThanOrderByIdAsc(int id, Limit limit);
+
+    /**
+     * Registra l'URL del PDF generato su richiesta, solo se il referto non è stato
+     * modificato nel frattempo (stessa versione) e il PDF non è già stato registrato.
+     *
+     * In una transazione propria: il chiamante genera e carica il PDF senza transazione aperta.
+     *
+     * @return 1 se l'URL è stato registrato, 0 altrimenti
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE Referto r SET r.urlPdfGenerato = :url "
+            + "WHERE r.id = :id AND r.versione = :versione AND r.urlPdfGenerato IS NULL")
+    int registraPdfGenerato(@Param("id") int id, @Param("versione") int versione, @Param("url") String url);
 }
\ No newline at end of file
@@ -0,0 +1,19 @@
+package it.unisa.project.medsafe.repository;
+
+import it.unisa.project.medsafe.dto.RefertoSummary;
+import it.unisa.project.medsafe.entity.Referto;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
+
+/**
+ * Query dei referti costruite con la Criteria API.
+ */
+public interface RefertoRepositoryCustom {
+
+    /**
+     * Una pagina di riepiloghi dei referti che soddisfano i criteri: una sola select
+     * delle colonne di RefertoSummary, più il conteggio quando serve a calcolare il totale.
+     */
+    Page<RefertoSummary> cercaRiepiloghi(Specification<Referto> criteri, Pageable pageable);
+}
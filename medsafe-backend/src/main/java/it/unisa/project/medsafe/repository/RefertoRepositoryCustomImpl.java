@@ -0,0 +1,63 @@
+package it.unisa.project.medsafe.repository;
+
+import it.unisa.project.medsafe.dto.RefertoSummary;
+import it.unisa.project.medsafe.entity.Referto;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import org.springframework.data.support.PageableExecutionUtils;
+
+import java.util.List;
+
+public class RefertoRepositoryCustomImpl implements RefertoRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public Page<RefertoSummary> cercaRiepiloghi(Specification<Referto> criteri, Pageable pageable) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+
+        CriteriaQuery<RefertoSummary> select = cb.createQuery(RefertoSummary.class);
+        Root<Referto> referto = select.from(Referto.class);
+        select.select(cb.construct(RefertoSummary.class,
+                referto.get("id"), referto.get("nomePaziente"), referto.get("codiceFiscale"),
+                referto.get("tipoEsame"), referto.get("nomeFile"), referto.get("autoreEmail"),
+                referto.get("dataCaricamento")));
+        Predicate filtro = criteri.toPredicate(referto, select, cb);
+        if (filtro != null) {
+            select.where(filtro);
+        }
+        select.orderBy(QueryUtils.toOrders(pageable.getSort(), referto, cb));
+
+        TypedQuery<RefertoSummary> query = entityManager.createQuery(select);
+        if (pageable.isPaged()) {
+            query.setFirstResult((int) pageable.getOffset());
+            query.setMaxResults(pageable.getPageSize());
+        }
+        List<RefertoSummary> contenuto = query.getResultList();
+
+        // Il conteggio viene eseguito solo se il totale non si deduce dalla pagina letta
+        return PageableExecutionUtils.getPage(contenuto, pageable, () -> conta(criteri));
+    }
+
+    private long conta(Specification<Referto> criteri) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> count = cb.createQuery(Long.class);
+        Root<Referto> referto = count.from(Referto.class);
+        count.select(cb.count(referto));
+        Predicate filtro = criteri.toPredicate(referto, count, cb);
+        if (filtro != null) {
+            count.where(filtro);
+        }
+        return entityManager.createQuery(count).getSingleResult();
+    }
+}
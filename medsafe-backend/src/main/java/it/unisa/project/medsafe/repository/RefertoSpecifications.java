@@ -0,0 +1,85 @@
+package it.unisa.project.medsafe.repository;
+
+import it.unisa.project.medsafe.dto.FiltroRefertiDTO;
+import it.unisa.project.medsafe.entity.Referto;
+import it.unisa.project.medsafe.entity.TipoEsame;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Criteri di ricerca dei referti, combinabili in un'unica query.
+ */
+public final class RefertoSpecifications {
+
+    private RefertoSpecifications() {
+    }
+
+    public static Specification<Referto> conCodiceFiscale(String codiceFiscale) {
+        return (root, query, cb) -> cb.equal(root.get("codiceFiscale"), codiceFiscale);
+    }
+
+    public static Specification<Referto> conTipoEsame(TipoEsame tipoEsame) {
+        return (root, query, cb) -> cb.equal(root.get("tipoEsame"), tipoEsame);
+    }
+
+    public static Specification<Referto> conAutoreEmail(String autoreEmail) {
+        return (root, query, cb) -> cb.equal(root.get("autoreEmail"), autoreEmail);
+    }
+
+    public static Specification<Referto> caricatoDal(LocalDate giorno) {
+        return (root, query, cb) -> cb.greaterThanOrEqualTo(root.get("dataCaricamento"), giorno.atStartOfDay());
+    }
+
+    /**
+     * Caricati entro la fine del giorno indicato
+     */
+    public static Specification<Referto> caricatoAl(LocalDate giorno) {
+        return (root, query, cb) -> cb.lessThan(root.get("dataCaricamento"), giorno.plusDays(1).atStartOfDay());
+    }
+
+    /**
+     * Nome file che contiene il testo, senza distinzione tra maiuscole e minuscole;
+     * % e _ vengono cercati come caratteri normali
+     */
+    public static Specification<Referto> nomeFileContiene(String testo) {
+        String pattern = "%" + testo.toLowerCase(Locale.ROOT)
+                .replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_") + "%";
+        return (root, query, cb) -> cb.like(cb.lower(root.get("nomeFile")), pattern, '\\');
+    }
+
+    /**
+     * Unisce in AND i criteri valorizzati del filtro; senza criteri seleziona tutti i referti
+     */
+    public static Specification<Referto> da(FiltroRefertiDTO filtro) {
+        List<Specification<Referto>> criteri = new ArrayList<>();
+        if (valorizzato(filtro.getCodiceFiscale())) {
+            criteri.add(conCodiceFiscale(filtro.getCodiceFiscale().trim().toUpperCase(Locale.ROOT)));
+        }
+        if (filtro.getTipoEsame() != null) {
+            criteri.add(conTipoEsame(filtro.getTipoEsame()));
+        }
+        if (valorizzato(filtro.getAutoreEmail())) {
+            criteri.add(conAutoreEmail(filtro.getAutoreEmail().trim()));
+        }
+        if (filtro.getDal() != null) {
+            criteri.add(caricatoDal(filtro.getDal()));
+        }
+        if (filtro.getAl() != null) {
+            criteri.add(caricatoAl(filtro.getAl()));
+        }
+        if (valorizzato(filtro.getNomeFile())) {
+            criteri.add(nomeFileContiene(filtro.getNomeFile().trim()));
+        }
+        return Specification.allOf(criteri);
+    }
+
+    private static boolean valorizzato(String valore) {
+        return valore != null && !valore.isBlank();
+    }
+}
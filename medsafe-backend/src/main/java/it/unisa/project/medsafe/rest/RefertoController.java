@@ -3,20 +3,46 @@ package it.unisa.project.medsafe.rest;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import it.unisa.project.medsafe.dto.CursoreReferto;
+import it.unisa.project.medsafe.dto.FiltroRefertiDTO;
+import it.unisa.project.medsafe.dto.FinestraRefertiDTO;
+import it.unisa.project.medsafe.dto.IngestioneJobDTO;
 import it.unisa.project.medsafe.dto.RefertoDTO;
+import it.unisa.project.medsafe.dto.RefertoSummary;
+import it.unisa.project.medsafe.dto.RisultatoFullText;
 import it.unisa.project.medsafe.entity.TipoEsame;
+import it.unisa.project.medsafe.exception.RefertoNotFoundException;
+import it.unisa.project.medsafe.service.BlobDownload;
 import it.unisa.project.medsafe.service.BlobStorageService;
+import it.unisa.project.medsafe.service.ProprietaBlob;
+import it.unisa.project.medsafe.service.RefertoExportService;
+import it.unisa.project.medsafe.service.RefertoIngestionService;
 import it.unisa.project.medsafe.service.RefertoService;
+import it.unisa.project.medsafe.service.RicercaFullTextService;
 import it.unisa.project.medsafe.utils.JwtHelper;
+import it.unisa.project.medsafe.utils.PercorsoBlob;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springdoc.core.annotations.ParameterObject;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.web.PageableDefault;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.MimeTypeUtils;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 
 @RestController
@@ -27,6 +53,9 @@ import java.util.List;
 public class RefertoController {
 
     private final RefertoService refertoService;
+    private final RefertoIngestionService refertoIngestionService;
+    private final RefertoExportService refertoExportService;
+    private final RicercaFullTextService ricercaFullTextService;
     private final BlobStorageService blobStorageService;
     private final JwtHelper jwtHelper;
 
@@ -50,19 +79,93 @@ public class RefertoController {
 
             @Parameter(description = "File immagine diagnostica (PDF, JPG, PNG)", required = true) @RequestPart("file") MultipartFile file) {
 
-        // Validazione estensione file
+        String errore = validaFile(file);
+        if (errore != null) {
+            return ResponseEntity.badRequest().body(errore);
+        }
+
+        log.info("=== INIZIO addReferto ===");
+        log.info("Tipo Esame: {}", tipoEsame);
+        log.info("File size: {} bytes", file.getSize());
+
+        RefertoDTO dto = creaRefertoDTO(nomePaziente, codiceFiscale, tipoEsame, testoReferto, conclusioni,
+                autoreEmail, nomeFile);
+
+        // Gli errori arrivano a GlobalExceptionHandler: storage o database saturi diventano 503
+        // con Retry-After, gli altri 500
+        refertoService.addReferto(dto, file);
+        log.info("=== FINE addReferto - SUCCESSO ===");
+        return ResponseEntity.status(HttpStatus.CREATED).build();
+    }
+
+    @Operation(summary = "Carica nuovo referto (asincrono)", description = "Accoda il caricamento di un referto e restituisce subito il job che ne riporta lo stato")
+    @PostMapping(value = "async", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> addRefertoAsync(
+            @Parameter(description = "Nome del paziente", required = true) @RequestParam String nomePaziente,
+
+            @Parameter(description = "Codice Fiscale (16 caratteri)", required = true) @RequestParam String codiceFiscale,
+
+            @Parameter(description = "Tipo di esame (TAC, Radiografia, Ecografia, Risonanza, Esami_Laboratorio)", required = true) @RequestParam TipoEsame tipoEsame,
+
+            @Parameter(description = "Testo del referto medico", required = true) @RequestParam(required = false) String testoReferto,
+
+            @Parameter(description = "Conclusioni del referto", required = true) @RequestParam(required = false) String conclusioni,
+
+            @Parameter(description = "Email del medico refertante (opzionale, estratta automaticamente dal JWT se presente)", required = false) @RequestParam(required = false) String autoreEmail,
+
+            @Parameter(description = "Nome del file referto da salvare", required = true) @RequestParam String nomeFile,
+
+            @Parameter(description = "File immagine diagnostica (PDF, JPG, PNG)", required = true) @RequestPart("file") MultipartFile file) {
+
+        String errore = validaFile(file);
+        if (errore != null) {
+            return ResponseEntity.badRequest().body(errore);
+        }
+
+        RefertoDTO dto = creaRefertoDTO(nomePaziente, codiceFiscale, tipoEsame, testoReferto, conclusioni,
+                autoreEmail, nomeFile);
+
+        try {
+            IngestioneJobDTO job = refertoIngestionService.accoda(dto, file);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/referti/jobs/" + job.getId()))
+                    .body(job);
+        } catch (IOException e) {
+            log.error("❌ ERRORE SALVATAGGIO IN STAGING: ", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Errore durante il salvataggio del file: " + e.getMessage());
+        }
+    }
+
+    @Operation(summary = "Stato caricamento", description = "Restituisce lo stato di un caricamento asincrono (IN_CODA, IN_CORSO, COMPLETATO, FALLITO)")
+    @GetMapping("jobs/{id}")
+    public ResponseEntity<IngestioneJobDTO> getJob(@PathVariable String id) {
+        IngestioneJobDTO job = refertoIngestionService.getJob(id);
+        if (job != null)
+            return ResponseEntity.ok(job);
+        return ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Verifica nome ed estensione del file caricato
+     * @return messaggio di errore, null se il file è valido
+     */
+    private String validaFile(MultipartFile file) {
         String filename = file.getOriginalFilename();
         if (filename == null || filename.isEmpty()) {
-            return ResponseEntity.badRequest().body("Nome file non valido");
+            return "Nome file non valido";
         }
 
         String extension = filename.toLowerCase();
         if (!extension.endsWith(".png") && !extension.endsWith(".jpg")
                 && !extension.endsWith(".jpeg") && !extension.endsWith(".pdf")) {
-            return ResponseEntity.badRequest()
-                    .body("Formato file non supportato. Estensioni consentite: PNG, JPG, JPEG, PDF");
+            return "Formato file non supportato. Estensioni consentite: PNG, JPG, JPEG, PDF";
         }
+        return null;
+    }
 
+    private RefertoDTO creaRefertoDTO(String nomePaziente, String codiceFiscale, TipoEsame tipoEsame,
+            String testoReferto, String conclusioni, String autoreEmail, String nomeFile) {
         // Estrai email automaticamente dal JWT (Azure AD) se non fornita
         if (autoreEmail == null || autoreEmail.isBlank()) {
             autoreEmail = jwtHelper.getCurrentUserEmail();
@@ -71,11 +174,7 @@ public class RefertoController {
             }
         }
 
-        log.info("=== INIZIO addReferto ===");
-        log.info("Tipo Esame: {}", tipoEsame);
-        log.info("File size: {} bytes", file.getSize());
-
-        RefertoDTO dto = RefertoDTO.builder()
+        return RefertoDTO.builder()
                 .nomePaziente(nomePaziente)
                 .codiceFiscale(codiceFiscale.toUpperCase())
                 .tipoEsame(tipoEsame)
@@ -84,16 +183,6 @@ public class RefertoController {
                 .autoreEmail(autoreEmail)
                 .nomeFile(nomeFile)
                 .build();
-
-        try {
-            refertoService.addReferto(dto, file);
-            log.info("=== FINE addReferto - SUCCESSO ===");
-            return ResponseEntity.status(HttpStatus.CREATED).build();
-        } catch (Exception e) {
-            log.error("❌ ERRORE CARICAMENTO REFERTO: ", e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body("Errore dettagliato durante il caricamento: " + e.getMessage());
-        }
     }
 
     @Operation(summary = "Modifica referto", description = "Modifica un referto esistente (supporta upload nuova immagine)")
@@ -124,11 +213,12 @@ public class RefertoController {
         return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
     }
 
-    @Operation(summary = "Cerca per Codice Fiscale", description = "Restituisce tutti i referti di un paziente")
+    @Operation(summary = "Cerca per Codice Fiscale", description = "Restituisce una pagina dei referti di un paziente")
     @GetMapping("codiceFiscale")
-    public ResponseEntity<List<RefertoDTO>> getRefertoByCodiceFiscale(
-            @Parameter(description = "Codice Fiscale del paziente") @RequestParam String value) {
-        return ResponseEntity.ok(refertoService.getRefertoByCodiceFiscale(value));
+    public ResponseEntity<Page<RefertoSummary>> getRefertoByCodiceFiscale(
+            @Parameter(description = "Codice Fiscale del paziente") @RequestParam String value,
+            @ParameterObject @PageableDefault(sort = "dataCaricamento", direction = Sort.Direction.DESC) Pageable pageable) {
+        return ResponseEntity.ok(refertoService.getRefertoByCodiceFiscale(value, pageable));
     }
 
     @Operation(summary = "Cerca per Nome File", description = "Restituisce un referto specifico")
@@ -141,113 +231,128 @@ public class RefertoController {
         return ResponseEntity.notFound().build();
     }
 
-    @Operation(summary = "Cerca per Tipo Esame", description = "Restituisce tutti i referti di un tipo esame")
+    @Operation(summary = "Cerca per Tipo Esame", description = "Restituisce una pagina dei referti di un tipo esame")
     @GetMapping("tipoEsame")
-    public ResponseEntity<List<RefertoDTO>> getRefertiByTipoEsame(
-            @Parameter(description = "Tipo di esame (TAC, Radiografia, Ecografia, Risonanza, Esami_Laboratorio)") @RequestParam TipoEsame value) {
-        return ResponseEntity.ok(refertoService.getRefertiByTipoEsame(value));
+    public ResponseEntity<Page<RefertoSummary>> getRefertiByTipoEsame(
+            @Parameter(description = "Tipo di esame (TAC, Radiografia, Ecografia, Risonanza, Esami_Laboratorio)") @RequestParam TipoEsame value,
+            @ParameterObject @PageableDefault(sort = "dataCaricamento", direction = Sort.Direction.DESC) Pageable pageable) {
+        return ResponseEntity.ok(refertoService.getRefertiByTipoEsame(value, pageable));
     }
 
-    @Operation(summary = "Cerca per Email Autore", description = "Restituisce tutti i referti di un medico")
+    @Operation(summary = "Cerca per Email Autore", description = "Restituisce una pagina dei referti di un medico")
     @GetMapping("email")
-    public ResponseEntity<List<RefertoDTO>> getRefertiByAutoreEmail(
-            @Parameter(description = "Email del medico") @RequestParam String value) {
-        return ResponseEntity.ok(refertoService.getRefertiByAutoreEmail(value));
+    public ResponseEntity<Page<RefertoSummary>> getRefertiByAutoreEmail(
+            @Parameter(description = "Email del medico") @RequestParam String value,
+            @ParameterObject @PageableDefault(sort = "dataCaricamento", direction = Sort.Direction.DESC) Pageable pageable) {
+        return ResponseEntity.ok(refertoService.getRefertiByAutoreEmail(value, pageable));
     }
 
-    @Operation(summary = "Ottieni tutti i referti", description = "Restituisce tutti i referti presenti nel sistema")
-    @GetMapping
-    public ResponseEntity<List<RefertoDTO>> getAllReferti() {
-        return ResponseEntity.ok(refertoService.getAllReferti());
+    @Operation(summary = "Ricerca combinata", description = "Restituisce una pagina dei referti che soddisfano tutti i "
+            + "criteri indicati (paziente, tipo esame, autore, intervallo di date dal/al, parte del nome file)")
+    @GetMapping("search")
+    public ResponseEntity<Page<RefertoSummary>> cercaReferti(
+            @ParameterObject FiltroRefertiDTO filtro,
+            @ParameterObject @PageableDefault(sort = "dataCaricamento", direction = Sort.Direction.DESC) Pageable pageable) {
+        return ResponseEntity.ok(refertoService.cercaReferti(filtro, pageable));
     }
 
-    @Operation(summary = "Scarica PDF", description = "Scarica il PDF generato di un referto")
-    @GetMapping("download/pdf/{id}")
-    public ResponseEntity<byte[]> downloadPdf(@PathVariable int id) {
-        RefertoDTO referto = refertoService.getRefertoById(id);
-        if (referto == null || referto.getUrlPdfGenerato() == null) {
-            return ResponseEntity.notFound().build();
-        }
+    @Operation(summary = "Ricerca nel testo", description = "Referti che contengono tutte le parole indicate nel testo "
+            + "o nelle conclusioni, dal più pertinente, con i passaggi trovati evidenziati (<mark>). "
+            + "L'ordine è sempre per pertinenza: con il parametro sort la richiesta viene rifiutata (400)")
+    @GetMapping("fulltext")
+    public ResponseEntity<Page<RisultatoFullText>> cercaFullText(
+            @Parameter(description = "Parole da cercare (es. nodulo, \"frattura composta\", nodulo OR cisti)") @RequestParam String q,
+            @ParameterObject Pageable pageable) {
+        return ResponseEntity.ok(ricercaFullTextService.cerca(q, pageable));
+    }
 
-        // Estrai il path del blob dall'URL
-        String url = referto.getUrlPdfGenerato();
-        log.info("Download PDF richiesto per referto ID: {}", id);
+    @Operation(summary = "Ricostruisci indice full-text", description = "Ricostruisce in background l'indice "
+            + "della ricerca nel testo a partire dal database (solo ADMIN)")
+    @PostMapping("fulltext/ricostruisci")
+    public ResponseEntity<Void> ricostruisciFullText() {
+        ricercaFullTextService.ricostruisci();
+        return ResponseEntity.accepted().build();
+    }
 
-        String containerName = "upload-dir";
-        String blobPath = null;
-
-        // Strategia 1: Cerca "/upload-dir/"
-        int index = url.indexOf("/" + containerName + "/");
-        if (index != -1) {
-            blobPath = url.substring(index + containerName.length() + 2);
-        } else {
-            // Strategia 2: Controlla se inizia con "upload-dir/"
-            if (url.startsWith(containerName + "/")) {
-                blobPath = url.substring(containerName.length() + 1);
-            }
-        }
+    @Operation(summary = "Scorri i referti", description = "Referti dal più recente a blocchi, a partire dal cursore "
+            + "\"successivo\" del blocco precedente; filtrabili per autore e/o paziente")
+    @GetMapping("cronologia")
+    public ResponseEntity<FinestraRefertiDTO> scorriReferti(
+            @Parameter(description = "Cursore dataCaricamento,id dell'ultimo referto ricevuto") @RequestParam(required = false) CursoreReferto after,
+            @Parameter(description = "Referti per blocco (massimo 100)") @RequestParam(defaultValue = "50") int limit,
+            @Parameter(description = "Email del medico") @RequestParam(required = false) String autoreEmail,
+            @Parameter(description = "Codice Fiscale del paziente") @RequestParam(required = false) String codiceFiscale) {
+        return ResponseEntity.ok(refertoService.scorriReferti(autoreEmail, codiceFiscale, after, limit));
+    }
 
-        if (blobPath == null) {
-            log.warn("Impossibile estrarre blobPath dall'URL (fallback al path intero): {}", url);
-            blobPath = url; // Fallback estremo
-        }
+    @Operation(summary = "Ottieni i referti", description = "Restituisce una pagina dei referti presenti nel sistema "
+            + "(page, size fino a 100, sort es. dataCaricamento,desc)")
+    @GetMapping
+    public ResponseEntity<Page<RefertoSummary>> getAllReferti(
+            @ParameterObject @PageableDefault(sort = "dataCaricamento", direction = Sort.Direction.DESC) Pageable pageable) {
+        return ResponseEntity.ok(refertoService.getAllReferti(pageable));
+    }
 
-        blobPath = java.net.URLDecoder.decode(blobPath, java.nio.charset.StandardCharsets.UTF_8);
+    @Operation(summary = "Dettaglio referto", description = "Restituisce il referto completo (testo, conclusioni, URL dei file); "
+            + "gli elenchi restituiscono solo il riepilogo")
+    @GetMapping("{id}")
+    public ResponseEntity<RefertoDTO> getRefertoById(@PathVariable int id) {
+        try {
+            return ResponseEntity.ok(refertoService.getRefertoById(id));
+        } catch (RefertoNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
 
-        byte[] content = blobStorageService.downloadFile(blobPath);
-        if (content.length == 0) {
+    @Operation(summary = "Scarica PDF", description = "Scarica il PDF generato di un referto (supporta richieste Range e condizionali)")
+    @GetMapping("download/pdf/{id}")
+    public ResponseEntity<StreamingResponseBody> downloadPdf(@PathVariable int id,
+            @RequestHeader HttpHeaders headers) {
+        RefertoDTO referto = refertoService.getRefertoById(id);
+        if (referto == null) {
             return ResponseEntity.notFound().build();
         }
 
+        log.info("Download PDF richiesto per referto ID: {}", id);
+
         // Rimuovi l'estensione originale dal nome file
         String nomeFile = referto.getNomeFile();
         if (nomeFile.contains(".")) {
             nomeFile = nomeFile.substring(0, nomeFile.lastIndexOf("."));
         }
 
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + nomeFile + ".pdf\"")
-                .contentType(MediaType.APPLICATION_PDF)
-                .body(content);
+        // PDF non ancora generato (medsafe.pdf.lazy): viene creato ora e inviato per intero.
+        // Non c'è ancora un blob da cui leggere l'ETag: il contenuto dipende solo dalla versione
+        // del referto, che cambia a ogni modifica
+        if (referto.getUrlPdfGenerato() == null) {
+            Validatori validatori = new Validatori("\"pdf-" + id + "-" + referto.getVersione() + "\"");
+            if (isNotModified(headers, validatori)) {
+                return validatori.applica(ResponseEntity.status(HttpStatus.NOT_MODIFIED)).build();
+            }
+            byte[] pdf = refertoService.getPdfGenerato(id);
+            return validatori.applica(ResponseEntity.ok())
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + nomeFile + ".pdf\"")
+                    .contentType(MediaType.APPLICATION_PDF)
+                    .contentLength(pdf.length)
+                    .body(out -> out.write(pdf));
+        }
+
+        String blobPath = extractBlobPathFromUrl(referto.getUrlPdfGenerato());
+        return buildDownloadResponse(blobPath, nomeFile + ".pdf", MediaType.APPLICATION_PDF, headers);
     }
 
-    @Operation(summary = "Scarica Immagine", description = "Scarica l'immagine diagnostica di un referto")
+    @Operation(summary = "Scarica Immagine", description = "Scarica l'immagine diagnostica di un referto (supporta richieste Range e condizionali)")
     @GetMapping("download/immagine/{id}")
-    public ResponseEntity<byte[]> downloadImmagine(@PathVariable int id) {
+    public ResponseEntity<StreamingResponseBody> downloadImmagine(@PathVariable int id,
+            @RequestHeader HttpHeaders headers) {
         RefertoDTO referto = refertoService.getRefertoById(id);
         if (referto == null || referto.getFileUrlImmagine() == null) {
             return ResponseEntity.notFound().build();
         }
 
-        // Estrai il path del blob dall'URL
         String url = referto.getFileUrlImmagine();
         log.info("Download Immagine richiesto per referto ID: {}", id);
-
-        String containerName = "upload-dir";
-        String blobPath = null;
-
-        // Strategia 1: Cerca "/upload-dir/"
-        int index = url.indexOf("/" + containerName + "/");
-        if (index != -1) {
-            blobPath = url.substring(index + containerName.length() + 2);
-        } else {
-            // Strategia 2: Controlla se inizia con "upload-dir/"
-            if (url.startsWith(containerName + "/")) {
-                blobPath = url.substring(containerName.length() + 1);
-            }
-        }
-
-        if (blobPath == null) {
-            log.warn("Impossibile estrarre blobPath dall'URL immagine (fallback al path intero): {}", url);
-            blobPath = url; // Fallback estremo
-        }
-
-        blobPath = java.net.URLDecoder.decode(blobPath, java.nio.charset.StandardCharsets.UTF_8);
-
-        byte[] content = blobStorageService.downloadFile(blobPath);
-        if (content.length == 0) {
-            return ResponseEntity.notFound().build();
-        }
+        String blobPath = extractBlobPathFromUrl(url);
 
         // Estrai l'estensione originale dall'URL del file caricato
         String estensione = "";
@@ -276,9 +381,299 @@ public class RefertoController {
             mediaType = MediaType.APPLICATION_PDF;
         }
 
+        return buildDownloadResponse(blobPath, nomeFileCompleto, mediaType, headers);
+    }
+
+    @Operation(summary = "Esporta referti del paziente", description = "Scarica in un unico archivio ZIP i PDF e le immagini di tutti i referti di un paziente")
+    @GetMapping("export/{codiceFiscale}.zip")
+    public ResponseEntity<StreamingResponseBody> esportaZip(
+            @Parameter(description = "Codice Fiscale del paziente") @PathVariable String codiceFiscale) {
+        List<RefertoDTO> referti;
+        try {
+            referti = refertoService.getRefertoByCodiceFiscale(codiceFiscale);
+        } catch (RefertoNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        }
+
+        log.info("Esportazione ZIP di {} referti per il paziente {}", referti.size(), codiceFiscale);
+        // Dimensione non nota in anticipo: la risposta viene inviata a blocchi (chunked)
         return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + nomeFileCompleto + "\"")
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"referti_" + codiceFiscale + ".zip\"")
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .body(out -> refertoExportService.scriviZip(referti, out));
+    }
+
+    @Operation(summary = "Dossier del paziente", description = "Scarica un unico PDF con tutti i referti del paziente in ordine cronologico, con un segnalibro per esame")
+    @GetMapping("export/{codiceFiscale}.pdf")
+    public ResponseEntity<StreamingResponseBody> esportaDossier(
+            @Parameter(description = "Codice Fiscale del paziente") @PathVariable String codiceFiscale) {
+        List<RefertoDTO> referti;
+        try {
+            referti = refertoService.getRefertoByCodiceFiscale(codiceFiscale);
+        } catch (RefertoNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        }
+
+        if (!refertoExportService.dossierDisponibile(referti)) {
+            return ResponseEntity.notFound().build();
+        }
+
+        log.info("Dossier PDF di {} referti per il paziente {}", referti.size(), codiceFiscale);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"dossier_" + codiceFiscale + ".pdf\"")
+                .contentType(MediaType.APPLICATION_PDF)
+                .body(out -> refertoExportService.scriviDossier(referti, out));
+    }
+
+    /**
+     * Costruisce la risposta di download del blob.
+     * L'ETag è quello assegnato dallo storage: senza header condizionali né Range arriva insieme
+     * al contenuto, altrimenti viene letto dalle proprietà del blob senza scaricarlo.
+     * Se il client ha già la stessa versione del file (If-None-Match) risponde 304. Senza header Range
+     * restituisce l'intero file (200); con uno o più intervalli validi restituisce 206 Partial Content
+     * leggendo dal blob solo i byte richiesti (multipart/byteranges se gli intervalli sono più di uno).
+     */
+    private ResponseEntity<StreamingResponseBody> buildDownloadResponse(String blobPath, String nomeFile,
+            MediaType mediaType, HttpHeaders requestHeaders) {
+        String contentDisposition = "attachment; filename=\"" + nomeFile + "\"";
+
+        List<HttpRange> ranges;
+        try {
+            ranges = requestHeaders.getRange();
+        } catch (IllegalArgumentException e) {
+            // Header Range malformato: va ignorato e si restituisce l'intero file
+            log.warn("Header Range non valido ignorato: {}", e.getMessage());
+            ranges = List.of();
+        }
+
+        if (ranges.isEmpty() && requestHeaders.getIfNoneMatch().isEmpty()) {
+            return buildFullResponse(blobPath, contentDisposition, mediaType);
+        }
+
+        ProprietaBlob proprieta = blobStorageService.getProperties(blobPath);
+        if (proprieta == null) {
+            return ResponseEntity.notFound().build();
+        }
+        Validatori validatori = new Validatori(etagForte(proprieta.etag()));
+
+        if (isNotModified(requestHeaders, validatori)) {
+            return validatori.applica(ResponseEntity.status(HttpStatus.NOT_MODIFIED)).build();
+        }
+
+        // If-Range: gli intervalli valgono solo se il client ha ancora la versione corrente del file
+        if (ranges.isEmpty() || !isRangeApplicable(requestHeaders, validatori)) {
+            return buildFullResponse(blobPath, contentDisposition, mediaType);
+        }
+
+        long size = proprieta.size();
+
+        // Gli intervalli che iniziano oltre la fine del file vengono scartati
+        List<Intervallo> intervalli = new ArrayList<>();
+        long byteRichiesti = 0;
+        for (HttpRange range : ranges) {
+            long inizio = range.getRangeStart(size);
+            long fine = range.getRangeEnd(size);
+            if (inizio < size && inizio <= fine) {
+                Intervallo intervallo = new Intervallo(inizio, fine);
+                intervalli.add(intervallo);
+                byteRichiesti += intervallo.lunghezza();
+            }
+        }
+        if (intervalli.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + size)
+                    .build();
+        }
+
+        // Più intervalli che insieme coprono l'intero file: conviene inviarlo intero
+        if (intervalli.size() > 1 && byteRichiesti >= size) {
+            return buildFullResponse(blobPath, contentDisposition, mediaType);
+        }
+
+        if (intervalli.size() == 1) {
+            Intervallo intervallo = intervalli.get(0);
+            BlobDownload download = blobStorageService.openDownloadStream(blobPath, intervallo.inizio(),
+                    intervallo.lunghezza());
+            if (download == null) {
+                return ResponseEntity.notFound().build();
+            }
+            if (!validatori.corrisponde(download.getEtag())) {
+                // Blob cambiato dopo la lettura delle proprietà: l'intervallo non è più valido
+                chiudi(download);
+                return buildFullResponse(blobPath, contentDisposition, mediaType);
+            }
+            return validatori.applica(ResponseEntity.status(HttpStatus.PARTIAL_CONTENT))
+                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                    .header(HttpHeaders.CONTENT_RANGE, intervallo.contentRange(size))
+                    .header(HttpHeaders.CONTENT_DISPOSITION, contentDisposition)
+                    .contentType(mediaType)
+                    .contentLength(download.getSize())
+                    .body(streamContent(download));
+        }
+
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        return validatori.applica(ResponseEntity.status(HttpStatus.PARTIAL_CONTENT))
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .header(HttpHeaders.CONTENT_DISPOSITION, contentDisposition)
+                .contentType(MediaType.parseMediaType("multipart/byteranges; boundary=" + boundary))
+                .body(streamMultipartRanges(blobPath, intervalli, size, mediaType, boundary, validatori));
+    }
+
+    private ResponseEntity<StreamingResponseBody> buildFullResponse(String blobPath, String contentDisposition,
+            MediaType mediaType) {
+        BlobDownload download = blobStorageService.openDownloadStream(blobPath);
+        if (download == null) {
+            return ResponseEntity.notFound().build();
+        }
+        String etag = download.getEtag();
+        if (etag == null) {
+            // Copia in cache salvata senza ETag: lo si legge dalle proprietà del blob
+            ProprietaBlob proprieta = blobStorageService.getProperties(blobPath);
+            etag = proprieta != null ? proprieta.etag() : null;
+        }
+        return new Validatori(etagForte(etag)).applica(ResponseEntity.ok())
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .header(HttpHeaders.CONTENT_DISPOSITION, contentDisposition)
                 .contentType(mediaType)
-                .body(content);
+                .contentLength(download.getSize())
+                .body(streamContent(download));
+    }
+
+    /**
+     * Riporta l'ETag dello storage alla forma HTTP di un ETag forte (tra virgolette)
+     */
+    private static String etagForte(String etag) {
+        if (etag == null || etag.startsWith("\"")) {
+            return etag;
+        }
+        return "\"" + etag + "\"";
+    }
+
+    private void chiudi(BlobDownload download) {
+        try {
+            download.close();
+        } catch (IOException e) {
+            log.warn("Errore chiusura download: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Valuta If-None-Match (RFC 9110). If-Modified-Since viene ignorato: la data di caricamento
+     * non cambia con una modifica del referto, quindi non identifica la versione del file.
+     */
+    private boolean isNotModified(HttpHeaders requestHeaders, Validatori validatori) {
+        return requestHeaders.getIfNoneMatch().stream().anyMatch(tag -> tag.equals("*")
+                || (validatori.etag() != null && stripWeakPrefix(tag).equals(validatori.etag())));
+    }
+
+    /**
+     * Verifica la condizione If-Range: accetta solo un ETag forte uguale a quello corrente
+     * (con una data gli intervalli vengono ignorati e si restituisce l'intero file).
+     */
+    private boolean isRangeApplicable(HttpHeaders requestHeaders, Validatori validatori) {
+        String ifRange = requestHeaders.getFirst(HttpHeaders.IF_RANGE);
+        return ifRange == null || (validatori.etag() != null && ifRange.equals(validatori.etag()));
+    }
+
+    private String stripWeakPrefix(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    /**
+     * Estrae il percorso del blob dall'URL salvato nel referto.
+     * Se il container "upload-dir" non compare nell'URL, usa l'URL intero come percorso.
+     */
+    private String extractBlobPathFromUrl(String url) {
+        String blobPath = PercorsoBlob.daUrl(url);
+        if (blobPath == null) {
+            log.warn("Impossibile estrarre blobPath dall'URL (fallback al path intero): {}", url);
+            blobPath = java.net.URLDecoder.decode(url, StandardCharsets.UTF_8); // Fallback estremo
+        }
+        return blobPath;
+    }
+
+    /**
+     * Copia il contenuto del blob sulla risposta HTTP senza caricarlo interamente in memoria.
+     */
+    private StreamingResponseBody streamContent(BlobDownload download) {
+        return outputStream -> {
+            try (download) {
+                download.transferTo(outputStream);
+            }
+        };
+    }
+
+    /**
+     * Scrive una risposta multipart/byteranges: ogni intervallo viene letto dal blob
+     * solo quando è il suo turno, quindi è aperto un solo stream alla volta.
+     * Se il blob cambia durante l'invio la risposta viene interrotta: gli intervalli
+     * non possono mescolare due versioni del file.
+     */
+    private StreamingResponseBody streamMultipartRanges(String blobPath, List<Intervallo> intervalli, long size,
+            MediaType mediaType, String boundary, Validatori validatori) {
+        return outputStream -> {
+            for (Intervallo intervallo : intervalli) {
+                String intestazione = "\r\n--" + boundary + "\r\n"
+                        + HttpHeaders.CONTENT_TYPE + ": " + mediaType + "\r\n"
+                        + HttpHeaders.CONTENT_RANGE + ": " + intervallo.contentRange(size) + "\r\n\r\n";
+                outputStream.write(intestazione.getBytes(StandardCharsets.US_ASCII));
+
+                BlobDownload download = blobStorageService.openDownloadStream(blobPath, intervallo.inizio(),
+                        intervallo.lunghezza());
+                if (download == null) {
+                    throw new IOException("Blob non più disponibile durante il download: " + blobPath);
+                }
+                if (!validatori.corrisponde(download.getEtag())) {
+                    chiudi(download);
+                    throw new IOException("Blob modificato durante il download: " + blobPath);
+                }
+                streamContent(download).writeTo(outputStream);
+            }
+            outputStream.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        };
+    }
+
+    /**
+     * Intervallo di byte richiesto tramite header Range (estremi inclusi).
+     */
+    private record Intervallo(long inizio, long fine) {
+
+        long lunghezza() {
+            return fine - inizio + 1;
+        }
+
+        String contentRange(long size) {
+            return "bytes " + inizio + "-" + fine + "/" + size;
+        }
+    }
+
+    /**
+     * Validatori HTTP della versione corrente di un file scaricabile.
+     * Cache-Control private/no-cache: il browser conserva il file ma lo rivalida
+     * a ogni apertura con una richiesta condizionale (If-None-Match).
+     * Nessun Last-Modified: la data di caricamento resta la stessa anche quando il PDF
+     * viene rigenerato, mentre l'ETag cambia con il blob.
+     * L'ETag può mancare (storage che non lo fornisce): in quel caso nessuna richiesta
+     * condizionale viene soddisfatta e si restituisce sempre il file.
+     */
+    private record Validatori(String etag) {
+
+        ResponseEntity.BodyBuilder applica(ResponseEntity.BodyBuilder builder) {
+            if (etag != null) {
+                builder.eTag(etag);
+            }
+            return builder.cacheControl(CacheControl.noCache().cachePrivate());
+        }
+
+        /**
+         * Verifica che un download provenga dalla stessa versione del blob
+         * (un download senza ETag, ad esempio dalla cache locale, viene accettato)
+         */
+        boolean corrisponde(String etagDownload) {
+            return etag == null || etagDownload == null || etag.equals(etagForte(etagDownload));
+        }
     }
 }
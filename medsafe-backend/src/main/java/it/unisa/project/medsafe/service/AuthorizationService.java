@@ -76,6 +76,20 @@ public class AuthorizationService {
         }
     }
 
+    /**
+     * Verifica se l'utente corrente è un amministratore abilitato (operazioni di manutenzione).
+     *
+     * @throws UnauthorizedException se l'utente non è abilitato o non è ADMIN
+     */
+    public void checkIsAdmin() {
+        // Utente esistente e abilitato, come per il caricamento
+        checkCanAddReferto();
+        if (!isAdmin(getCurrentUserEmail())) {
+            log.warn("🚫 Accesso negato: operazione riservata agli amministratori");
+            throw new UnauthorizedException("Operazione riservata agli amministratori");
+        }
+    }
+
     /**
      * Ottiene l'email dell'utente corrente (da JWT o fallback).
      */
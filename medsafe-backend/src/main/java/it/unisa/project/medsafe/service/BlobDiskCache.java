@@ -0,0 +1,331 @@
+package it.unisa.project.medsafe.service;
+
+import it.unisa.project.medsafe.utils.CartellaPrivata;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.DigestUtils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Cache su disco locale dei blob letti di recente, con dimensione massima ed
+ * eliminazione LRU (i file usati meno di recente vengono rimossi per primi).
+ * L'indice è solo in memoria: all'avvio la cartella viene svuotata.
+ *
+ * I file contengono referti dei pazienti: la cartella è privata (vedi CartellaPrivata).
+ */
+@Slf4j
+public class BlobDiskCache {
+
+    private final Path directory;
+    private final long maxSize;
+
+    /**
+     * Percorso del blob -> dimensione ed ETag del file in cache, in ordine di accesso (LRU)
+     */
+    private final LinkedHashMap<String, ProprietaBlob> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize;
+
+    /**
+     * Incrementata a ogni evict: un file letto dallo storage prima di un'eliminazione
+     * non viene più registrato in cache (vedi commit)
+     */
+    private long generazione;
+
+    public BlobDiskCache(Path directory, long maxSize) throws IOException {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        CartellaPrivata.prepara(directory);
+        try (Stream<Path> residui = Files.list(directory)) {
+            residui.forEach(this::deleteQuietly);
+        }
+        log.info("Cache blob su disco: {} (max {} byte)", directory, maxSize);
+    }
+
+    /**
+     * Crea un file temporaneo vuoto nella cartella della cache, leggibile solo dal proprietario
+     */
+    private FileChannel nuovoFileTemporaneo(Path temp) throws IOException {
+        return FileChannel.open(temp, EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE),
+                CartellaPrivata.permessiFile(directory));
+    }
+
+    /**
+     * Da leggere prima di scaricare un blob dallo storage e passare a put/populateWhileReading:
+     * se nel frattempo un blob viene eliminato, il contenuto scaricato non entra in cache
+     */
+    public synchronized long generazione() {
+        return generazione;
+    }
+
+    /**
+     * Apre un file in cache per intero
+     * @return download dal disco locale, null se il blob non è in cache
+     */
+    public CachedBlobDownload open(String blobPath) {
+        long size = size(blobPath);
+        return size < 0 ? null : open(blobPath, 0, size);
+    }
+
+    /**
+     * Apre un intervallo di byte di un file in cache
+     * @return download dal disco locale, null se il blob non è in cache
+     */
+    public CachedBlobDownload open(String blobPath, long offset, long count) {
+        ProprietaBlob proprieta = proprieta(blobPath);
+        if (proprieta == null) {
+            return null;
+        }
+        try {
+            FileChannel channel = FileChannel.open(fileFor(blobPath), StandardOpenOption.READ);
+            return new CachedBlobDownload(channel, offset, count, proprieta.etag());
+        } catch (IOException e) {
+            // File rimosso nel frattempo: si torna allo storage
+            log.warn("Lettura cache fallita per {}: {}", blobPath, e.getMessage());
+            evict(blobPath);
+            return null;
+        }
+    }
+
+    /**
+     * Aggiorna anche l'ordine di accesso usato per l'eliminazione LRU
+     * @return dimensione del blob in cache, -1 se non presente
+     */
+    public synchronized long size(String blobPath) {
+        ProprietaBlob proprieta = entries.get(blobPath);
+        return proprieta != null ? proprieta.size() : -1;
+    }
+
+    /**
+     * Aggiorna anche l'ordine di accesso usato per l'eliminazione LRU
+     * @return dimensione ed ETag del blob in cache (ETag null se non noto), null se non presente
+     */
+    public synchronized ProprietaBlob proprieta(String blobPath) {
+        return entries.get(blobPath);
+    }
+
+    /**
+     * Completa l'ETag di un file salvato in cache senza (es. da put): i nomi dei blob sono
+     * univoci e non vengono sovrascritti, quindi l'ETag letto dallo storage resta valido
+     */
+    public synchronized void aggiornaEtag(String blobPath, ProprietaBlob proprieta) {
+        entries.computeIfPresent(blobPath, (chiave, attuale) ->
+                attuale.etag() == null && attuale.size() == proprieta.size() ? proprieta : attuale);
+    }
+
+    public synchronized boolean contains(String blobPath) {
+        return entries.containsKey(blobPath);
+    }
+
+    /**
+     * Legge interamente un file in cache
+     * @return contenuto del blob, null se non presente
+     */
+    public byte[] read(String blobPath) {
+        if (size(blobPath) < 0) {
+            return null;
+        }
+        try {
+            return Files.readAllBytes(fileFor(blobPath));
+        } catch (IOException e) {
+            log.warn("Lettura cache fallita per {}: {}", blobPath, e.getMessage());
+            evict(blobPath);
+            return null;
+        }
+    }
+
+    /**
+     * Salva in cache un contenuto già disponibile in memoria
+     */
+    public void put(String blobPath, byte[] content, long generazioneLettura) {
+        if (content.length > maxSize) {
+            return;
+        }
+        Path temp = directory.resolve(UUID.randomUUID() + ".tmp");
+        try (FileChannel channel = nuovoFileTemporaneo(temp)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            log.warn("Scrittura cache fallita per {}: {}", blobPath, e.getMessage());
+            deleteQuietly(temp);
+            return;
+        }
+        commit(blobPath, temp, new ProprietaBlob(content.length, null), generazioneLettura);
+    }
+
+    /**
+     * Avvolge un download dallo storage in modo che, mentre viene letto, il contenuto
+     * sia copiato anche in cache. Il file entra in cache solo se letto per intero.
+     */
+    public BlobDownload populateWhileReading(String blobPath, BlobDownload origine, long generazioneLettura) {
+        if (origine.getSize() > maxSize) {
+            return origine;
+        }
+        Path temp = directory.resolve(UUID.randomUUID() + ".tmp");
+        try {
+            FileChannel channel = nuovoFileTemporaneo(temp);
+            return new BlobDownload(new CachingInputStream(origine.getContent(), channel, blobPath, temp,
+                    origine.getSize(), origine.getEtag(), generazioneLettura), origine.getSize(), origine.getEtag());
+        } catch (IOException e) {
+            log.warn("Impossibile popolare la cache per {}: {}", blobPath, e.getMessage());
+            return origine;
+        }
+    }
+
+    /**
+     * Rimuove un blob dalla cache (es. dopo l'eliminazione dallo storage)
+     */
+    public void evict(String blobPath) {
+        synchronized (this) {
+            // Anche se il blob non è (ancora) in cache: una lettura in corso non deve registrarlo
+            generazione++;
+            ProprietaBlob rimossa = entries.remove(blobPath);
+            if (rimossa == null) {
+                return;
+            }
+            totalSize -= rimossa.size();
+        }
+        deleteQuietly(fileFor(blobPath));
+    }
+
+    /**
+     * Registra un file completato e rimuove i file meno usati finché la cache non rientra nel limite.
+     * Se dopo la lettura dallo storage c'è stata un'eliminazione il file viene scartato: il controllo
+     * e lo spostamento avvengono sotto lock, quindi un evict concorrente non può essere annullato.
+     */
+    private synchronized void commit(String blobPath, Path temp, ProprietaBlob proprieta, long generazioneLettura) {
+        if (generazione != generazioneLettura) {
+            log.debug("Blob eliminato durante la lettura, non salvato in cache: {}", blobPath);
+            deleteQuietly(temp);
+            return;
+        }
+        try {
+            Files.move(temp, fileFor(blobPath), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Scrittura cache fallita per {}: {}", blobPath, e.getMessage());
+            deleteQuietly(temp);
+            return;
+        }
+        ProprietaBlob precedente = entries.put(blobPath, proprieta);
+        totalSize += proprieta.size() - (precedente != null ? precedente.size() : 0);
+        Iterator<Map.Entry<String, ProprietaBlob>> it = entries.entrySet().iterator();
+        while (totalSize > maxSize && it.hasNext()) {
+            Map.Entry<String, ProprietaBlob> eldest = it.next();
+            if (eldest.getKey().equals(blobPath)) {
+                continue;
+            }
+            it.remove();
+            totalSize -= eldest.getValue().size();
+            deleteQuietly(fileFor(eldest.getKey()));
+            log.debug("Blob rimosso dalla cache (LRU): {}", eldest.getKey());
+        }
+    }
+
+    private Path fileFor(String blobPath) {
+        return directory.resolve(DigestUtils.md5DigestAsHex(blobPath.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Impossibile eliminare il file di cache {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Stream che copia su un file temporaneo i byte letti dallo storage.
+     * Alla fine della lettura il file viene registrato in cache; se il client
+     * interrompe il download il file parziale viene scartato.
+     */
+    private class CachingInputStream extends FilterInputStream {
+
+        private final FileChannel channel;
+        private final String blobPath;
+        private final Path temp;
+        private final long expectedSize;
+        private final String etag;
+        private final long generazioneLettura;
+        private long written;
+        private boolean failed;
+        private boolean closed;
+
+        CachingInputStream(InputStream in, FileChannel channel, String blobPath, Path temp, long expectedSize,
+                String etag, long generazioneLettura) {
+            super(in);
+            this.etag = etag;
+            this.generazioneLettura = generazioneLettura;
+            this.channel = channel;
+            this.blobPath = blobPath;
+            this.temp = temp;
+            this.expectedSize = expectedSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] singolo = new byte[1];
+            int letti = read(singolo, 0, 1);
+            return letti == -1 ? -1 : singolo[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int letti = super.read(b, off, len);
+            if (letti > 0 && !failed) {
+                try {
+                    ByteBuffer buffer = ByteBuffer.wrap(b, off, letti);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    written += letti;
+                } catch (IOException e) {
+                    // Un errore della cache non deve interrompere il download
+                    log.warn("Scrittura cache fallita per {}: {}", blobPath, e.getMessage());
+                    failed = true;
+                }
+            }
+            return letti;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Saltare byte renderebbe incompleta la copia in cache
+            failed = true;
+            return super.skip(n);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                channel.close();
+                if (!failed && written == expectedSize) {
+                    commit(blobPath, temp, new ProprietaBlob(written, etag), generazioneLettura);
+                } else {
+                    deleteQuietly(temp);
+                }
+            }
+        }
+    }
+}
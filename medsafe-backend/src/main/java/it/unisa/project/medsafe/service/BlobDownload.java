@@ -0,0 +1,70 @@
+package it.unisa.project.medsafe.service;
+
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Download in streaming di un file da Azure Blob Storage.
+ * Il contenuto viene letto a blocchi dal cloud man mano che viene consumato,
+ * senza caricare l'intero file in memoria.
+ */
+@Getter
+public class BlobDownload implements Closeable {
+
+    /**
+     * Dimensione del buffer usato per copiare il contenuto (64 KB)
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Stream del contenuto del blob
+     */
+    private final InputStream content;
+
+    /**
+     * Dimensione del blob in byte (dalle proprietà del blob)
+     */
+    private final long size;
+
+    /**
+     * ETag del blob da cui provengono i byte (null se non noto): identifica la versione
+     * del contenuto anche se il blob venisse sovrascritto con lo stesso nome
+     */
+    private final String etag;
+
+    public BlobDownload(InputStream content, long size) {
+        this(content, size, null);
+    }
+
+    public BlobDownload(InputStream content, long size, String etag) {
+        this.content = content;
+        this.size = size;
+        this.etag = etag;
+    }
+
+    /**
+     * Copia il contenuto su uno stream di output attraverso un buffer di dimensione fissa,
+     * così la memoria usata non dipende dalla dimensione del file.
+     * @param out stream di destinazione (es. la risposta HTTP)
+     * @return numero di byte copiati
+     */
+    public long transferTo(OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long copiati = 0;
+        int letti;
+        while ((letti = content.read(buffer)) != -1) {
+            out.write(buffer, 0, letti);
+            copiati += letti;
+        }
+        return copiati;
+    }
+
+    @Override
+    public void close() throws IOException {
+        content.close();
+    }
+}
@@ -1,7 +1,7 @@
 package it.unisa.project.medsafe.service;
 
+import it.unisa.project.medsafe.utils.BufferABlocchi;
 import org.springframework.web.multipart.MultipartFile;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 
 /**
@@ -19,12 +19,13 @@ public interface BlobStorageService {
     String uploadFile(MultipartFile file, String fileName) throws IOException;
 
     /**
-     * Carica un PDF generato su Azure Blob Storage
-     * @param pdfStream stream del PDF generato
+     * Carica un PDF generato su Azure Blob Storage leggendolo direttamente dal buffer
+     * in cui è stato scritto. Il buffer non viene chiuso.
+     * @param pdf buffer con il PDF generato
      * @param fileName nome con cui salvare il PDF
      * @return URL pubblico del PDF caricato
      */
-    String uploadPdf(ByteArrayInputStream pdfStream, String fileName) throws IOException;
+    String uploadPdf(BufferABlocchi pdf, String fileName) throws IOException;
 
     /**
      * Elimina un file da Azure Blob Storage
@@ -46,4 +47,28 @@ public interface BlobStorageService {
      * @return byte array del file
      */
     byte[] downloadFile(String blobPath);
+
+    /**
+     * Apre un file su Azure Blob Storage in streaming, senza caricarlo interamente in memoria
+     * @param blobPath percorso del blob (es. "immagini/nomefile.png")
+     * @return download con stream del contenuto, dimensione ed ETag del blob, null se il file non esiste
+     */
+    BlobDownload openDownloadStream(String blobPath);
+
+    /**
+     * Apre in streaming solo un intervallo di byte di un file su Azure Blob Storage
+     * @param blobPath percorso del blob
+     * @param offset posizione del primo byte da leggere
+     * @param count numero di byte da leggere
+     * @return download con stream dell'intervallo, dimensione pari a count ed ETag del blob letto,
+     *         null se il file non esiste
+     */
+    BlobDownload openDownloadStream(String blobPath, long offset, long count);
+
+    /**
+     * Legge dimensione ed ETag di un file dalle proprietà del blob, senza scaricarne il contenuto
+     * @param blobPath percorso del blob
+     * @return proprietà del blob, null se il file non esiste
+     */
+    ProprietaBlob getProperties(String blobPath);
 }
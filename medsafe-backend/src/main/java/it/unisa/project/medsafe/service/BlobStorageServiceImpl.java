@@ -2,22 +2,68 @@ package it.unisa.project.medsafe.service;
 
 import com.azure.storage.blob.BlobClient;
 import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.models.BlobErrorCode;
+import com.azure.storage.blob.models.BlobProperties;
+import com.azure.storage.blob.models.BlobRange;
+import com.azure.storage.blob.models.BlobStorageException;
+import com.azure.storage.blob.models.ParallelTransferOptions;
+import com.azure.storage.blob.options.BlobInputStreamOptions;
+import com.azure.storage.blob.options.BlobParallelUploadOptions;
+import com.azure.storage.blob.specialized.BlobInputStream;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.unisa.project.medsafe.exception.ServizioSovraccaricoException;
+import it.unisa.project.medsafe.utils.BufferABlocchi;
+import it.unisa.project.medsafe.utils.Bulkhead;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.UUID;
 
 @Service
 @Slf4j
 public class BlobStorageServiceImpl implements BlobStorageService {
 
+    /**
+     * Dimensione dei blocchi scaricati dal cloud durante lo streaming (1 MB):
+     * limita la memoria occupata da ogni download indipendentemente dalla dimensione del file
+     */
+    private static final int DOWNLOAD_BLOCK_SIZE = 1024 * 1024;
+
     private final BlobContainerClient containerClient;
 
-    public BlobStorageServiceImpl(BlobContainerClient containerClient) {
+    /**
+     * Limita le chiamate concorrenti verso lo storage. Nei download in streaming il permesso
+     * copre solo l'apertura e lo scaricamento di ogni blocco, non il trasferimento al client.
+     */
+    private final Bulkhead bulkhead;
+
+    /**
+     * Upload a blocchi: i file più grandi di un blocco vengono divisi e i blocchi
+     * inviati in parallelo, poi confermati insieme con un'unica commit della block list
+     */
+    private final ParallelTransferOptions transferOptions;
+
+    private final MeterRegistry meterRegistry;
+
+    public BlobStorageServiceImpl(BlobContainerClient containerClient, Bulkhead storageBulkhead,
+            MeterRegistry meterRegistry,
+            @Value("${azure.storage.upload.block-size:4MB}") DataSize blockSize,
+            @Value("${azure.storage.upload.max-concurrency:8}") int maxConcurrency) {
         this.containerClient = containerClient;
+        this.bulkhead = storageBulkhead;
+        this.meterRegistry = meterRegistry;
+        this.transferOptions = new ParallelTransferOptions()
+                .setBlockSizeLong(blockSize.toBytes())
+                .setMaxSingleUploadSizeLong(blockSize.toBytes())
+                .setMaxConcurrency(maxConcurrency);
     }
 
     @Override
@@ -25,25 +71,62 @@ public class BlobStorageServiceImpl implements BlobStorageService {
         String uniqueFileName = generateUniqueFileName(fileName);
 
         BlobClient blobClient = containerClient.getBlobClient("immagini/" + uniqueFileName);
-        blobClient.upload(file.getInputStream(), file.getSize(), true);
+        bulkhead.esegui(() -> {
+            try (InputStream content = file.getInputStream()) {
+                upload(blobClient, content, file.getSize(), "immagine");
+            }
+            return null;
+        });
 
         log.info("File caricato: {}", uniqueFileName);
         return blobClient.getBlobUrl();
     }
 
     @Override
-    public String uploadPdf(ByteArrayInputStream pdfStream, String fileName) {
+    public String uploadPdf(BufferABlocchi pdf, String fileName) throws IOException {
         String uniqueFileName = generateUniqueFileName(fileName + ".pdf");
 
         BlobClient blobClient = containerClient.getBlobClient("pdf/" + uniqueFileName);
-        blobClient.upload(pdfStream, pdfStream.available(), true);
+        bulkhead.esegui(() -> {
+            try (InputStream content = pdf.apriLettura()) {
+                upload(blobClient, content, pdf.dimensione(), "pdf");
+            }
+            return null;
+        });
 
         log.info("PDF caricato: {}", uniqueFileName);
         return blobClient.getBlobUrl();
     }
 
+    /**
+     * Carica il contenuto (sovrascrivendo il blob) registrando durata, dimensione ed esito
+     */
+    private void upload(BlobClient blobClient, InputStream content, long size, String tipo) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String esito = "errore";
+        try {
+            blobClient.uploadWithResponse(new BlobParallelUploadOptions(content)
+                    .setParallelTransferOptions(transferOptions), null, null);
+            esito = "ok";
+        } finally {
+            sample.stop(Timer.builder("medsafe.storage.upload")
+                    .description("Durata degli upload verso lo storage")
+                    .tags("tipo", tipo, "esito", esito)
+                    .register(meterRegistry));
+            DistributionSummary.builder("medsafe.storage.upload.dimensione")
+                    .baseUnit("bytes")
+                    .tag("tipo", tipo)
+                    .register(meterRegistry)
+                    .record(size);
+        }
+    }
+
     @Override
     public boolean deleteFile(String fileName) {
+        return bulkhead.esegui(() -> delete(fileName));
+    }
+
+    private boolean delete(String fileName) {
         try {
             BlobClient blobClient = containerClient.getBlobClient(fileName);
             if (blobClient.exists()) {
@@ -66,6 +149,10 @@ public class BlobStorageServiceImpl implements BlobStorageService {
 
     @Override
     public byte[] downloadFile(String blobPath) {
+        return bulkhead.esegui(() -> download(blobPath));
+    }
+
+    private byte[] download(String blobPath) {
         try {
             BlobClient blobClient = containerClient.getBlobClient(blobPath);
             if (blobClient.exists()) {
@@ -79,6 +166,99 @@ public class BlobStorageServiceImpl implements BlobStorageService {
         }
     }
 
+    @Override
+    public BlobDownload openDownloadStream(String blobPath) {
+        return openStream(blobPath, null);
+    }
+
+    @Override
+    public BlobDownload openDownloadStream(String blobPath, long offset, long count) {
+        return openStream(blobPath, new BlobRange(offset, count));
+    }
+
+    @Override
+    public ProprietaBlob getProperties(String blobPath) {
+        return bulkhead.esegui(() -> properties(blobPath));
+    }
+
+    private ProprietaBlob properties(String blobPath) {
+        try {
+            BlobProperties properties = containerClient.getBlobClient(blobPath).getProperties();
+            return new ProprietaBlob(properties.getBlobSize(), properties.getETag());
+        } catch (BlobStorageException e) {
+            if (e.getErrorCode() == BlobErrorCode.BLOB_NOT_FOUND) {
+                log.warn("File non trovato: {}", blobPath);
+            } else {
+                log.error("Errore lettura proprietà {}: {}", blobPath, e.getMessage());
+            }
+            return null;
+        } catch (Exception e) {
+            log.error("Errore lettura proprietà {}: {}", blobPath, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Apre lo stream del blob, eventualmente limitato a un intervallo di byte:
+     * dal cloud vengono trasferiti solo i byte richiesti.
+     */
+    private BlobDownload openStream(String blobPath, BlobRange range) {
+        try {
+            BlobClient blobClient = containerClient.getBlobClient(blobPath);
+            BlobInputStreamOptions options = new BlobInputStreamOptions().setBlockSize(DOWNLOAD_BLOCK_SIZE);
+            if (range != null) {
+                options.setRange(range);
+            }
+            // La prima richiesta scarica il primo blocco insieme alle proprietà del blob:
+            // non serve una chiamata exists() separata
+            BlobInputStream stream = bulkhead.esegui(() -> blobClient.openInputStream(options));
+            BlobProperties properties = stream.getProperties();
+            long size = range != null ? range.getCount() : properties.getBlobSize();
+            return new BlobDownload(new LetturaABlocchi(stream), size, properties.getETag());
+        } catch (BlobStorageException e) {
+            if (e.getErrorCode() == BlobErrorCode.BLOB_NOT_FOUND) {
+                log.warn("File non trovato: {}", blobPath);
+            } else {
+                log.error("Errore apertura download {}: {}", blobPath, e.getMessage());
+            }
+            return null;
+        } catch (ServizioSovraccaricoException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Errore apertura download {}: {}", blobPath, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stream del blob che prende un permesso del bulkhead solo quando una lettura deve scaricare
+     * il blocco successivo dallo storage: i byte già scaricati vengono letti senza permesso,
+     * quindi un client lento non occupa lo storage e uno stream mai letto non trattiene nulla.
+     */
+    private class LetturaABlocchi extends FilterInputStream {
+
+        LetturaABlocchi(BlobInputStream stream) {
+            super(stream);
+        }
+
+        /**
+         * BlobInputStream scarica al più un blocco per lettura, solo a buffer esaurito
+         */
+        private boolean bloccoInMemoria() throws IOException {
+            return in.available() > 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return bloccoInMemoria() ? in.read() : bulkhead.esegui(() -> in.read());
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return bloccoInMemoria() ? in.read(b, off, len) : bulkhead.esegui(() -> in.read(b, off, len));
+        }
+    }
+
     /**
      * Genera un nome file univoco per evitare sovrascritture
      */
@@ -0,0 +1,85 @@
+package it.unisa.project.medsafe.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Download di un blob servito dalla cache su disco locale.
+ * La copia verso la risposta delega al sistema operativo tramite FileChannel.transferTo.
+ */
+public class CachedBlobDownload extends BlobDownload {
+
+    private final FileChannel channel;
+    private final long offset;
+
+    public CachedBlobDownload(FileChannel channel, long offset, long count, String etag) {
+        super(new ChannelRangeInputStream(channel, offset, count), count, etag);
+        this.channel = channel;
+        this.offset = offset;
+    }
+
+    @Override
+    public long transferTo(OutputStream out) throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+        long trasferiti = 0;
+        while (trasferiti < getSize()) {
+            long n = channel.transferTo(offset + trasferiti, getSize() - trasferiti, target);
+            if (n <= 0) {
+                break;
+            }
+            trasferiti += n;
+        }
+        return trasferiti;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Stream limitato a un intervallo del file, letto con letture posizionali sul canale.
+     */
+    private static class ChannelRangeInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        ChannelRangeInputStream(FileChannel channel, long offset, long count) {
+            this.channel = channel;
+            this.position = offset;
+            this.end = offset + count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] singolo = new byte[1];
+            int letti = read(singolo, 0, 1);
+            return letti == -1 ? -1 : singolo[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int daLeggere = (int) Math.min(len, end - position);
+            int letti = channel.read(ByteBuffer.wrap(b, off, daLeggere), position);
+            if (letti > 0) {
+                position += letti;
+            }
+            return letti;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
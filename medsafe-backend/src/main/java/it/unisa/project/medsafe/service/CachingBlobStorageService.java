@@ -0,0 +1,114 @@
+package it.unisa.project.medsafe.service;
+
+import it.unisa.project.medsafe.utils.BufferABlocchi;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Decoratore di BlobStorageService con una cache su disco locale dei blob letti di recente.
+ * I referti aperti spesso vengono serviti dal disco invece che da Azure Blob Storage.
+ *
+ * Gli upload generano sempre un nome blob univoco, quindi una voce in cache non può
+ * diventare obsoleta per una sovrascrittura; all'eliminazione del blob la voce viene rimossa.
+ * Attivo solo con azure.storage.cache.enabled=true.
+ */
+@Service
+@Primary
+@ConditionalOnProperty(name = "azure.storage.cache.enabled", havingValue = "true")
+@Slf4j
+public class CachingBlobStorageService implements BlobStorageService {
+
+    private final BlobStorageService delegate;
+    private final BlobDiskCache cache;
+
+    @Autowired
+    public CachingBlobStorageService(BlobStorageServiceImpl delegate,
+            @Value("${azure.storage.cache.directory:${user.home}/.medsafe/blob-cache}") Path directory,
+            @Value("${azure.storage.cache.max-size:512MB}") DataSize maxSize) throws IOException {
+        this(delegate, new BlobDiskCache(directory, maxSize.toBytes()));
+    }
+
+    CachingBlobStorageService(BlobStorageService delegate, BlobDiskCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public String uploadFile(MultipartFile file, String fileName) throws IOException {
+        return delegate.uploadFile(file, fileName);
+    }
+
+    @Override
+    public String uploadPdf(BufferABlocchi pdf, String fileName) throws IOException {
+        return delegate.uploadPdf(pdf, fileName);
+    }
+
+    @Override
+    public boolean deleteFile(String fileName) {
+        cache.evict(fileName);
+        return delegate.deleteFile(fileName);
+    }
+
+    @Override
+    public String getFileUrl(String fileName) {
+        return delegate.getFileUrl(fileName);
+    }
+
+    @Override
+    public byte[] downloadFile(String blobPath) {
+        byte[] cached = cache.read(blobPath);
+        if (cached != null) {
+            return cached;
+        }
+        long generazione = cache.generazione();
+        byte[] content = delegate.downloadFile(blobPath);
+        if (content.length > 0) {
+            cache.put(blobPath, content, generazione);
+        }
+        return content;
+    }
+
+    @Override
+    public BlobDownload openDownloadStream(String blobPath) {
+        BlobDownload cached = cache.open(blobPath);
+        if (cached != null) {
+            log.debug("Blob servito dalla cache: {}", blobPath);
+            return cached;
+        }
+        long generazione = cache.generazione();
+        BlobDownload download = delegate.openDownloadStream(blobPath);
+        return download != null ? cache.populateWhileReading(blobPath, download, generazione) : null;
+    }
+
+    @Override
+    public BlobDownload openDownloadStream(String blobPath, long offset, long count) {
+        BlobDownload cached = cache.open(blobPath, offset, count);
+        if (cached != null) {
+            return cached;
+        }
+        // Gli intervalli parziali non popolano la cache
+        return delegate.openDownloadStream(blobPath, offset, count);
+    }
+
+    @Override
+    public ProprietaBlob getProperties(String blobPath) {
+        ProprietaBlob cached = cache.proprieta(blobPath);
+        if (cached != null && cached.etag() != null) {
+            return cached;
+        }
+        ProprietaBlob proprieta = delegate.getProperties(blobPath);
+        if (cached != null && proprieta != null) {
+            cache.aggiornaEtag(blobPath, proprieta);
+        }
+        return proprieta;
+    }
+}
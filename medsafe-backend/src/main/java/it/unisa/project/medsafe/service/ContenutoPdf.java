@@ -0,0 +1,14 @@
+package it.unisa.project.medsafe.service;
+
+import it.unisa.project.medsafe.dto.RefertoDTO;
+
+/**
+ * Dati di un referto pronti per la stampa: nome del medico ed esame diagnostico sono già
+ * letti da database e storage, così la scrittura del PDF non esegue più I/O.
+ *
+ * @param dto dati del referto
+ * @param esame contenuto dell'esame (immagine o PDF), null o vuoto se non disponibile
+ * @param nomeMedico nome del medico refertante come compare nella firma
+ */
+public record ContenutoPdf(RefertoDTO dto, byte[] esame, String nomeMedico) {
+}
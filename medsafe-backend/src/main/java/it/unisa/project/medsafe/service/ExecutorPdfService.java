@@ -0,0 +1,176 @@
+package it.unisa.project.medsafe.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.unisa.project.medsafe.dto.RefertoDTO;
+import it.unisa.project.medsafe.exception.ServizioSovraccaricoException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decoratore di PdfService che esegue la scrittura dei PDF su pdfExecutor invece che
+ * sul thread della richiesta: al più pool-size PDF vengono generati insieme e al più
+ * queue-capacity restano in attesa. Oltre questo limite la generazione viene rifiutata
+ * subito con ServizioSovraccaricoException (503 con Retry-After).
+ * La lettura dei dati (prepara: nome del medico, immagine dell'esame) resta sul thread chiamante.
+ *
+ * Metriche: medsafe.pdf.coda (PDF in attesa), medsafe.pdf.attesa (tempo in coda),
+ * medsafe.pdf.generazione (durata, con esito) e medsafe.pdf.rifiutati.
+ */
+@Service
+@Primary
+@Slf4j
+public class ExecutorPdfService implements PdfService {
+
+    private final PdfService delegate;
+    private final ThreadPoolTaskExecutor executor;
+
+    private final Timer attesa;
+    private final Counter rifiutati;
+    private final MeterRegistry meterRegistry;
+
+    @Autowired
+    public ExecutorPdfService(PdfServiceImpl delegate, @Qualifier("pdfExecutor") ThreadPoolTaskExecutor executor,
+            MeterRegistry meterRegistry) {
+        this((PdfService) delegate, executor, meterRegistry);
+    }
+
+    ExecutorPdfService(PdfService delegate, ThreadPoolTaskExecutor executor, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.executor = executor;
+        this.meterRegistry = meterRegistry;
+        this.attesa = Timer.builder("medsafe.pdf.attesa")
+                .description("Tempo di attesa in coda prima della generazione del PDF")
+                .register(meterRegistry);
+        this.rifiutati = Counter.builder("medsafe.pdf.rifiutati")
+                .description("Generazioni di PDF rifiutate per coda piena")
+                .register(meterRegistry);
+        Gauge.builder("medsafe.pdf.coda", executor, e -> e.getThreadPoolExecutor().getQueue().size())
+                .description("PDF in attesa di generazione")
+                .register(meterRegistry);
+        Gauge.builder("medsafe.pdf.in-corso", executor, ThreadPoolTaskExecutor::getActiveCount)
+                .description("PDF in generazione")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Le letture da database e storage avvengono sul thread chiamante: sul pool resta solo
+     * la scrittura del PDF, così un thread di pdfExecutor non occupa mai una connessione
+     */
+    @Override
+    public void generaPdf(RefertoDTO dto, byte[] immagine, OutputStream out) throws IOException {
+        scriviPdf(delegate.prepara(dto, immagine), out);
+    }
+
+    @Override
+    public ContenutoPdf prepara(RefertoDTO dto, byte[] immagine) {
+        return delegate.prepara(dto, immagine);
+    }
+
+    @Override
+    public void scriviPdf(ContenutoPdf contenuto, OutputStream out) throws IOException {
+        esegui(() -> {
+            delegate.scriviPdf(contenuto, out);
+            return null;
+        });
+    }
+
+    /**
+     * Accoda la generazione e ne attende il risultato (il thread chiamante resta in attesa
+     * senza occupare CPU). Le eccezioni del delegato vengono rilanciate così come sono.
+     *
+     * Se il chiamante viene interrotto, la generazione già avviata viene annullata e il
+     * chiamante attende comunque che termini: il delegato scrive nel buffer del chiamante,
+     * che alla chiusura restituisce i blocchi al PoolBlocchi e non deve più essere in uso.
+     */
+    private <T> T esegui(Callable<T> generazione) throws IOException {
+        long accodato = System.nanoTime();
+        AtomicBoolean avviata = new AtomicBoolean();
+        CountDownLatch terminata = new CountDownLatch(1);
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                // Il chiamante interrotto prima dell'avvio l'ha già reclamata: non si genera nulla
+                if (!avviata.compareAndSet(false, true)) {
+                    return null;
+                }
+                long inizio = System.nanoTime();
+                attesa.record(inizio - accodato, TimeUnit.NANOSECONDS);
+                String esito = "errore";
+                try {
+                    T risultato = generazione.call();
+                    esito = "ok";
+                    return risultato;
+                } finally {
+                    Timer.builder("medsafe.pdf.generazione")
+                            .description("Durata della generazione dei PDF")
+                            .tag("esito", esito)
+                            .register(meterRegistry)
+                            .record(System.nanoTime() - inizio, TimeUnit.NANOSECONDS);
+                    terminata.countDown();
+                }
+            });
+        } catch (TaskRejectedException e) {
+            rifiutati.increment();
+            log.warn("Coda di generazione PDF piena, richiesta rifiutata");
+            throw new ServizioSovraccaricoException("Troppi PDF in generazione, riprovare tra poco");
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            if (!avviata.compareAndSet(false, true)) {
+                future.cancel(true);
+                attendiTermine(terminata);
+            } else {
+                future.cancel(false);
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Generazione del PDF interrotta");
+        } catch (ExecutionException e) {
+            Throwable causa = e.getCause();
+            if (causa instanceof IOException io) {
+                throw io;
+            }
+            if (causa instanceof RuntimeException re) {
+                throw re;
+            }
+            if (causa instanceof Error err) {
+                throw err;
+            }
+            throw new IOException(causa);
+        }
+    }
+
+    /**
+     * Attende la fine della generazione ignorando ulteriori interruzioni
+     * (il chiamante ripristina lo stato di interruzione)
+     */
+    private static void attendiTermine(CountDownLatch terminata) {
+        while (true) {
+            try {
+                terminata.await();
+                return;
+            } catch (InterruptedException e) {
+                // si continua ad attendere: il buffer è ancora in uso
+            }
+        }
+    }
+}
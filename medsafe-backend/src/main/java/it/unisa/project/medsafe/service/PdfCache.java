@@ -0,0 +1,73 @@
+package it.unisa.project.medsafe.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache in memoria dei PDF generati, con chiave id e versione del referto,
+ * dimensione massima ed eliminazione LRU.
+ * Una modifica incrementa la versione, quindi una voce vecchia non viene più letta:
+ * invalida() serve a liberare subito la memoria.
+ */
+@Component
+public class PdfCache {
+
+    private record Chiave(int id, int versione) {
+    }
+
+    private final long maxSize;
+
+    /**
+     * Voci in ordine di accesso (LRU)
+     */
+    private final LinkedHashMap<Chiave, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize;
+
+    public PdfCache(@Value("${medsafe.pdf.cache.max-size:64MB}") DataSize maxSize) {
+        this.maxSize = maxSize.toBytes();
+    }
+
+    /**
+     * @return il PDF della versione richiesta, null se non è in cache
+     */
+    public synchronized byte[] get(int id, int versione) {
+        return entries.get(new Chiave(id, versione));
+    }
+
+    /**
+     * Salva il PDF rimuovendo le voci usate meno di recente oltre la dimensione massima.
+     * I PDF più grandi dell'intera cache non vengono salvati.
+     */
+    public synchronized void put(int id, int versione, byte[] pdf) {
+        if (pdf.length > maxSize) {
+            return;
+        }
+        byte[] precedente = entries.put(new Chiave(id, versione), pdf);
+        totalSize += pdf.length - (precedente != null ? precedente.length : 0);
+
+        Iterator<Map.Entry<Chiave, byte[]>> lru = entries.entrySet().iterator();
+        while (totalSize > maxSize && lru.hasNext()) {
+            totalSize -= lru.next().getValue().length;
+            lru.remove();
+        }
+    }
+
+    /**
+     * Rimuove tutte le versioni in cache del referto (modifica o eliminazione)
+     */
+    public synchronized void invalida(int id) {
+        Iterator<Map.Entry<Chiave, byte[]>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Chiave, byte[]> entry = it.next();
+            if (entry.getKey().id() == id) {
+                totalSize -= entry.getValue().length;
+                it.remove();
+            }
+        }
+    }
+}
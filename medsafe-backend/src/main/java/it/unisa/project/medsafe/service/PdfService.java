@@ -1,14 +1,32 @@
 package it.unisa.project.medsafe.service;
 
 import it.unisa.project.medsafe.dto.RefertoDTO;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 public interface PdfService {
     /**
-     * Genera un PDF del referto medico
+     * Genera un PDF del referto medico scrivendolo direttamente nello stream indicato,
+     * senza copie intermedie in memoria. Lo stream non viene chiuso.
      * @param dto i dati del referto
-     * @return stream del PDF generato
+     * @param immagine contenuto dell'immagine dell'esame; se null viene scaricata dallo storage
+     * @param out stream di destinazione (es. BufferABlocchi da caricare su storage)
      */
-    ByteArrayInputStream generaPdf(RefertoDTO dto) throws IOException;
+    void generaPdf(RefertoDTO dto, byte[] immagine, OutputStream out) throws IOException;
+
+    /**
+     * Legge tutto ciò che serve alla stampa e non è nel DTO: il nome del medico dal database
+     * e, se non passata, l'immagine dell'esame dallo storage
+     * @param dto i dati del referto
+     * @param immagine contenuto dell'immagine dell'esame; se null viene scaricata dallo storage
+     */
+    ContenutoPdf prepara(RefertoDTO dto, byte[] immagine);
+
+    /**
+     * Scrive il PDF di un referto già preparato, senza accedere a database o storage.
+     * Lo stream non viene chiuso.
+     * @param contenuto dati del referto letti da prepara
+     * @param out stream di destinazione
+     */
+    void scriviPdf(ContenutoPdf contenuto, OutputStream out) throws IOException;
 }
\ No newline at end of file
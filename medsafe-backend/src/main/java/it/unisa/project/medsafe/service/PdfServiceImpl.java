@@ -1,21 +1,27 @@
 package it.unisa.project.medsafe.service;
 
 import com.lowagie.text.*;
+import com.lowagie.text.pdf.PdfContentByte;
+import com.lowagie.text.pdf.PdfImportedPage;
 import com.lowagie.text.pdf.PdfPCell;
 import com.lowagie.text.pdf.PdfPTable;
+import com.lowagie.text.pdf.PdfReader;
 import com.lowagie.text.pdf.PdfWriter;
+import com.lowagie.text.pdf.RandomAccessFileOrArray;
 import com.lowagie.text.pdf.draw.LineSeparator;
 import it.unisa.project.medsafe.dto.RefertoDTO;
 import it.unisa.project.medsafe.entity.Genere;
 import it.unisa.project.medsafe.repository.UserRepository;
+import it.unisa.project.medsafe.utils.ImmaginePdfHelper;
+import it.unisa.project.medsafe.utils.PercorsoBlob;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import java.awt.Color;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
@@ -24,129 +30,100 @@ import java.time.format.DateTimeFormatter;
 @Slf4j
 public class PdfServiceImpl implements PdfService {
 
-    private final UserRepository userRepository;
-    private final BlobStorageService blobStorageService;
-
-    @Override
-    public ByteArrayInputStream generaPdf(RefertoDTO dto) throws IOException {
-
-        Document document = new Document(PageSize.A4, 50, 50, 50, 50);
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-
-        try {
-            PdfWriter.getInstance(document, out);
-            document.open();
-
-            // === FONTS ===
-            Font fontLogo = FontFactory.getFont(FontFactory.HELVETICA_BOLD, 28, new Color(0, 128, 128));
-            Font fontTitolo = FontFactory.getFont(FontFactory.HELVETICA_BOLD, 16);
-            Font fontLabelBold = FontFactory.getFont(FontFactory.HELVETICA_BOLD, 12);
-            Font fontValue = FontFactory.getFont(FontFactory.HELVETICA, 12);
-            Font fontSottotitolo = FontFactory.getFont(FontFactory.HELVETICA_BOLD, 14);
-            Font fontNormale = FontFactory.getFont(FontFactory.HELVETICA, 11);
-            Font fontPiccolo = FontFactory.getFont(FontFactory.HELVETICA, 10);
-            Font fontFirmaCorsivo = FontFactory.getFont(FontFactory.HELVETICA_OBLIQUE, 14, new Color(0, 0, 139)); // Corsivo
-                                                                                                                  // blu
-                                                                                                                  // scuro
-
-            // === 1. INTESTAZIONE CON LOGO A SINISTRA E TITOLO CENTRATO ===
-            PdfPTable headerTable = new PdfPTable(3);
-            headerTable.setWidthPercentage(100);
-            headerTable.setWidths(new float[] { 1.5f, 3, 1.5f });
-
-            // Logo a sinistra (immagine grande)
-            PdfPCell logoCell = new PdfPCell();
-            logoCell.setBorder(Rectangle.NO_BORDER);
-            logoCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
-            try {
-                // Carica il logo dalla cartella resources/static/
-                Image logoImage = Image.getInstance(getClass().getClassLoader().getResource("static/logo.png"));
-                logoImage.scaleToFit(120, 120); // Ridimensiona a max 120x120 pixel
-                logoCell.addElement(logoImage);
-            } catch (Exception e) {
-                // Se il logo non esiste, usa il testo di fallback
-                Paragraph logoText = new Paragraph("MS",
-                        FontFactory.getFont(FontFactory.HELVETICA_BOLD, 48, new Color(0, 128, 0)));
-                logoCell.addElement(logoText);
-            }
-            headerTable.addCell(logoCell);
+    // === FONTS ===
+    private static final Font FONT_LOGO = FontFactory.getFont(FontFactory.HELVETICA_BOLD, 28, new Color(0, 128, 128));
+    private static final Font FONT_TITOLO = FontFactory.getFont(FontFactory.HELVETICA_BOLD, 16);
+    private static final Font FONT_ETICHETTA = FontFactory.getFont(FontFactory.HELVETICA_BOLD, 12);
+    private static final Font FONT_VALORE = FontFactory.getFont(FontFactory.HELVETICA, 12);
+    private static final Font FONT_SOTTOTITOLO = FontFactory.getFont(FontFactory.HELVETICA_BOLD, 14);
+    private static final Font FONT_NORMALE = FontFactory.getFont(FontFactory.HELVETICA, 11);
+    private static final Font FONT_PICCOLO = FontFactory.getFont(FontFactory.HELVETICA, 10);
+    private static final Font FONT_FIRMA = FontFactory.getFont(FontFactory.HELVETICA_OBLIQUE, 14, new Color(0, 0, 139)); // Corsivo blu scuro
+    private static final Font FONT_INFO = FontFactory.getFont(FontFactory.HELVETICA, 8, Color.DARK_GRAY);
+    private static final Font FONT_INFO_BOLD = FontFactory.getFont(FontFactory.HELVETICA_BOLD, 9, Color.DARK_GRAY);
 
-            // Titolo centrato
-            PdfPCell titleCell = new PdfPCell();
-            titleCell.setBorder(Rectangle.NO_BORDER);
-            titleCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
-            titleCell.setHorizontalAlignment(Element.ALIGN_CENTER);
+    private static final LineSeparator SEPARATORE = new LineSeparator();
 
-            Paragraph logo = new Paragraph("MedSafe", fontLogo);
-            logo.setAlignment(Element.ALIGN_CENTER);
-            titleCell.addElement(logo);
+    private static final String NOME_NON_DISPONIBILE = "[Nome non disponibile]";
 
-            Paragraph titolo = new Paragraph("Piattaforma Online", fontTitolo);
-            titolo.setAlignment(Element.ALIGN_CENTER);
-            titleCell.addElement(titolo);
-
-            headerTable.addCell(titleCell);
+    static {
+        SEPARATORE.setLineColor(Color.LIGHT_GRAY);
+    }
 
-            // Info struttura a destra
-            PdfPCell infoCell = new PdfPCell();
-            infoCell.setBorder(Rectangle.NO_BORDER);
-            infoCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
-            infoCell.setHorizontalAlignment(Element.ALIGN_RIGHT);
+    private final UserRepository userRepository;
+    private final BlobStorageService blobStorageService;
+    private final ImmaginePdfHelper immaginePdfHelper;
 
-            Font fontInfo = FontFactory.getFont(FontFactory.HELVETICA, 8, Color.DARK_GRAY);
-            Font fontInfoBold = FontFactory.getFont(FontFactory.HELVETICA_BOLD, 9, Color.DARK_GRAY);
+    /**
+     * Intestazione comune a tutti i referti (logo, titolo, indirizzo della struttura), composta
+     * una sola volta: ogni PDF ne aggiunge una copia, quindi il modello non viene mai modificato
+     * e il logo non viene decodificato a ogni generazione.
+     */
+    private final PdfPTable intestazione = creaIntestazione();
 
-            Paragraph infoTitle = new Paragraph("Centro Diagnostico", fontInfoBold);
-            infoTitle.setAlignment(Element.ALIGN_RIGHT);
-            infoCell.addElement(infoTitle);
+    @Override
+    public void generaPdf(RefertoDTO dto, byte[] immagine, OutputStream out) throws IOException {
+        scriviPdf(prepara(dto, immagine), out);
+    }
 
-            Paragraph infoAddr = new Paragraph("Via della Salute, 123", fontInfo);
-            infoAddr.setAlignment(Element.ALIGN_RIGHT);
-            infoCell.addElement(infoAddr);
+    @Override
+    public ContenutoPdf prepara(RefertoDTO dto, byte[] immagine) {
+        // L'immagine appena caricata arriva già in memoria: si scarica dallo storage solo se manca
+        String imgUrl = dto.getFileUrlImmagine();
+        byte[] esame = immagine;
+        if (esame == null && imgUrl != null && !imgUrl.isEmpty()) {
+            esame = scaricaImmagine(imgUrl);
+        }
+        return new ContenutoPdf(dto, esame, nomeMedico(dto.getAutoreEmail()));
+    }
 
-            Paragraph infoCity = new Paragraph("84100 Salerno (SA)", fontInfo);
-            infoCity.setAlignment(Element.ALIGN_RIGHT);
-            infoCell.addElement(infoCity);
+    @Override
+    public void scriviPdf(ContenutoPdf contenuto, OutputStream out) throws IOException {
+        RefertoDTO dto = contenuto.dto();
+        byte[] esame = contenuto.esame();
+        String nomeMedico = contenuto.nomeMedico();
 
-            Paragraph infoTel = new Paragraph("Tel: 089 123456", fontInfo);
-            infoTel.setAlignment(Element.ALIGN_RIGHT);
-            infoCell.addElement(infoTel);
+        Document document = new Document(PageSize.A4, 50, 50, 50, 50);
+        PdfReader allegato = null;
 
-            headerTable.addCell(infoCell);
+        try {
+            // Lo stream appartiene al chiamante, che lo rilegge dopo la generazione
+            PdfWriter writer = PdfWriter.getInstance(document, out);
+            writer.setCloseStream(false);
+            document.open();
 
-            document.add(headerTable);
+            // === 1. INTESTAZIONE (copia del modello composto all'avvio) ===
+            document.add(new PdfPTable(intestazione));
 
             document.add(new Paragraph(" "));
 
             // === 2. DATI PAZIENTE (etichette in grassetto, valori normali) ===
             Paragraph pazientePara = new Paragraph();
-            pazientePara.add(new Chunk("Paziente: ", fontLabelBold));
-            pazientePara.add(new Chunk(dto.getNomePaziente() != null ? dto.getNomePaziente() : "", fontValue));
+            pazientePara.add(new Chunk("Paziente: ", FONT_ETICHETTA));
+            pazientePara.add(new Chunk(dto.getNomePaziente() != null ? dto.getNomePaziente() : "", FONT_VALORE));
             document.add(pazientePara);
             document.add(new Paragraph(" "));
 
             Paragraph tipoEsamePara = new Paragraph();
-            tipoEsamePara.add(new Chunk("Tipo d'esame: ", fontLabelBold));
+            tipoEsamePara.add(new Chunk("Tipo d'esame: ", FONT_ETICHETTA));
             tipoEsamePara
-                    .add(new Chunk(dto.getTipoEsame() != null ? dto.getTipoEsame().getDescrizione() : "", fontValue));
+                    .add(new Chunk(dto.getTipoEsame() != null ? dto.getTipoEsame().getDescrizione() : "", FONT_VALORE));
             document.add(tipoEsamePara);
             document.add(new Paragraph(" "));
 
             Paragraph valutazionePara = new Paragraph();
-            valutazionePara.add(new Chunk("Valutazione: ", fontLabelBold));
-            valutazionePara.add(new Chunk(dto.getTestoReferto() != null ? dto.getTestoReferto() : "", fontValue));
+            valutazionePara.add(new Chunk("Valutazione: ", FONT_ETICHETTA));
+            valutazionePara.add(new Chunk(dto.getTestoReferto() != null ? dto.getTestoReferto() : "", FONT_VALORE));
             document.add(valutazionePara);
             document.add(new Paragraph(" "));
 
             // Linea separatrice
-            LineSeparator linea = new LineSeparator();
-            linea.setLineColor(Color.LIGHT_GRAY);
-            document.add(new Chunk(linea));
+            document.add(new Chunk(SEPARATORE));
             document.add(new Paragraph(" "));
             document.add(new Paragraph(" "));
 
             // === 3. SEZIONE REFERTO (CONCLUSIONI) ===
-            Paragraph titoloReferto = new Paragraph("REFERTO", fontSottotitolo);
+            Paragraph titoloReferto = new Paragraph("REFERTO", FONT_SOTTOTITOLO);
             titoloReferto.setAlignment(Element.ALIGN_CENTER);
             titoloReferto.setSpacingAfter(15);
             document.add(titoloReferto);
@@ -154,116 +131,253 @@ public class PdfServiceImpl implements PdfService {
             // Testo delle conclusioni
             String conclusioniTesto = dto.getConclusioni() != null ? dto.getConclusioni() : "";
             if (!conclusioniTesto.isEmpty()) {
-                Paragraph rigaTesto = new Paragraph(conclusioniTesto, fontNormale);
+                Paragraph rigaTesto = new Paragraph(conclusioniTesto, FONT_NORMALE);
                 rigaTesto.setSpacingAfter(10);
                 document.add(rigaTesto);
             }
 
-            // Controlla se il file allegato è un PDF (non embedabile come immagine)
+            // Controlla se il file allegato è un PDF (le sue pagine vengono accodate al referto)
             String imgUrl = dto.getFileUrlImmagine();
-            boolean isFilePdf = imgUrl != null && imgUrl.toLowerCase().endsWith(".pdf");
+            boolean isFilePdf = (imgUrl != null && imgUrl.toLowerCase().endsWith(".pdf")) || isPdf(esame);
             boolean hasEmbeddableImage = false;
 
-            if (isFilePdf && imgUrl != null && !imgUrl.isEmpty()) {
-                // Se è un PDF, aggiungi una nota nella pagina 1
+            if (isFilePdf) {
+                allegato = apriAllegatoPdf(esame);
+
+                // Nota nella pagina 1
                 document.add(new Paragraph(" "));
-                Paragraph notaPdf = new Paragraph("ESAME DIAGNOSTICO", fontSottotitolo);
+                Paragraph notaPdf = new Paragraph("ESAME DIAGNOSTICO", FONT_SOTTOTITOLO);
                 notaPdf.setAlignment(Element.ALIGN_CENTER);
                 notaPdf.setSpacingAfter(8);
                 document.add(notaPdf);
 
-                Paragraph avvisoPdf = new Paragraph(
-                        "L'esame diagnostico è allegato come documento PDF separato e non può essere " +
+                Paragraph avvisoPdf = new Paragraph(allegato != null
+                        ? "L'esame diagnostico (documento PDF allegato) è riportato nelle pagine seguenti."
+                        : "L'esame diagnostico è allegato come documento PDF separato e non può essere " +
                                 "visualizzato direttamente in questo referto. Consultare il file originale per la visione dell'esame.",
-                        fontPiccolo);
+                        FONT_PICCOLO);
                 avvisoPdf.setAlignment(Element.ALIGN_CENTER);
                 avvisoPdf.setSpacingAfter(10);
                 document.add(avvisoPdf);
-            } else if (imgUrl != null && !imgUrl.isEmpty()) {
+            } else if (esame != null && esame.length > 0) {
                 // Segna che c'è un'immagine da embeddare nella seconda pagina
                 hasEmbeddableImage = true;
             }
 
             // === 4. FOOTER PAGINA 1 - FIRMA MEDICO ===
             document.add(new Paragraph(" "));
-            document.add(new Chunk(linea));
+            document.add(new Chunk(SEPARATORE));
             document.add(new Paragraph(" "));
 
-            // Recupera i dati del medico una sola volta (usati in entrambe le pagine)
+            // Data e nome del medico usati in entrambe le pagine
             String dataFormattata = LocalDateTime.now().format(DateTimeFormatter.ofPattern("dd/MM/yyyy"));
-            String nomeMedico = "[Nome non disponibile]";
-            if (dto.getAutoreEmail() != null) {
-                var userOpt = userRepository.findByEmail(dto.getAutoreEmail());
-                if (userOpt.isPresent() && userOpt.get().getFullName() != null
-                        && !userOpt.get().getFullName().isEmpty()) {
-                    var user = userOpt.get();
-                    nomeMedico = user.getFullName();
-                    // Aggiungi "Dott." o "Dott.ssa" in base al genere
-                    if (!nomeMedico.toLowerCase().startsWith("dott") && !nomeMedico.toLowerCase().startsWith("dr")) {
-                        String tit = (user.getGenere() == Genere.FEMMINA) ? "Dott.ssa " : "Dott. ";
-                        nomeMedico = tit + nomeMedico;
-                    }
-                }
-            }
 
             // Firma pagina 1
-            document.add(creaTabellaFirma(dataFormattata, nomeMedico, fontPiccolo, fontNormale, fontFirmaCorsivo));
+            document.add(creaTabellaFirma(dataFormattata, nomeMedico));
 
             // === 5. SEZIONE ESAME DIAGNOSTICO - IMMAGINE (nuova pagina, solo se non è PDF)
             // ===
             try {
                 if (hasEmbeddableImage) {
-                    String blobPath = extractBlobPathFromUrl(imgUrl);
-                    if (blobPath != null) {
-                        byte[] imageBytes = blobStorageService.downloadFile(blobPath);
-                        if (imageBytes != null && imageBytes.length > 0) {
-                            // Forza nuova pagina per l'esame diagnostico
-                            document.newPage();
-
-                            // Titolo sezione
-                            Paragraph titoloEsame = new Paragraph("ESAME DIAGNOSTICO", fontSottotitolo);
-                            titoloEsame.setAlignment(Element.ALIGN_CENTER);
-                            titoloEsame.setSpacingAfter(15);
-                            document.add(titoloEsame);
-
-                            // Inserisci l'immagine
-                            Image esameImg = Image.getInstance(imageBytes);
-                            // Ridimensiona per stare nella pagina (max 450px largo, max 550px alto)
-                            esameImg.scaleToFit(450, 550);
-                            esameImg.setAlignment(Element.ALIGN_CENTER);
-                            esameImg.setSpacingAfter(10);
-                            document.add(esameImg);
-
-                            log.info("Immagine esame inserita nel PDF con successo");
-
-                            // Firma pagina 2
-                            document.add(new Paragraph(" "));
-                            document.add(new Chunk(linea));
-                            document.add(new Paragraph(" "));
-                            document.add(creaTabellaFirma(dataFormattata, nomeMedico, fontPiccolo, fontNormale,
-                                    fontFirmaCorsivo));
-                        }
-                    }
+                    // Forza nuova pagina per l'esame diagnostico
+                    document.newPage();
+
+                    // Titolo sezione
+                    Paragraph titoloEsame = new Paragraph("ESAME DIAGNOSTICO", FONT_SOTTOTITOLO);
+                    titoloEsame.setAlignment(Element.ALIGN_CENTER);
+                    titoloEsame.setSpacingAfter(15);
+                    document.add(titoloEsame);
+
+                    // Inserisci l'immagine
+                    // Ridotta alla risoluzione di stampa: nel PDF non finiscono i pixel originali
+                    Image esameImg = Image.getInstance(immaginePdfHelper.prepara(esame));
+                    // Ridimensiona per stare nella pagina (max 450pt largo, max 550pt alto)
+                    esameImg.scaleToFit(ImmaginePdfHelper.LARGHEZZA_MAX, ImmaginePdfHelper.ALTEZZA_MAX);
+                    esameImg.setAlignment(Element.ALIGN_CENTER);
+                    esameImg.setSpacingAfter(10);
+                    document.add(esameImg);
+
+                    log.info("Immagine esame inserita nel PDF con successo");
+
+                    // Firma pagina 2
+                    document.add(new Paragraph(" "));
+                    document.add(new Chunk(SEPARATORE));
+                    document.add(new Paragraph(" "));
+                    document.add(creaTabellaFirma(dataFormattata, nomeMedico));
                 }
             } catch (Exception e) {
                 log.warn("Impossibile inserire l'immagine dell'esame nel PDF: {}", e.getMessage());
             }
 
+            // === 6. ESAME DIAGNOSTICO - ALLEGATO PDF (pagine importate in coda) ===
+            if (allegato != null) {
+                accodaPagine(document, writer, allegato);
+            }
+
             document.close();
 
         } catch (DocumentException e) {
             throw new IOException("Errore durante la creazione del PDF", e);
+        } finally {
+            if (allegato != null) {
+                allegato.close();
+            }
+        }
+    }
+
+    private static boolean isPdf(byte[] contenuto) {
+        return contenuto != null && contenuto.length >= 5
+                && new String(contenuto, 0, 5, StandardCharsets.ISO_8859_1).equals("%PDF-");
+    }
+
+    /**
+     * Apre l'esame in formato PDF in lettura parziale: gli oggetti di ogni pagina vengono
+     * letti solo quando la pagina viene importata.
+     * @return null se il PDF manca, non è leggibile o è protetto da password
+     */
+    private PdfReader apriAllegatoPdf(byte[] contenuto) {
+        if (contenuto == null || contenuto.length == 0) {
+            return null;
+        }
+        try {
+            PdfReader reader = new PdfReader(new RandomAccessFileOrArray(contenuto), null);
+            if (reader.isEncrypted() && !reader.isOpenedWithFullPermissions()) {
+                log.warn("Esame PDF protetto: non viene incorporato nel referto");
+                reader.close();
+                return null;
+            }
+            return reader;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Impossibile leggere l'esame PDF allegato: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Accoda al referto le pagine dell'esame PDF una alla volta, ognuna con le sue dimensioni
+     * e orientamento originali. Al termine gli oggetti importati vengono scritti e rilasciati.
+     */
+    private void accodaPagine(Document document, PdfWriter writer, PdfReader allegato) throws IOException {
+        for (int i = 1; i <= allegato.getNumberOfPages(); i++) {
+            Rectangle formato = allegato.getPageSize(i);
+            document.setPageSize(allegato.getPageSizeWithRotation(i));
+            document.setMargins(0, 0, 0, 0);
+            document.newPage();
+
+            PdfImportedPage pagina = writer.getImportedPage(allegato, i);
+            PdfContentByte cb = writer.getDirectContent();
+            float w = formato.getWidth();
+            float h = formato.getHeight();
+            switch (allegato.getPageRotation(i)) {
+                case 90 -> cb.addTemplate(pagina, 0, -1, 1, 0, 0, w);
+                case 180 -> cb.addTemplate(pagina, -1, 0, 0, -1, w, h);
+                case 270 -> cb.addTemplate(pagina, 0, 1, -1, 0, h, 0);
+                default -> cb.addTemplate(pagina, 0, 0);
+            }
+        }
+        writer.freeReader(allegato);
+        log.info("Esame PDF allegato incorporato nel referto ({} pagine)", allegato.getNumberOfPages());
+    }
+
+    /**
+     * Crea l'intestazione con logo a sinistra, titolo centrato e info della struttura a destra.
+     */
+    private static PdfPTable creaIntestazione() {
+        PdfPTable headerTable = new PdfPTable(3);
+        headerTable.setWidthPercentage(100);
+        headerTable.setWidths(new float[] { 1.5f, 3, 1.5f });
+
+        // Logo a sinistra: come cella immagine, così ogni copia della tabella ha la propria istanza
+        PdfPCell logoCell;
+        try {
+            // Carica il logo dalla cartella resources/static/
+            Image logoImage = Image.getInstance(PdfServiceImpl.class.getClassLoader().getResource("static/logo.png"));
+            logoImage.scaleToFit(120, 120); // Ridimensiona a max 120x120 pixel
+            logoCell = new PdfPCell(logoImage, false);
+        } catch (Exception e) {
+            // Se il logo non esiste, usa il testo di fallback
+            logoCell = new PdfPCell();
+            logoCell.addElement(new Paragraph("MS",
+                    FontFactory.getFont(FontFactory.HELVETICA_BOLD, 48, new Color(0, 128, 0))));
         }
+        logoCell.setBorder(Rectangle.NO_BORDER);
+        logoCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
+        headerTable.addCell(logoCell);
+
+        // Titolo centrato
+        PdfPCell titleCell = new PdfPCell();
+        titleCell.setBorder(Rectangle.NO_BORDER);
+        titleCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
+        titleCell.setHorizontalAlignment(Element.ALIGN_CENTER);
+
+        Paragraph logo = new Paragraph("MedSafe", FONT_LOGO);
+        logo.setAlignment(Element.ALIGN_CENTER);
+        titleCell.addElement(logo);
+
+        Paragraph titolo = new Paragraph("Piattaforma Online", FONT_TITOLO);
+        titolo.setAlignment(Element.ALIGN_CENTER);
+        titleCell.addElement(titolo);
+
+        headerTable.addCell(titleCell);
+
+        // Info struttura a destra
+        PdfPCell infoCell = new PdfPCell();
+        infoCell.setBorder(Rectangle.NO_BORDER);
+        infoCell.setVerticalAlignment(Element.ALIGN_MIDDLE);
+        infoCell.setHorizontalAlignment(Element.ALIGN_RIGHT);
+
+        Paragraph infoTitle = new Paragraph("Centro Diagnostico", FONT_INFO_BOLD);
+        infoTitle.setAlignment(Element.ALIGN_RIGHT);
+        infoCell.addElement(infoTitle);
+
+        Paragraph infoAddr = new Paragraph("Via della Salute, 123", FONT_INFO);
+        infoAddr.setAlignment(Element.ALIGN_RIGHT);
+        infoCell.addElement(infoAddr);
+
+        Paragraph infoCity = new Paragraph("84100 Salerno (SA)", FONT_INFO);
+        infoCity.setAlignment(Element.ALIGN_RIGHT);
+        infoCell.addElement(infoCity);
+
+        Paragraph infoTel = new Paragraph("Tel: 089 123456", FONT_INFO);
+        infoTel.setAlignment(Element.ALIGN_RIGHT);
+        infoCell.addElement(infoTel);
+
+        headerTable.addCell(infoCell);
+        return headerTable;
+    }
+
+    /**
+     * Nome del medico come compare nella firma, con "Dott." o "Dott.ssa" in base al genere
+     */
+    private String nomeMedico(String autoreEmail) {
+        if (autoreEmail == null) {
+            return NOME_NON_DISPONIBILE;
+        }
+        var userOpt = userRepository.findByEmail(autoreEmail);
+        if (userOpt.isEmpty() || userOpt.get().getFullName() == null || userOpt.get().getFullName().isEmpty()) {
+            return NOME_NON_DISPONIBILE;
+        }
+        var user = userOpt.get();
+        String nomeMedico = user.getFullName();
+        if (!nomeMedico.toLowerCase().startsWith("dott") && !nomeMedico.toLowerCase().startsWith("dr")) {
+            String tit = (user.getGenere() == Genere.FEMMINA) ? "Dott.ssa " : "Dott. ";
+            nomeMedico = tit + nomeMedico;
+        }
+        return nomeMedico;
+    }
 
-        return new ByteArrayInputStream(out.toByteArray());
+    /**
+     * Scarica da Azure Blob Storage l'immagine già associata al referto.
+     */
+    private byte[] scaricaImmagine(String imgUrl) {
+        String blobPath = PercorsoBlob.daUrl(imgUrl);
+        return blobPath != null ? blobStorageService.downloadFile(blobPath) : null;
     }
 
     /**
      * Crea la tabella firma con data e nome medico (riutilizzabile su più pagine).
      */
-    private PdfPTable creaTabellaFirma(String data, String nomeMedico,
-            Font fontPiccolo, Font fontNormale, Font fontFirmaCorsivo)
-            throws DocumentException {
+    private PdfPTable creaTabellaFirma(String data, String nomeMedico) throws DocumentException {
         PdfPTable tabellaFirma = new PdfPTable(2);
         tabellaFirma.setWidthPercentage(100);
         tabellaFirma.setWidths(new float[] { 1, 1 });
@@ -271,7 +385,7 @@ public class PdfServiceImpl implements PdfService {
         // Colonna sinistra - Data
         PdfPCell cellData = new PdfPCell();
         cellData.setBorder(Rectangle.NO_BORDER);
-        cellData.addElement(new Paragraph("Data refertazione: " + data, fontPiccolo));
+        cellData.addElement(new Paragraph("Data refertazione: " + data, FONT_PICCOLO));
         tabellaFirma.addCell(cellData);
 
         // Colonna destra - Firma
@@ -279,11 +393,11 @@ public class PdfServiceImpl implements PdfService {
         cellFirma.setBorder(Rectangle.NO_BORDER);
         cellFirma.setHorizontalAlignment(Element.ALIGN_RIGHT);
 
-        Paragraph medicoLabel = new Paragraph("Il Medico referente", fontNormale);
+        Paragraph medicoLabel = new Paragraph("Il Medico referente", FONT_NORMALE);
         medicoLabel.setAlignment(Element.ALIGN_RIGHT);
         cellFirma.addElement(medicoLabel);
 
-        Paragraph firmaDigitale = new Paragraph(nomeMedico, fontFirmaCorsivo);
+        Paragraph firmaDigitale = new Paragraph(nomeMedico, FONT_FIRMA);
         firmaDigitale.setAlignment(Element.ALIGN_RIGHT);
         firmaDigitale.setSpacingBefore(5);
         cellFirma.addElement(firmaDigitale);
@@ -291,28 +405,4 @@ public class PdfServiceImpl implements PdfService {
         tabellaFirma.addCell(cellFirma);
         return tabellaFirma;
     }
-
-    /**
-     * Estrae il percorso del blob dall'URL completo di Azure.
-     * Formato atteso: https://<account>.blob.core.windows.net/<container>/<path>
-     */
-    private String extractBlobPathFromUrl(String url) {
-        if (url == null || url.isEmpty())
-            return null;
-        try {
-            String containerName = "upload-dir";
-            int index = url.indexOf("/" + containerName + "/");
-            if (index != -1) {
-                String encodedPath = url.substring(index + containerName.length() + 2);
-                return java.net.URLDecoder.decode(encodedPath, java.nio.charset.StandardCharsets.UTF_8);
-            }
-            if (url.startsWith(containerName + "/")) {
-                String encodedPath = url.substring(containerName.length() + 1);
-                return java.net.URLDecoder.decode(encodedPath, java.nio.charset.StandardCharsets.UTF_8);
-            }
-        } catch (Exception e) {
-            log.warn("Errore estrazione blob path dall'URL: {}", e.getMessage());
-        }
-        return null;
-    }
 }
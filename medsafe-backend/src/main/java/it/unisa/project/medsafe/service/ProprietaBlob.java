@@ -0,0 +1,10 @@
+package it.unisa.project.medsafe.service;
+
+/**
+ * Proprietà di un blob lette senza scaricarne il contenuto.
+ *
+ * @param size dimensione in byte
+ * @param etag ETag assegnato dallo storage (cambia a ogni scrittura del blob), null se non noto
+ */
+public record ProprietaBlob(long size, String etag) {
+}
@@ -0,0 +1,40 @@
+package it.unisa.project.medsafe.service;
+
+import it.unisa.project.medsafe.dto.RefertoDTO;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Esportazione in un unico file di tutti i documenti dei referti di un paziente,
+ * scritta in streaming direttamente sulla risposta HTTP.
+ */
+public interface RefertoExportService {
+
+    /**
+     * Scrive un archivio ZIP con il PDF generato e l'immagine di ogni referto.
+     * I file vengono letti dallo storage in streaming, aprendone alcuni in anticipo
+     * mentre il precedente viene scritto; nessun file viene caricato per intero in memoria.
+     * @param referti referti da esportare, nell'ordine delle voci dell'archivio
+     * @param out stream di destinazione (non viene chiuso)
+     */
+    void scriviZip(List<RefertoDTO> referti, OutputStream out) throws IOException;
+
+    /**
+     * Indica se almeno un referto ha un PDF da inserire nel dossier (già caricato o da generare)
+     * @param referti referti del paziente
+     */
+    boolean dossierDisponibile(List<RefertoDTO> referti);
+
+    /**
+     * Scrive un unico PDF con i PDF generati dei referti, in ordine di data di caricamento
+     * e con un segnalibro per esame. I PDF sorgente vengono letti uno alla volta e le loro
+     * pagine copiate sullo stream appena il PDF è disponibile. Ogni PDF sorgente viene
+     * copiato su un file temporaneo e letto in modo parziale, senza caricarlo in memoria.
+     * @param referti referti del paziente
+     * @param out stream di destinazione (non viene chiuso)
+     * @throws IOException se nessun PDF è disponibile (vedi dossierDisponibile) o la scrittura fallisce
+     */
+    void scriviDossier(List<RefertoDTO> referti, OutputStream out) throws IOException;
+}
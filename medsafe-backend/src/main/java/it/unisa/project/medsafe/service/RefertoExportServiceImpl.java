@@ -0,0 +1,314 @@
+package it.unisa.project.medsafe.service;
+
+import com.lowagie.text.Document;
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.pdf.BadPdfFormatException;
+import com.lowagie.text.pdf.PdfCopy;
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.RandomAccessFileOrArray;
+import it.unisa.project.medsafe.dto.RefertoDTO;
+import it.unisa.project.medsafe.utils.PercorsoBlob;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+@Service
+@Slf4j
+public class RefertoExportServiceImpl implements RefertoExportService {
+
+    private static final DateTimeFormatter FORMATO_DATA = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final DateTimeFormatter FORMATO_SEGNALIBRO = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+    private final RefertoService refertoService;
+    private final BlobStorageService blobStorageService;
+    private final Executor exportExecutor;
+
+    /**
+     * File aperti in anticipo rispetto a quello in scrittura. Ogni download aperto tiene in memoria
+     * al più un blocco (1 MB); il permesso del bulkhead dello storage serve solo mentre un blocco
+     * viene scaricato, non per tutto il tempo in cui il download resta aperto.
+     */
+    private final int prefetch;
+
+    public RefertoExportServiceImpl(RefertoService refertoService, BlobStorageService blobStorageService,
+            @Qualifier("exportExecutor") Executor exportExecutor,
+            @Value("${medsafe.export.prefetch:4}") int prefetch) {
+        this.refertoService = refertoService;
+        this.blobStorageService = blobStorageService;
+        this.exportExecutor = exportExecutor;
+        this.prefetch = Math.max(0, prefetch);
+    }
+
+    /**
+     * Voce da esportare: nome nello ZIP (o titolo del segnalibro nel dossier) e, in alternativa,
+     * blob da leggere oppure referto di cui generare il PDF (medsafe.pdf.lazy)
+     */
+    private record Voce(String nome, String blobPath, Integer idPdfDaGenerare) {
+    }
+
+    /**
+     * Scrittura di una voce già aperta sullo storage
+     */
+    @FunctionalInterface
+    private interface ScritturaVoce {
+        void scrivi(Voce voce, BlobDownload download) throws IOException;
+    }
+
+    @Override
+    public void scriviZip(List<RefertoDTO> referti, OutputStream out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+        // PDF e immagini sono già compressi: la compressione più veloce basta
+        zip.setLevel(Deflater.BEST_SPEED);
+        perOgniVoce(elencaVoci(referti), (voce, download) -> {
+            zip.putNextEntry(new ZipEntry(voce.nome()));
+            download.transferTo(zip);
+            zip.closeEntry();
+        });
+        zip.finish();
+    }
+
+    @Override
+    public boolean dossierDisponibile(List<RefertoDTO> referti) {
+        return !vociDossier(referti).isEmpty();
+    }
+
+    @Override
+    public void scriviDossier(List<RefertoDTO> referti, OutputStream out) throws IOException {
+        List<Voce> voci = vociDossier(referti);
+        // Controllo prima di aprire il documento: dopo open() l'intestazione del PDF è già sulla risposta
+        if (voci.isEmpty()) {
+            throw new IOException("Nessun PDF disponibile per il dossier");
+        }
+
+        Document document = new Document();
+        try {
+            PdfCopy copy = new PdfCopy(document, out);
+            copy.setCloseStream(false);
+            document.open();
+            List<Map<String, Object>> segnalibri = new ArrayList<>();
+            int[] pagine = { 0 };
+
+            // Un PDF sorgente alla volta: le sue pagine vengono scritte sulla risposta
+            // e il reader liberato prima di passare al successivo
+            perOgniVoce(voci, (voce, download) -> {
+                // Il PDF viene copiato su un file temporaneo e letto in modo parziale:
+                // in memoria restano gli oggetti della pagina in copia, non l'intero file
+                Path temporaneo = Files.createTempFile("medsafe-dossier-", ".pdf");
+                try {
+                    try (OutputStream file = Files.newOutputStream(temporaneo)) {
+                        download.transferTo(file);
+                    }
+                    PdfReader reader;
+                    try {
+                        reader = new PdfReader(new RandomAccessFileOrArray(temporaneo.toString(), false, true), null);
+                    } catch (IOException e) {
+                        log.warn("PDF {} non leggibile, escluso dal dossier: {}", voce.nome(), e.getMessage());
+                        return;
+                    }
+                    try {
+                        segnalibri.add(Map.of("Title", voce.nome(), "Action", "GoTo",
+                                "Page", (pagine[0] + 1) + " Fit"));
+                        for (int i = 1; i <= reader.getNumberOfPages(); i++) {
+                            copy.addPage(copy.getImportedPage(reader, i));
+                        }
+                        pagine[0] += reader.getNumberOfPages();
+                        copy.freeReader(reader);
+                    } catch (BadPdfFormatException e) {
+                        throw new IOException("PDF non valido: " + voce.nome(), e);
+                    } finally {
+                        reader.close();
+                    }
+                } finally {
+                    Files.deleteIfExists(temporaneo);
+                }
+            });
+
+            // Tutti i PDF mancanti sullo storage o non leggibili: il documento non può essere chiuso senza pagine
+            if (pagine[0] == 0) {
+                throw new IOException("Nessun PDF leggibile per il dossier");
+            }
+            copy.setOutlines(segnalibri);
+            document.close();
+        } catch (DocumentException e) {
+            throw new IOException("Errore durante la creazione del dossier", e);
+        }
+    }
+
+    /**
+     * PDF del dossier in ordine di data di caricamento, con il titolo del segnalibro come nome
+     */
+    private List<Voce> vociDossier(List<RefertoDTO> referti) {
+        List<Voce> voci = new ArrayList<>();
+        referti.stream()
+                .sorted(Comparator.comparing(RefertoDTO::getDataCaricamento,
+                        Comparator.nullsLast(Comparator.naturalOrder())))
+                .forEach(referto -> {
+                    Voce pdf = vocePdf(referto, titoloSegnalibro(referto));
+                    if (pdf != null) {
+                        voci.add(pdf);
+                    }
+                });
+        return voci;
+    }
+
+    /**
+     * Scrive le voci nell'ordine dato, aprendo in anticipo fino a prefetch voci successive.
+     * Le voci non trovate sullo storage vengono saltate; in caso di errore (o client disconnesso)
+     * i download già aperti in anticipo vengono chiusi.
+     */
+    private void perOgniVoce(List<Voce> voci, ScritturaVoce scrittura) throws IOException {
+        Deque<CompletableFuture<BlobDownload>> finestra = new ArrayDeque<>();
+        int prossima = 0;
+        try {
+            for (Voce voce : voci) {
+                while (prossima < voci.size() && finestra.size() <= prefetch) {
+                    finestra.add(apri(voci.get(prossima++)));
+                }
+                try (BlobDownload download = attendi(finestra.poll())) {
+                    if (download == null) {
+                        log.warn("File {} non trovato sullo storage, escluso dall'esportazione", voce.blobPath());
+                        continue;
+                    }
+                    scrittura.scrivi(voce, download);
+                }
+            }
+        } finally {
+            finestra.forEach(f -> f.thenAccept(this::chiudi));
+        }
+    }
+
+    private CompletableFuture<BlobDownload> apri(Voce voce) {
+        return CompletableFuture.supplyAsync(() -> {
+            if (voce.idPdfDaGenerare() != null) {
+                byte[] pdf = refertoService.getPdfGenerato(voce.idPdfDaGenerare());
+                return new BlobDownload(new ByteArrayInputStream(pdf), pdf.length);
+            }
+            return blobStorageService.openDownloadStream(voce.blobPath());
+        }, exportExecutor);
+    }
+
+    private BlobDownload attendi(CompletableFuture<BlobDownload> download) throws IOException {
+        try {
+            return download.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw e;
+        }
+    }
+
+    private void chiudi(BlobDownload download) {
+        if (download == null) {
+            return;
+        }
+        try {
+            download.close();
+        } catch (IOException e) {
+            log.warn("Errore chiusura download: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Nomi delle voci: data_tipoEsame_nomeFile.pdf per il PDF e con suffisso _immagine per
+     * l'immagine (con l'estensione originale). Un allegato PDF diventa _allegato.pdf.
+     */
+    private List<Voce> elencaVoci(List<RefertoDTO> referti) {
+        List<Voce> voci = new ArrayList<>();
+        Set<String> nomiUsati = new HashSet<>();
+        for (RefertoDTO referto : referti) {
+            String base = nomeBase(referto);
+            Voce pdf = vocePdf(referto, base + ".pdf");
+            if (pdf != null) {
+                voci.add(new Voce(nomeUnivoco(pdf.nome(), nomiUsati), pdf.blobPath(), pdf.idPdfDaGenerare()));
+            }
+
+            String blobImmagine = PercorsoBlob.daUrl(referto.getFileUrlImmagine());
+            if (blobImmagine != null) {
+                String estensione = estensione(blobImmagine);
+                String suffisso = estensione.equalsIgnoreCase(".pdf") ? "_allegato" : "_immagine";
+                voci.add(new Voce(nomeUnivoco(base + suffisso + estensione, nomiUsati), blobImmagine, null));
+            }
+        }
+        return voci;
+    }
+
+    /**
+     * PDF generato del referto: il blob se già caricato, altrimenti da generare (medsafe.pdf.lazy)
+     */
+    private Voce vocePdf(RefertoDTO referto, String nome) {
+        if (referto.getUrlPdfGenerato() == null) {
+            return new Voce(nome, null, referto.getId());
+        }
+        String blobPath = PercorsoBlob.daUrl(referto.getUrlPdfGenerato());
+        return blobPath != null ? new Voce(nome, blobPath, null) : null;
+    }
+
+    /**
+     * Titolo del segnalibro del dossier, es. "12/03/2026 - TAC - torace"
+     */
+    private String titoloSegnalibro(RefertoDTO referto) {
+        StringBuilder titolo = new StringBuilder();
+        if (referto.getDataCaricamento() != null) {
+            titolo.append(referto.getDataCaricamento().format(FORMATO_SEGNALIBRO)).append(" - ");
+        }
+        if (referto.getTipoEsame() != null) {
+            titolo.append(referto.getTipoEsame().name().replace('_', ' ')).append(" - ");
+        }
+        return titolo.append(referto.getNomeFile() != null ? referto.getNomeFile() : "Referto " + referto.getId())
+                .toString();
+    }
+
+    private String nomeBase(RefertoDTO referto) {
+        StringBuilder nome = new StringBuilder();
+        if (referto.getDataCaricamento() != null) {
+            nome.append(referto.getDataCaricamento().format(FORMATO_DATA)).append('_');
+        }
+        if (referto.getTipoEsame() != null) {
+            nome.append(referto.getTipoEsame().name()).append('_');
+        }
+        nome.append(referto.getNomeFile() != null ? referto.getNomeFile() : "referto_" + referto.getId());
+        // Niente separatori di percorso o caratteri non validi nei nomi dell'archivio
+        return nome.toString().replaceAll("[\\\\/:*?\"<>|]", "_");
+    }
+
+    private String nomeUnivoco(String nome, Set<String> nomiUsati) {
+        String candidato = nome;
+        int punto = nome.lastIndexOf('.') > 0 ? nome.lastIndexOf('.') : nome.length();
+        for (int i = 2; !nomiUsati.add(candidato); i++) {
+            candidato = nome.substring(0, punto) + "_" + i + nome.substring(punto);
+        }
+        return candidato;
+    }
+
+    private String estensione(String blobPath) {
+        int punto = blobPath.lastIndexOf('.');
+        return punto > blobPath.lastIndexOf('/') ? blobPath.substring(punto) : "";
+    }
+}
@@ -0,0 +1,26 @@
+package it.unisa.project.medsafe.service;
+
+import it.unisa.project.medsafe.dto.IngestioneJobDTO;
+import it.unisa.project.medsafe.dto.RefertoDTO;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+
+/**
+ * Caricamento asincrono dei referti: la richiesta salva il file in staging e
+ * restituisce subito un job, mentre upload e generazione del PDF avvengono in background.
+ */
+public interface RefertoIngestionService {
+
+    /**
+     * Salva il file nell'area di staging e accoda l'elaborazione del referto
+     * @return il job creato, nello stato IN_CODA
+     * @throws org.springframework.core.task.TaskRejectedException se la coda di elaborazione è piena
+     */
+    IngestioneJobDTO accoda(RefertoDTO dto, MultipartFile file) throws IOException;
+
+    /**
+     * @return lo stato del job, null se non esiste (o è scaduto)
+     */
+    IngestioneJobDTO getJob(String id);
+}
@@ -0,0 +1,211 @@
+package it.unisa.project.medsafe.service;
+
+import it.unisa.project.medsafe.dto.IngestioneJobDTO;
+import it.unisa.project.medsafe.dto.RefertoDTO;
+import it.unisa.project.medsafe.entity.IngestioneJob;
+import it.unisa.project.medsafe.entity.StatoIngestione;
+import it.unisa.project.medsafe.repository.IngestioneJobRepository;
+import it.unisa.project.medsafe.utils.CartellaPrivata;
+import it.unisa.project.medsafe.utils.IngestioneJobMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.security.concurrent.DelegatingSecurityContextRunnable;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+
+/**
+ * Caricamento asincrono dei referti.
+ *
+ * Il file viene salvato nell'area di staging su disco locale e l'elaborazione
+ * (upload su Azure Blob Storage, generazione e upload del PDF, salvataggio su DB)
+ * viene eseguita da ingestionExecutor con il contesto di sicurezza della richiesta.
+ * Lo stato dei job è salvato su database (tabella ingestione_job): resta consultabile
+ * dopo un riavvio e da ogni istanza; i job terminati vengono rimossi dopo medsafe.ingestion.job-ttl.
+ *
+ * La cartella di staging contiene le immagini dei pazienti ed è privata (vedi CartellaPrivata).
+ * I file rimasti in staging da un'esecuzione precedente non possono essere rielaborati
+ * (dati del referto e contesto di sicurezza erano solo in memoria): all'avvio il loro job
+ * viene chiuso come FALLITO e i file eliminati.
+ */
+@Service
+@Slf4j
+public class RefertoIngestionServiceImpl implements RefertoIngestionService {
+
+    private static final ZoneId ZONA = ZoneId.of("Europe/Rome");
+
+    private static final Set<StatoIngestione> ATTIVI = Set.of(StatoIngestione.IN_CODA, StatoIngestione.IN_CORSO);
+    private static final Set<StatoIngestione> TERMINATI = Set.of(StatoIngestione.COMPLETATO, StatoIngestione.FALLITO);
+
+    private static final String ERRORE_RIAVVIO = "Caricamento interrotto dal riavvio del server, ripetere il caricamento";
+    private static final int LUNGHEZZA_ERRORE = 1000;
+
+    private final RefertoService refertoService;
+    private final AuthorizationService authorizationService;
+    private final IngestioneJobRepository jobRepository;
+    private final IngestioneJobMapper jobMapper;
+    private final Executor ingestionExecutor;
+    private final Path stagingDir;
+    private final Duration jobTtl;
+
+    /**
+     * File trovati in staging all'avvio, prima che arrivino nuovi caricamenti
+     */
+    private final List<Path> residui;
+
+    public RefertoIngestionServiceImpl(RefertoService refertoService, AuthorizationService authorizationService,
+            IngestioneJobRepository jobRepository, IngestioneJobMapper jobMapper,
+            @Qualifier("ingestionExecutor") Executor ingestionExecutor,
+            @Value("${medsafe.ingestion.staging-dir:${user.home}/.medsafe/staging}") Path stagingDir,
+            @Value("${medsafe.ingestion.job-ttl:1h}") Duration jobTtl) throws IOException {
+        this.refertoService = refertoService;
+        this.authorizationService = authorizationService;
+        this.jobRepository = jobRepository;
+        this.jobMapper = jobMapper;
+        this.ingestionExecutor = ingestionExecutor;
+        this.stagingDir = stagingDir;
+        this.jobTtl = jobTtl;
+        CartellaPrivata.prepara(stagingDir);
+        try (Stream<Path> files = Files.list(stagingDir)) {
+            this.residui = files.toList();
+        }
+    }
+
+    /**
+     * Chiude i job dei file rimasti in staging dall'esecuzione precedente e quelli rimasti
+     * attivi oltre medsafe.ingestion.job-ttl (elaborati da un'istanza che non esiste più)
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recuperaStaging() {
+        LocalDateTime adesso = LocalDateTime.now(ZONA);
+        for (Path staged : residui) {
+            String id = staged.getFileName().toString();
+            if (jobRepository.aggiornaStato(id, ATTIVI, StatoIngestione.FALLITO, ERRORE_RIAVVIO, adesso) > 0) {
+                log.warn("Job {} interrotto dal riavvio, file in staging eliminato", id);
+            }
+            eliminaStaging(staged);
+        }
+        int abbandonati = jobRepository.chiudiAbbandonati(ATTIVI, adesso.minus(jobTtl), ERRORE_RIAVVIO, adesso);
+        if (abbandonati > 0) {
+            log.warn("{} job senza aggiornamenti da oltre {} chiusi come falliti", abbandonati, jobTtl);
+        }
+    }
+
+    @Override
+    public IngestioneJobDTO accoda(RefertoDTO dto, MultipartFile file) throws IOException {
+        // 🔐 Il controllo è ripetuto dal worker, ma così un utente non abilitato riceve subito 403
+        authorizationService.checkCanAddReferto();
+        rimuoviJobScaduti();
+
+        String id = UUID.randomUUID().toString();
+        Path staged = stagingDir.resolve(id);
+        salvaInStaging(file, staged);
+        StagedMultipartFile stagedFile = new StagedMultipartFile(staged, file.getOriginalFilename(),
+                file.getContentType());
+
+        LocalDateTime adesso = LocalDateTime.now(ZONA);
+        IngestioneJob job = IngestioneJob.builder()
+                .id(id)
+                .stato(StatoIngestione.IN_CODA)
+                .nomeFile(dto.getNomeFile())
+                .dataCreazione(adesso)
+                .dataAggiornamento(adesso)
+                .build();
+        try {
+            jobRepository.save(job);
+        } catch (RuntimeException e) {
+            eliminaStaging(staged);
+            throw e;
+        }
+
+        try {
+            ingestionExecutor.execute(new DelegatingSecurityContextRunnable(() -> elabora(id, dto, stagedFile)));
+        } catch (TaskRejectedException e) {
+            log.warn("Coda di caricamento piena, referto {} rifiutato", dto.getNomeFile());
+            jobRepository.deleteById(id);
+            eliminaStaging(staged);
+            throw e;
+        }
+
+        log.info("Referto {} accodato (job {})", dto.getNomeFile(), id);
+        return jobMapper.ingestioneJobToDTO(job);
+    }
+
+    @Override
+    public IngestioneJobDTO getJob(String id) {
+        return jobRepository.findById(id).map(jobMapper::ingestioneJobToDTO).orElse(null);
+    }
+
+    private void elabora(String id, RefertoDTO dto, StagedMultipartFile file) {
+        try {
+            if (!aggiorna(id, StatoIngestione.IN_CODA, StatoIngestione.IN_CORSO, null)) {
+                log.warn("Job {} chiuso prima dell'elaborazione, referto non caricato", id);
+                return;
+            }
+            try {
+                refertoService.addReferto(dto, file);
+            } catch (Exception e) {
+                log.error("❌ Job {} fallito", id, e);
+                aggiorna(id, StatoIngestione.IN_CORSO, StatoIngestione.FALLITO, e.getMessage());
+                return;
+            }
+            aggiorna(id, StatoIngestione.IN_CORSO, StatoIngestione.COMPLETATO, null);
+            log.info("Job {} completato", id);
+        } finally {
+            eliminaStaging(file.getPath());
+        }
+    }
+
+    /**
+     * Porta il job da uno stato all'altro
+     * @return false se il job non era più nello stato atteso
+     */
+    private boolean aggiorna(String id, StatoIngestione atteso, StatoIngestione stato, String errore) {
+        if (errore != null && errore.length() > LUNGHEZZA_ERRORE) {
+            errore = errore.substring(0, LUNGHEZZA_ERRORE);
+        }
+        return jobRepository.aggiornaStato(id, Set.of(atteso), stato, errore, LocalDateTime.now(ZONA)) > 0;
+    }
+
+    private void rimuoviJobScaduti() {
+        jobRepository.eliminaPrima(TERMINATI, LocalDateTime.now(ZONA).minus(jobTtl));
+    }
+
+    /**
+     * Copia il file caricato in staging, leggibile solo dal proprietario
+     */
+    private void salvaInStaging(MultipartFile file, Path staged) throws IOException {
+        Files.createFile(staged, CartellaPrivata.permessiFile(stagingDir));
+        try (InputStream in = file.getInputStream(); OutputStream out = Files.newOutputStream(staged)) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            eliminaStaging(staged);
+            throw e;
+        }
+    }
+
+    private void eliminaStaging(Path staged) {
+        try {
+            Files.deleteIfExists(staged);
+        } catch (IOException e) {
+            log.warn("Impossibile eliminare il file in staging {}: {}", staged, e.getMessage());
+        }
+    }
+}
@@ -1,7 +1,13 @@
 package it.unisa.project.medsafe.service;
 
+import it.unisa.project.medsafe.dto.CursoreReferto;
+import it.unisa.project.medsafe.dto.FiltroRefertiDTO;
+import it.unisa.project.medsafe.dto.FinestraRefertiDTO;
 import it.unisa.project.medsafe.dto.RefertoDTO;
+import it.unisa.project.medsafe.dto.RefertoSummary;
 import it.unisa.project.medsafe.entity.TipoEsame;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.List;
@@ -14,9 +20,31 @@ public interface RefertoService {
     boolean editReferto(RefertoDTO dto, MultipartFile file);
     boolean removeReferto(int id);
     List<RefertoDTO> getRefertoByCodiceFiscale(String codiceFiscale);
+    Page<RefertoSummary> getRefertoByCodiceFiscale(String codiceFiscale, Pageable pageable);
     RefertoDTO getRefertoByNomeFile(String nomeFile);
-    List<RefertoDTO> getRefertiByTipoEsame(TipoEsame tipoEsame);
-    List<RefertoDTO> getRefertiByAutoreEmail(String autoreEmail);
+    Page<RefertoSummary> getRefertiByTipoEsame(TipoEsame tipoEsame, Pageable pageable);
+    Page<RefertoSummary> getRefertiByAutoreEmail(String autoreEmail, Pageable pageable);
     RefertoDTO getRefertoById(int id);
-    List<RefertoDTO> getAllReferti();
+    Page<RefertoSummary> getAllReferti(Pageable pageable);
+
+    /**
+     * Ricerca combinata: tutti i criteri valorizzati del filtro in un'unica query paginata.
+     * Senza referti corrispondenti restituisce una pagina vuota.
+     */
+    Page<RefertoSummary> cercaReferti(FiltroRefertiDTO filtro, Pageable pageable);
+
+    /**
+     * Scorrimento cronologico a cursore, dal referto più recente, opzionalmente filtrato
+     * per autore o per paziente.
+     *
+     * @param after ultimo referto già ricevuto, null per iniziare dal più recente
+     * @param limit numero massimo di referti restituiti
+     */
+    FinestraRefertiDTO scorriReferti(String autoreEmail, String codiceFiscale, CursoreReferto after, int limit);
+
+    /**
+     * Restituisce il PDF della versione corrente del referto, generandolo (e caricandolo
+     * su storage) se non è ancora stato creato.
+     */
+    byte[] getPdfGenerato(int id);
 }
@@ -1,20 +1,43 @@
 package it.unisa.project.medsafe.service;
 
+import it.unisa.project.medsafe.dto.CursoreReferto;
+import it.unisa.project.medsafe.dto.FiltroRefertiDTO;
+import it.unisa.project.medsafe.dto.FinestraRefertiDTO;
 import it.unisa.project.medsafe.dto.RefertoDTO;
+import it.unisa.project.medsafe.dto.RefertoSummary;
 import it.unisa.project.medsafe.entity.Referto;
 import it.unisa.project.medsafe.entity.TipoEsame;
 import it.unisa.project.medsafe.exception.RefertoNotFoundException;
 import it.unisa.project.medsafe.repository.RefertoRepository;
+import it.unisa.project.medsafe.repository.RefertoSpecifications;
+import it.unisa.project.medsafe.utils.BufferABlocchi;
+import it.unisa.project.medsafe.utils.ImprontaReferto;
+import it.unisa.project.medsafe.utils.PercorsoBlob;
+import it.unisa.project.medsafe.utils.PoolBlocchi;
 import it.unisa.project.medsafe.utils.RefertoMapper;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -23,12 +46,48 @@ import lombok.extern.slf4j.Slf4j;
 @RequiredArgsConstructor
 @Slf4j
 public class RefertoServiceImpl implements RefertoService {
+    /**
+     * Ordine dello scorrimento a cursore: l'id distingue i referti caricati nello stesso istante
+     */
+    private static final Sort ORDINE_CRONOLOGICO = Sort.by(Sort.Order.desc("dataCaricamento"), Sort.Order.desc("id"));
+    private static final int LIMITE_SCORRIMENTO_MAX = 100;
+
     private final RefertoRepository refertoRepository;
     private final RefertoMapper refertoMapper;
     private final PdfService pdfService;
     private final BlobStorageService blobStorageService;
     private final AuthorizationService authorizationService;
+    @Qualifier("uploadExecutor")
+    private final Executor uploadExecutor;
+    private final PdfCache pdfCache;
+    private final PoolBlocchi poolBlocchi;
+    private final RicercaFullTextService ricercaFullTextService;
+
+    /**
+     * Con la generazione lazy il PDF non viene creato al caricamento o alla modifica
+     * del referto, ma al primo download (getPdfGenerato)
+     */
+    @Value("${medsafe.pdf.lazy:false}")
+    private boolean pdfLazy;
+
+    /**
+     * Serializza la generazione su richiesta dello stesso referto (lock scelto per id)
+     */
+    private final ReentrantLock[] lockGenerazione = creaLock(32);
+
+    private static ReentrantLock[] creaLock(int numero) {
+        ReentrantLock[] lock = new ReentrantLock[numero];
+        for (int i = 0; i < numero; i++) {
+            lock[i] = new ReentrantLock();
+        }
+        return lock;
+    }
 
+    /**
+     * Senza transazione: upload dei file e generazione del PDF (che attende pdfExecutor) avvengono
+     * prima del salvataggio, che usa una transazione breve del repository.
+     */
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
     public void addReferto(RefertoDTO dto, MultipartFile file) {
         // 🔐 CONTROLLO AUTORIZZAZIONE: verifica se l'utente è abilitato
         authorizationService.checkCanAddReferto();
@@ -36,26 +95,51 @@ public class RefertoServiceImpl implements RefertoService {
         // Setta i metadati (Fuso orario italiano)
         dto.setDataCaricamento(LocalDateTime.now(java.time.ZoneId.of("Europe/Rome")));
 
-        try {
-            // 1. Carica l'immagine originale su Azure Blob Storage
-            String imageUrl = blobStorageService.uploadFile(file, file.getOriginalFilename());
-            dto.setFileUrlImmagine(imageUrl);
-
-            // 2. Genera il PDF con i dati del referto
-            ByteArrayInputStream pdfStream = pdfService.generaPdf(dto);
+        if (pdfLazy) {
+            // Solo l'immagine: il PDF verrà generato al primo download
+            try {
+                dto.setFileUrlImmagine(blobStorageService.uploadFile(file, file.getOriginalFilename()));
+            } catch (IOException e) {
+                throw new RuntimeException("Errore durante il caricamento dei file: " + e.getMessage(), e);
+            }
+            dto.setUrlPdfGenerato(null);
+            salvaEIndicizza(refertoMapper.refertoDTOToReferto(dto));
+            return;
+        }
 
-            // 3. Carica il PDF generato su Azure Blob Storage con il nome scelto
-            // dall'utente
-            String pdfUrl = blobStorageService.uploadPdf(pdfStream, dto.getNomeFile());
-            dto.setUrlPdfGenerato(pdfUrl);
+        try {
+            // 1-2. Carica l'immagine originale su Azure Blob Storage e genera il PDF con i dati del referto
+            BufferABlocchi pdf = caricaImmagineEGeneraPdf(dto, file);
+            try (pdf) {
+                // 3. Carica il PDF generato su Azure Blob Storage con il nome scelto
+                // dall'utente
+                String pdfUrl = blobStorageService.uploadPdf(pdf, dto.getNomeFile());
+                dto.setUrlPdfGenerato(pdfUrl);
+            } catch (IOException | RuntimeException e) {
+                eliminaBlob(dto.getFileUrlImmagine());
+                throw e;
+            }
 
         } catch (IOException e) {
             throw new RuntimeException("Errore durante il caricamento dei file: " + e.getMessage(), e);
         }
 
-        refertoRepository.save(refertoMapper.refertoDTOToReferto(dto));
+        salvaEIndicizza(refertoMapper.refertoDTOToReferto(dto));
     }
 
+    /**
+     * Salva il nuovo referto e ne accoda l'indicizzazione full-text (eseguita dopo il commit)
+     */
+    private void salvaEIndicizza(Referto referto) {
+        refertoRepository.save(referto);
+        ricercaFullTextService.aggiorna(referto);
+    }
+
+    /**
+     * Senza transazione, come addReferto: lettura e salvataggio del referto usano ciascuno una
+     * transazione breve del repository, così la rigenerazione del PDF non tiene occupata una connessione.
+     */
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
     public boolean editReferto(RefertoDTO dto, MultipartFile file) {
         log.info("Inizio procedura modifica referto ID: {}", dto.getId());
 
@@ -71,58 +155,87 @@ public class RefertoServiceImpl implements RefertoService {
             String oldImgUrl = referto.getFileUrlImmagine();
             String oldPdfUrl = referto.getUrlPdfGenerato();
 
-            // 1. Gestione Immagine: se c'è un nuovo file, caricalo ed elimina il vecchio
-            if (file != null && !file.isEmpty()) {
-                log.info("Nuova immagine rilevata, procedo con upload...");
-                try {
-                    String newImgUrl = blobStorageService.uploadFile(file, file.getOriginalFilename());
-                    dto.setFileUrlImmagine(newImgUrl);
-                    log.info("Nuova immagine caricata con successo");
+            BufferABlocchi pdf = null;
 
-                    // Se l'URL è cambiato (dovrebbe esserlo), elimina la vecchia immagine
-                    if (oldImgUrl != null && !oldImgUrl.equals(newImgUrl)) {
-                        String oldImgBlobName = extractBlobPathFromUrl(oldImgUrl);
-                        if (oldImgBlobName != null) {
-                            blobStorageService.deleteFile(oldImgBlobName);
-                            log.info("Vecchia immagine eliminata con successo");
-                        }
+            boolean nuovoFile = file != null && !file.isEmpty();
+            if (!nuovoFile && (dto.getFileUrlImmagine() == null || dto.getFileUrlImmagine().isEmpty())) {
+                // Se non c'è nuovo file, mantieni l'URL esistente nel DTO per coerenza
+                // Se il DTO ha il campo vuoto, lo riempiamo con quello del DB
+                log.info("Ripristino URL immagine dal DB");
+                dto.setFileUrlImmagine(oldImgUrl);
+            }
+
+            // Nessun campo stampato è cambiato (es. modificato solo il codice fiscale o form salvato
+            // senza modifiche): il PDF esistente resta valido
+            boolean pdfInvariato = !nuovoFile && ImprontaReferto.calcola(dto).equals(referto.getImpronta());
+
+            // 1-2. Gestione Immagine: se c'è un nuovo file, caricalo e rigenera il PDF in parallelo
+            if (pdfInvariato) {
+                log.info("Contenuto del PDF invariato: nessuna rigenerazione");
+                dto.setUrlPdfGenerato(oldPdfUrl);
+            } else if (pdfLazy) {
+                // Il PDF verrà rigenerato al prossimo download: qui si carica solo l'eventuale nuova immagine
+                try {
+                    if (nuovoFile) {
+                        dto.setFileUrlImmagine(blobStorageService.uploadFile(file, file.getOriginalFilename()));
                     }
                 } catch (IOException e) {
                     log.error("Errore upload nuova immagine", e);
                     throw new RuntimeException("Errore durante il caricamento della nuova immagine: " + e.getMessage(),
                             e);
                 }
+                dto.setUrlPdfGenerato(null);
+            } else if (nuovoFile) {
+                log.info("Nuova immagine rilevata, procedo con upload e rigenerazione PDF...");
+                try {
+                    pdf = caricaImmagineEGeneraPdf(dto, file);
+                    log.info("Nuova immagine caricata con successo");
+                } catch (IOException e) {
+                    log.error("Errore upload nuova immagine", e);
+                    throw new RuntimeException("Errore durante il caricamento della nuova immagine: " + e.getMessage(),
+                            e);
+                }
             } else {
                 log.info("Nessuna nuova immagine caricata. Mantengo l'immagine esistente.");
-                // Se non c'è nuovo file, mantieni l'URL esistente nel DTO per coerenza
-                // Se il DTO ha il campo vuoto, lo riempiamo con quello del DB
-                if (dto.getFileUrlImmagine() == null || dto.getFileUrlImmagine().isEmpty()) {
-                    log.info("Ripristino URL immagine dal DB");
-                    dto.setFileUrlImmagine(oldImgUrl);
+                try {
+                    log.info("Rigenerazione PDF referto...");
+                    pdf = generaPdf(dto, null);
+                } catch (IOException e) {
+                    log.error("Errore rigenerazione PDF", e);
+                    throw new RuntimeException("Errore durante la rigenerazione del PDF: " + e.getMessage(), e);
                 }
             }
 
             try {
-                // 2. Rigenera il PDF con i nuovi dati
-                log.info("Rigenerazione PDF referto...");
-                ByteArrayInputStream pdfStream = pdfService.generaPdf(dto);
-
                 // 3. Carica il nuovo PDF
                 // Usiamo il nome file aggiornato (o lo stesso) per generare un nuovo blob unico
-                String newPdfUrl = blobStorageService.uploadPdf(pdfStream, dto.getNomeFile());
-                dto.setUrlPdfGenerato(newPdfUrl);
-                log.info("Nuovo PDF generato e caricato con successo");
-
-                // 4. Elimina il vecchio PDF
-                String oldPdfBlobName = extractBlobPathFromUrl(oldPdfUrl);
-                if (oldPdfBlobName != null) {
-                    blobStorageService.deleteFile(oldPdfBlobName);
-                    log.info("Vecchio PDF eliminato con successo");
+                if (pdf != null) {
+                    String newPdfUrl = blobStorageService.uploadPdf(pdf, dto.getNomeFile());
+                    dto.setUrlPdfGenerato(newPdfUrl);
+                    log.info("Nuovo PDF generato e caricato con successo");
+                }
+            } catch (IOException | RuntimeException e) {
+                log.error("Errore caricamento nuovo PDF", e);
+                // La nuova immagine non verrà mai referenziata: la rimuoviamo e teniamo quella vecchia
+                if (nuovoFile) {
+                    eliminaBlob(dto.getFileUrlImmagine());
                 }
-
-            } catch (IOException e) {
-                log.error("Errore rigenerazione PDF", e);
                 throw new RuntimeException("Errore durante la rigenerazione del PDF: " + e.getMessage(), e);
+            } finally {
+                if (pdf != null) {
+                    pdf.close();
+                }
+            }
+
+            // 4. Solo ora che i nuovi file sono su storage eliminiamo quelli vecchi
+            if (nuovoFile && oldImgUrl != null && !oldImgUrl.equals(dto.getFileUrlImmagine())) {
+                eliminaBlob(oldImgUrl);
+                log.info("Vecchia immagine eliminata con successo");
+            }
+            String oldPdfBlobName = pdfInvariato ? null : PercorsoBlob.daUrl(oldPdfUrl);
+            if (oldPdfBlobName != null) {
+                blobStorageService.deleteFile(oldPdfBlobName);
+                log.info("Vecchio PDF eliminato con successo");
             }
 
             // Se autorizzato, procedi con la modifica
@@ -130,7 +243,14 @@ public class RefertoServiceImpl implements RefertoService {
             // dataCaricamento)
             log.info("Aggiornamento entità Referto sul DB...");
             refertoMapper.updateRefertoFromDTO(dto, referto);
+            if (!pdfInvariato) {
+                referto.setVersione(referto.getVersione() + 1);
+            }
             refertoRepository.save(referto);
+            ricercaFullTextService.aggiorna(referto);
+            if (!pdfInvariato) {
+                pdfCache.invalida(referto.getId());
+            }
             log.info("Referto salvato correttamente.");
             return true;
         }
@@ -140,30 +260,135 @@ public class RefertoServiceImpl implements RefertoService {
     }
 
     /**
-     * Estrae il percorso del blob dall'URL completo.
-     * Assumendo formato: https://<account>.blob.core.windows.net/<container>/<path>
-     * Il container è "upload-dir".
+     * Senza transazione: la lettura del referto e la registrazione dell'URL usano ciascuna una
+     * transazione breve del repository, così generazione e upload del PDF (anche secondi)
+     * non tengono occupata una connessione del pool.
+     */
+    @Override
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    public byte[] getPdfGenerato(int id) {
+        Referto referto = refertoRepository.findById(id)
+                .orElseThrow(() -> new RefertoNotFoundException("Referto non trovato per id: " + id));
+
+        byte[] pdf = pdfCache.get(id, referto.getVersione());
+        if (pdf != null) {
+            return pdf;
+        }
+
+        // Richieste contemporanee per lo stesso referto: lo genera e lo carica solo la prima,
+        // le altre lo trovano in cache
+        ReentrantLock lock = lockGenerazione[Math.floorMod(id, lockGenerazione.length)];
+        lock.lock();
+        try {
+            pdf = pdfCache.get(id, referto.getVersione());
+            if (pdf != null) {
+                return pdf;
+            }
+            log.info("Generazione su richiesta del PDF per referto ID: {} (versione {})", id, referto.getVersione());
+            try (BufferABlocchi generato = generaPdf(refertoMapper.refertoToRefertoDTO(referto), null)) {
+                pdf = generato.toByteArray();
+                pdfCache.put(id, referto.getVersione(), pdf);
+
+                if (referto.getUrlPdfGenerato() == null) {
+                    String url = blobStorageService.uploadPdf(generato, referto.getNomeFile());
+                    // Aggiornamento condizionato: non sovrascrive una modifica concorrente del referto
+                    if (refertoRepository.registraPdfGenerato(id, referto.getVersione(), url) == 0) {
+                        eliminaBlob(url);
+                    }
+                }
+            }
+            return pdf;
+        } catch (IOException e) {
+            throw new RuntimeException("Errore durante la generazione del PDF: " + e.getMessage(), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Carica il file su Azure Blob Storage e genera il PDF del referto, impostando
+     * l'URL dell'immagine nel DTO.
+     *
+     * I due passi sono indipendenti (il PDF usa i byte già in memoria, sia per le immagini
+     * sia per gli esami PDF da accodare), quindi l'upload gira su uploadExecutor mentre
+     * il PDF viene generato su questo thread.
+     * Se uno dei due rami fallisce, il file eventualmente caricato viene eliminato.
      */
-    private String extractBlobPathFromUrl(String url) {
-        if (url == null || url.isEmpty())
-            return null;
+    private BufferABlocchi caricaImmagineEGeneraPdf(RefertoDTO dto, MultipartFile file) throws IOException {
+        byte[] immagine = file.getBytes();
+
+        CompletableFuture<String> upload = CompletableFuture.supplyAsync(() -> {
+            try {
+                return blobStorageService.uploadFile(file, file.getOriginalFilename());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, uploadExecutor);
+
+        // L'URL definitivo arriva con l'upload: quello eventualmente presente nel DTO è della vecchia immagine
+        dto.setFileUrlImmagine(null);
+        BufferABlocchi pdf;
         try {
-            String containerName = "upload-dir";
-            int index = url.indexOf("/" + containerName + "/");
-            if (index != -1) {
-                String encodedPath = url.substring(index + containerName.length() + 2);
-                return java.net.URLDecoder.decode(encodedPath, java.nio.charset.StandardCharsets.UTF_8);
+            pdf = generaPdf(dto, immagine);
+        } catch (IOException | RuntimeException e) {
+            // Il PDF non è stato generato: l'immagine caricata nel frattempo non serve più
+            try {
+                eliminaBlob(attendiUpload(upload));
+            } catch (IOException | RuntimeException uploadFallito) {
+                e.addSuppressed(uploadFallito);
             }
-            // Tentativo fallback se inizia con container
-            if (url.startsWith(containerName + "/")) {
-                String encodedPath = url.substring(containerName.length() + 1);
-                return java.net.URLDecoder.decode(encodedPath, java.nio.charset.StandardCharsets.UTF_8);
+            throw e;
+        }
+
+        try {
+            dto.setFileUrlImmagine(attendiUpload(upload));
+        } catch (IOException | RuntimeException e) {
+            pdf.close();
+            throw e;
+        }
+        return pdf;
+    }
+
+    /**
+     * Genera il PDF in un buffer preso dal pool, che il chiamante chiude dopo l'upload.
+     * In caso di errore il buffer viene chiuso subito.
+     */
+    private BufferABlocchi generaPdf(RefertoDTO dto, byte[] immagine) throws IOException {
+        BufferABlocchi pdf = poolBlocchi.nuovoBuffer();
+        try {
+            pdfService.generaPdf(dto, immagine, pdf);
+            return pdf;
+        } catch (IOException | RuntimeException e) {
+            pdf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Attende la fine dell'upload, riportando l'eccezione originale in caso di errore.
+     */
+    private String attendiUpload(CompletableFuture<String> upload) throws IOException {
+        try {
+            return upload.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
             }
-        } catch (Exception e) {
-            // Logghiamo l'errore ma non blocchiamo tutto per un fallimento di cleanup
-            log.warn("Errore estrazione blob path");
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Elimina un blob a partire dal suo URL (best-effort, usato per ripulire upload non più referenziati)
+     */
+    private void eliminaBlob(String url) {
+        String blobName = PercorsoBlob.daUrl(url);
+        if (blobName != null) {
+            blobStorageService.deleteFile(blobName);
         }
-        return null;
     }
 
     public boolean removeReferto(int id) {
@@ -178,13 +403,13 @@ public class RefertoServiceImpl implements RefertoService {
             // Se autorizzato, procedi con l'eliminazione
             try {
                 // Elimina immagine se presente
-                String imgBlobName = extractBlobPathFromUrl(referto.getFileUrlImmagine());
+                String imgBlobName = PercorsoBlob.daUrl(referto.getFileUrlImmagine());
                 if (imgBlobName != null) {
                     blobStorageService.deleteFile(imgBlobName);
                 }
 
                 // Elimina PDF se presente
-                String pdfBlobName = extractBlobPathFromUrl(referto.getUrlPdfGenerato());
+                String pdfBlobName = PercorsoBlob.daUrl(referto.getUrlPdfGenerato());
                 if (pdfBlobName != null) {
                     blobStorageService.deleteFile(pdfBlobName);
                 }
@@ -196,6 +421,8 @@ public class RefertoServiceImpl implements RefertoService {
             }
 
             refertoRepository.deleteById(id);
+            pdfCache.invalida(id);
+            ricercaFullTextService.rimuovi(id);
             return true;
         }
         return false;
@@ -209,6 +436,14 @@ public class RefertoServiceImpl implements RefertoService {
         return list.stream().map(refertoMapper::refertoToRefertoDTO).toList();
     }
 
+    public Page<RefertoSummary> getRefertoByCodiceFiscale(String codiceFiscale, Pageable pageable) {
+        var page = refertoRepository.findSummaryByCodiceFiscale(codiceFiscale, ordinamentoStabile(pageable));
+        if (page.getTotalElements() == 0) {
+            throw new RefertoNotFoundException("Nessun referto trovato per il codice fiscale fornito");
+        }
+        return page;
+    }
+
     public RefertoDTO getRefertoByNomeFile(String nomeFile) {
         var referto = refertoRepository.findByNomeFile(nomeFile);
         if (referto == null) {
@@ -217,20 +452,20 @@ public class RefertoServiceImpl implements RefertoService {
         return refertoMapper.refertoToRefertoDTO(referto);
     }
 
-    public List<RefertoDTO> getRefertiByTipoEsame(TipoEsame tipoEsame) {
-        var list = refertoRepository.findByTipoEsame(tipoEsame);
-        if (list == null || list.isEmpty()) {
+    public Page<RefertoSummary> getRefertiByTipoEsame(TipoEsame tipoEsame, Pageable pageable) {
+        var page = refertoRepository.findSummaryByTipoEsame(tipoEsame, ordinamentoStabile(pageable));
+        if (page.getTotalElements() == 0) {
             throw new RefertoNotFoundException("Nessun referto trovato per tipo esame: " + tipoEsame);
         }
-        return list.stream().map(refertoMapper::refertoToRefertoDTO).toList();
+        return page;
     }
 
-    public List<RefertoDTO> getRefertiByAutoreEmail(String autoreEmail) {
-        var list = refertoRepository.findByAutoreEmail(autoreEmail);
-        if (list == null || list.isEmpty()) {
+    public Page<RefertoSummary> getRefertiByAutoreEmail(String autoreEmail, Pageable pageable) {
+        var page = refertoRepository.findSummaryByAutoreEmail(autoreEmail, ordinamentoStabile(pageable));
+        if (page.getTotalElements() == 0) {
             throw new RefertoNotFoundException("Nessun referto trovato per l'autore corrente");
         }
-        return list.stream().map(refertoMapper::refertoToRefertoDTO).toList();
+        return page;
     }
 
     @Override
@@ -241,9 +476,60 @@ public class RefertoServiceImpl implements RefertoService {
     }
 
     @Override
-    public List<RefertoDTO> getAllReferti() {
-        var list = refertoRepository.findAll();
-        return refertoMapper.refertiToRefertiDTO(list);
+    public Page<RefertoSummary> getAllReferti(Pageable pageable) {
+        return refertoRepository.findSummaryBy(ordinamentoStabile(pageable));
+    }
+
+    @Override
+    public Page<RefertoSummary> cercaReferti(FiltroRefertiDTO filtro, Pageable pageable) {
+        return refertoRepository.cercaRiepiloghi(RefertoSpecifications.da(filtro), ordinamentoStabile(pageable));
+    }
+
+    @Override
+    public FinestraRefertiDTO scorriReferti(String autoreEmail, String codiceFiscale, CursoreReferto after,
+            int limit) {
+        ScrollPosition posizione = after == null ? ScrollPosition.keyset()
+                : ScrollPosition.forward(Map.of("dataCaricamento", after.dataCaricamento(), "id", after.id()));
+        Limit massimo = Limit.of(Math.clamp(limit, 1, LIMITE_SCORRIMENTO_MAX));
+
+        boolean perAutore = autoreEmail != null && !autoreEmail.isBlank();
+        boolean perPaziente = codiceFiscale != null && !codiceFiscale.isBlank();
+        Window<RefertoSummary> finestra;
+        if (perAutore && perPaziente) {
+            finestra = refertoRepository.findSummaryByAutoreEmailAndCodiceFiscale(autoreEmail, codiceFiscale,
+                    posizione, ORDINE_CRONOLOGICO, massimo);
+        } else if (perAutore) {
+            finestra = refertoRepository.findSummaryByAutoreEmail(autoreEmail, posizione, ORDINE_CRONOLOGICO,
+                    massimo);
+        } else if (perPaziente) {
+            finestra = refertoRepository.findSummaryByCodiceFiscale(codiceFiscale, posizione, ORDINE_CRONOLOGICO,
+                    massimo);
+        } else {
+            finestra = refertoRepository.findSummaryBy(posizione, ORDINE_CRONOLOGICO, massimo);
+        }
+
+        String successivo = null;
+        if (finestra.hasNext() && !finestra.isEmpty()) {
+            RefertoSummary ultimo = finestra.getContent().get(finestra.size() - 1);
+            successivo = new CursoreReferto(ultimo.dataCaricamento(), ultimo.id()).toString();
+        }
+        return FinestraRefertiDTO.builder()
+                .content(finestra.getContent())
+                .successivo(successivo)
+                .build();
+    }
+
+    /**
+     * Aggiunge l'id come ultimo criterio di ordinamento: a parità degli altri campi
+     * (es. stessa dataCaricamento) l'ordine resta lo stesso tra una pagina e l'altra,
+     * così nessun referto viene ripetuto o saltato.
+     */
+    private static Pageable ordinamentoStabile(Pageable pageable) {
+        if (pageable.isUnpaged() || pageable.getSort().getOrderFor("id") != null) {
+            return pageable;
+        }
+        return PageRequest.of(pageable.getPageNumber(), pageable.getPageSize(),
+                pageable.getSort().and(Sort.by(Sort.Direction.DESC, "id")));
     }
 
 }
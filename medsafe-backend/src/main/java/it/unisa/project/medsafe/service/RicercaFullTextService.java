@@ -0,0 +1,40 @@
+package it.unisa.project.medsafe.service;
+
+import it.unisa.project.medsafe.dto.RisultatoFullText;
+import it.unisa.project.medsafe.entity.Referto;
+import it.unisa.project.medsafe.exception.RicercaNonValidaException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
+/**
+ * Ricerca per parole nel testo e nelle conclusioni dei referti, su un indice full-text
+ * aggiornato in background a ogni caricamento, modifica ed eliminazione.
+ */
+public interface RicercaFullTextService {
+
+    /**
+     * Accoda la reindicizzazione del referto, eseguita dopo il commit della transazione in corso
+     */
+    void aggiorna(Referto referto);
+
+    /**
+     * Accoda la rimozione del referto dall'indice, eseguita dopo il commit della transazione in corso
+     */
+    void rimuovi(int id);
+
+    /**
+     * Accoda la ricostruzione dell'intero indice a partire dal database (solo ADMIN)
+     * @throws it.unisa.project.medsafe.exception.UnauthorizedException se l'utente non è un amministratore
+     */
+    void ricostruisci();
+
+    /**
+     * Cerca i referti che contengono tutte le parole indicate (sono ammesse anche frasi
+     * tra virgolette e la sintassi di Lucene, es. nodulo OR frattura), dal più pertinente.
+     * L'ordine è sempre quello di pertinenza: il pageable non può indicare un ordinamento.
+     * @return una pagina di risultati con i passaggi evidenziati, vuota se il testo è vuoto
+     * @throws RicercaNonValidaException se il testo non è interpretabile, la ricerca è troppo
+     *         ampia o è richiesto un ordinamento
+     */
+    Page<RisultatoFullText> cerca(String testo, Pageable pageable);
+}
@@ -0,0 +1,408 @@
+package it.unisa.project.medsafe.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import it.unisa.project.medsafe.dto.RefertoSummary;
+import it.unisa.project.medsafe.dto.RisultatoFullText;
+import it.unisa.project.medsafe.entity.Referto;
+import it.unisa.project.medsafe.entity.TipoEsame;
+import it.unisa.project.medsafe.exception.RicercaNonValidaException;
+import it.unisa.project.medsafe.repository.RefertoRepository;
+import it.unisa.project.medsafe.utils.CartellaPrivata;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.it.ItalianAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.uhighlight.DefaultPassageFormatter;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Indice full-text di testo e conclusioni dei referti, salvato con Lucene nella cartella
+ * medsafe.fulltext.directory del disco locale. La cartella contiene il testo dei referti
+ * ed è privata (vedi CartellaPrivata).
+ *
+ * Caricamenti, modifiche ed eliminazioni accodano l'aggiornamento su fullTextExecutor dopo il
+ * commit della transazione: il worker rilegge il referto dal database e lo reindicizza (o lo
+ * rimuove se non esiste più), quindi l'indice converge allo stato del database anche se due
+ * aggiornamenti dello stesso referto vengono eseguiti in ordine diverso. Le ricerche vedono
+ * subito gli aggiornamenti (reader near-real-time); il commit su disco avviene quando la coda
+ * si svuota o ogni medsafe.fulltext.commit-ogni aggiornamenti, così una raffica di modifiche
+ * costa un solo fsync.
+ *
+ * Oltre a testo e conclusioni l'indice memorizza i campi di RefertoSummary, quindi una ricerca
+ * non interroga il database. Se all'avvio l'indice è vuoto (prima installazione o cartella
+ * rimossa) viene ricostruito dal database. L'indice è locale: con più istanze ognuna vede solo
+ * gli aggiornamenti ricevuti da lei, fino alla ricostruzione successiva.
+ *
+ * Metriche: medsafe.fulltext.coda (aggiornamenti in attesa) e medsafe.fulltext.documenti.
+ */
+@Service
+@Slf4j
+public class RicercaFullTextServiceImpl implements RicercaFullTextService {
+
+    static final String ID = "id";
+    static final String TESTO = "testoReferto";
+    static final String CONCLUSIONI = "conclusioni";
+    private static final String[] CAMPI_TESTO = { TESTO, CONCLUSIONI };
+
+    private static final String NOME_PAZIENTE = "nomePaziente";
+    private static final String CODICE_FISCALE = "codiceFiscale";
+    private static final String TIPO_ESAME = "tipoEsame";
+    private static final String NOME_FILE = "nomeFile";
+    private static final String AUTORE_EMAIL = "autoreEmail";
+    private static final String DATA_CARICAMENTO = "dataCaricamento";
+
+    /**
+     * Passaggi evidenziati restituiti per testo e conclusioni
+     */
+    private static final int MAX_PASSAGGI = 3;
+
+    /**
+     * Referti letti dal database per ogni blocco della ricostruzione
+     */
+    private static final int BLOCCO_RICOSTRUZIONE = 500;
+
+    /**
+     * Testo memorizzato e indicizzato con gli offset delle parole, che l'evidenziatore legge
+     * dall'indice invece di rianalizzare il testo
+     */
+    private static final FieldType TIPO_TESTO = new FieldType(TextField.TYPE_STORED);
+
+    static {
+        TIPO_TESTO.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        TIPO_TESTO.freeze();
+    }
+
+    private final RefertoRepository refertoRepository;
+    private final AuthorizationService authorizationService;
+    private final ThreadPoolTaskExecutor executor;
+    private final int commitOgni;
+
+    /**
+     * Stemming e stop word italiani: "noduli" trova anche "nodulo"
+     */
+    private final Analyzer analyzer = new ItalianAnalyzer();
+    private final Directory directory;
+    private final IndexWriter writer;
+    private final SearcherManager searcherManager;
+
+    private final AtomicInteger inAttesa = new AtomicInteger();
+    private final AtomicInteger nonSalvati = new AtomicInteger();
+
+    public RicercaFullTextServiceImpl(RefertoRepository refertoRepository, AuthorizationService authorizationService,
+            @Qualifier("fullTextExecutor") ThreadPoolTaskExecutor executor,
+            @Value("${medsafe.fulltext.directory:${user.home}/.medsafe/fulltext}") Path percorso,
+            @Value("${medsafe.fulltext.commit-ogni:100}") int commitOgni,
+            MeterRegistry meterRegistry) throws IOException {
+        this.refertoRepository = refertoRepository;
+        this.authorizationService = authorizationService;
+        this.executor = executor;
+        this.commitOgni = commitOgni;
+
+        CartellaPrivata.prepara(percorso);
+        this.directory = FSDirectory.open(percorso);
+        this.writer = new IndexWriter(directory, new IndexWriterConfig(analyzer)
+                .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+        this.searcherManager = new SearcherManager(writer, null);
+
+        Gauge.builder("medsafe.fulltext.coda", inAttesa, AtomicInteger::get)
+                .description("Aggiornamenti dell'indice full-text in attesa")
+                .register(meterRegistry);
+        Gauge.builder("medsafe.fulltext.documenti", writer, w -> w.getDocStats().numDocs)
+                .description("Referti presenti nell'indice full-text")
+                .register(meterRegistry);
+        log.info("Indice full-text: {} ({} referti)", percorso, writer.getDocStats().numDocs);
+    }
+
+    @Override
+    public void aggiorna(Referto referto) {
+        // L'id di un referto nuovo è assegnato dal database: si legge solo dopo il commit
+        dopoIlCommit(() -> accoda(() -> reindicizza(referto.getId())));
+    }
+
+    @Override
+    public void rimuovi(int id) {
+        dopoIlCommit(() -> accoda(() -> reindicizza(id)));
+    }
+
+    @Override
+    public void ricostruisci() {
+        // 🔐 Ricostruzione riservata agli amministratori
+        authorizationService.checkIsAdmin();
+        accoda(this::ricostruisciDalDatabase);
+    }
+
+    /**
+     * Ricostruisce l'indice se all'avvio è vuoto ma il database contiene referti
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void ricostruisciSeVuoto() {
+        if (writer.getDocStats().numDocs == 0 && refertoRepository.count() > 0) {
+            log.info("Indice full-text vuoto: ricostruzione dal database");
+            accoda(this::ricostruisciDalDatabase);
+        }
+    }
+
+    @Override
+    public Page<RisultatoFullText> cerca(String testo, Pageable pageable) {
+        if (pageable.getSort().isSorted()) {
+            throw new RicercaNonValidaException("Ordinamento non supportato: i risultati sono in ordine di pertinenza");
+        }
+        if (testo == null || testo.isBlank()) {
+            return Page.empty(pageable);
+        }
+        Query query = interpreta(testo);
+
+        IndexSearcher searcher;
+        try {
+            searcher = searcherManager.acquire();
+        } catch (IOException e) {
+            throw new RuntimeException("Errore durante la ricerca full-text: " + e.getMessage(), e);
+        }
+        try {
+            int totale = searcher.count(query);
+            // L'offset (long) viene confrontato prima della conversione: una pagina oltre i
+            // risultati è vuota anche se il suo offset supera Integer.MAX_VALUE
+            long offset = pageable.isPaged() ? pageable.getOffset() : 0;
+            if (offset >= totale) {
+                return new PageImpl<>(List.of(), pageable, totale);
+            }
+            int inizio = (int) offset;
+            int fine = (int) Math.min(totale, offset + (pageable.isPaged() ? pageable.getPageSize() : totale));
+
+            // I migliori risultati fino alla fine della pagina: le pagine precedenti vengono scartate
+            ScoreDoc[] migliori = searcher.search(query, fine).scoreDocs;
+            int[] docIds = new int[migliori.length - inizio];
+            for (int i = 0; i < docIds.length; i++) {
+                docIds[i] = migliori[inizio + i].doc;
+            }
+
+            UnifiedHighlighter evidenziatore = new UnifiedHighlighter.Builder(searcher, analyzer)
+                    .withFormatter(new DefaultPassageFormatter("<mark>", "</mark>", "… ", true))
+                    .withMaxNoHighlightPassages(0)
+                    .build();
+            Map<String, String[]> passaggi = evidenziatore.highlightFields(CAMPI_TESTO, query, docIds,
+                    new int[] { MAX_PASSAGGI, MAX_PASSAGGI });
+
+            StoredFields campi = searcher.storedFields();
+            List<RisultatoFullText> risultati = new ArrayList<>(docIds.length);
+            for (int i = 0; i < docIds.length; i++) {
+                risultati.add(new RisultatoFullText(riepilogo(campi.document(docIds[i])), migliori[inizio + i].score,
+                        passaggi.get(TESTO)[i], passaggi.get(CONCLUSIONI)[i]));
+            }
+            return new PageImpl<>(risultati, pageable, totale);
+        } catch (IndexSearcher.TooManyClauses e) {
+            // Più termini di IndexSearcher.getMaxClauseCount() (1024) dopo l'espansione della query
+            throw new RicercaNonValidaException("Ricerca troppo ampia, specificare meglio le parole: " + testo, e);
+        } catch (IOException e) {
+            throw new RuntimeException("Errore durante la ricerca full-text: " + e.getMessage(), e);
+        } finally {
+            rilascia(searcher);
+        }
+    }
+
+    /**
+     * Completa gli aggiornamenti in coda, poi salva e chiude l'indice
+     */
+    @PreDestroy
+    public void chiudi() throws IOException {
+        executor.shutdown();
+        searcherManager.close();
+        writer.close();
+        directory.close();
+    }
+
+    /**
+     * Parole cercate in testo e conclusioni, tutte obbligatorie. Se la sintassi non è valida
+     * (es. virgolette non chiuse) il testo viene cercato così com'è; se non è valido nemmeno
+     * così viene lanciata RicercaNonValidaException (400).
+     *
+     * Non sono ammesse le interrogazioni che scorrono l'intero dizionario dei termini: i caratteri
+     * jolly iniziali (es. "*odulo") rendono la sintassi non valida e le barre, che delimitano le
+     * espressioni regolari, vengono cercate come testo.
+     */
+    private Query interpreta(String testo) {
+        MultiFieldQueryParser parser = new MultiFieldQueryParser(CAMPI_TESTO, analyzer);
+        parser.setDefaultOperator(QueryParser.Operator.AND);
+        parser.setAllowLeadingWildcard(false);
+        try {
+            return parser.parse(testo.replace("/", "\\/"));
+        } catch (ParseException e) {
+            try {
+                return parser.parse(QueryParser.escape(testo));
+            } catch (ParseException nonValida) {
+                throw new RicercaNonValidaException("Testo di ricerca non valido: " + testo, nonValida);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface OperazioneIndice {
+        void esegui() throws IOException;
+    }
+
+    /**
+     * Con una transazione attiva l'operazione viene eseguita solo dopo il commit
+     * (con un rollback non viene eseguita)
+     */
+    private void dopoIlCommit(Runnable operazione) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    operazione.run();
+                }
+            });
+        } else {
+            operazione.run();
+        }
+    }
+
+    private void accoda(OperazioneIndice operazione) {
+        inAttesa.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                try {
+                    operazione.esegui();
+                } catch (IOException | RuntimeException e) {
+                    log.error("❌ Aggiornamento dell'indice full-text fallito", e);
+                } finally {
+                    completato();
+                }
+            });
+        } catch (TaskRejectedException e) {
+            // Executor in chiusura: l'indice verrà riallineato dalla prossima ricostruzione
+            inAttesa.decrementAndGet();
+            log.warn("Aggiornamento dell'indice full-text rifiutato: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Rende visibili le modifiche alle ricerche e le salva su disco a coda vuota
+     * o dopo commitOgni aggiornamenti
+     */
+    private void completato() {
+        boolean codaVuota = inAttesa.decrementAndGet() == 0;
+        try {
+            searcherManager.maybeRefresh();
+            if ((codaVuota || nonSalvati.incrementAndGet() >= commitOgni) && writer.hasUncommittedChanges()) {
+                nonSalvati.set(0);
+                writer.commit();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("❌ Salvataggio dell'indice full-text fallito", e);
+        }
+    }
+
+    private void reindicizza(int id) throws IOException {
+        Term termine = new Term(ID, String.valueOf(id));
+        Optional<Referto> referto = refertoRepository.findById(id);
+        if (referto.isPresent()) {
+            writer.updateDocument(termine, documento(referto.get()));
+        } else {
+            writer.deleteDocuments(termine);
+        }
+    }
+
+    private void ricostruisciDalDatabase() throws IOException {
+        long inizio = System.currentTimeMillis();
+        // Finché non viene riaperto il reader, le ricerche continuano a vedere l'indice precedente
+        writer.deleteAll();
+        int ultimoId = 0;
+        int indicizzati = 0;
+        List<Referto> blocco;
+        do {
+            blocco = refertoRepository.findByIdGreaterThanOrderByIdAsc(ultimoId, Limit.of(BLOCCO_RICOSTRUZIONE));
+            for (Referto referto : blocco) {
+                writer.addDocument(documento(referto));
+                ultimoId = referto.getId();
+            }
+            indicizzati += blocco.size();
+        } while (blocco.size() == BLOCCO_RICOSTRUZIONE);
+        writer.commit();
+        log.info("Indice full-text ricostruito: {} referti in {} ms", indicizzati, System.currentTimeMillis() - inizio);
+    }
+
+    private static Document documento(Referto referto) {
+        Document doc = new Document();
+        doc.add(new StringField(ID, String.valueOf(referto.getId()), Field.Store.YES));
+        if (referto.getTestoReferto() != null) {
+            doc.add(new Field(TESTO, referto.getTestoReferto(), TIPO_TESTO));
+        }
+        if (referto.getConclusioni() != null) {
+            doc.add(new Field(CONCLUSIONI, referto.getConclusioni(), TIPO_TESTO));
+        }
+        memorizza(doc, NOME_PAZIENTE, referto.getNomePaziente());
+        memorizza(doc, CODICE_FISCALE, referto.getCodiceFiscale());
+        memorizza(doc, TIPO_ESAME, referto.getTipoEsame() != null ? referto.getTipoEsame().name() : null);
+        memorizza(doc, NOME_FILE, referto.getNomeFile());
+        memorizza(doc, AUTORE_EMAIL, referto.getAutoreEmail());
+        memorizza(doc, DATA_CARICAMENTO,
+                referto.getDataCaricamento() != null ? referto.getDataCaricamento().toString() : null);
+        return doc;
+    }
+
+    private static void memorizza(Document doc, String campo, String valore) {
+        if (valore != null) {
+            doc.add(new StoredField(campo, valore));
+        }
+    }
+
+    private static RefertoSummary riepilogo(Document doc) {
+        String tipoEsame = doc.get(TIPO_ESAME);
+        String dataCaricamento = doc.get(DATA_CARICAMENTO);
+        return new RefertoSummary(Integer.parseInt(doc.get(ID)), doc.get(NOME_PAZIENTE), doc.get(CODICE_FISCALE),
+                tipoEsame != null ? TipoEsame.valueOf(tipoEsame) : null, doc.get(NOME_FILE), doc.get(AUTORE_EMAIL),
+                dataCaricamento != null ? LocalDateTime.parse(dataCaricamento) : null);
+    }
+
+    private void rilascia(IndexSearcher searcher) {
+        try {
+            searcherManager.release(searcher);
+        } catch (IOException e) {
+            log.warn("Rilascio del reader full-text fallito: {}", e.getMessage());
+        }
+    }
+}
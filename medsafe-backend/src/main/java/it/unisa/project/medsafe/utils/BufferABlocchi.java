@@ -0,0 +1,155 @@
+package it.unisa.project.medsafe.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Stream in memoria composto da blocchi presi da un PoolBlocchi.
+ * A differenza di ByteArrayOutputStream non ricopia il contenuto quando cresce e
+ * può essere riletto con apriLettura() senza copie: il PDF generato resta in memoria
+ * una sola volta fino al termine dell'upload.
+ *
+ * La chiusura restituisce i blocchi al pool, quindi va fatta solo dopo l'ultima lettura.
+ * Non è thread-safe.
+ */
+public class BufferABlocchi extends OutputStream {
+
+    private final PoolBlocchi pool;
+    private final List<byte[]> blocchi = new ArrayList<>();
+
+    /**
+     * Byte scritti nell'ultimo blocco
+     */
+    private int posizione;
+    private boolean chiuso;
+
+    BufferABlocchi(PoolBlocchi pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        bloccoScrivibile()[posizione++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        while (len > 0) {
+            byte[] blocco = bloccoScrivibile();
+            int n = Math.min(len, blocco.length - posizione);
+            System.arraycopy(b, off, blocco, posizione, n);
+            posizione += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * @return ultimo blocco se ha spazio libero, altrimenti un nuovo blocco dal pool
+     */
+    private byte[] bloccoScrivibile() throws IOException {
+        if (chiuso) {
+            throw new IOException("Buffer già chiuso");
+        }
+        if (blocchi.isEmpty() || posizione == pool.getDimensioneBlocco()) {
+            blocchi.add(pool.prendi());
+            posizione = 0;
+        }
+        return blocchi.get(blocchi.size() - 1);
+    }
+
+    /**
+     * @return numero di byte scritti
+     */
+    public long dimensione() {
+        return blocchi.isEmpty() ? 0 : (long) (blocchi.size() - 1) * pool.getDimensioneBlocco() + posizione;
+    }
+
+    /**
+     * Apre uno stream sul contenuto scritto finora, senza copiarlo
+     */
+    public InputStream apriLettura() {
+        return new Lettura(dimensione());
+    }
+
+    /**
+     * Copia il contenuto in un array (es. per conservarlo dopo la chiusura del buffer)
+     */
+    public byte[] toByteArray() {
+        byte[] risultato = new byte[Math.toIntExact(dimensione())];
+        int copiati = 0;
+        for (byte[] blocco : blocchi) {
+            int n = Math.min(blocco.length, risultato.length - copiati);
+            System.arraycopy(blocco, 0, risultato, copiati, n);
+            copiati += n;
+        }
+        return risultato;
+    }
+
+    /**
+     * Restituisce i blocchi al pool; le chiamate successive non hanno effetto
+     */
+    @Override
+    public void close() {
+        if (chiuso) {
+            return;
+        }
+        chiuso = true;
+        blocchi.forEach(pool::restituisci);
+        blocchi.clear();
+        posizione = 0;
+    }
+
+    private class Lettura extends InputStream {
+
+        private final long fine;
+        private long letti;
+
+        Lettura(long fine) {
+            this.fine = fine;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (letti >= fine) {
+                return -1;
+            }
+            byte b = blocco()[(int) (letti % pool.getDimensioneBlocco())];
+            letti++;
+            return b & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            if (len == 0) {
+                return 0;
+            }
+            if (letti >= fine) {
+                return -1;
+            }
+            int inizio = (int) (letti % pool.getDimensioneBlocco());
+            int n = (int) Math.min(len, Math.min(pool.getDimensioneBlocco() - inizio, fine - letti));
+            System.arraycopy(blocco(), inizio, b, off, n);
+            letti += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, fine - letti);
+        }
+
+        private byte[] blocco() throws IOException {
+            if (chiuso) {
+                throw new IOException("Buffer già chiuso");
+            }
+            return blocchi.get((int) (letti / pool.getDimensioneBlocco()));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package it.unisa.project.medsafe.utils;
+
+import it.unisa.project.medsafe.exception.ServizioSovraccaricoException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulkhead a semaforo: limita le operazioni concorrenti verso una risorsa condivisa (es. lo storage).
+ * Chi non ottiene un permesso entro l'attesa massima riceve ServizioSovraccaricoException
+ * invece di restare bloccato: con i virtual thread le richieste in attesa possono essere migliaia.
+ */
+@Slf4j
+public class Bulkhead {
+
+    /**
+     * Operazione eseguita con un permesso del bulkhead
+     */
+    @FunctionalInterface
+    public interface Operazione<T, E extends Exception> {
+        T esegui() throws E;
+    }
+
+    private final String nome;
+    private final int maxConcorrenti;
+    private final Duration attesaMassima;
+    private final Semaphore permessi;
+
+    public Bulkhead(String nome, int maxConcorrenti, Duration attesaMassima) {
+        this.nome = nome;
+        this.maxConcorrenti = maxConcorrenti;
+        this.attesaMassima = attesaMassima;
+        this.permessi = new Semaphore(maxConcorrenti);
+    }
+
+    /**
+     * Attende un permesso per al massimo attesaMassima
+     * @throws ServizioSovraccaricoException se la risorsa resta satura
+     */
+    public void acquisisci() {
+        try {
+            if (!permessi.tryAcquire(attesaMassima.toMillis(), TimeUnit.MILLISECONDS)) {
+                log.warn("Bulkhead {} saturo: {} operazioni già in corso", nome, maxConcorrenti);
+                throw new ServizioSovraccaricoException("Troppe richieste concorrenti verso " + nome);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServizioSovraccaricoException("Attesa interrotta verso " + nome);
+        }
+    }
+
+    public void rilascia() {
+        permessi.release();
+    }
+
+    /**
+     * Esegue l'operazione tenendo un permesso per tutta la sua durata
+     */
+    public <T, E extends Exception> T esegui(Operazione<T, E> operazione) throws E {
+        acquisisci();
+        try {
+            return operazione.esegui();
+        } finally {
+            rilascia();
+        }
+    }
+
+    public int getPermessiDisponibili() {
+        return permessi.availablePermits();
+    }
+}
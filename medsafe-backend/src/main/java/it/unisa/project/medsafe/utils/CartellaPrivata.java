@@ -0,0 +1,63 @@
+package it.unisa.project.medsafe.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+/**
+ * Cartelle locali che contengono dati dei pazienti (cache dei blob, staging dei caricamenti,
+ * indice full-text). Sui file system POSIX la cartella deve appartenere all'utente del processo
+ * e viene resa accessibile solo a lui (rwx------), i file sono creati con permessi rw-------.
+ * Una cartella di un altro utente o un link simbolico vengono rifiutati.
+ */
+public final class CartellaPrivata {
+
+    private static final Set<PosixFilePermission> CARTELLA = PosixFilePermissions.fromString("rwx------");
+    private static final Set<PosixFilePermission> FILE = PosixFilePermissions.fromString("rw-------");
+
+    private CartellaPrivata() {
+    }
+
+    /**
+     * Crea la cartella (se manca) accessibile solo al proprietario, verificando che non sia
+     * un link simbolico e che appartenga all'utente del processo
+     * @throws IOException se la cartella non può essere creata o non è sicura
+     */
+    public static void prepara(Path directory) throws IOException {
+        if (Files.isSymbolicLink(directory)) {
+            throw new IOException("La cartella non può essere un link simbolico: " + directory);
+        }
+        if (!isPosix(directory)) {
+            Files.createDirectories(directory);
+            return;
+        }
+        if (!Files.exists(directory)) {
+            Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(CARTELLA));
+        }
+        String proprietario = Files.getFileAttributeView(directory, PosixFileAttributeView.class)
+                .readAttributes().owner().getName();
+        if (!proprietario.equals(System.getProperty("user.name"))) {
+            throw new IOException("La cartella " + directory + " appartiene a " + proprietario);
+        }
+        Files.setPosixFilePermissions(directory, CARTELLA);
+    }
+
+    /**
+     * Permessi con cui creare un file nella cartella (rw-------), nessuno se il file system non è POSIX
+     */
+    public static FileAttribute<?>[] permessiFile(Path directory) {
+        if (!isPosix(directory)) {
+            return new FileAttribute<?>[0];
+        }
+        return new FileAttribute<?>[] { PosixFilePermissions.asFileAttribute(FILE) };
+    }
+
+    private static boolean isPosix(Path directory) {
+        return directory.getFileSystem().supportedFileAttributeViews().contains("posix");
+    }
+}
@@ -0,0 +1,163 @@
+package it.unisa.project.medsafe.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Prepara l'immagine dell'esame per l'inserimento nel PDF: la decodifica già sottocampionata,
+ * la ricampiona alla risoluzione di stampa del riquadro che la contiene e la ricomprime in JPEG.
+ * L'originale a piena risoluzione resta su Blob Storage per l'uso diagnostico.
+ */
+@Component
+@Slf4j
+public class ImmaginePdfHelper {
+
+    /**
+     * Riquadro dell'immagine nel PDF, in punti tipografici (1/72 di pollice)
+     */
+    public static final float LARGHEZZA_MAX = 450;
+    public static final float ALTEZZA_MAX = 550;
+
+    private static final float PUNTI_PER_POLLICE = 72f;
+
+    private final int larghezzaMaxPixel;
+    private final int altezzaMaxPixel;
+    private final float qualitaJpeg;
+
+    public ImmaginePdfHelper(@Value("${medsafe.pdf.immagine.dpi:150}") int dpi,
+            @Value("${medsafe.pdf.immagine.qualita-jpeg:0.85}") float qualitaJpeg) {
+        this.larghezzaMaxPixel = Math.round(LARGHEZZA_MAX * dpi / PUNTI_PER_POLLICE);
+        this.altezzaMaxPixel = Math.round(ALTEZZA_MAX * dpi / PUNTI_PER_POLLICE);
+        this.qualitaJpeg = qualitaJpeg;
+    }
+
+    /**
+     * Restituisce l'immagine ridotta e ricompressa in JPEG, oppure l'originale se non
+     * è decodificabile o se già occupa meno della versione ricompressa
+     * (es. immagini piccole o a tinta unita).
+     *
+     * @param originale byte dell'immagine caricata
+     * @return byte da inserire nel PDF
+     */
+    public byte[] prepara(byte[] originale) {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(originale))) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+            if (readers == null || !readers.hasNext()) {
+                return originale;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return prepara(originale, reader);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Impossibile ridimensionare l'immagine, uso l'originale: {}", e.getMessage());
+            return originale;
+        }
+    }
+
+    /**
+     * Legge le dimensioni dall'intestazione e decodifica l'immagine già sottocampionata:
+     * il raster a piena risoluzione (es. 100 MB per una TAC da 5000x5000 a 32 bit) non
+     * viene mai allocato per intero.
+     */
+    private byte[] prepara(byte[] originale, ImageReader reader) throws IOException {
+        int larghezzaOriginale = reader.getWidth(0);
+        int altezzaOriginale = reader.getHeight(0);
+        double scala = Math.min(1.0, Math.min(
+                (double) larghezzaMaxPixel / larghezzaOriginale,
+                (double) altezzaMaxPixel / altezzaOriginale));
+        int larghezza = Math.max(1, (int) Math.round(larghezzaOriginale * scala));
+        int altezza = Math.max(1, (int) Math.round(altezzaOriginale * scala));
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        int passo = passoSottocampionamento(larghezzaOriginale, altezzaOriginale, larghezza, altezza);
+        param.setSourceSubsampling(passo, passo, 0, 0);
+        BufferedImage immagine = reader.read(0, param);
+
+        byte[] jpeg = codificaJpeg(ridimensiona(immagine, larghezza, altezza));
+        if (jpeg.length >= originale.length) {
+            return originale;
+        }
+        log.info("Immagine per il PDF: {}x{} -> {}x{} (decodifica 1/{}), {} -> {} byte", larghezzaOriginale,
+                altezzaOriginale, larghezza, altezza, passo, originale.length, jpeg.length);
+        return jpeg;
+    }
+
+    /**
+     * Passo di sottocampionamento in decodifica: l'immagine decodificata resta almeno doppia
+     * rispetto a quella finale, così la ricampionatura bilineare successiva attenua l'aliasing
+     * del sottocampionamento (che prende un pixel ogni passo senza filtrare).
+     */
+    static int passoSottocampionamento(int larghezzaOriginale, int altezzaOriginale, int larghezza, int altezza) {
+        return Math.max(1, Math.min(larghezzaOriginale / (2 * larghezza), altezzaOriginale / (2 * altezza)));
+    }
+
+    /**
+     * Ricampiona a dimezzamenti successivi (interpolazione bilineare) fino alla dimensione
+     * richiesta: una sola riduzione bilineare molto forte produrrebbe aliasing.
+     * Il risultato è in scala di grigi per le immagini monocromatiche (es. radiografie)
+     * e RGB su sfondo bianco negli altri casi, perché il JPEG non supporta la trasparenza.
+     */
+    private BufferedImage ridimensiona(BufferedImage sorgente, int larghezza, int altezza) {
+        boolean grigi = sorgente.getColorModel().getNumColorComponents() == 1
+                && !sorgente.getColorModel().hasAlpha();
+        int tipo = grigi ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB;
+
+        BufferedImage corrente = sorgente;
+        int w = sorgente.getWidth();
+        int h = sorgente.getHeight();
+        do {
+            w = Math.max(larghezza, w / 2);
+            h = Math.max(altezza, h / 2);
+            BufferedImage passo = new BufferedImage(w, h, tipo);
+            Graphics2D g = passo.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, w, h);
+                g.drawImage(corrente, 0, 0, w, h, null);
+            } finally {
+                g.dispose();
+            }
+            corrente = passo;
+        } while (w != larghezza || h != altezza);
+        return corrente;
+    }
+
+    private byte[] codificaJpeg(BufferedImage immagine) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(qualitaJpeg);
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(immagine, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,50 @@
+package it.unisa.project.medsafe.utils;
+
+import it.unisa.project.medsafe.dto.RefertoDTO;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Impronta SHA-256 dei campi di un referto stampati nel PDF generato.
+ * Se l'impronta non cambia, il PDF esistente è ancora valido e non va rigenerato.
+ */
+public final class ImprontaReferto {
+
+    private ImprontaReferto() {
+    }
+
+    /**
+     * @return impronta esadecimale (64 caratteri) di paziente, tipo d'esame, testo,
+     *         conclusioni, autore e riferimento all'immagine
+     */
+    public static String calcola(RefertoDTO dto) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            aggiungi(digest, dto.getNomePaziente());
+            aggiungi(digest, dto.getTipoEsame() != null ? dto.getTipoEsame().name() : null);
+            aggiungi(digest, dto.getTestoReferto());
+            aggiungi(digest, dto.getConclusioni());
+            aggiungi(digest, dto.getAutoreEmail());
+            aggiungi(digest, dto.getFileUrlImmagine());
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 è garantito da ogni JVM
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Ogni campo è preceduto dalla sua lunghezza (-1 se nullo), così campi adiacenti
+     * non possono produrre la stessa sequenza di byte
+     */
+    private static void aggiungi(MessageDigest digest, String valore) {
+        byte[] bytes = valore != null ? valore.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        int lunghezza = valore != null ? bytes.length : -1;
+        digest.update(new byte[] { (byte) (lunghezza >>> 24), (byte) (lunghezza >>> 16), (byte) (lunghezza >>> 8),
+                (byte) lunghezza });
+        digest.update(bytes);
+    }
+}
@@ -0,0 +1,17 @@
+package it.unisa.project.medsafe.utils;
+
+import it.unisa.project.medsafe.dto.IngestioneJobDTO;
+import it.unisa.project.medsafe.entity.IngestioneJob;
+import org.mapstruct.Mapper;
+
+/**
+ * Mapper per la conversione tra Entity IngestioneJob e IngestioneJobDTO.
+ */
+@Mapper(componentModel = "spring")
+public abstract class IngestioneJobMapper {
+
+    /**
+     * Converte un'entity IngestioneJob in un IngestioneJobDTO
+     */
+    public abstract IngestioneJobDTO ingestioneJobToDTO(IngestioneJob entity);
+}
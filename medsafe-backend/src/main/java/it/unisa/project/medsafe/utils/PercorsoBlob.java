@@ -0,0 +1,48 @@
+package it.unisa.project.medsafe.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Estrae il percorso del blob (es. "pdf/nomefile.pdf") dall'URL salvato nel referto.
+ * Formato atteso: https://<account>.blob.core.windows.net/upload-dir/<path>,
+ * oppure il percorso relativo "upload-dir/<path>".
+ */
+@Slf4j
+public final class PercorsoBlob {
+
+    private static final String CONTAINER = "upload-dir";
+    private static final String SEGMENTO_CONTAINER = "/" + CONTAINER + "/";
+    private static final String PREFISSO_CONTAINER = CONTAINER + "/";
+
+    private PercorsoBlob() {
+    }
+
+    /**
+     * @return il percorso decodificato, null se l'URL è vuoto, non contiene il container
+     *         o non è decodificabile
+     */
+    public static String daUrl(String url) {
+        if (url == null || url.isEmpty()) {
+            return null;
+        }
+        int index = url.indexOf(SEGMENTO_CONTAINER);
+        String encodedPath;
+        if (index != -1) {
+            encodedPath = url.substring(index + SEGMENTO_CONTAINER.length());
+        } else if (url.startsWith(PREFISSO_CONTAINER)) {
+            encodedPath = url.substring(PREFISSO_CONTAINER.length());
+        } else {
+            log.warn("URL non riconosciuto: {}", url);
+            return null;
+        }
+        try {
+            return URLDecoder.decode(encodedPath, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            log.warn("Errore estrazione blob path dall'URL: {}", e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package it.unisa.project.medsafe.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Pool di blocchi di memoria di dimensione fissa per i BufferABlocchi in cui vengono
+ * scritti i PDF generati. I blocchi restituiti vengono riusati dai PDF successivi,
+ * fino a un numero massimo di blocchi liberi conservati.
+ */
+@Component
+public class PoolBlocchi {
+
+    private final int dimensioneBlocco;
+    private final ArrayBlockingQueue<byte[]> liberi;
+
+    public PoolBlocchi(@Value("${medsafe.pdf.buffer.dimensione-blocco:64KB}") DataSize dimensioneBlocco,
+            @Value("${medsafe.pdf.buffer.max-blocchi-liberi:256}") int maxBlocchiLiberi) {
+        this.dimensioneBlocco = Math.toIntExact(dimensioneBlocco.toBytes());
+        this.liberi = new ArrayBlockingQueue<>(Math.max(1, maxBlocchiLiberi));
+    }
+
+    /**
+     * @return buffer vuoto; va chiuso per restituire i blocchi al pool
+     */
+    public BufferABlocchi nuovoBuffer() {
+        return new BufferABlocchi(this);
+    }
+
+    int getDimensioneBlocco() {
+        return dimensioneBlocco;
+    }
+
+    /**
+     * @return numero di blocchi liberi pronti per essere riusati
+     */
+    public int getBlocchiLiberi() {
+        return liberi.size();
+    }
+
+    byte[] prendi() {
+        byte[] blocco = liberi.poll();
+        return blocco != null ? blocco : new byte[dimensioneBlocco];
+    }
+
+    /**
+     * Se il pool è pieno il blocco viene lasciato al garbage collector
+     */
+    void restituisci(byte[] blocco) {
+        liberi.offer(blocco);
+    }
+}
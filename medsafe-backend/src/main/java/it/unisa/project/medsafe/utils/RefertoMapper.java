@@ -11,7 +11,7 @@ import java.util.List;
 /**
  * Mapper per la conversione tra Entity Referto e RefertoDTO.
  */
-@Mapper(componentModel = "spring")
+@Mapper(componentModel = "spring", imports = ImprontaReferto.class)
 public abstract class RefertoMapper {
 
     /**
@@ -21,17 +21,23 @@ public abstract class RefertoMapper {
 
     /**
      * Converte un RefertoDTO in un'entity Referto.
-     * Non imposta id e dataCaricamento (gestiti dal database).
+     * Non imposta id e dataCaricamento (gestiti dal database) né la versione (parte da 0).
+     * Calcola l'impronta del contenuto stampato nel PDF.
      */
     @Mapping(target = "id", ignore = true)
+    @Mapping(target = "versione", ignore = true)
+    @Mapping(target = "impronta", expression = "java(ImprontaReferto.calcola(dto))")
     public abstract Referto refertoDTOToReferto(RefertoDTO dto);
 
     /**
      * Aggiorna un'entity Referto esistente con i dati di un RefertoDTO.
-     * Ignora id e dataCaricamento per preservare i dati originali.
+     * Ignora id e dataCaricamento per preservare i dati originali e la versione,
+     * incrementata dal service. Ricalcola l'impronta del contenuto stampato nel PDF.
      */
     @Mapping(target = "id", ignore = true)
     @Mapping(target = "dataCaricamento", ignore = true)
+    @Mapping(target = "versione", ignore = true)
+    @Mapping(target = "impronta", expression = "java(ImprontaReferto.calcola(dto))")
     public abstract void updateRefertoFromDTO(RefertoDTO dto, @MappingTarget Referto entity);
 
     /**
@@ -0,0 +1,45 @@
+-- Indici per le ricerche dei referti: ogni filtro è seguito da data_caricamento e id,
+-- le colonne con cui sono ordinate le pagine e lo scorrimento a cursore, così MySQL
+-- legge le righe già in ordine invece di ordinarle (filesort).
+-- MySQL non supporta CREATE INDEX IF NOT EXISTS: ogni indice viene creato solo se manca
+-- (i database gestiti con ddl-auto=update possono averlo già).
+
+SET @indice = 'idx_referto_codice_fiscale';
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.statistics
+               WHERE table_schema = DATABASE() AND table_name = 'referto' AND index_name = @indice) = 0,
+              'CREATE INDEX idx_referto_codice_fiscale ON referto (codice_fiscale, data_caricamento, id)',
+              'DO 0');
+PREPARE istruzione FROM @ddl;
+EXECUTE istruzione;
+DEALLOCATE PREPARE istruzione;
+
+SET @indice = 'idx_referto_tipo_esame';
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.statistics
+               WHERE table_schema = DATABASE() AND table_name = 'referto' AND index_name = @indice) = 0,
+              'CREATE INDEX idx_referto_tipo_esame ON referto (tipo_esame, data_caricamento, id)',
+              'DO 0');
+PREPARE istruzione FROM @ddl;
+EXECUTE istruzione;
+DEALLOCATE PREPARE istruzione;
+
+SET @indice = 'idx_referto_autore_email';
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.statistics
+               WHERE table_schema = DATABASE() AND table_name = 'referto' AND index_name = @indice) = 0,
+              'CREATE INDEX idx_referto_autore_email ON referto (autore_email, data_caricamento, id)',
+              'DO 0');
+PREPARE istruzione FROM @ddl;
+EXECUTE istruzione;
+DEALLOCATE PREPARE istruzione;
+
+SET @indice = 'idx_referto_data_caricamento';
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.statistics
+               WHERE table_schema = DATABASE() AND table_name = 'referto' AND index_name = @indice) = 0,
+              'CREATE INDEX idx_referto_data_caricamento ON referto (data_caricamento, id)',
+              'DO 0');
+PREPARE istruzione FROM @ddl;
+EXECUTE istruzione;
+DEALLOCATE PREPARE istruzione;
+
+-- Con la generazione lazy il PDF può mancare; ddl-auto=update non rimuove il NOT NULL
+-- dalle colonne create in precedenza
+ALTER TABLE referto MODIFY url_pdf_generato VARCHAR(1000) NULL;
@@ -0,0 +1,19 @@
+-- Colonne aggiunte dopo il passaggio a Flyway: i database registrati alla baseline non
+-- hanno eseguito la V1 e possono non averle (altrimenti ddl-auto=validate fallisce all'avvio).
+-- Ogni colonna viene aggiunta solo se manca; i referti esistenti partono dalla versione 0.
+
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.columns
+               WHERE table_schema = DATABASE() AND table_name = 'referto' AND column_name = 'versione') = 0,
+              'ALTER TABLE referto ADD COLUMN versione INT DEFAULT 0 NOT NULL',
+              'DO 0');
+PREPARE istruzione FROM @ddl;
+EXECUTE istruzione;
+DEALLOCATE PREPARE istruzione;
+
+SET @ddl = IF((SELECT COUNT(*) FROM information_schema.columns
+               WHERE table_schema = DATABASE() AND table_name = 'referto' AND column_name = 'impronta') = 0,
+              'ALTER TABLE referto ADD COLUMN impronta VARCHAR(64)',
+              'DO 0');
+PREPARE istruzione FROM @ddl;
+EXECUTE istruzione;
+DEALLOCATE PREPARE istruzione;
@@ -0,0 +1,14 @@
+-- Job dei caricamenti asincroni (POST /referti/async): finora tenuti in memoria,
+-- andavano persi a ogni riavvio anche se il client aveva già ricevuto 202.
+
+CREATE TABLE ingestione_job (
+    id                  VARCHAR(36)   NOT NULL,
+    stato               ENUM ('COMPLETATO','FALLITO','IN_CODA','IN_CORSO') NOT NULL,
+    nome_file           VARCHAR(255)  NOT NULL,
+    errore              VARCHAR(1000),
+    data_creazione      DATETIME(6)   NOT NULL,
+    data_aggiornamento  DATETIME(6)   NOT NULL,
+    PRIMARY KEY (id)
+) ENGINE = InnoDB;
+
+CREATE INDEX idx_ingestione_job_stato ON ingestione_job (stato, data_aggiornamento);
@@ -0,0 +1,20 @@
+-- Indici per le ricerche dei referti: ogni filtro è seguito da data_caricamento e id,
+-- le colonne con cui sono ordinate le pagine e lo scorrimento a cursore, così il piano
+-- legge le righe già in ordine invece di aggiungere un Sort.
+-- Ogni indice viene creato solo se manca (i database gestiti con ddl-auto=update possono averlo già).
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'idx_referto_codice_fiscale' AND object_id = OBJECT_ID('referto'))
+    CREATE INDEX idx_referto_codice_fiscale ON referto (codice_fiscale, data_caricamento, id);
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'idx_referto_tipo_esame' AND object_id = OBJECT_ID('referto'))
+    CREATE INDEX idx_referto_tipo_esame ON referto (tipo_esame, data_caricamento, id);
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'idx_referto_autore_email' AND object_id = OBJECT_ID('referto'))
+    CREATE INDEX idx_referto_autore_email ON referto (autore_email, data_caricamento, id);
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'idx_referto_data_caricamento' AND object_id = OBJECT_ID('referto'))
+    CREATE INDEX idx_referto_data_caricamento ON referto (data_caricamento, id);
+
+-- Con la generazione lazy il PDF può mancare; ddl-auto=update non rimuove il NOT NULL
+-- dalle colonne create in precedenza
+ALTER TABLE referto ALTER COLUMN url_pdf_generato VARCHAR(1000) NULL;
@@ -0,0 +1,9 @@
+-- Colonne aggiunte dopo il passaggio a Flyway: i database registrati alla baseline non
+-- hanno eseguito la V1 e possono non averle (altrimenti ddl-auto=validate fallisce all'avvio).
+-- Ogni colonna viene aggiunta solo se manca; i referti esistenti partono dalla versione 0.
+
+IF COL_LENGTH('referto', 'versione') IS NULL
+    ALTER TABLE referto ADD versione INT CONSTRAINT df_referto_versione DEFAULT 0 NOT NULL;
+
+IF COL_LENGTH('referto', 'impronta') IS NULL
+    ALTER TABLE referto ADD impronta VARCHAR(64);
@@ -0,0 +1,15 @@
+-- Job dei caricamenti asincroni (POST /referti/async): finora tenuti in memoria,
+-- andavano persi a ogni riavvio anche se il client aveva già ricevuto 202.
+
+CREATE TABLE ingestione_job (
+    id                  VARCHAR(36)   NOT NULL,
+    stato               VARCHAR(255)  NOT NULL
+        CHECK (stato IN ('IN_CODA','IN_CORSO','COMPLETATO','FALLITO')),
+    nome_file           VARCHAR(255)  NOT NULL,
+    errore              VARCHAR(1000),
+    data_creazione      DATETIME2(6)  NOT NULL,
+    data_aggiornamento  DATETIME2(6)  NOT NULL,
+    CONSTRAINT pk_ingestione_job PRIMARY KEY (id)
+);
+
+CREATE INDEX idx_ingestione_job_stato ON ingestione_job (stato, data_aggiornamento);
@@ -0,0 +1,74 @@
+package it.unisa.project.medsafe.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test ExecutorConfig - executor dell'indice full-text")
+class ExecutorConfigTest {
+
+    private ThreadPoolTaskExecutor executor;
+
+    @BeforeEach
+    void setUp() {
+        ExecutorConfig config = new ExecutorConfig();
+        ReflectionTestUtils.setField(config, "fullTextQueueCapacity", 1);
+        executor = config.fullTextExecutor();
+        executor.initialize();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    @DisplayName("Con la coda piena chi accoda attende e il task gira comunque sull'unico thread del pool")
+    void testCodaPienaAttendeSulThreadDelPool() throws Exception {
+        CountDownLatch inEsecuzione = new CountDownLatch(1);
+        CountDownLatch sblocca = new CountDownLatch(1);
+        List<String> thread = new CopyOnWriteArrayList<>();
+        executor.execute(() -> {
+            inEsecuzione.countDown();
+            try {
+                sblocca.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(inEsecuzione.await(5, TimeUnit.SECONDS));
+        executor.execute(() -> thread.add(Thread.currentThread().getName()));
+
+        CompletableFuture<Void> terzo = CompletableFuture.runAsync(
+                () -> executor.execute(() -> thread.add(Thread.currentThread().getName())));
+        Thread.sleep(200);
+        assertFalse(terzo.isDone());
+
+        sblocca.countDown();
+        terzo.get(5, TimeUnit.SECONDS);
+        executor.shutdown();
+        assertTrue(executor.getThreadPoolExecutor().awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(2, thread.size());
+        assertTrue(thread.stream().allMatch(nome -> nome.startsWith("fulltext-")));
+    }
+
+    @Test
+    @DisplayName("Dopo la chiusura i nuovi aggiornamenti vengono rifiutati")
+    void testRifiutoInChiusura() {
+        executor.shutdown();
+
+        assertThrows(TaskRejectedException.class, () -> executor.execute(() -> { }));
+    }
+}
@@ -1,22 +1,47 @@
 package it.unisa.project.medsafe.controller;
 
+import it.unisa.project.medsafe.dto.CursoreReferto;
+import it.unisa.project.medsafe.dto.FiltroRefertiDTO;
+import it.unisa.project.medsafe.dto.FinestraRefertiDTO;
+import it.unisa.project.medsafe.dto.IngestioneJobDTO;
 import it.unisa.project.medsafe.dto.RefertoDTO;
+import it.unisa.project.medsafe.dto.RefertoSummary;
+import it.unisa.project.medsafe.dto.RisultatoFullText;
+import it.unisa.project.medsafe.entity.StatoIngestione;
 import it.unisa.project.medsafe.entity.TipoEsame;
+import it.unisa.project.medsafe.exception.RefertoNotFoundException;
+import it.unisa.project.medsafe.exception.ServizioSovraccaricoException;
 import it.unisa.project.medsafe.rest.RefertoController;
+import it.unisa.project.medsafe.service.BlobDownload;
 import it.unisa.project.medsafe.service.BlobStorageService;
+import it.unisa.project.medsafe.service.ProprietaBlob;
+import it.unisa.project.medsafe.service.RefertoExportService;
+import it.unisa.project.medsafe.service.RefertoIngestionService;
 import it.unisa.project.medsafe.service.RefertoService;
+import it.unisa.project.medsafe.service.RicercaFullTextService;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.multipart.MultipartFile;
-
-import java.util.Arrays;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -25,6 +50,9 @@ import static org.mockito.Mockito.*;
 @ExtendWith(MockitoExtension.class)
 public class RefertoControllerTest {
 
+    private static final PageRequest PAGINA = PageRequest.of(0, 20, Sort.by(Sort.Direction.DESC, "dataCaricamento"));
+    private static final String ETAG = "\"0x8DC0A1B2C3D4E5F\"";
+
     @InjectMocks
     private RefertoController refertoController;
 
@@ -34,9 +62,41 @@ public class RefertoControllerTest {
     @Mock
     private BlobStorageService blobStorageService;
 
+    @Mock
+    private RefertoIngestionService refertoIngestionService;
+
+    @Mock
+    private RefertoExportService refertoExportService;
+
+    @Mock
+    private RicercaFullTextService ricercaFullTextService;
+
     @Nested
     class Incorrect {
 
+        @Test
+        public void esportaZipPazienteSenzaRefertiTest() {
+            when(refertoService.getRefertoByCodiceFiscale("RSSMRA80A01H501Z"))
+                    .thenThrow(new RefertoNotFoundException("Nessun referto"));
+
+            ResponseEntity<StreamingResponseBody> response = refertoController.esportaZip("RSSMRA80A01H501Z");
+
+            assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+            verifyNoInteractions(refertoExportService);
+        }
+
+        @Test
+        public void esportaDossierSenzaPdfTest() throws IOException {
+            List<RefertoDTO> referti = List.of(RefertoDTO.builder().id(1).build());
+            when(refertoService.getRefertoByCodiceFiscale("RSSMRA80A01H501Z")).thenReturn(referti);
+            when(refertoExportService.dossierDisponibile(referti)).thenReturn(false);
+
+            ResponseEntity<StreamingResponseBody> response = refertoController.esportaDossier("RSSMRA80A01H501Z");
+
+            assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+            verify(refertoExportService, never()).scriviDossier(any(), any());
+        }
+
         @Test
         public void addRefertoInvalidFileExtensionTest() {
             MultipartFile file = mock(MultipartFile.class);
@@ -124,20 +184,77 @@ public class RefertoControllerTest {
             verify(refertoService).getRefertoByNomeFile("nonexistent");
         }
 
+        @Test
+        public void getRefertoByIdNotFoundTest() {
+            when(refertoService.getRefertoById(999)).thenThrow(new RefertoNotFoundException("Referto non trovato per id: 999"));
+
+            ResponseEntity<RefertoDTO> response = refertoController.getRefertoById(999);
+
+            assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+        }
+
         @Test
         public void downloadPdfNotFoundTest() {
             when(refertoService.getRefertoById(999)).thenReturn(null);
 
-            ResponseEntity<byte[]> response = refertoController.downloadPdf(999);
+            ResponseEntity<StreamingResponseBody> response = refertoController.downloadPdf(999, new HttpHeaders());
+
+            assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+        }
+
+        @Test
+        public void downloadPdfBlobNotFoundTest() {
+            RefertoDTO dto = RefertoDTO.builder()
+                    .id(1)
+                    .nomeFile("referto_rossi")
+                    .urlPdfGenerato("http://127.0.0.1:10000/devstoreaccount1/upload-dir/pdf/mancante.pdf")
+                    .build();
+            when(refertoService.getRefertoById(1)).thenReturn(dto);
+            when(blobStorageService.openDownloadStream("pdf/mancante.pdf")).thenReturn(null);
+
+            ResponseEntity<StreamingResponseBody> response = refertoController.downloadPdf(1, new HttpHeaders());
 
             assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
         }
 
+        @Test
+        public void downloadImmagineRangeNonSoddisfacibileTest() {
+            RefertoDTO dto = RefertoDTO.builder()
+                    .id(1)
+                    .nomeFile("referto_paziente")
+                    .fileUrlImmagine("http://127.0.0.1:10000/devstoreaccount1/upload-dir/immagini/abc_tac.png")
+                    .build();
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.RANGE, "bytes=50-60");
+
+            when(refertoService.getRefertoById(1)).thenReturn(dto);
+            when(blobStorageService.getProperties("immagini/abc_tac.png")).thenReturn(new ProprietaBlob(10, ETAG));
+
+            ResponseEntity<StreamingResponseBody> response = refertoController.downloadImmagine(1, headers);
+
+            assertEquals(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatusCode());
+            assertEquals("bytes */10", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+            verify(blobStorageService, never()).openDownloadStream(anyString(), anyLong(), anyLong());
+        }
+
+        @Test
+        public void addRefertoSovraccaricoArrivaAlGestoreTest() {
+            MultipartFile file = mock(MultipartFile.class);
+            when(file.getOriginalFilename()).thenReturn("documento.pdf");
+            doThrow(new ServizioSovraccaricoException("Troppi PDF in generazione"))
+                    .when(refertoService).addReferto(any(), any());
+
+            // Non deve diventare un 500 nel controller: GlobalExceptionHandler risponde 503
+            assertThrows(ServizioSovraccaricoException.class, () -> refertoController.addReferto("Mario Rossi",
+                    "RSSMRA80A01H501Z", TipoEsame.TAC, "Testo referto", "Conclusioni", "medico@hospital.com",
+                    "referto_test", file));
+        }
+
         @Test
         public void downloadImmagineNotFoundTest() {
             when(refertoService.getRefertoById(999)).thenReturn(null);
 
-            ResponseEntity<byte[]> response = refertoController.downloadImmagine(999);
+            ResponseEntity<StreamingResponseBody> response = refertoController.downloadImmagine(999, new HttpHeaders());
 
             assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
         }
@@ -231,16 +348,16 @@ public class RefertoControllerTest {
         @Test
         public void getRefertoByCodiceFiscaleSuccessTest() {
             String cf = "RSSMRA80A01H501Z";
-            List<RefertoDTO> referti = Arrays.asList(
-                    RefertoDTO.builder().id(1).codiceFiscale(cf).build(),
-                    RefertoDTO.builder().id(2).codiceFiscale(cf).build());
-            when(refertoService.getRefertoByCodiceFiscale(cf)).thenReturn(referti);
+            List<RefertoSummary> referti = List.of(
+                    new RefertoSummary(1, "Mario Rossi", cf, TipoEsame.TAC, "tac_1", null, null),
+                    new RefertoSummary(2, "Mario Rossi", cf, TipoEsame.Ecografia, "eco_2", null, null));
+            when(refertoService.getRefertoByCodiceFiscale(cf, PAGINA)).thenReturn(new PageImpl<>(referti));
 
-            ResponseEntity<List<RefertoDTO>> response = refertoController.getRefertoByCodiceFiscale(cf);
+            ResponseEntity<Page<RefertoSummary>> response = refertoController.getRefertoByCodiceFiscale(cf, PAGINA);
 
             assertEquals(HttpStatus.OK, response.getStatusCode());
-            assertEquals(2, response.getBody().size());
-            verify(refertoService).getRefertoByCodiceFiscale(cf);
+            assertEquals(2, response.getBody().getNumberOfElements());
+            verify(refertoService).getRefertoByCodiceFiscale(cf, PAGINA);
         }
 
         @Test
@@ -259,35 +376,46 @@ public class RefertoControllerTest {
         @Test
         public void getRefertiByTipoEsameSuccessTest() {
             TipoEsame tipo = TipoEsame.TAC;
-            List<RefertoDTO> referti = Arrays.asList(
-                    RefertoDTO.builder().id(1).tipoEsame(tipo).build(),
-                    RefertoDTO.builder().id(2).tipoEsame(tipo).build());
-            when(refertoService.getRefertiByTipoEsame(tipo)).thenReturn(referti);
+            List<RefertoSummary> referti = List.of(
+                    new RefertoSummary(1, "Mario Rossi", null, tipo, "tac_1", null, null),
+                    new RefertoSummary(2, "Anna Verdi", null, tipo, "tac_2", null, null));
+            when(refertoService.getRefertiByTipoEsame(tipo, PAGINA)).thenReturn(new PageImpl<>(referti));
 
-            ResponseEntity<List<RefertoDTO>> response = refertoController.getRefertiByTipoEsame(tipo);
+            ResponseEntity<Page<RefertoSummary>> response = refertoController.getRefertiByTipoEsame(tipo, PAGINA);
 
             assertEquals(HttpStatus.OK, response.getStatusCode());
-            assertEquals(2, response.getBody().size());
-            verify(refertoService).getRefertiByTipoEsame(tipo);
+            assertEquals(2, response.getBody().getNumberOfElements());
+            verify(refertoService).getRefertiByTipoEsame(tipo, PAGINA);
         }
 
         @Test
         public void getRefertiByAutoreEmailSuccessTest() {
             String email = "medico@hospital.com";
-            List<RefertoDTO> referti = Arrays.asList(
-                    RefertoDTO.builder().id(1).autoreEmail(email).build(),
-                    RefertoDTO.builder().id(2).autoreEmail(email).build());
-            when(refertoService.getRefertiByAutoreEmail(email)).thenReturn(referti);
+            List<RefertoSummary> referti = List.of(
+                    new RefertoSummary(1, "Mario Rossi", null, TipoEsame.TAC, "tac_1", email, null),
+                    new RefertoSummary(2, "Anna Verdi", null, TipoEsame.TAC, "tac_2", email, null));
+            when(refertoService.getRefertiByAutoreEmail(email, PAGINA)).thenReturn(new PageImpl<>(referti));
+
+            ResponseEntity<Page<RefertoSummary>> response = refertoController.getRefertiByAutoreEmail(email, PAGINA);
+
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+            assertEquals(2, response.getBody().getNumberOfElements());
+            verify(refertoService).getRefertiByAutoreEmail(email, PAGINA);
+        }
+
+        @Test
+        public void getRefertoByIdSuccessTest() {
+            RefertoDTO dto = RefertoDTO.builder().id(1).testoReferto("Nessuna lesione").conclusioni("Negativo").build();
+            when(refertoService.getRefertoById(1)).thenReturn(dto);
 
-            ResponseEntity<List<RefertoDTO>> response = refertoController.getRefertiByAutoreEmail(email);
+            ResponseEntity<RefertoDTO> response = refertoController.getRefertoById(1);
 
             assertEquals(HttpStatus.OK, response.getStatusCode());
-            assertEquals(2, response.getBody().size());
-            verify(refertoService).getRefertiByAutoreEmail(email);
+            assertSame(dto, response.getBody());
         }
 
         @Test
-        public void downloadPdfSuccessTest() {
+        public void downloadPdfSuccessTest() throws IOException {
             RefertoDTO dto = RefertoDTO.builder()
                     .id(1)
                     .nomeFile("referto_rossi.pdf")
@@ -296,15 +424,72 @@ public class RefertoControllerTest {
             byte[] pdfContent = "PDF content".getBytes();
 
             when(refertoService.getRefertoById(1)).thenReturn(dto);
-            when(blobStorageService.downloadFile(anyString())).thenReturn(pdfContent);
+            when(blobStorageService.openDownloadStream(anyString()))
+                    .thenReturn(new BlobDownload(new ByteArrayInputStream(pdfContent), pdfContent.length));
 
-            ResponseEntity<byte[]> response = refertoController.downloadPdf(1);
+            ResponseEntity<StreamingResponseBody> response = refertoController.downloadPdf(1, new HttpHeaders());
 
             assertEquals(HttpStatus.OK, response.getStatusCode());
             assertNotNull(response.getBody());
+            assertEquals(pdfContent.length, response.getHeaders().getContentLength());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            response.getBody().writeTo(out);
+            assertArrayEquals(pdfContent, out.toByteArray());
             verify(refertoService).getRefertoById(1);
         }
 
+        @Test
+        public void downloadPdfGeneratoSuRichiestaTest() throws IOException {
+            RefertoDTO dto = RefertoDTO.builder()
+                    .id(1)
+                    .nomeFile("referto_rossi")
+                    .build();
+            byte[] pdfContent = "PDF generato".getBytes();
+            when(refertoService.getRefertoById(1)).thenReturn(dto);
+            when(refertoService.getPdfGenerato(1)).thenReturn(pdfContent);
+
+            ResponseEntity<StreamingResponseBody> response = refertoController.downloadPdf(1, new HttpHeaders());
+
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+            assertEquals(pdfContent.length, response.getHeaders().getContentLength());
+            assertEquals("attachment; filename=\"referto_rossi.pdf\"",
+                    response.getHeaders().getFirst(HttpHeaders.CONTENT_DISPOSITION));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            response.getBody().writeTo(out);
+            assertArrayEquals(pdfContent, out.toByteArray());
+            verifyNoInteractions(blobStorageService);
+        }
+
+        @Test
+        public void esportaZipTest() throws IOException {
+            List<RefertoDTO> referti = List.of(RefertoDTO.builder().id(1).build());
+            when(refertoService.getRefertoByCodiceFiscale("RSSMRA80A01H501Z")).thenReturn(referti);
+
+            ResponseEntity<StreamingResponseBody> response = refertoController.esportaZip("RSSMRA80A01H501Z");
+
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+            assertEquals("attachment; filename=\"referti_RSSMRA80A01H501Z.zip\"",
+                    response.getHeaders().getFirst(HttpHeaders.CONTENT_DISPOSITION));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            response.getBody().writeTo(out);
+            verify(refertoExportService).scriviZip(referti, out);
+        }
+
+        @Test
+        public void esportaDossierTest() throws IOException {
+            List<RefertoDTO> referti = List.of(RefertoDTO.builder().id(1).build());
+            when(refertoService.getRefertoByCodiceFiscale("RSSMRA80A01H501Z")).thenReturn(referti);
+            when(refertoExportService.dossierDisponibile(referti)).thenReturn(true);
+
+            ResponseEntity<StreamingResponseBody> response = refertoController.esportaDossier("RSSMRA80A01H501Z");
+
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+            assertEquals(MediaType.APPLICATION_PDF, response.getHeaders().getContentType());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            response.getBody().writeTo(out);
+            verify(refertoExportService).scriviDossier(referti, out);
+        }
+
         @Test
         public void downloadImmagineSuccessTest() {
             RefertoDTO dto = RefertoDTO.builder()
@@ -315,9 +500,10 @@ public class RefertoControllerTest {
             byte[] imageContent = "Image content".getBytes();
 
             when(refertoService.getRefertoById(1)).thenReturn(dto);
-            when(blobStorageService.downloadFile(anyString())).thenReturn(imageContent);
+            when(blobStorageService.openDownloadStream(anyString()))
+                    .thenReturn(new BlobDownload(new ByteArrayInputStream(imageContent), imageContent.length));
 
-            ResponseEntity<byte[]> response = refertoController.downloadImmagine(1);
+            ResponseEntity<StreamingResponseBody> response = refertoController.downloadImmagine(1, new HttpHeaders());
 
             assertEquals(HttpStatus.OK, response.getStatusCode());
             assertNotNull(response.getBody());
@@ -335,9 +521,10 @@ public class RefertoControllerTest {
             byte[] imageContent = "JPEG content".getBytes();
 
             when(refertoService.getRefertoById(1)).thenReturn(dto);
-            when(blobStorageService.downloadFile(anyString())).thenReturn(imageContent);
+            when(blobStorageService.openDownloadStream(anyString()))
+                    .thenReturn(new BlobDownload(new ByteArrayInputStream(imageContent), imageContent.length));
 
-            ResponseEntity<byte[]> response = refertoController.downloadImmagine(1);
+            ResponseEntity<StreamingResponseBody> response = refertoController.downloadImmagine(1, new HttpHeaders());
 
             assertEquals(HttpStatus.OK, response.getStatusCode());
             assertNotNull(response.getBody());
@@ -348,41 +535,411 @@ public class RefertoControllerTest {
         }
 
         @Test
-        public void getAllRefertiSuccessTest() {
-            RefertoDTO dto1 = RefertoDTO.builder()
+        public void downloadImmagineRangeSingoloTest() throws IOException {
+            RefertoDTO dto = RefertoDTO.builder()
+                    .id(1)
+                    .nomeFile("referto_paziente")
+                    .fileUrlImmagine("http://127.0.0.1:10000/devstoreaccount1/upload-dir/immagini/abc_tac.png")
+                    .build();
+            byte[] parziale = "23456".getBytes();
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.RANGE, "bytes=2-6");
+
+            when(refertoService.getRefertoById(1)).thenReturn(dto);
+            when(blobStorageService.getProperties("immagini/abc_tac.png")).thenReturn(new ProprietaBlob(10, ETAG));
+            when(blobStorageService.openDownloadStream("immagini/abc_tac.png", 2, 5))
+                    .thenReturn(new BlobDownload(new ByteArrayInputStream(parziale), parziale.length, ETAG));
+
+            ResponseEntity<StreamingResponseBody> response = refertoController.downloadImmagine(1, headers);
+
+            assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+            assertEquals("bytes 2-6/10", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+            assertEquals("bytes", response.getHeaders().getFirst(HttpHeaders.ACCEPT_RANGES));
+            assertEquals(5, response.getHeaders().getContentLength());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            response.getBody().writeTo(out);
+            assertArrayEquals(parziale, out.toByteArray());
+            verify(blobStorageService, never()).openDownloadStream("immagini/abc_tac.png");
+        }
+
+        @Test
+        public void downloadPdfRangeMultiploTest() throws IOException {
+            RefertoDTO dto = RefertoDTO.builder()
+                    .id(1)
+                    .nomeFile("referto_rossi")
+                    .urlPdfGenerato("http://127.0.0.1:10000/devstoreaccount1/upload-dir/pdf/referto.pdf")
+                    .build();
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.RANGE, "bytes=0-1, -2");
+
+            when(refertoService.getRefertoById(1)).thenReturn(dto);
+            when(blobStorageService.getProperties("pdf/referto.pdf")).thenReturn(new ProprietaBlob(100, ETAG));
+            when(blobStorageService.openDownloadStream("pdf/referto.pdf", 0, 2))
+                    .thenReturn(new BlobDownload(new ByteArrayInputStream("%P".getBytes()), 2));
+            when(blobStorageService.openDownloadStream("pdf/referto.pdf", 98, 2))
+                    .thenReturn(new BlobDownload(new ByteArrayInputStream("F\n".getBytes()), 2));
+
+            ResponseEntity<StreamingResponseBody> response = refertoController.downloadPdf(1, headers);
+
+            assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+            assertEquals("multipart", response.getHeaders().getContentType().getType());
+            assertEquals("byteranges", response.getHeaders().getContentType().getSubtype());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            response.getBody().writeTo(out);
+            String body = out.toString();
+            assertTrue(body.contains("Content-Range: bytes 0-1/100"));
+            assertTrue(body.contains("Content-Range: bytes 98-99/100"));
+            assertTrue(body.contains("%P"));
+        }
+
+        @Test
+        public void downloadPdfRangeMalformatoRestituisceFileInteroTest() {
+            RefertoDTO dto = RefertoDTO.builder()
+                    .id(1)
+                    .nomeFile("referto_rossi")
+                    .urlPdfGenerato("http://127.0.0.1:10000/devstoreaccount1/upload-dir/pdf/referto.pdf")
+                    .build();
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.RANGE, "righe=1-2");
+
+            when(refertoService.getRefertoById(1)).thenReturn(dto);
+            when(blobStorageService.openDownloadStream("pdf/referto.pdf"))
+                    .thenReturn(new BlobDownload(new ByteArrayInputStream(new byte[4]), 4));
+
+            ResponseEntity<StreamingResponseBody> response = refertoController.downloadPdf(1, headers);
+
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+            assertEquals("bytes", response.getHeaders().getFirst(HttpHeaders.ACCEPT_RANGES));
+        }
+
+        @Test
+        public void downloadPdfIfNoneMatchNotModifiedTest() {
+            RefertoDTO dto = RefertoDTO.builder()
+                    .id(1)
+                    .nomeFile("referto_rossi")
+                    .urlPdfGenerato("http://127.0.0.1:10000/devstoreaccount1/upload-dir/pdf/referto.pdf")
+                    .build();
+            when(refertoService.getRefertoById(1)).thenReturn(dto);
+            when(blobStorageService.openDownloadStream("pdf/referto.pdf"))
+                    .thenReturn(new BlobDownload(new ByteArrayInputStream(new byte[4]), 4, ETAG));
+            when(blobStorageService.getProperties("pdf/referto.pdf")).thenReturn(new ProprietaBlob(4, ETAG));
+
+            ResponseEntity<StreamingResponseBody> primo = refertoController.downloadPdf(1, new HttpHeaders());
+            String etag = primo.getHeaders().getETag();
+            assertEquals(ETAG, etag);
+            assertTrue(primo.getHeaders().getCacheControl().contains("no-cache"));
+            // Senza header condizionali l'ETag arriva con il contenuto: nessuna lettura delle proprietà
+            verify(blobStorageService, never()).getProperties(anyString());
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setIfNoneMatch(etag);
+            ResponseEntity<StreamingResponseBody> secondo = refertoController.downloadPdf(1, headers);
+
+            assertEquals(HttpStatus.NOT_MODIFIED, secondo.getStatusCode());
+            assertEquals(etag, secondo.getHeaders().getETag());
+            assertNull(secondo.getBody());
+            verify(blobStorageService, times(1)).openDownloadStream("pdf/referto.pdf");
+        }
+
+        @Test
+        public void downloadImmagineIfModifiedSinceIgnoratoTest() {
+            // La data di caricamento non cambia con una modifica: solo l'ETag identifica la versione
+            LocalDateTime dataCaricamento = LocalDateTime.of(2026, 1, 10, 10, 0);
+            RefertoDTO dto = RefertoDTO.builder()
+                    .id(1)
+                    .nomeFile("referto_paziente")
+                    .fileUrlImmagine("http://127.0.0.1:10000/devstoreaccount1/upload-dir/immagini/abc_tac.png")
+                    .dataCaricamento(dataCaricamento)
+                    .build();
+            when(refertoService.getRefertoById(1)).thenReturn(dto);
+            when(blobStorageService.openDownloadStream("immagini/abc_tac.png"))
+                    .thenReturn(new BlobDownload(new ByteArrayInputStream(new byte[4]), 4, ETAG));
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setIfModifiedSince(dataCaricamento.atZone(ZoneId.of("Europe/Rome")).plusHours(1));
+            ResponseEntity<StreamingResponseBody> response = refertoController.downloadImmagine(1, headers);
+
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+            assertEquals(-1, response.getHeaders().getLastModified());
+            assertNotNull(response.getHeaders().getETag());
+        }
+
+        @Test
+        public void downloadImmagineIfNoneMatchDiversoRestituisceFileTest() {
+            RefertoDTO dto = RefertoDTO.builder()
+                    .id(1)
+                    .nomeFile("referto_paziente")
+                    .fileUrlImmagine("http://127.0.0.1:10000/devstoreaccount1/upload-dir/immagini/abc_tac.png")
+                    .dataCaricamento(LocalDateTime.of(2026, 1, 10, 10, 0))
+                    .build();
+            when(refertoService.getRefertoById(1)).thenReturn(dto);
+            when(blobStorageService.getProperties("immagini/abc_tac.png")).thenReturn(new ProprietaBlob(4, ETAG));
+            when(blobStorageService.openDownloadStream("immagini/abc_tac.png"))
+                    .thenReturn(new BlobDownload(new ByteArrayInputStream(new byte[4]), 4, ETAG));
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setIfNoneMatch("\"versione-precedente\"");
+            // If-None-Match ha la precedenza su If-Modified-Since
+            headers.setIfModifiedSince(ZonedDateTime.now());
+            ResponseEntity<StreamingResponseBody> response = refertoController.downloadImmagine(1, headers);
+
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+        }
+
+        @Test
+        public void downloadImmagineIfRangeObsoletoRestituisceFileInteroTest() {
+            RefertoDTO dto = RefertoDTO.builder()
+                    .id(1)
+                    .nomeFile("referto_paziente")
+                    .fileUrlImmagine("http://127.0.0.1:10000/devstoreaccount1/upload-dir/immagini/abc_tac.png")
+                    .build();
+            when(refertoService.getRefertoById(1)).thenReturn(dto);
+            when(blobStorageService.getProperties("immagini/abc_tac.png")).thenReturn(new ProprietaBlob(10, ETAG));
+            when(blobStorageService.openDownloadStream("immagini/abc_tac.png"))
+                    .thenReturn(new BlobDownload(new ByteArrayInputStream(new byte[10]), 10, ETAG));
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.RANGE, "bytes=2-6");
+            headers.set(HttpHeaders.IF_RANGE, "\"versione-precedente\"");
+            ResponseEntity<StreamingResponseBody> response = refertoController.downloadImmagine(1, headers);
+
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+            assertEquals(10, response.getHeaders().getContentLength());
+            verify(blobStorageService, never()).openDownloadStream(anyString(), anyLong(), anyLong());
+        }
+
+        @Test
+        public void downloadImmagineIfRangeCorrenteRestituisceIntervalloTest() {
+            RefertoDTO dto = RefertoDTO.builder()
+                    .id(1)
+                    .nomeFile("referto_paziente")
+                    .fileUrlImmagine("http://127.0.0.1:10000/devstoreaccount1/upload-dir/immagini/abc_tac.png")
+                    .build();
+            when(refertoService.getRefertoById(1)).thenReturn(dto);
+            // Lo storage può restituire l'ETag senza virgolette: viene riportato alla forma HTTP
+            when(blobStorageService.getProperties("immagini/abc_tac.png")).thenReturn(new ProprietaBlob(10, "0x8DC1"));
+            when(blobStorageService.openDownloadStream("immagini/abc_tac.png", 2, 5))
+                    .thenReturn(new BlobDownload(new ByteArrayInputStream(new byte[5]), 5, "0x8DC1"));
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.RANGE, "bytes=2-6");
+            headers.set(HttpHeaders.IF_RANGE, "\"0x8DC1\"");
+            ResponseEntity<StreamingResponseBody> response = refertoController.downloadImmagine(1, headers);
+
+            assertEquals(HttpStatus.PARTIAL_CONTENT, response.getStatusCode());
+            assertEquals("\"0x8DC1\"", response.getHeaders().getETag());
+        }
+
+        @Test
+        public void downloadImmagineBlobCambiatoDuranteRangeRestituisceFileInteroTest() {
+            RefertoDTO dto = RefertoDTO.builder()
+                    .id(1)
+                    .nomeFile("referto_paziente")
+                    .fileUrlImmagine("http://127.0.0.1:10000/devstoreaccount1/upload-dir/immagini/abc_tac.png")
+                    .build();
+            when(refertoService.getRefertoById(1)).thenReturn(dto);
+            when(blobStorageService.getProperties("immagini/abc_tac.png")).thenReturn(new ProprietaBlob(10, ETAG));
+            when(blobStorageService.openDownloadStream("immagini/abc_tac.png", 2, 5))
+                    .thenReturn(new BlobDownload(new ByteArrayInputStream(new byte[5]), 5, "\"0x8DC2\""));
+            when(blobStorageService.openDownloadStream("immagini/abc_tac.png"))
+                    .thenReturn(new BlobDownload(new ByteArrayInputStream(new byte[12]), 12, "\"0x8DC2\""));
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.set(HttpHeaders.RANGE, "bytes=2-6");
+            ResponseEntity<StreamingResponseBody> response = refertoController.downloadImmagine(1, headers);
+
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+            assertEquals(12, response.getHeaders().getContentLength());
+            assertEquals("\"0x8DC2\"", response.getHeaders().getETag());
+        }
+
+        @Test
+        public void downloadImmagineDallaCacheSenzaEtagLoLeggeDalleProprietaTest() {
+            RefertoDTO dto = RefertoDTO.builder()
+                    .id(1)
+                    .nomeFile("referto_paziente")
+                    .fileUrlImmagine("http://127.0.0.1:10000/devstoreaccount1/upload-dir/immagini/abc_tac.png")
+                    .build();
+            when(refertoService.getRefertoById(1)).thenReturn(dto);
+            when(blobStorageService.openDownloadStream("immagini/abc_tac.png"))
+                    .thenReturn(new BlobDownload(new ByteArrayInputStream(new byte[4]), 4));
+            when(blobStorageService.getProperties("immagini/abc_tac.png")).thenReturn(new ProprietaBlob(4, ETAG));
+
+            ResponseEntity<StreamingResponseBody> response = refertoController.downloadImmagine(1, new HttpHeaders());
+
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+            assertEquals(ETAG, response.getHeaders().getETag());
+        }
+
+        @Test
+        public void downloadPdfGeneratoSuRichiestaIfNoneMatchTest() {
+            RefertoDTO dto = RefertoDTO.builder()
                     .id(1)
-                    .nomePaziente("Mario Rossi")
+                    .nomeFile("referto_rossi")
+                    .versione(3)
+                    .build();
+            when(refertoService.getRefertoById(1)).thenReturn(dto);
+            when(refertoService.getPdfGenerato(1)).thenReturn("PDF".getBytes());
+
+            ResponseEntity<StreamingResponseBody> primo = refertoController.downloadPdf(1, new HttpHeaders());
+            String etag = primo.getHeaders().getETag();
+            assertNotNull(etag);
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setIfNoneMatch(etag);
+            ResponseEntity<StreamingResponseBody> secondo = refertoController.downloadPdf(1, headers);
+            assertEquals(HttpStatus.NOT_MODIFIED, secondo.getStatusCode());
+            // Il PDF non viene rigenerato per rispondere 304
+            verify(refertoService, times(1)).getPdfGenerato(1);
+
+            // Una modifica del referto incrementa la versione e cambia l'ETag
+            dto.setVersione(4);
+            ResponseEntity<StreamingResponseBody> terzo = refertoController.downloadPdf(1, headers);
+            assertEquals(HttpStatus.OK, terzo.getStatusCode());
+            assertNotEquals(etag, terzo.getHeaders().getETag());
+            verifyNoInteractions(blobStorageService);
+        }
+
+        @Test
+        public void cercaRefertiTest() {
+            FiltroRefertiDTO filtro = FiltroRefertiDTO.builder()
                     .codiceFiscale("RSSMRA80A01H501Z")
                     .tipoEsame(TipoEsame.TAC)
+                    .nomeFile("torace")
                     .build();
+            Page<RefertoSummary> pagina = new PageImpl<>(List.of(
+                    new RefertoSummary(1, "Mario Rossi", "RSSMRA80A01H501Z", TipoEsame.TAC, "tac_torace", null, null)));
+            when(refertoService.cercaReferti(filtro, PAGINA)).thenReturn(pagina);
 
-            RefertoDTO dto2 = RefertoDTO.builder()
-                    .id(2)
-                    .nomePaziente("Anna Verdi")
-                    .codiceFiscale("VRDNNA90C03L219Y")
-                    .tipoEsame(TipoEsame.Radiografia)
-                    .build();
+            ResponseEntity<Page<RefertoSummary>> response = refertoController.cercaReferti(filtro, PAGINA);
+
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+            assertSame(pagina, response.getBody());
+        }
+
+        @Test
+        public void cercaFullTextTest() {
+            RefertoSummary riepilogo = new RefertoSummary(1, "Mario Rossi", "RSSMRA80A01H501Z", TipoEsame.TAC,
+                    "tac_torace", null, null);
+            Page<RisultatoFullText> pagina = new PageImpl<>(List.of(
+                    new RisultatoFullText(riepilogo, 1.5f, "Piccolo <mark>nodulo</mark> polmonare", null)));
+            when(ricercaFullTextService.cerca("nodulo", PAGINA)).thenReturn(pagina);
+
+            ResponseEntity<Page<RisultatoFullText>> response = refertoController.cercaFullText("nodulo", PAGINA);
+
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+            assertSame(pagina, response.getBody());
+        }
 
-            RefertoDTO dto3 = RefertoDTO.builder()
-                    .id(3)
-                    .nomePaziente("Luigi Bianchi")
-                    .codiceFiscale("BNCLGU85B02F205X")
-                    .tipoEsame(TipoEsame.Ecografia)
+        @Test
+        public void ricostruisciFullTextTest() {
+            ResponseEntity<Void> response = refertoController.ricostruisciFullText();
+
+            assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+            verify(ricercaFullTextService).ricostruisci();
+        }
+
+        @Test
+        public void scorriRefertiTest() {
+            CursoreReferto cursore = CursoreReferto.valueOf("2025-01-31T10:15:30,7");
+            FinestraRefertiDTO finestra = FinestraRefertiDTO.builder()
+                    .content(List.of(new RefertoSummary(5, "Mario Rossi", null, TipoEsame.TAC, "tac_5", null, null)))
+                    .successivo("2025-01-30T08:00,5")
                     .build();
+            when(refertoService.scorriReferti("medico@test.com", null, cursore, 50)).thenReturn(finestra);
+
+            ResponseEntity<FinestraRefertiDTO> response = refertoController.scorriReferti(cursore, 50,
+                    "medico@test.com", null);
+
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+            assertSame(finestra, response.getBody());
+        }
 
-            List<RefertoDTO> refertiList = Arrays.asList(dto1, dto2, dto3);
+        @Test
+        public void getAllRefertiSuccessTest() {
+            List<RefertoSummary> refertiList = List.of(
+                    new RefertoSummary(1, "Mario Rossi", "RSSMRA80A01H501Z", TipoEsame.TAC, "tac_1", null, null),
+                    new RefertoSummary(2, "Anna Verdi", "VRDNNA90C03L219Y", TipoEsame.Radiografia, "rx_2", null, null),
+                    new RefertoSummary(3, "Luigi Bianchi", "BNCLGU85B02F205X", TipoEsame.Ecografia, "eco_3", null, null));
 
-            when(refertoService.getAllReferti()).thenReturn(refertiList);
+            when(refertoService.getAllReferti(PAGINA)).thenReturn(new PageImpl<>(refertiList, PAGINA, 3));
 
-            ResponseEntity<List<RefertoDTO>> response = refertoController.getAllReferti();
+            ResponseEntity<Page<RefertoSummary>> response = refertoController.getAllReferti(PAGINA);
 
             assertEquals(HttpStatus.OK, response.getStatusCode());
             assertNotNull(response.getBody());
-            assertEquals(3, response.getBody().size());
-            assertEquals("Mario Rossi", response.getBody().get(0).getNomePaziente());
-            assertEquals("Anna Verdi", response.getBody().get(1).getNomePaziente());
-            assertEquals("Luigi Bianchi", response.getBody().get(2).getNomePaziente());
-            verify(refertoService).getAllReferti();
+            assertEquals(3, response.getBody().getTotalElements());
+            assertEquals("Mario Rossi", response.getBody().getContent().get(0).nomePaziente());
+            assertEquals("Anna Verdi", response.getBody().getContent().get(1).nomePaziente());
+            assertEquals("Luigi Bianchi", response.getBody().getContent().get(2).nomePaziente());
+            verify(refertoService).getAllReferti(PAGINA);
+        }
+    }
+
+    @Nested
+    class Async {
+
+        private MultipartFile file(String nome) {
+            MultipartFile file = mock(MultipartFile.class);
+            when(file.getOriginalFilename()).thenReturn(nome);
+            return file;
+        }
+
+        @Test
+        public void addRefertoAsyncAcceptedTest() throws IOException {
+            IngestioneJobDTO job = IngestioneJobDTO.builder().id("job-1").stato(StatoIngestione.IN_CODA)
+                    .nomeFile("referto_test").build();
+            when(refertoIngestionService.accoda(any(), any())).thenReturn(job);
+
+            ResponseEntity<?> response = refertoController.addRefertoAsync("Mario Rossi", "rssmra80a01h501z",
+                    TipoEsame.TAC, "Testo", "Conclusioni", "medico@hospital.com", "referto_test", file("img.png"));
+
+            assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+            assertEquals("/referti/jobs/job-1", response.getHeaders().getLocation().toString());
+            assertSame(job, response.getBody());
+            verify(refertoIngestionService).accoda(argThat(dto -> "RSSMRA80A01H501Z".equals(dto.getCodiceFiscale())),
+                    any());
+            verify(refertoService, never()).addReferto(any(), any());
+        }
+
+        @Test
+        public void addRefertoAsyncInvalidFileExtensionTest() throws IOException {
+            ResponseEntity<?> response = refertoController.addRefertoAsync("Mario Rossi", "RSSMRA80A01H501Z",
+                    TipoEsame.TAC, "Testo", "Conclusioni", "medico@hospital.com", "referto_test", file("doc.txt"));
+
+            assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+            verify(refertoIngestionService, never()).accoda(any(), any());
+        }
+
+        @Test
+        public void addRefertoAsyncStagingErrorTest() throws IOException {
+            when(refertoIngestionService.accoda(any(), any())).thenThrow(new IOException("Disco pieno"));
+
+            ResponseEntity<?> response = refertoController.addRefertoAsync("Mario Rossi", "RSSMRA80A01H501Z",
+                    TipoEsame.TAC, "Testo", "Conclusioni", "medico@hospital.com", "referto_test", file("img.jpg"));
+
+            assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, response.getStatusCode());
+        }
+
+        @Test
+        public void getJobTest() {
+            IngestioneJobDTO job = IngestioneJobDTO.builder().id("job-1").stato(StatoIngestione.COMPLETATO)
+                    .build();
+            when(refertoIngestionService.getJob("job-1")).thenReturn(job);
+
+            ResponseEntity<IngestioneJobDTO> response = refertoController.getJob("job-1");
+
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+            assertEquals(StatoIngestione.COMPLETATO, response.getBody().getStato());
+        }
+
+        @Test
+        public void getJobNotFoundTest() {
+            when(refertoIngestionService.getJob("sconosciuto")).thenReturn(null);
+
+            ResponseEntity<IngestioneJobDTO> response = refertoController.getJob("sconosciuto");
+
+            assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
         }
     }
 }
@@ -0,0 +1,42 @@
+package it.unisa.project.medsafe.dto;
+
+import it.unisa.project.medsafe.BasePojoTest;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test CursoreReferto")
+class CursoreRefertoTest extends BasePojoTest {
+
+    @Nested
+    @DisplayName("Casi corretti")
+    class Correct {
+
+        @Test
+        @DisplayName("La forma testuale viene riletta nello stesso cursore")
+        void testAndataERitorno() {
+            CursoreReferto cursore = new CursoreReferto(LocalDateTime.of(2025, 1, 31, 10, 15, 30, 123_000_000), 42);
+
+            assertEquals("2025-01-31T10:15:30.123,42", cursore.toString());
+            assertEquals(cursore, CursoreReferto.valueOf(cursore.toString()));
+        }
+    }
+
+    @Nested
+    @DisplayName("Casi di errore")
+    class Incorrect {
+
+        @Test
+        @DisplayName("Formati non validi lanciano IllegalArgumentException")
+        void testFormatoNonValido() {
+            assertThrows(IllegalArgumentException.class, () -> CursoreReferto.valueOf("42"));
+            assertThrows(IllegalArgumentException.class, () -> CursoreReferto.valueOf(",42"));
+            assertThrows(IllegalArgumentException.class, () -> CursoreReferto.valueOf("ieri,42"));
+            assertThrows(IllegalArgumentException.class, () -> CursoreReferto.valueOf("2025-01-31T10:15:30,abc"));
+        }
+    }
+}
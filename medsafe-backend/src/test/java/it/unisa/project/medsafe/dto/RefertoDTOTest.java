@@ -134,7 +134,8 @@ class RefertoDTOTest extends BasePojoTest {
                     "http://pdf.pdf",
                     "referto",
                     "dott@test.com",
-                    now
+                    now,
+                    0
             );
 
             assertEquals(1, dto.getId());
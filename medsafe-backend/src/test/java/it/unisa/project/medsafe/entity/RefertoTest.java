@@ -133,7 +133,9 @@ class RefertoTest extends BasePojoTest {
                     "http://pdf.pdf",
                     "referto",
                     "dott@test.com",
-                    now
+                    now,
+                    0,
+                    "impronta"
             );
 
             assertEquals(1, referto.getId());
@@ -3,6 +3,11 @@ package it.unisa.project.medsafe.exception;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import it.unisa.project.medsafe.entity.Referto;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.mapping.PropertyReferenceException;
+import org.springframework.data.util.TypeInformation;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BeanPropertyBindingResult;
@@ -12,6 +17,8 @@ import org.springframework.web.bind.MissingServletRequestParameterException;
 import org.springframework.web.method.annotation.MethodArgumentTypeMismatchException;
 import org.springframework.web.multipart.MaxUploadSizeExceededException;
 
+import java.sql.SQLTransientConnectionException;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -354,6 +361,35 @@ class GlobalExceptionHandlerTest {
         assertTrue(body.get("details").contains("abc"));
     }
 
+    @Test
+    @DisplayName("handleSortNonValido ritorna 400 Bad Request con il campo di ordinamento")
+    void testHandleSortNonValido() {
+        PropertyReferenceException exception = new PropertyReferenceException("inesistente",
+                TypeInformation.of(Referto.class), List.of());
+
+        ResponseEntity<?> response = exceptionHandler.handleSortNonValido(exception);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        @SuppressWarnings("unchecked")
+        Map<String, String> body = (Map<String, String>) response.getBody();
+        assertNotNull(body);
+        assertTrue(body.get("details").contains("inesistente"));
+    }
+
+    @Test
+    @DisplayName("handleRicercaNonValida ritorna 400 Bad Request con il motivo")
+    void testHandleRicercaNonValida() {
+        RicercaNonValidaException exception = new RicercaNonValidaException("Testo di ricerca non valido: AND");
+
+        ResponseEntity<?> response = exceptionHandler.handleRicercaNonValida(exception);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        @SuppressWarnings("unchecked")
+        Map<String, String> body = (Map<String, String>) response.getBody();
+        assertNotNull(body);
+        assertEquals("Testo di ricerca non valido: AND", body.get("details"));
+    }
+
     @Test
     @DisplayName("handleTypeMismatch con requiredType null")
     void testHandleTypeMismatchRequiredTypeNull() {
@@ -410,4 +446,41 @@ class GlobalExceptionHandlerTest {
         assertTrue(body.get("details").contains("nomeFile"));
         assertTrue(body.get("details").contains("obbligatorio"));
     }
+
+    // ==================== TEST handleTaskRejected ====================
+
+    @Test
+    @DisplayName("handleTaskRejected ritorna 503 con Retry-After")
+    void testHandleTaskRejected() {
+        // Act
+        ResponseEntity<?> response = exceptionHandler.handleTaskRejected(new TaskRejectedException("Coda piena"));
+
+        // Assert
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+        assertNotNull(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        @SuppressWarnings("unchecked")
+        Map<String, String> body = (Map<String, String>) response.getBody();
+        assertEquals("503 Service Unavailable", body.get("status"));
+    }
+
+    @Test
+    @DisplayName("handleServizioSovraccarico ritorna 503 con Retry-After")
+    void testHandleServizioSovraccarico() {
+        ResponseEntity<?> response = exceptionHandler
+                .handleServizioSovraccarico(new ServizioSovraccaricoException("Bulkhead saturo"));
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+        assertNotNull(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+    }
+
+    @Test
+    @DisplayName("handleGeneralException riconosce il pool di connessioni esaurito avvolto da altre eccezioni")
+    void testHandleGeneralExceptionPoolEsaurito() {
+        Exception exc = new RuntimeException("Impossibile aprire la transazione",
+                new SQLTransientConnectionException("HikariPool-1 - Connection is not available"));
+
+        ResponseEntity<?> response = exceptionHandler.handleGeneralException(exc);
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+    }
 }
@@ -0,0 +1,88 @@
+package it.unisa.project.medsafe.repository;
+
+import it.unisa.project.medsafe.entity.IngestioneJob;
+import it.unisa.project.medsafe.entity.StatoIngestione;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDateTime;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+@ActiveProfiles("test")
+@DisplayName("Test IngestioneJobRepository")
+public class IngestioneJobRepositoryTest {
+
+    private static final LocalDateTime ADESSO = LocalDateTime.of(2026, 3, 1, 12, 0);
+    private static final Set<StatoIngestione> ATTIVI = Set.of(StatoIngestione.IN_CODA, StatoIngestione.IN_CORSO);
+
+    @Autowired
+    private IngestioneJobRepository jobRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    private void salva(String id, StatoIngestione stato, LocalDateTime aggiornamento) {
+        jobRepository.saveAndFlush(IngestioneJob.builder()
+                .id(id)
+                .stato(stato)
+                .nomeFile("referto_" + id)
+                .dataCreazione(aggiornamento)
+                .dataAggiornamento(aggiornamento)
+                .build());
+    }
+
+    private StatoIngestione stato(String id) {
+        entityManager.clear();
+        return jobRepository.findById(id).orElseThrow().getStato();
+    }
+
+    @Test
+    @DisplayName("Lo stato cambia solo se il job è ancora in quello atteso")
+    void testAggiornaStato() {
+        salva("job-1", StatoIngestione.IN_CODA, ADESSO);
+
+        assertEquals(0, jobRepository.aggiornaStato("job-1", Set.of(StatoIngestione.IN_CORSO),
+                StatoIngestione.COMPLETATO, null, ADESSO));
+        assertEquals(1, jobRepository.aggiornaStato("job-1", Set.of(StatoIngestione.IN_CODA),
+                StatoIngestione.IN_CORSO, null, ADESSO));
+        assertEquals(StatoIngestione.IN_CORSO, stato("job-1"));
+    }
+
+    @Test
+    @DisplayName("I job attivi senza aggiornamenti oltre il limite vengono chiusi come falliti")
+    void testChiudiAbbandonati() {
+        salva("vecchio", StatoIngestione.IN_CORSO, ADESSO.minusHours(2));
+        salva("recente", StatoIngestione.IN_CODA, ADESSO.minusMinutes(5));
+        salva("completato", StatoIngestione.COMPLETATO, ADESSO.minusHours(2));
+
+        assertEquals(1, jobRepository.chiudiAbbandonati(ATTIVI, ADESSO.minusHours(1), "Interrotto", ADESSO));
+
+        assertEquals(StatoIngestione.FALLITO, stato("vecchio"));
+        assertEquals("Interrotto", jobRepository.findById("vecchio").orElseThrow().getErrore());
+        assertEquals(StatoIngestione.IN_CODA, stato("recente"));
+        assertEquals(StatoIngestione.COMPLETATO, stato("completato"));
+    }
+
+    @Test
+    @DisplayName("Vengono eliminati solo i job terminati prima del limite")
+    void testEliminaPrima() {
+        salva("scaduto", StatoIngestione.FALLITO, ADESSO.minusHours(2));
+        salva("recente", StatoIngestione.COMPLETATO, ADESSO);
+        salva("attivo", StatoIngestione.IN_CODA, ADESSO.minusHours(2));
+
+        assertEquals(1, jobRepository.eliminaPrima(Set.of(StatoIngestione.COMPLETATO, StatoIngestione.FALLITO),
+                ADESSO.minusHours(1)));
+
+        entityManager.clear();
+        assertFalse(jobRepository.existsById("scaduto"));
+        assertTrue(jobRepository.existsById("recente"));
+        assertTrue(jobRepository.existsById("attivo"));
+    }
+}
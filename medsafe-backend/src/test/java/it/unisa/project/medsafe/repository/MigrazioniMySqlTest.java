@@ -0,0 +1,68 @@
+package it.unisa.project.medsafe.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+import java.util.stream.Collectors;
+
+/**
+ * Migrazioni db/migration/mysql su MySQL 8 (lo stesso del docker-compose).
+ * Saltato se Docker non è disponibile.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class MigrazioniMySqlTest extends MigrazioniTestBase {
+
+    @Container
+    static final MySQLContainer<?> MYSQL = new MySQLContainer<>("mysql:8.0");
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", MYSQL::getJdbcUrl);
+        registry.add("spring.datasource.username", MYSQL::getUsername);
+        registry.add("spring.datasource.password", MYSQL::getPassword);
+        registry.add("spring.datasource.driver-class-name", MYSQL::getDriverClassName);
+        registry.add("spring.jpa.properties.hibernate.dialect", () -> "org.hibernate.dialect.MySQLDialect");
+    }
+
+    /**
+     * Indici scelti da EXPLAIN (colonna key) per ogni tabella della query
+     */
+    @Override
+    protected String piano(String sql) {
+        return jdbcTemplate.queryForList("EXPLAIN " + sql).stream()
+                .map(riga -> String.valueOf(riga.get("key")))
+                .collect(Collectors.joining(","));
+    }
+
+    @Override
+    protected String primeRighe(String sql, int righe) {
+        return sql + " LIMIT " + righe;
+    }
+
+    @Override
+    protected void aggiornaStatistiche() {
+        jdbcTemplate.execute("ANALYZE TABLE referto");
+    }
+
+    @Override
+    protected String vendor() {
+        return "mysql";
+    }
+
+    /**
+     * L'utente di test ha i permessi solo sul proprio database: il nuovo viene creato come root
+     */
+    @Override
+    protected DataSource nuovoDatabase(String nome) {
+        DriverManagerDataSource root = new DriverManagerDataSource(MYSQL.getJdbcUrl(), "root", MYSQL.getPassword());
+        new JdbcTemplate(root).execute("CREATE DATABASE " + nome);
+        String url = MYSQL.getJdbcUrl().replaceFirst("/" + MYSQL.getDatabaseName() + "(?=\\?|$)", "/" + nome);
+        return new DriverManagerDataSource(url, "root", MYSQL.getPassword());
+    }
+}
@@ -0,0 +1,75 @@
+package it.unisa.project.medsafe.repository;
+
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.MSSQLServerContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Migrazioni db/migration/sqlserver su SQL Server 2022 (stesso motore di Azure SQL).
+ * Saltato se Docker non è disponibile.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class MigrazioniSqlServerTest extends MigrazioniTestBase {
+
+    @Container
+    static final MSSQLServerContainer<?> SQL_SERVER =
+            new MSSQLServerContainer<>("mcr.microsoft.com/mssql/server:2022-latest").acceptLicense();
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", SQL_SERVER::getJdbcUrl);
+        registry.add("spring.datasource.username", SQL_SERVER::getUsername);
+        registry.add("spring.datasource.password", SQL_SERVER::getPassword);
+        registry.add("spring.datasource.driver-class-name", SQL_SERVER::getDriverClassName);
+        registry.add("spring.jpa.properties.hibernate.dialect", () -> "org.hibernate.dialect.SQLServerDialect");
+    }
+
+    /**
+     * Piano stimato in XML: con SHOWPLAN_XML attivo la query non viene eseguita,
+     * SQL Server restituisce il piano che userebbe
+     */
+    @Override
+    protected String piano(String sql) {
+        return jdbcTemplate.execute((ConnectionCallback<String>) connessione -> {
+            try (Statement statement = connessione.createStatement()) {
+                statement.execute("SET SHOWPLAN_XML ON");
+                try (ResultSet piano = statement.executeQuery(sql)) {
+                    piano.next();
+                    return piano.getString(1);
+                } finally {
+                    statement.execute("SET SHOWPLAN_XML OFF");
+                }
+            }
+        });
+    }
+
+    @Override
+    protected String primeRighe(String sql, int righe) {
+        return sql + " OFFSET 0 ROWS FETCH NEXT " + righe + " ROWS ONLY";
+    }
+
+    @Override
+    protected void aggiornaStatistiche() {
+        jdbcTemplate.execute("UPDATE STATISTICS referto");
+    }
+
+    @Override
+    protected String vendor() {
+        return "sqlserver";
+    }
+
+    @Override
+    protected DataSource nuovoDatabase(String nome) {
+        jdbcTemplate.execute("CREATE DATABASE " + nome);
+        return new DriverManagerDataSource(SQL_SERVER.getJdbcUrl() + ";databaseName=" + nome,
+                SQL_SERVER.getUsername(), SQL_SERVER.getPassword());
+    }
+}
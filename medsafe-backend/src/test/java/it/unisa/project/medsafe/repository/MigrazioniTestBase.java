@@ -0,0 +1,214 @@
+package it.unisa.project.medsafe.repository;
+
+import it.unisa.project.medsafe.entity.IngestioneJob;
+import it.unisa.project.medsafe.entity.Referto;
+import it.unisa.project.medsafe.entity.TipoEsame;
+import it.unisa.project.medsafe.entity.User;
+import org.flywaydb.core.Flyway;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.model.naming.CamelCaseToUnderscoresNamingStrategy;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.orm.jpa.hibernate.SpringImplicitNamingStrategy;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Migrazioni Flyway su un database reale (avviato dalle sottoclassi con Testcontainers):
+ * lo schema creato dagli script deve superare la validazione di Hibernate e le ricerche
+ * dei referti devono usare gli indici invece di leggere l'intera tabella. Anche un database
+ * creato prima di Flyway, registrato alla baseline, deve arrivare a uno schema valido.
+ */
+@DataJpaTest(properties = {
+        "spring.flyway.enabled=true",
+        "spring.flyway.locations=classpath:db/migration/{vendor}",
+        "spring.jpa.hibernate.ddl-auto=validate"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+abstract class MigrazioniTestBase {
+
+    /**
+     * Abbastanza righe perché l'ottimizzatore preferisca gli indici alla scansione completa
+     */
+    private static final int REFERTI = 2000;
+
+    private static final String RIEPILOGO = "SELECT id, nome_paziente, codice_fiscale, tipo_esame, nome_file, "
+            + "autore_email, data_caricamento FROM referto";
+
+    private static final String ORDINE_CRONOLOGICO = " ORDER BY data_caricamento DESC, id DESC";
+
+    @Autowired
+    protected JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private Flyway flyway;
+
+    /**
+     * Piano di esecuzione della query, nel formato del database
+     */
+    protected abstract String piano(String sql);
+
+    /**
+     * La query limitata alle prime righe, nella sintassi del database
+     */
+    protected abstract String primeRighe(String sql, int righe);
+
+    protected abstract void aggiornaStatistiche();
+
+    /**
+     * Cartella degli script del database (db/migration/{vendor} e db/baseline/{vendor})
+     */
+    protected abstract String vendor();
+
+    /**
+     * Crea un database vuoto nello stesso container
+     */
+    protected abstract DataSource nuovoDatabase(String nome);
+
+    @BeforeEach
+    void popola() {
+        // Il container è condiviso dai test della classe: i referti vengono inseriti una volta sola
+        if (jdbcTemplate.queryForObject("SELECT COUNT(*) FROM referto", Integer.class) > 0) {
+            return;
+        }
+        LocalDateTime inizio = LocalDateTime.of(2025, 1, 1, 8, 0);
+        TipoEsame[] tipi = TipoEsame.values();
+        List<Object[]> righe = new ArrayList<>();
+        for (int i = 0; i < REFERTI; i++) {
+            righe.add(new Object[]{"Paziente " + i, String.format("PZN%013d", i % 400), tipi[i % tipi.length].name(),
+                    "https://storage/upload-dir/immagini/" + i + ".png", "referto_" + i,
+                    "medico" + (i % 50) + "@hospital.com", Timestamp.valueOf(inizio.plusMinutes(i))});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO referto (nome_paziente, codice_fiscale, tipo_esame, file_url_immagine, "
+                + "nome_file, autore_email, data_caricamento) VALUES (?, ?, ?, ?, ?, ?, ?)", righe);
+        aggiornaStatistiche();
+    }
+
+    @Test
+    @DisplayName("Tutte le migrazioni sono applicate e lo schema supera la validazione di Hibernate")
+    void testMigrazioniApplicate() {
+        // Con ddl-auto=validate il contesto non si avvia se tabelle o colonne non corrispondono alle entity
+        assertEquals("4", flyway.info().current().getVersion().getVersion());
+        assertEquals(0, flyway.info().pending().length);
+    }
+
+    @Test
+    @DisplayName("Un database creato prima di Flyway viene registrato alla baseline, aggiornato e validato")
+    void testAggiornamentoDallaBaseline() {
+        DataSource database = nuovoDatabase("medsafe_baseline");
+        new ResourceDatabasePopulator(new ClassPathResource("db/baseline/" + vendor() + "/schema_pre_flyway.sql"))
+                .execute(database);
+        JdbcTemplate jdbc = new JdbcTemplate(database);
+        jdbc.update("INSERT INTO referto (nome_paziente, codice_fiscale, tipo_esame, file_url_immagine, "
+                        + "url_pdf_generato, nome_file, autore_email) VALUES (?, ?, ?, ?, ?, ?, ?)",
+                "Mario Rossi", "RSSMRA80A01H501Z", "TAC", "https://storage/upload-dir/immagini/tac.png",
+                "https://storage/upload-dir/pdf/tac.pdf", "referto_esistente", "medico@hospital.com");
+
+        // Stessa configurazione dell'applicazione (spring.flyway.baseline-*)
+        Flyway aggiornamento = Flyway.configure()
+                .dataSource(database)
+                .locations("classpath:db/migration/" + vendor())
+                .baselineOnMigrate(true)
+                .baselineVersion("1")
+                .load();
+        aggiornamento.migrate();
+
+        assertEquals("4", aggiornamento.info().current().getVersion().getVersion());
+        assertEquals(0, jdbc.queryForObject("SELECT versione FROM referto", Integer.class));
+        assertDoesNotThrow(() -> validaSchema(database));
+    }
+
+    @Test
+    @DisplayName("La ricerca per codice fiscale usa idx_referto_codice_fiscale")
+    void testIndiceCodiceFiscale() {
+        assertUsaIndice(RIEPILOGO + " WHERE codice_fiscale = 'PZN0000000000042'" + ORDINE_CRONOLOGICO,
+                "idx_referto_codice_fiscale");
+    }
+
+    @Test
+    @DisplayName("La ricerca per tipo esame usa idx_referto_tipo_esame")
+    void testIndiceTipoEsame() {
+        assertUsaIndice(RIEPILOGO + " WHERE tipo_esame = 'TAC'" + ORDINE_CRONOLOGICO, "idx_referto_tipo_esame");
+    }
+
+    @Test
+    @DisplayName("La ricerca per autore usa idx_referto_autore_email")
+    void testIndiceAutoreEmail() {
+        assertUsaIndice(RIEPILOGO + " WHERE autore_email = 'medico7@hospital.com'" + ORDINE_CRONOLOGICO,
+                "idx_referto_autore_email");
+    }
+
+    @Test
+    @DisplayName("Lo scorrimento a cursore per autore riparte dall'indice idx_referto_autore_email")
+    void testIndiceScorrimento() {
+        assertUsaIndice(RIEPILOGO + " WHERE autore_email = 'medico7@hospital.com' AND (data_caricamento < "
+                        + "'2025-01-01 20:00:00' OR (data_caricamento = '2025-01-01 20:00:00' AND id < 700))"
+                        + ORDINE_CRONOLOGICO,
+                "idx_referto_autore_email");
+    }
+
+    @Test
+    @DisplayName("L'elenco di tutti i referti, dal più recente, usa idx_referto_data_caricamento")
+    void testIndiceDataCaricamento() {
+        assertUsaIndice(RIEPILOGO + ORDINE_CRONOLOGICO, "idx_referto_data_caricamento");
+    }
+
+    @Test
+    @DisplayName("La ricerca per nome file usa l'indice univoco uk_referto_nome_file")
+    void testIndiceNomeFile() {
+        String sql = RIEPILOGO + " WHERE nome_file = 'referto_42'";
+        String piano = piano(sql);
+        assertTrue(piano.contains("uk_referto_nome_file"), "Indice non usato, piano: " + piano);
+    }
+
+    private void assertUsaIndice(String sql, String indice) {
+        String piano = piano(primeRighe(sql, 20));
+        assertTrue(piano.contains(indice), "Indice " + indice + " non usato, piano: " + piano);
+    }
+
+    /**
+     * Validazione di Hibernate (ddl-auto=validate) sulle entity, con le strategie di naming di Spring Boot
+     */
+    private void validaSchema(DataSource dataSource) {
+        StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+                .applySetting(AvailableSettings.DATASOURCE, dataSource)
+                .applySetting(AvailableSettings.HBM2DDL_AUTO, "validate")
+                .applySetting(AvailableSettings.PHYSICAL_NAMING_STRATEGY,
+                        CamelCaseToUnderscoresNamingStrategy.class.getName())
+                .applySetting(AvailableSettings.IMPLICIT_NAMING_STRATEGY, SpringImplicitNamingStrategy.class.getName())
+                .build();
+        try {
+            // Con uno schema non valido la SessionFactory non si costruisce (SchemaManagementException)
+            new MetadataSources(registry)
+                    .addAnnotatedClass(Referto.class)
+                    .addAnnotatedClass(User.class)
+                    .addAnnotatedClass(IngestioneJob.class)
+                    .buildMetadata()
+                    .buildSessionFactory()
+                    .close();
+        } finally {
+            StandardServiceRegistryBuilder.destroy(registry);
+        }
+    }
+}
@@ -1,13 +1,27 @@
 package it.unisa.project.medsafe.repository;
 
+import it.unisa.project.medsafe.dto.FiltroRefertiDTO;
+import it.unisa.project.medsafe.dto.RefertoSummary;
 import it.unisa.project.medsafe.entity.Referto;
 import it.unisa.project.medsafe.entity.TipoEsame;
 import org.junit.jupiter.api.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -152,6 +166,63 @@ public class RefertoRepositoryTest {
             assertTrue(result.stream().allMatch(r -> r.getCodiceFiscale().equals(cf)));
         }
 
+        @Test
+        @DisplayName("Trova una pagina di riepiloghi dei referti di un paziente, ordinata")
+        void testFindByCodiceFiscalePaginato() {
+            // Arrange
+            String cf = "TSTPAG80A01H501Z";
+            for (int i = 1; i <= 5; i++) {
+                refertoRepository.save(createReferto("Paziente Pagine", cf, TipoEsame.TAC, "referto_pag" + i));
+            }
+            refertoRepository.save(createReferto("Altro Paziente", "TSTALT80A01H501Z", TipoEsame.TAC, "referto_altro"));
+
+            // Act
+            Page<RefertoSummary> pagina = refertoRepository.findSummaryByCodiceFiscale(cf,
+                    PageRequest.of(1, 2, Sort.by(Sort.Direction.DESC, "id")));
+
+            // Assert
+            assertEquals(5, pagina.getTotalElements());
+            assertEquals(3, pagina.getTotalPages());
+            assertEquals(List.of("referto_pag3", "referto_pag2"),
+                    pagina.getContent().stream().map(RefertoSummary::nomeFile).toList());
+            RefertoSummary riepilogo = pagina.getContent().get(0);
+            assertEquals("Paziente Pagine", riepilogo.nomePaziente());
+            assertEquals(cf, riepilogo.codiceFiscale());
+            assertEquals(TipoEsame.TAC, riepilogo.tipoEsame());
+        }
+
+        @Test
+        @DisplayName("Lo scorrimento a cursore restituisce ogni referto una sola volta, dal più recente")
+        void testScorrimentoKeyset() {
+            // Arrange: tre referti caricati nello stesso istante, distinti solo dall'id
+            LocalDateTime stessoIstante = LocalDateTime.of(2025, 3, 1, 9, 0);
+            String email = "scorrimento@hospital.com";
+            List<Integer> attesi = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                Referto referto = createReferto("Paziente " + i, "TSTSCR80A01H501Z", TipoEsame.TAC, "referto_scr" + i);
+                referto.setAutoreEmail(email);
+                referto.setDataCaricamento(i < 3 ? stessoIstante : stessoIstante.plusDays(i));
+                attesi.add(refertoRepository.save(referto).getId());
+            }
+            refertoRepository.save(createReferto("Altro", "TSTALT80A01H501Z", TipoEsame.TAC, "referto_altro_autore"));
+            Sort ordine = Sort.by(Sort.Order.desc("dataCaricamento"), Sort.Order.desc("id"));
+
+            // Act: blocchi da 2 ripartendo dall'ultimo referto ricevuto
+            List<Integer> letti = new ArrayList<>();
+            ScrollPosition posizione = ScrollPosition.keyset();
+            Window<RefertoSummary> finestra;
+            do {
+                finestra = refertoRepository.findSummaryByAutoreEmail(email, posizione, ordine, Limit.of(2));
+                finestra.forEach(r -> letti.add(r.id()));
+                RefertoSummary ultimo = finestra.getContent().get(finestra.size() - 1);
+                posizione = ScrollPosition.forward(Map.of("dataCaricamento", ultimo.dataCaricamento(),
+                        "id", ultimo.id()));
+            } while (finestra.hasNext());
+
+            // Assert: prima i due più recenti, poi i tre dello stesso istante per id decrescente
+            assertEquals(List.of(attesi.get(4), attesi.get(3), attesi.get(2), attesi.get(1), attesi.get(0)), letti);
+        }
+
         @Test
         @DisplayName("Trova referti per tipo esame")
         void testFindByTipoEsame() {
@@ -282,6 +353,106 @@ public class RefertoRepositoryTest {
         }
     }
 
+    @Nested
+    @DisplayName("Test ricerca combinata")
+    class RicercaCombinataTests {
+
+        private Referto salva(String cf, TipoEsame tipo, String autore, LocalDateTime data, String nomeFile) {
+            Referto referto = createReferto("Paziente " + nomeFile, cf, tipo, nomeFile);
+            referto.setAutoreEmail(autore);
+            referto.setDataCaricamento(data);
+            return refertoRepository.save(referto);
+        }
+
+        @Test
+        @DisplayName("Tutti i criteri valorizzati vengono applicati insieme")
+        void testCercaRiepiloghiCombinati() {
+            // Arrange
+            LocalDateTime marzo = LocalDateTime.of(2025, 3, 10, 9, 30);
+            String cf = "RSSMRA80A01H501Z";
+            salva(cf, TipoEsame.TAC, "rossi@hospital.com", marzo, "TAC_torace_marzo");
+            salva(cf, TipoEsame.TAC, "rossi@hospital.com", marzo.plusDays(5).withHour(23), "tac_addome_marzo");
+            salva(cf, TipoEsame.TAC, "rossi@hospital.com", marzo.plusMonths(1), "tac_torace_aprile");
+            salva(cf, TipoEsame.Ecografia, "rossi@hospital.com", marzo, "eco_tac_marzo");
+            salva(cf, TipoEsame.TAC, "verdi@hospital.com", marzo, "tac_verdi_marzo");
+            salva("VRDNNA90C03L219Y", TipoEsame.TAC, "rossi@hospital.com", marzo, "tac_altro_paziente");
+
+            FiltroRefertiDTO filtro = FiltroRefertiDTO.builder()
+                    .codiceFiscale(cf.toLowerCase())
+                    .tipoEsame(TipoEsame.TAC)
+                    .autoreEmail("rossi@hospital.com")
+                    .dal(LocalDate.of(2025, 3, 10))
+                    .al(LocalDate.of(2025, 3, 15))
+                    .nomeFile("TAC")
+                    .build();
+
+            // Act
+            Page<RefertoSummary> pagina = refertoRepository.cercaRiepiloghi(RefertoSpecifications.da(filtro),
+                    PageRequest.of(0, 10, Sort.by(Sort.Direction.DESC, "dataCaricamento")));
+
+            // Assert: il giorno "al" è incluso fino a mezzanotte
+            assertEquals(List.of("tac_addome_marzo", "TAC_torace_marzo"),
+                    pagina.getContent().stream().map(RefertoSummary::nomeFile).toList());
+            assertEquals(2, pagina.getTotalElements());
+        }
+
+        @Test
+        @DisplayName("Senza criteri pagina tutti i referti; % e _ nel nome file non sono caratteri jolly")
+        void testCercaRiepiloghiSenzaCriteri() {
+            // Arrange
+            LocalDateTime data = LocalDateTime.of(2025, 1, 1, 8, 0);
+            for (int i = 0; i < 5; i++) {
+                salva("TSTCRC80A01H501Z", TipoEsame.Risonanza, "dott@hospital.com", data.plusHours(i), "rm_" + i);
+            }
+            salva("TSTCRC80A01H501Z", TipoEsame.Risonanza, "dott@hospital.com", data, "rm 100% contrasto");
+
+            // Act
+            Page<RefertoSummary> tutti = refertoRepository.cercaRiepiloghi(
+                    RefertoSpecifications.da(new FiltroRefertiDTO()), PageRequest.of(1, 4, Sort.by("id")));
+            Page<RefertoSummary> percento = refertoRepository.cercaRiepiloghi(
+                    RefertoSpecifications.da(FiltroRefertiDTO.builder().nomeFile("0%").build()), PageRequest.of(0, 4));
+            Page<RefertoSummary> trattino = refertoRepository.cercaRiepiloghi(
+                    RefertoSpecifications.da(FiltroRefertiDTO.builder().nomeFile("m_").build()), PageRequest.of(0, 4));
+
+            // Assert
+            assertEquals(6, tutti.getTotalElements());
+            assertEquals(2, tutti.getNumberOfElements());
+            assertEquals(List.of("rm 100% contrasto"),
+                    percento.getContent().stream().map(RefertoSummary::nomeFile).toList());
+            assertEquals(5, trattino.getTotalElements());
+        }
+    }
+
+    @Nested
+    @DisplayName("Test PDF generato su richiesta")
+    class PdfSuRichiestaTests {
+
+        @Test
+        @DisplayName("Registra l'URL del PDF solo per la versione corrente e una sola volta")
+        void testRegistraPdfGenerato() {
+            Referto referto = createReferto("Anna Bianchi", "BNCNNA80A41H501X", TipoEsame.Ecografia, "referto_lazy");
+            referto.setUrlPdfGenerato(null);
+            int id = refertoRepository.saveAndFlush(referto).getId();
+
+            assertEquals(0, refertoRepository.registraPdfGenerato(id, 1, "http://test/vecchio.pdf"));
+            assertEquals(1, refertoRepository.registraPdfGenerato(id, 0, "http://test/lazy.pdf"));
+            assertEquals(0, refertoRepository.registraPdfGenerato(id, 0, "http://test/doppio.pdf"));
+        }
+
+        @Test
+        @Transactional(propagation = Propagation.NOT_SUPPORTED)
+        @DisplayName("La registrazione dell'URL apre una propria transazione se il chiamante non ne ha una")
+        void testRegistraPdfGeneratoSenzaTransazione() {
+            Referto referto = createReferto("Anna Bianchi", "BNCNNA80A41H501X", TipoEsame.Ecografia, "referto_senza_tx");
+            referto.setUrlPdfGenerato(null);
+            int id = refertoRepository.saveAndFlush(referto).getId();
+
+            assertEquals(1, refertoRepository.registraPdfGenerato(id, 0, "http://test/lazy.pdf"));
+            assertEquals("http://test/lazy.pdf", refertoRepository.findById(id).orElseThrow().getUrlPdfGenerato());
+            refertoRepository.deleteAll();
+        }
+    }
+
     // Metodo helper per creare referti
     private Referto createReferto(String nomePaziente, String cf, TipoEsame tipo, String nomeFile) {
         return Referto.builder()
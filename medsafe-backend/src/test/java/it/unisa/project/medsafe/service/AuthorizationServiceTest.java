@@ -294,6 +294,34 @@ class AuthorizationServiceTest {
         assertFalse(isAdmin);
     }
 
+    // ==================== TEST checkIsAdmin ====================
+
+    @Test
+    @DisplayName("checkIsAdmin() consente l'operazione a un ADMIN abilitato")
+    void testCheckIsAdmin() {
+        // Arrange
+        when(jwtHelper.getCurrentUserEmail()).thenReturn("admin@medsafe.local");
+        when(userRepository.findByEmail("admin@medsafe.local")).thenReturn(Optional.of(adminUser));
+        when(jwtHelper.hasRole("ADMIN")).thenReturn(true);
+
+        // Act & Assert
+        assertDoesNotThrow(() -> authorizationService.checkIsAdmin());
+    }
+
+    @Test
+    @DisplayName("checkIsAdmin() rifiuta un MEDICO")
+    void testCheckIsAdminMedico() {
+        // Arrange
+        when(jwtHelper.getCurrentUserEmail()).thenReturn("medico1@medsafe.local");
+        when(userRepository.findByEmail("medico1@medsafe.local")).thenReturn(Optional.of(medicoUser));
+        when(jwtHelper.hasRole("ADMIN")).thenReturn(false);
+
+        // Act & Assert
+        UnauthorizedException exception = assertThrows(UnauthorizedException.class,
+                () -> authorizationService.checkIsAdmin());
+        assertEquals("Operazione riservata agli amministratori", exception.getMessage());
+    }
+
     // ==================== TEST Operazioni Diverse ====================
 
     @Test
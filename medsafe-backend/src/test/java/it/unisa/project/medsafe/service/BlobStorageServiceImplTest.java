@@ -0,0 +1,173 @@
+package it.unisa.project.medsafe.service;
+
+import com.azure.storage.blob.BlobClient;
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.models.BlobProperties;
+import com.azure.storage.blob.models.ParallelTransferOptions;
+import com.azure.storage.blob.options.BlobInputStreamOptions;
+import com.azure.storage.blob.options.BlobParallelUploadOptions;
+import com.azure.storage.blob.specialized.BlobInputStream;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.unisa.project.medsafe.exception.ServizioSovraccaricoException;
+import it.unisa.project.medsafe.utils.BufferABlocchi;
+import it.unisa.project.medsafe.utils.Bulkhead;
+import it.unisa.project.medsafe.utils.PoolBlocchi;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("Test BlobStorageServiceImpl - bulkhead e upload a blocchi")
+class BlobStorageServiceImplTest {
+
+    @Mock
+    private BlobContainerClient containerClient;
+
+    @Mock
+    private BlobClient blobClient;
+
+    private Bulkhead bulkhead;
+    private SimpleMeterRegistry meterRegistry;
+    private BlobStorageServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        bulkhead = new Bulkhead("storage", 1, Duration.ofMillis(10));
+        meterRegistry = new SimpleMeterRegistry();
+        service = new BlobStorageServiceImpl(containerClient, bulkhead, meterRegistry, DataSize.ofMegabytes(4), 8);
+        when(containerClient.getBlobClient(anyString())).thenReturn(blobClient);
+    }
+
+    @Test
+    @DisplayName("Un download in streaming aperto ma non letto non trattiene permessi")
+    void testDownloadApertoNonTienePermesso() throws IOException {
+        BlobInputStream stream = mock(BlobInputStream.class);
+        BlobProperties properties = mock(BlobProperties.class);
+        when(properties.getBlobSize()).thenReturn(10L);
+        when(properties.getETag()).thenReturn("\"0x8DC1\"");
+        when(stream.getProperties()).thenReturn(properties);
+        when(blobClient.openInputStream(any(BlobInputStreamOptions.class))).thenReturn(stream);
+
+        BlobDownload download = service.openDownloadStream("pdf/a.pdf");
+
+        assertEquals(10, download.getSize());
+        assertEquals("\"0x8DC1\"", download.getEtag());
+        assertEquals(1, bulkhead.getPermessiDisponibili());
+        download.close();
+        verify(stream).close();
+    }
+
+    @Test
+    @DisplayName("Il permesso serve solo per scaricare un nuovo blocco, non per leggere quello in memoria")
+    void testPermessoSoloPerScaricareIBlocchi() throws IOException {
+        BlobInputStream stream = mock(BlobInputStream.class);
+        when(stream.getProperties()).thenReturn(mock(BlobProperties.class));
+        when(blobClient.openInputStream(any(BlobInputStreamOptions.class))).thenReturn(stream);
+        BlobDownload download = service.openDownloadStream("pdf/a.pdf", 0, 10);
+        byte[] buffer = new byte[4];
+
+        bulkhead.acquisisci();
+        try {
+            when(stream.available()).thenReturn(6);
+            when(stream.read(buffer, 0, 4)).thenReturn(4);
+            assertEquals(4, download.getContent().read(buffer, 0, 4));
+
+            when(stream.available()).thenReturn(0);
+            assertThrows(ServizioSovraccaricoException.class, () -> download.getContent().read(buffer, 0, 4));
+        } finally {
+            bulkhead.rilascia();
+        }
+        assertEquals(4, download.getContent().read(buffer, 0, 4));
+        assertEquals(1, bulkhead.getPermessiDisponibili());
+    }
+
+    @Test
+    @DisplayName("Se l'apertura del download fallisce il permesso viene restituito")
+    void testErroreAperturaRilasciaPermesso() {
+        when(blobClient.openInputStream(any(BlobInputStreamOptions.class)))
+                .thenThrow(new RuntimeException("Storage non raggiungibile"));
+
+        assertNull(service.openDownloadStream("pdf/a.pdf", 0, 5));
+        assertEquals(1, bulkhead.getPermessiDisponibili());
+    }
+
+    @Test
+    @DisplayName("Le operazioni sincrone rilasciano il permesso al termine")
+    void testOperazioniSincrone() {
+        when(blobClient.exists()).thenReturn(false);
+
+        assertFalse(service.deleteFile("pdf/a.pdf"));
+        assertEquals(0, service.downloadFile("pdf/a.pdf").length);
+        assertEquals(1, bulkhead.getPermessiDisponibili());
+    }
+
+    @Test
+    @DisplayName("L'immagine viene caricata a blocchi in parallelo con le opzioni configurate")
+    void testUploadABlocchi() throws IOException {
+        MockMultipartFile file = new MockMultipartFile("file", "tac.png", "image/png", new byte[1024]);
+        when(blobClient.getBlobUrl()).thenReturn("https://storage/immagini/tac.png");
+
+        assertEquals("https://storage/immagini/tac.png", service.uploadFile(file, "tac.png"));
+
+        ArgumentCaptor<BlobParallelUploadOptions> captor = ArgumentCaptor.forClass(BlobParallelUploadOptions.class);
+        verify(blobClient).uploadWithResponse(captor.capture(), isNull(), isNull());
+        ParallelTransferOptions opzioni = captor.getValue().getParallelTransferOptions();
+        assertEquals(4L * 1024 * 1024, opzioni.getBlockSizeLong());
+        assertEquals(4L * 1024 * 1024, opzioni.getMaxSingleUploadSizeLong());
+        assertEquals(8, opzioni.getMaxConcurrency());
+
+        Timer timer = meterRegistry.get("medsafe.storage.upload").tags("tipo", "immagine", "esito", "ok").timer();
+        assertEquals(1, timer.count());
+        assertEquals(1024, meterRegistry.get("medsafe.storage.upload.dimensione").summary().totalAmount());
+        assertEquals(1, bulkhead.getPermessiDisponibili());
+    }
+
+    @Test
+    @DisplayName("Un upload fallito viene registrato con esito errore e rilascia il permesso")
+    void testUploadFallito() {
+        when(blobClient.uploadWithResponse(any(BlobParallelUploadOptions.class), any(), any()))
+                .thenThrow(new RuntimeException("Storage non raggiungibile"));
+
+        BufferABlocchi pdf = new PoolBlocchi(DataSize.ofKilobytes(4), 1).nuovoBuffer();
+
+        assertThrows(RuntimeException.class, () -> service.uploadPdf(pdf, "referto"));
+
+        assertEquals(1, meterRegistry.get("medsafe.storage.upload").tags("tipo", "pdf", "esito", "errore")
+                .timer().count());
+        assertEquals(1, bulkhead.getPermessiDisponibili());
+    }
+
+    @Test
+    @DisplayName("Il PDF viene caricato leggendo direttamente dal buffer, con la sua dimensione")
+    void testUploadPdfDaBuffer() throws IOException {
+        BufferABlocchi pdf = new PoolBlocchi(DataSize.ofKilobytes(4), 1).nuovoBuffer();
+        pdf.write(new byte[10_000]);
+        when(blobClient.getBlobUrl()).thenReturn("https://storage/pdf/referto.pdf");
+        when(blobClient.uploadWithResponse(any(BlobParallelUploadOptions.class), any(), any())).thenAnswer(inv -> {
+            InputStream content = inv.<BlobParallelUploadOptions>getArgument(0).getDataStream();
+            assertEquals(10_000, content.readAllBytes().length);
+            return null;
+        });
+
+        assertEquals("https://storage/pdf/referto.pdf", service.uploadPdf(pdf, "referto"));
+
+        assertEquals(10_000, meterRegistry.get("medsafe.storage.upload.dimensione").tag("tipo", "pdf")
+                .summary().totalAmount());
+        assertEquals(10_000, pdf.dimensione());
+    }
+}
@@ -0,0 +1,230 @@
+package it.unisa.project.medsafe.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("Test CachingBlobStorageService")
+public class CachingBlobStorageServiceTest {
+
+    @Mock
+    private BlobStorageService delegate;
+
+    @TempDir
+    Path cacheDir;
+
+    private CachingBlobStorageService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        service = new CachingBlobStorageService(delegate, new BlobDiskCache(cacheDir, 10));
+    }
+
+    private byte[] scarica(BlobDownload download) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (download) {
+            download.transferTo(out);
+        }
+        return out.toByteArray();
+    }
+
+    @Nested
+    @DisplayName("Lettura dalla cache")
+    class Lettura {
+
+        @Test
+        @DisplayName("Il secondo download viene servito dal disco senza chiamare lo storage")
+        void testSecondoDownloadDaCache() throws IOException {
+            when(delegate.openDownloadStream("pdf/a.pdf"))
+                    .thenReturn(new BlobDownload(new ByteArrayInputStream("12345".getBytes()), 5, "\"0x1\""));
+
+            assertArrayEquals("12345".getBytes(), scarica(service.openDownloadStream("pdf/a.pdf")));
+            BlobDownload secondo = service.openDownloadStream("pdf/a.pdf");
+
+            assertInstanceOf(CachedBlobDownload.class, secondo);
+            assertEquals("\"0x1\"", secondo.getEtag());
+            assertArrayEquals("12345".getBytes(), scarica(secondo));
+            assertEquals(new ProprietaBlob(5, "\"0x1\""), service.getProperties("pdf/a.pdf"));
+            verify(delegate, times(1)).openDownloadStream("pdf/a.pdf");
+            verify(delegate, never()).getProperties(anyString());
+        }
+
+        @Test
+        @DisplayName("Un file salvato senza ETag lo legge dallo storage una sola volta")
+        void testEtagCompletatoDalloStorage() {
+            when(delegate.downloadFile("immagini/c.png")).thenReturn("123".getBytes());
+            when(delegate.getProperties("immagini/c.png")).thenReturn(new ProprietaBlob(3, "\"0x2\""));
+            service.downloadFile("immagini/c.png");
+
+            assertEquals("\"0x2\"", service.getProperties("immagini/c.png").etag());
+            assertEquals("\"0x2\"", service.getProperties("immagini/c.png").etag());
+            verify(delegate, times(1)).getProperties("immagini/c.png");
+        }
+
+        @Test
+        @DisplayName("Un intervallo di un file in cache viene letto dal disco")
+        void testIntervalloDaCache() throws IOException {
+            when(delegate.openDownloadStream("immagini/b.png"))
+                    .thenReturn(new BlobDownload(new ByteArrayInputStream("0123456789".getBytes()), 10));
+            scarica(service.openDownloadStream("immagini/b.png"));
+
+            BlobDownload intervallo = service.openDownloadStream("immagini/b.png", 3, 4);
+
+            assertEquals(4, intervallo.getSize());
+            assertArrayEquals("3456".getBytes(), intervallo.getContent().readAllBytes());
+            intervallo.close();
+            verify(delegate, never()).openDownloadStream(anyString(), anyLong(), anyLong());
+        }
+
+        @Test
+        @DisplayName("downloadFile popola la cache e le letture successive non chiamano lo storage")
+        void testDownloadFileDaCache() {
+            when(delegate.downloadFile("immagini/c.jpg")).thenReturn("abc".getBytes());
+
+            assertArrayEquals("abc".getBytes(), service.downloadFile("immagini/c.jpg"));
+            assertArrayEquals("abc".getBytes(), service.downloadFile("immagini/c.jpg"));
+
+            verify(delegate, times(1)).downloadFile("immagini/c.jpg");
+        }
+    }
+
+    @Nested
+    @DisplayName("Invalidazione ed eliminazione LRU")
+    class Invalidazione {
+
+        @Test
+        @DisplayName("Un download interrotto non entra in cache")
+        void testDownloadInterrottoNonInCache() throws IOException {
+            when(delegate.openDownloadStream("pdf/a.pdf"))
+                    .thenAnswer(inv -> new BlobDownload(new ByteArrayInputStream("12345".getBytes()), 5));
+
+            BlobDownload parziale = service.openDownloadStream("pdf/a.pdf");
+            parziale.getContent().read(new byte[2]);
+            parziale.close();
+            service.openDownloadStream("pdf/a.pdf").close();
+
+            verify(delegate, times(2)).openDownloadStream("pdf/a.pdf");
+            try (var files = Files.list(cacheDir)) {
+                assertEquals(0, files.count());
+            }
+        }
+
+        @Test
+        @DisplayName("Un blob eliminato mentre viene letto dallo storage non entra in cache")
+        void testEliminazioneDuranteLaLettura() throws IOException {
+            when(delegate.openDownloadStream("pdf/a.pdf"))
+                    .thenAnswer(inv -> new BlobDownload(new ByteArrayInputStream("12345".getBytes()), 5));
+            when(delegate.deleteFile("pdf/a.pdf")).thenReturn(true);
+
+            BlobDownload inLettura = service.openDownloadStream("pdf/a.pdf");
+            inLettura.getContent().read(new byte[2]);
+            service.deleteFile("pdf/a.pdf");
+            assertArrayEquals("345".getBytes(), scarica(inLettura));
+
+            assertFalse(service.openDownloadStream("pdf/a.pdf") instanceof CachedBlobDownload);
+            verify(delegate, times(2)).openDownloadStream("pdf/a.pdf");
+        }
+
+        @Test
+        @DisplayName("deleteFile rimuove il blob dalla cache")
+        void testDeleteFileInvalidaCache() {
+            when(delegate.downloadFile("pdf/a.pdf")).thenReturn("abc".getBytes());
+            when(delegate.deleteFile("pdf/a.pdf")).thenReturn(true);
+            service.downloadFile("pdf/a.pdf");
+
+            assertTrue(service.deleteFile("pdf/a.pdf"));
+            service.downloadFile("pdf/a.pdf");
+
+            verify(delegate, times(2)).downloadFile("pdf/a.pdf");
+        }
+
+        @Test
+        @DisplayName("Oltre la dimensione massima viene rimosso il file usato meno di recente")
+        void testEliminazioneLru() {
+            when(delegate.downloadFile("a")).thenReturn("1234".getBytes());
+            when(delegate.downloadFile("b")).thenReturn("1234".getBytes());
+            when(delegate.downloadFile("c")).thenReturn("1234".getBytes());
+
+            service.downloadFile("a");
+            service.downloadFile("b");
+            service.downloadFile("a"); // "a" diventa il più recente
+            service.downloadFile("c"); // 12 byte > 10: esce "b"
+
+            service.downloadFile("a");
+            service.downloadFile("b");
+
+            verify(delegate, times(1)).downloadFile("a");
+            verify(delegate, times(2)).downloadFile("b");
+        }
+
+        @Test
+        @DisplayName("I file più grandi della cache non vengono salvati")
+        void testFileTroppoGrande() {
+            when(delegate.downloadFile("grande")).thenReturn(new byte[11]);
+
+            service.downloadFile("grande");
+            service.downloadFile("grande");
+
+            verify(delegate, times(2)).downloadFile("grande");
+        }
+
+        @Test
+        @DisplayName("Blob inesistente: nessuna voce in cache")
+        void testBlobInesistente() {
+            when(delegate.openDownloadStream("mancante")).thenReturn(null);
+            when(delegate.getProperties("mancante")).thenReturn(null);
+
+            assertNull(service.openDownloadStream("mancante"));
+            assertNull(service.getProperties("mancante"));
+        }
+    }
+
+    @Nested
+    @DisplayName("Permessi della cartella")
+    class Permessi {
+
+        @Test
+        @DisplayName("Cartella e file in cache sono accessibili solo al proprietario")
+        void testPermessiSoloProprietario() throws IOException {
+            assumeTrue(cacheDir.getFileSystem().supportedFileAttributeViews().contains("posix"));
+            when(delegate.downloadFile("pdf/a.pdf")).thenReturn("abc".getBytes());
+
+            service.downloadFile("pdf/a.pdf");
+
+            assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(cacheDir)));
+            try (var files = Files.list(cacheDir)) {
+                files.forEach(file -> assertDoesNotThrow(() -> assertEquals("rw-------",
+                        PosixFilePermissions.toString(Files.getPosixFilePermissions(file)))));
+            }
+        }
+
+        @Test
+        @DisplayName("Un link simbolico come cartella della cache viene rifiutato")
+        void testLinkSimbolicoRifiutato() throws IOException {
+            Path link = cacheDir.resolveSibling(cacheDir.getFileName() + "-link");
+            Files.createSymbolicLink(link, cacheDir);
+            try {
+                assertThrows(IOException.class, () -> new BlobDiskCache(link, 10));
+            } finally {
+                Files.delete(link);
+            }
+        }
+    }
+}
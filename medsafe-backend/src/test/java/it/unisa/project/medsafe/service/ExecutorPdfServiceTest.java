@@ -0,0 +1,223 @@
+package it.unisa.project.medsafe.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.unisa.project.medsafe.dto.RefertoDTO;
+import it.unisa.project.medsafe.exception.ServizioSovraccaricoException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("Test ExecutorPdfService - pool di generazione dei PDF")
+class ExecutorPdfServiceTest {
+
+    @Mock
+    private PdfService delegate;
+
+    private ThreadPoolTaskExecutor executor;
+    private SimpleMeterRegistry meterRegistry;
+    private ExecutorPdfService pdfService;
+
+    private final RefertoDTO dto = RefertoDTO.builder().nomeFile("referto").build();
+    private final ContenutoPdf contenuto = new ContenutoPdf(dto, null, "Dott. Mario Rossi");
+
+    @BeforeEach
+    void setUp() {
+        // Un solo thread e un solo posto in coda
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(1);
+        executor.setThreadNamePrefix("pdf-test-");
+        executor.initialize();
+        meterRegistry = new SimpleMeterRegistry();
+        pdfService = new ExecutorPdfService(delegate, executor, meterRegistry);
+        lenient().when(delegate.prepara(dto, null)).thenReturn(contenuto);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Nested
+    @DisplayName("Casi corretti")
+    class Correct {
+
+        @Test
+        @DisplayName("Il PDF viene scritto sul pool dedicato e le durate vengono registrate")
+        void testGenerazioneSulPool() throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            doAnswer(inv -> {
+                assertTrue(Thread.currentThread().getName().startsWith("pdf-test-"));
+                inv.<ByteArrayOutputStream>getArgument(1).write("PDF".getBytes());
+                return null;
+            }).when(delegate).scriviPdf(eq(contenuto), eq(out));
+
+            pdfService.generaPdf(dto, null, out);
+
+            assertEquals("PDF", out.toString());
+            assertEquals(1, meterRegistry.get("medsafe.pdf.attesa").timer().count());
+            assertEquals(1, meterRegistry.get("medsafe.pdf.generazione").tag("esito", "ok").timer().count());
+            assertEquals(0, meterRegistry.get("medsafe.pdf.coda").gauge().value());
+        }
+
+        @Test
+        @DisplayName("Nome del medico e immagine vengono letti sul thread chiamante, non sul pool")
+        void testPreparazioneSulChiamante() throws IOException {
+            Thread chiamante = Thread.currentThread();
+            when(delegate.prepara(dto, null)).thenAnswer(inv -> {
+                assertSame(chiamante, Thread.currentThread());
+                return contenuto;
+            });
+
+            pdfService.generaPdf(dto, null, new ByteArrayOutputStream());
+
+            verify(delegate).prepara(dto, null);
+            verify(delegate).scriviPdf(eq(contenuto), any());
+            verify(delegate, never()).generaPdf(any(), any(), any());
+        }
+
+    }
+
+    @Nested
+    @DisplayName("Casi di errore")
+    class Incorrect {
+
+        @Test
+        @DisplayName("Con pool e coda pieni la generazione viene rifiutata subito")
+        void testCodaPiena() throws Exception {
+            CountDownLatch inGenerazione = new CountDownLatch(1);
+            CountDownLatch sblocca = new CountDownLatch(1);
+            doAnswer(inv -> {
+                inGenerazione.countDown();
+                sblocca.await();
+                return null;
+            }).when(delegate).scriviPdf(any(), any());
+
+            CompletableFuture<Void> primo = CompletableFuture.runAsync(() -> genera());
+            assertTrue(inGenerazione.await(5, TimeUnit.SECONDS));
+            CompletableFuture<Void> inCoda = CompletableFuture.runAsync(() -> genera());
+            while (executor.getQueueSize() == 0) {
+                Thread.onSpinWait();
+            }
+            assertEquals(1, meterRegistry.get("medsafe.pdf.coda").gauge().value());
+
+            assertThrows(ServizioSovraccaricoException.class,
+                    () -> pdfService.generaPdf(dto, null, new ByteArrayOutputStream()));
+            assertEquals(1, meterRegistry.get("medsafe.pdf.rifiutati").counter().count());
+
+            sblocca.countDown();
+            primo.get(5, TimeUnit.SECONDS);
+            inCoda.get(5, TimeUnit.SECONDS);
+            verify(delegate, times(2)).scriviPdf(any(), any());
+        }
+
+        @Test
+        @DisplayName("Un chiamante interrotto attende la fine della generazione prima di uscire")
+        void testInterruzioneAttendeLaGenerazione() throws Exception {
+            CountDownLatch inGenerazione = new CountDownLatch(1);
+            CountDownLatch sblocca = new CountDownLatch(1);
+            AtomicBoolean scritturaTerminata = new AtomicBoolean();
+            doAnswer(inv -> {
+                inGenerazione.countDown();
+                // Simula un delegato che non risponde all'interruzione e continua a scrivere
+                boolean sbloccato = false;
+                while (!sbloccato) {
+                    try {
+                        sbloccato = sblocca.await(10, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        // ignorata
+                    }
+                }
+                scritturaTerminata.set(true);
+                return null;
+            }).when(delegate).scriviPdf(any(), any());
+
+            CompletableFuture<Boolean> chiamante = new CompletableFuture<>();
+            Thread thread = new Thread(() -> {
+                try {
+                    genera();
+                    chiamante.complete(false);
+                } catch (RuntimeException e) {
+                    chiamante.complete(e.getCause() instanceof InterruptedIOException && scritturaTerminata.get());
+                }
+            });
+            thread.start();
+            assertTrue(inGenerazione.await(5, TimeUnit.SECONDS));
+
+            thread.interrupt();
+            thread.join(200);
+            assertTrue(thread.isAlive());
+
+            sblocca.countDown();
+            assertTrue(chiamante.get(5, TimeUnit.SECONDS));
+        }
+
+        @Test
+        @DisplayName("Un chiamante interrotto con la generazione ancora in coda non la fa eseguire")
+        void testInterruzioneInCoda() throws Exception {
+            CountDownLatch inGenerazione = new CountDownLatch(1);
+            CountDownLatch sblocca = new CountDownLatch(1);
+            doAnswer(inv -> {
+                inGenerazione.countDown();
+                sblocca.await();
+                return null;
+            }).when(delegate).scriviPdf(any(), any());
+
+            CompletableFuture<Void> primo = CompletableFuture.runAsync(() -> genera());
+            assertTrue(inGenerazione.await(5, TimeUnit.SECONDS));
+            Thread inCoda = new Thread(() -> assertThrows(RuntimeException.class, () -> genera()));
+            inCoda.start();
+            while (executor.getQueueSize() == 0) {
+                Thread.onSpinWait();
+            }
+
+            inCoda.interrupt();
+            inCoda.join(5000);
+            assertFalse(inCoda.isAlive());
+
+            sblocca.countDown();
+            primo.get(5, TimeUnit.SECONDS);
+            verify(delegate, times(1)).scriviPdf(any(), any());
+        }
+
+        @Test
+        @DisplayName("Un errore di generazione viene rilanciato con il suo tipo originale")
+        void testErroreGenerazione() throws IOException {
+            doThrow(new IOException("PDF non valido")).when(delegate).scriviPdf(any(), any());
+
+            IOException ex = assertThrows(IOException.class,
+                    () -> pdfService.generaPdf(dto, null, new ByteArrayOutputStream()));
+
+            assertEquals("PDF non valido", ex.getMessage());
+            assertEquals(1, meterRegistry.get("medsafe.pdf.generazione").tag("esito", "errore").timer().count());
+        }
+    }
+
+    private void genera() {
+        try {
+            pdfService.generaPdf(dto, null, new ByteArrayOutputStream());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
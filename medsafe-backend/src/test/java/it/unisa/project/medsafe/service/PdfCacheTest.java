@@ -0,0 +1,61 @@
+package it.unisa.project.medsafe.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test PdfCache")
+class PdfCacheTest {
+
+    private final PdfCache cache = new PdfCache(DataSize.ofBytes(10));
+
+    @Test
+    @DisplayName("Le voci sono distinte per versione del referto")
+    void testChiavePerVersione() {
+        cache.put(1, 0, "v0".getBytes());
+        cache.put(1, 1, "v1".getBytes());
+
+        assertArrayEquals("v0".getBytes(), cache.get(1, 0));
+        assertArrayEquals("v1".getBytes(), cache.get(1, 1));
+        assertNull(cache.get(1, 2));
+    }
+
+    @Test
+    @DisplayName("Oltre la dimensione massima viene rimossa la voce usata meno di recente")
+    void testEliminazioneLru() {
+        cache.put(1, 0, new byte[4]);
+        cache.put(2, 0, new byte[4]);
+        cache.get(1, 0); // 1 diventa il più recente
+        cache.put(3, 0, new byte[4]); // 12 byte > 10: esce 2
+
+        assertNotNull(cache.get(1, 0));
+        assertNull(cache.get(2, 0));
+        assertNotNull(cache.get(3, 0));
+    }
+
+    @Test
+    @DisplayName("invalida rimuove tutte le versioni del referto e libera spazio")
+    void testInvalida() {
+        cache.put(1, 0, new byte[4]);
+        cache.put(1, 1, new byte[4]);
+        cache.put(2, 0, new byte[2]);
+
+        cache.invalida(1);
+        cache.put(3, 0, new byte[8]);
+
+        assertNull(cache.get(1, 0));
+        assertNull(cache.get(1, 1));
+        assertNotNull(cache.get(2, 0));
+        assertNotNull(cache.get(3, 0));
+    }
+
+    @Test
+    @DisplayName("Un PDF più grande della cache non viene salvato")
+    void testPdfTroppoGrande() {
+        cache.put(1, 0, new byte[11]);
+
+        assertNull(cache.get(1, 0));
+    }
+}
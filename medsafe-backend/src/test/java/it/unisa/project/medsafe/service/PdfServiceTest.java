@@ -1,11 +1,23 @@
 package it.unisa.project.medsafe.service;
 
+import com.lowagie.text.Document;
+import com.lowagie.text.PageSize;
+import com.lowagie.text.Paragraph;
+import com.lowagie.text.Rectangle;
+import com.lowagie.text.pdf.PdfDictionary;
+import com.lowagie.text.pdf.PdfName;
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.PdfWriter;
+import com.lowagie.text.pdf.parser.PdfTextExtractor;
 import it.unisa.project.medsafe.dto.RefertoDTO;
 import it.unisa.project.medsafe.entity.Genere;
 import it.unisa.project.medsafe.entity.TipoEsame;
 import it.unisa.project.medsafe.entity.User;
 import it.unisa.project.medsafe.entity.UserRole;
 import it.unisa.project.medsafe.repository.UserRepository;
+import it.unisa.project.medsafe.utils.BufferABlocchi;
+import it.unisa.project.medsafe.utils.ImmaginePdfHelper;
+import it.unisa.project.medsafe.utils.PoolBlocchi;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
@@ -13,9 +25,14 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Optional;
 
@@ -34,6 +51,9 @@ public class PdfServiceTest {
     @Mock
     private BlobStorageService blobStorageService;
 
+    @Spy
+    private ImmaginePdfHelper immaginePdfHelper = new ImmaginePdfHelper(150, 0.85f);
+
     @BeforeEach
     void setUp() {
         // Mock di default: restituisce un utente con nome completo e genere MASCHIO
@@ -48,10 +68,61 @@ public class PdfServiceTest {
         lenient().when(blobStorageService.downloadFile(anyString())).thenReturn(new byte[0]);
     }
 
+    /**
+     * Genera il PDF in memoria con la variante a stream usata dal servizio referti
+     */
+    private ByteArrayInputStream genera(RefertoDTO dto, byte[] immagine) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pdfService.generaPdf(dto, immagine, out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
     @Nested
     @DisplayName("Test generazione PDF - Casi corretti")
     class Correct {
 
+        @Test
+        @DisplayName("L'intestazione condivisa è completa in ogni PDF generato")
+        void testIntestazioneRiutilizzata() throws IOException {
+            RefertoDTO dto = RefertoDTO.builder()
+                    .nomePaziente("Test Intestazione")
+                    .tipoEsame(TipoEsame.TAC)
+                    .nomeFile("referto_intestazione")
+                    .build();
+
+            for (int i = 0; i < 2; i++) {
+                PdfReader reader = new PdfReader(genera(dto, null));
+                String testo = new PdfTextExtractor(reader).getTextFromPage(1);
+                PdfDictionary risorse = reader.getPageN(1).getAsDict(PdfName.RESOURCES);
+
+                assertTrue(testo.contains("MedSafe"));
+                assertTrue(testo.contains("Centro Diagnostico"));
+                assertTrue(testo.contains("Test Intestazione"));
+                assertNotNull(risorse.getAsDict(PdfName.XOBJECT), "Logo mancante nell'intestazione");
+            }
+        }
+
+        @Test
+        @DisplayName("Il PDF viene scritto nello stream del chiamante, che resta aperto")
+        void testGeneraPdfInBuffer() throws IOException {
+            RefertoDTO dto = RefertoDTO.builder()
+                    .nomePaziente("Mario Rossi")
+                    .tipoEsame(TipoEsame.TAC)
+                    .nomeFile("referto_rossi")
+                    .build();
+            PoolBlocchi pool = new PoolBlocchi(DataSize.ofKilobytes(1), 64);
+
+            try (BufferABlocchi buffer = pool.nuovoBuffer()) {
+                pdfService.generaPdf(dto, null, buffer);
+                buffer.write('\n');
+
+                byte[] pdf = buffer.toByteArray();
+                assertEquals("%PDF", new String(pdf, 0, 4));
+                assertEquals('\n', pdf[pdf.length - 1]);
+                assertEquals(1, new PdfReader(buffer.apriLettura()).getNumberOfPages());
+            }
+        }
+
         @Test
         @DisplayName("Genera PDF con tutti i campi compilati")
         void testGeneraPdfComplete() throws IOException {
@@ -67,7 +138,7 @@ public class PdfServiceTest {
                     .build();
 
             // Act
-            ByteArrayInputStream result = pdfService.generaPdf(dto);
+            ByteArrayInputStream result = genera(dto, null);
 
             // Assert
             assertNotNull(result);
@@ -85,7 +156,7 @@ public class PdfServiceTest {
                     .build();
 
             // Act
-            ByteArrayInputStream result = pdfService.generaPdf(dto);
+            ByteArrayInputStream result = genera(dto, null);
 
             // Assert
             assertNotNull(result);
@@ -107,7 +178,7 @@ public class PdfServiceTest {
                     .build();
 
             // Act
-            ByteArrayInputStream result = pdfService.generaPdf(dto);
+            ByteArrayInputStream result = genera(dto, null);
 
             // Assert
             assertNotNull(result);
@@ -129,7 +200,7 @@ public class PdfServiceTest {
                     .build();
 
             // Act
-            ByteArrayInputStream result = pdfService.generaPdf(dto);
+            ByteArrayInputStream result = genera(dto, null);
 
             // Assert
             assertNotNull(result);
@@ -151,7 +222,7 @@ public class PdfServiceTest {
                     .build();
 
             // Act
-            ByteArrayInputStream result = pdfService.generaPdf(dto);
+            ByteArrayInputStream result = genera(dto, null);
 
             // Assert
             assertNotNull(result);
@@ -176,7 +247,7 @@ public class PdfServiceTest {
                     .build();
 
             // Act
-            ByteArrayInputStream result = pdfService.generaPdf(dto);
+            ByteArrayInputStream result = genera(dto, null);
 
             // Assert
             assertNotNull(result);
@@ -198,7 +269,7 @@ public class PdfServiceTest {
                     .build();
 
             // Act
-            ByteArrayInputStream result = pdfService.generaPdf(dto);
+            ByteArrayInputStream result = genera(dto, null);
 
             // Assert
             assertNotNull(result);
@@ -227,7 +298,7 @@ public class PdfServiceTest {
                     .build();
 
             // Act
-            ByteArrayInputStream result = pdfService.generaPdf(dto);
+            ByteArrayInputStream result = genera(dto, null);
 
             // Assert
             assertNotNull(result);
@@ -253,7 +324,7 @@ public class PdfServiceTest {
                     .build();
 
             // Act
-            ByteArrayInputStream result = pdfService.generaPdf(dto);
+            ByteArrayInputStream result = genera(dto, null);
 
             // Assert
             assertNotNull(result);
@@ -279,7 +350,7 @@ public class PdfServiceTest {
                     .build();
 
             // Act
-            ByteArrayInputStream result = pdfService.generaPdf(dto);
+            ByteArrayInputStream result = genera(dto, null);
 
             // Assert
             assertNotNull(result);
@@ -299,7 +370,7 @@ public class PdfServiceTest {
                     .build();
 
             // Act
-            ByteArrayInputStream result = pdfService.generaPdf(dto);
+            ByteArrayInputStream result = genera(dto, null);
 
             // Assert
             assertNotNull(result);
@@ -319,7 +390,7 @@ public class PdfServiceTest {
                     .build();
 
             // Act
-            ByteArrayInputStream result = pdfService.generaPdf(dto);
+            ByteArrayInputStream result = genera(dto, null);
 
             // Assert
             assertNotNull(result);
@@ -339,7 +410,7 @@ public class PdfServiceTest {
                     .build();
 
             // Act
-            ByteArrayInputStream result = pdfService.generaPdf(dto);
+            ByteArrayInputStream result = genera(dto, null);
 
             // Assert
             assertNotNull(result);
@@ -374,7 +445,7 @@ public class PdfServiceTest {
                     .build();
 
             // Act
-            ByteArrayInputStream result = pdfService.generaPdf(dto);
+            ByteArrayInputStream result = genera(dto, null);
 
             // Assert
             assertNotNull(result);
@@ -405,7 +476,7 @@ public class PdfServiceTest {
                     .build();
 
             // Act
-            ByteArrayInputStream result = pdfService.generaPdf(dto);
+            ByteArrayInputStream result = genera(dto, null);
 
             // Assert
             assertNotNull(result);
@@ -429,7 +500,7 @@ public class PdfServiceTest {
                     .build();
 
             // Act
-            ByteArrayInputStream result = pdfService.generaPdf(dto);
+            ByteArrayInputStream result = genera(dto, null);
 
             // Assert
             assertNotNull(result);
@@ -454,11 +525,160 @@ public class PdfServiceTest {
                     .build();
 
             // Act
-            ByteArrayInputStream result = pdfService.generaPdf(dto);
+            ByteArrayInputStream result = genera(dto, null);
 
             // Assert
             assertNotNull(result);
             assertTrue(result.available() > 0);
         }
+
+        @Test
+        @DisplayName("PDF con immagine già in memoria non la riscarica dallo storage")
+        void testPdfConImmagineInMemoria() throws IOException {
+            // Arrange
+            BufferedImage img = new BufferedImage(20, 20, BufferedImage.TYPE_INT_RGB);
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            ImageIO.write(img, "png", png);
+
+            RefertoDTO dto = RefertoDTO.builder()
+                    .nomePaziente("Test Immagine Caricata")
+                    .codiceFiscale("TSTUPL80A01H501X")
+                    .tipoEsame(TipoEsame.TAC)
+                    .fileUrlImmagine("https://storage.blob.core.windows.net/upload-dir/immagini/test.png")
+                    .autoreEmail("medico@test.com")
+                    .nomeFile("referto_upload")
+                    .build();
+
+            // Act
+            ByteArrayInputStream result = genera(dto, png.toByteArray());
+
+            // Assert: l'immagine è sulla seconda pagina e lo storage non viene interrogato
+            assertEquals(2, new PdfReader(result).getNumberOfPages());
+            verify(blobStorageService, never()).downloadFile(anyString());
+        }
+
+        @Test
+        @DisplayName("prepara legge medico e immagine, scriviPdf non accede a database e storage")
+        void testScritturaSenzaIO() throws IOException {
+            // Arrange
+            BufferedImage img = new BufferedImage(20, 20, BufferedImage.TYPE_INT_RGB);
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            ImageIO.write(img, "png", png);
+            when(blobStorageService.downloadFile("immagini/test.png")).thenReturn(png.toByteArray());
+
+            RefertoDTO dto = RefertoDTO.builder()
+                    .nomePaziente("Test Preparazione")
+                    .tipoEsame(TipoEsame.TAC)
+                    .fileUrlImmagine("https://storage.blob.core.windows.net/upload-dir/immagini/test.png")
+                    .autoreEmail("medico@test.com")
+                    .nomeFile("referto_preparato")
+                    .build();
+
+            // Act
+            ContenutoPdf contenuto = pdfService.prepara(dto, null);
+            clearInvocations(userRepository, blobStorageService);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            pdfService.scriviPdf(contenuto, out);
+
+            // Assert
+            assertEquals("Dott. Mario Rossi", contenuto.nomeMedico());
+            assertArrayEquals(png.toByteArray(), contenuto.esame());
+            assertEquals(2, new PdfReader(out.toByteArray()).getNumberOfPages());
+            verifyNoInteractions(userRepository, blobStorageService);
+        }
+
+        @Test
+        @DisplayName("Un'immagine ad alta risoluzione viene ridotta prima dell'inserimento nel PDF")
+        void testImmagineRidottaNelPdf() throws IOException {
+            BufferedImage img = new BufferedImage(3000, 3000, BufferedImage.TYPE_INT_RGB);
+            for (int x = 0; x < 3000; x++) {
+                for (int y = 0; y < 3000; y++) {
+                    img.setRGB(x, y, (x * 31 + y * 17) * 0x010101);
+                }
+            }
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            ImageIO.write(img, "png", png);
+
+            RefertoDTO dto = RefertoDTO.builder()
+                    .nomePaziente("Test Immagine Grande")
+                    .tipoEsame(TipoEsame.TAC)
+                    .nomeFile("referto_grande")
+                    .build();
+
+            ByteArrayInputStream result = genera(dto, png.toByteArray());
+
+            verify(immaginePdfHelper).prepara(png.toByteArray());
+            assertTrue(result.available() < png.size() / 4,
+                    "PDF di " + result.available() + " byte con immagine originale di " + png.size());
+        }
+    }
+
+    @Nested
+    @DisplayName("Test esame allegato in formato PDF")
+    class EsamePdf {
+
+        /**
+         * Esame di due pagine: la prima A4 verticale, la seconda A4 orizzontale
+         */
+        private byte[] esameDuePagine() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Document document = new Document(PageSize.A4);
+            PdfWriter.getInstance(document, out);
+            document.open();
+            document.add(new Paragraph("Emocromo pagina uno"));
+            document.setPageSize(PageSize.A4.rotate());
+            document.newPage();
+            document.add(new Paragraph("Emocromo pagina due"));
+            document.close();
+            return out.toByteArray();
+        }
+
+        private RefertoDTO refertoConEsamePdf() {
+            return RefertoDTO.builder()
+                    .nomePaziente("Test Esame Pdf")
+                    .tipoEsame(TipoEsame.Esami_Laboratorio)
+                    .fileUrlImmagine("https://storage.blob.core.windows.net/upload-dir/immagini/esame.pdf")
+                    .autoreEmail("medico@test.com")
+                    .nomeFile("referto_esame_pdf")
+                    .build();
+        }
+
+        @Test
+        @DisplayName("Le pagine dell'esame PDF in memoria vengono accodate al referto")
+        void testPagineAccodate() throws IOException {
+            RefertoDTO dto = refertoConEsamePdf();
+            dto.setFileUrlImmagine(null);
+
+            PdfReader reader = new PdfReader(genera(dto, esameDuePagine()));
+
+            assertEquals(3, reader.getNumberOfPages());
+            PdfTextExtractor estrattore = new PdfTextExtractor(reader);
+            assertTrue(estrattore.getTextFromPage(1).contains("riportato nelle pagine seguenti"));
+            assertTrue(estrattore.getTextFromPage(2).contains("Emocromo pagina uno"));
+            assertTrue(estrattore.getTextFromPage(3).contains("Emocromo pagina due"));
+            Rectangle orizzontale = reader.getPageSizeWithRotation(3);
+            assertTrue(orizzontale.getWidth() > orizzontale.getHeight());
+            verify(blobStorageService, never()).downloadFile(anyString());
+        }
+
+        @Test
+        @DisplayName("Senza byte in memoria l'esame PDF viene scaricato dallo storage")
+        void testEsameScaricato() throws IOException {
+            when(blobStorageService.downloadFile("immagini/esame.pdf")).thenReturn(esameDuePagine());
+
+            PdfReader reader = new PdfReader(genera(refertoConEsamePdf(), null));
+
+            assertEquals(3, reader.getNumberOfPages());
+        }
+
+        @Test
+        @DisplayName("Un esame PDF non leggibile lascia la nota nella prima pagina")
+        void testEsameNonLeggibile() throws IOException {
+            PdfReader reader = new PdfReader(genera(refertoConEsamePdf(),
+                    "%PDF-1.4 contenuto danneggiato".getBytes()));
+
+            assertEquals(1, reader.getNumberOfPages());
+            assertTrue(new PdfTextExtractor(reader).getTextFromPage(1).contains("Consultare il file originale"));
+        }
     }
 }
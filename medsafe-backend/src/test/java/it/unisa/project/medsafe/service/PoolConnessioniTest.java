@@ -0,0 +1,133 @@
+package it.unisa.project.medsafe.service;
+
+import com.zaxxer.hikari.HikariDataSource;
+import it.unisa.project.medsafe.dto.RefertoDTO;
+import it.unisa.project.medsafe.entity.TipoEsame;
+import it.unisa.project.medsafe.exception.GlobalExceptionHandler;
+import it.unisa.project.medsafe.repository.RefertoRepository;
+import it.unisa.project.medsafe.utils.PoolBlocchi;
+import it.unisa.project.medsafe.utils.RefertoMapperImpl;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+/**
+ * Il pool Hikari è il bulkhead del database: caricamento e modifica dei referti non tengono
+ * una connessione durante generazione e upload del PDF, e con il pool esaurito la richiesta
+ * riceve 503 con Retry-After dopo connection-timeout.
+ */
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:pool-connessioni;MODE=MYSQL;DB_CLOSE_DELAY=-1",
+        "spring.datasource.hikari.maximum-pool-size=2",
+        "spring.datasource.hikari.connection-timeout=250"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@Import({ RefertoServiceImpl.class, RefertoMapperImpl.class, PdfCache.class, PoolBlocchi.class,
+        PoolConnessioniTest.UploadSulChiamante.class })
+@ActiveProfiles("test")
+@DisplayName("Test pool delle connessioni - caricamento referti")
+class PoolConnessioniTest {
+
+    @TestConfiguration
+    static class UploadSulChiamante {
+        @Bean
+        Executor uploadExecutor() {
+            return Runnable::run;
+        }
+    }
+
+    @MockitoBean
+    private PdfService pdfService;
+
+    @MockitoBean
+    private BlobStorageService blobStorageService;
+
+    @MockitoBean
+    private AuthorizationService authorizationService;
+
+    @MockitoBean
+    private RicercaFullTextService ricercaFullTextService;
+
+    @Autowired
+    private RefertoService refertoService;
+
+    @Autowired
+    private RefertoRepository refertoRepository;
+
+    @Autowired
+    private HikariDataSource dataSource;
+
+    private RefertoDTO nuovoReferto(String nomeFile) {
+        return RefertoDTO.builder()
+                .nomePaziente("Mario Rossi")
+                .codiceFiscale("RSSMRA80A01H501Z")
+                .tipoEsame(TipoEsame.TAC)
+                .testoReferto("Testo")
+                .autoreEmail("medico@test.com")
+                .nomeFile(nomeFile)
+                .build();
+    }
+
+    private MockMultipartFile immagine() {
+        return new MockMultipartFile("file", "esame.png", "image/png", new byte[] { 1, 2, 3 });
+    }
+
+    @Test
+    @DisplayName("Generazione e upload del PDF avvengono senza connessioni al database in uso")
+    void testNessunaConnessioneDuranteIlPdf() throws Exception {
+        AtomicInteger connessioniInUso = new AtomicInteger(-1);
+        doAnswer(inv -> {
+            connessioniInUso.set(dataSource.getHikariPoolMXBean().getActiveConnections());
+            inv.<OutputStream>getArgument(2).write(1);
+            return null;
+        }).when(pdfService).generaPdf(any(), any(), any());
+        when(blobStorageService.uploadFile(any(), any())).thenReturn("https://storage/immagini/esame.png");
+        when(blobStorageService.uploadPdf(any(), any())).thenReturn("https://storage/referti/referto.pdf");
+
+        refertoService.addReferto(nuovoReferto("referto_pool"), immagine());
+
+        assertEquals(0, connessioniInUso.get());
+        assertNotNull(refertoRepository.findByNomeFile("referto_pool"));
+    }
+
+    @Test
+    @DisplayName("Con il pool esaurito la richiesta riceve 503 con Retry-After")
+    void testPoolEsaurito() throws Exception {
+        doAnswer(inv -> null).when(pdfService).generaPdf(any(), any(), any());
+        when(blobStorageService.uploadFile(any(), any())).thenReturn("https://storage/immagini/esame.png");
+
+        Exception errore;
+        try (Connection prima = dataSource.getConnection(); Connection seconda = dataSource.getConnection()) {
+            errore = assertThrows(Exception.class,
+                    () -> refertoService.addReferto(nuovoReferto("referto_pool_esaurito"), immagine()));
+        }
+
+        ResponseEntity<?> risposta = new GlobalExceptionHandler().handleGeneralException(errore);
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, risposta.getStatusCode());
+        assertEquals("10", risposta.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+    }
+}
@@ -0,0 +1,302 @@
+package it.unisa.project.medsafe.service;
+
+import com.lowagie.text.Document;
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.Paragraph;
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.PdfWriter;
+import com.lowagie.text.pdf.SimpleBookmark;
+import com.lowagie.text.pdf.parser.PdfTextExtractor;
+import it.unisa.project.medsafe.dto.RefertoDTO;
+import it.unisa.project.medsafe.entity.TipoEsame;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.task.SyncTaskExecutor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("Test RefertoExportServiceImpl - esportazione ZIP e dossier")
+class RefertoExportServiceImplTest {
+
+    private static final String STORAGE = "https://account.blob.core.windows.net/upload-dir/";
+
+    @Mock
+    private RefertoService refertoService;
+
+    @Mock
+    private BlobStorageService blobStorageService;
+
+    private static RefertoDTO referto(int id, String nomeFile, String pdf, String immagine) {
+        return RefertoDTO.builder().id(id).nomeFile(nomeFile).tipoEsame(TipoEsame.TAC)
+                .dataCaricamento(LocalDateTime.of(2026, 3, id, 10, 0))
+                .urlPdfGenerato(pdf != null ? STORAGE + pdf : null)
+                .fileUrlImmagine(immagine != null ? STORAGE + immagine : null)
+                .build();
+    }
+
+    private static BlobDownload download(String contenuto) {
+        return new BlobDownload(new ByteArrayInputStream(contenuto.getBytes()), contenuto.length());
+    }
+
+    private static long fileTemporaneiDossier() throws IOException {
+        try (Stream<Path> file = Files.list(Path.of(System.getProperty("java.io.tmpdir")))) {
+            return file.filter(f -> f.getFileName().toString().startsWith("medsafe-dossier-")).count();
+        }
+    }
+
+    private static Map<String, String> leggiZip(byte[] zip) throws IOException {
+        Map<String, String> voci = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry voce;
+            while ((voce = in.getNextEntry()) != null) {
+                voci.put(voce.getName(), new String(in.readAllBytes()));
+            }
+        }
+        return voci;
+    }
+
+    @Nested
+    @DisplayName("Casi corretti")
+    class Correct {
+
+        @Test
+        @DisplayName("L'archivio contiene PDF e immagini di ogni referto, nell'ordine dato")
+        void testContenutoZip() throws IOException {
+            RefertoExportServiceImpl service = new RefertoExportServiceImpl(refertoService, blobStorageService,
+                    new SyncTaskExecutor(), 2);
+            when(blobStorageService.openDownloadStream("pdf/a.pdf")).thenReturn(download("PDF A"));
+            when(blobStorageService.openDownloadStream("immagini/a.png")).thenReturn(download("PNG A"));
+            when(blobStorageService.openDownloadStream("immagini/b.pdf")).thenReturn(download("ALLEGATO B"));
+            when(refertoService.getPdfGenerato(2)).thenReturn("PDF B".getBytes());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            service.scriviZip(List.of(
+                    referto(1, "torace", "pdf/a.pdf", "immagini/a.png"),
+                    referto(2, "emocromo", null, "immagini/b.pdf")), out);
+
+            Map<String, String> voci = leggiZip(out.toByteArray());
+            assertEquals(List.of("2026-03-01_TAC_torace.pdf", "2026-03-01_TAC_torace_immagine.png",
+                    "2026-03-02_TAC_emocromo.pdf", "2026-03-02_TAC_emocromo_allegato.pdf"),
+                    new ArrayList<>(voci.keySet()));
+            assertEquals("PDF A", voci.get("2026-03-01_TAC_torace.pdf"));
+            assertEquals("PDF B", voci.get("2026-03-02_TAC_emocromo.pdf"));
+        }
+
+        @Test
+        @DisplayName("Nomi uguali vengono resi univoci e i file mancanti vengono saltati")
+        void testNomiDuplicatiEFileMancanti() throws IOException {
+            RefertoExportServiceImpl service = new RefertoExportServiceImpl(refertoService, blobStorageService,
+                    new SyncTaskExecutor(), 0);
+            when(blobStorageService.openDownloadStream(anyString()))
+                    .thenAnswer(inv -> inv.getArgument(0).equals("pdf/mancante.pdf") ? null : download("x"));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            service.scriviZip(List.of(
+                    referto(1, "a/b", "pdf/1.pdf", null),
+                    referto(1, "a/b", "pdf/2.pdf", null),
+                    referto(3, "c", "pdf/mancante.pdf", null)), out);
+
+            assertEquals(List.of("2026-03-01_TAC_a_b.pdf", "2026-03-01_TAC_a_b_2.pdf"),
+                    new ArrayList<>(leggiZip(out.toByteArray()).keySet()));
+        }
+
+        @Test
+        @DisplayName("Restano aperti al più prefetch + 1 file alla volta")
+        void testFinestraDiPrefetch() throws IOException {
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            try {
+                RefertoExportServiceImpl service = new RefertoExportServiceImpl(refertoService, blobStorageService,
+                        executor, 2);
+                AtomicInteger aperti = new AtomicInteger();
+                AtomicInteger massimo = new AtomicInteger();
+                when(blobStorageService.openDownloadStream(anyString())).thenAnswer(inv -> {
+                    massimo.accumulateAndGet(aperti.incrementAndGet(), Math::max);
+                    InputStream contenuto = new ByteArrayInputStream(new byte[1000]) {
+                        @Override
+                        public void close() {
+                            aperti.decrementAndGet();
+                        }
+                    };
+                    return new BlobDownload(contenuto, 1000);
+                });
+                List<RefertoDTO> referti = new ArrayList<>();
+                for (int i = 1; i <= 20; i++) {
+                    referti.add(referto(i, "r" + i, "pdf/" + i + ".pdf", null));
+                }
+
+                service.scriviZip(referti, OutputStream.nullOutputStream());
+
+                assertTrue(massimo.get() <= 3, "aperti insieme: " + massimo.get());
+                assertEquals(0, aperti.get());
+                verify(blobStorageService, times(20)).openDownloadStream(anyString());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * PDF con il numero di pagine indicato, ciascuna con il suo testo
+     */
+    private static BlobDownload pdf(String... pagine) throws DocumentException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Document document = new Document();
+        PdfWriter.getInstance(document, out);
+        document.open();
+        for (String pagina : pagine) {
+            document.add(new Paragraph(pagina));
+            document.newPage();
+        }
+        document.close();
+        return new BlobDownload(new ByteArrayInputStream(out.toByteArray()), out.size());
+    }
+
+    @Nested
+    @DisplayName("Dossier PDF")
+    class Dossier {
+
+        @Test
+        @DisplayName("I PDF vengono uniti in ordine di data con un segnalibro per esame")
+        void testDossier() throws Exception {
+            RefertoExportServiceImpl service = new RefertoExportServiceImpl(refertoService, blobStorageService,
+                    new SyncTaskExecutor(), 1);
+            when(blobStorageService.openDownloadStream("pdf/marzo.pdf")).thenReturn(pdf("Marzo 1", "Marzo 2"));
+            when(blobStorageService.openDownloadStream("pdf/gennaio.pdf")).thenReturn(pdf("Gennaio"));
+            RefertoDTO marzo = referto(3, "torace", "pdf/marzo.pdf", "immagini/marzo.png");
+            RefertoDTO gennaio = referto(1, "addome", "pdf/gennaio.pdf", null);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            service.scriviDossier(List.of(marzo, gennaio), out);
+
+            PdfReader reader = new PdfReader(out.toByteArray());
+            assertEquals(3, reader.getNumberOfPages());
+            assertTrue(new PdfTextExtractor(reader).getTextFromPage(1).contains("Gennaio"));
+            assertTrue(new PdfTextExtractor(reader).getTextFromPage(3).contains("Marzo 2"));
+            List<Map<String, Object>> segnalibri = SimpleBookmark.getBookmarkList(reader);
+            assertEquals("01/03/2026 - TAC - addome", segnalibri.get(0).get("Title"));
+            assertEquals("03/03/2026 - TAC - torace", segnalibri.get(1).get("Title"));
+            assertTrue(segnalibri.get(1).get("Page").toString().startsWith("2 "));
+            // Le immagini non fanno parte del dossier
+            verify(blobStorageService, never()).openDownloadStream("immagini/marzo.png");
+        }
+
+        @Test
+        @DisplayName("Un PDF non leggibile viene escluso dal dossier")
+        void testPdfNonLeggibile() throws Exception {
+            RefertoExportServiceImpl service = new RefertoExportServiceImpl(refertoService, blobStorageService,
+                    new SyncTaskExecutor(), 1);
+            when(blobStorageService.openDownloadStream("pdf/rotto.pdf")).thenReturn(download("non è un PDF"));
+            when(blobStorageService.openDownloadStream("pdf/buono.pdf")).thenReturn(pdf("Buono"));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            service.scriviDossier(List.of(referto(1, "rotto", "pdf/rotto.pdf", null),
+                    referto(2, "buono", "pdf/buono.pdf", null)), out);
+
+            PdfReader reader = new PdfReader(out.toByteArray());
+            assertEquals(1, reader.getNumberOfPages());
+            assertEquals(1, SimpleBookmark.getBookmarkList(reader).size());
+        }
+
+        @Test
+        @DisplayName("Senza alcun PDF disponibile viene lanciata IOException")
+        void testNessunPdf() {
+            RefertoExportServiceImpl service = new RefertoExportServiceImpl(refertoService, blobStorageService,
+                    new SyncTaskExecutor(), 1);
+            when(blobStorageService.openDownloadStream("pdf/mancante.pdf")).thenReturn(null);
+
+            assertThrows(IOException.class, () -> service.scriviDossier(
+                    List.of(referto(1, "mancante", "pdf/mancante.pdf", null)), new ByteArrayOutputStream()));
+        }
+
+        @Test
+        @DisplayName("Senza referti con PDF non viene scritto nulla sullo stream")
+        void testDossierVuoto() {
+            RefertoExportServiceImpl service = new RefertoExportServiceImpl(refertoService, blobStorageService,
+                    new SyncTaskExecutor(), 1);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            assertFalse(service.dossierDisponibile(List.of()));
+            assertThrows(IOException.class, () -> service.scriviDossier(List.of(), out));
+            assertEquals(0, out.size());
+        }
+
+        @Test
+        @DisplayName("I file temporanei dei PDF sorgente vengono eliminati")
+        void testFileTemporaneiEliminati() throws Exception {
+            RefertoExportServiceImpl service = new RefertoExportServiceImpl(refertoService, blobStorageService,
+                    new SyncTaskExecutor(), 1);
+            when(blobStorageService.openDownloadStream("pdf/uno.pdf")).thenReturn(pdf("Uno"));
+            when(blobStorageService.openDownloadStream("pdf/rotto.pdf")).thenReturn(download("non è un PDF"));
+            long prima = fileTemporaneiDossier();
+
+            service.scriviDossier(List.of(referto(1, "uno", "pdf/uno.pdf", null),
+                    referto(2, "rotto", "pdf/rotto.pdf", null)), new ByteArrayOutputStream());
+
+            assertEquals(prima, fileTemporaneiDossier());
+        }
+    }
+
+    @Nested
+    @DisplayName("Casi di errore")
+    class Incorrect {
+
+        @Test
+        @DisplayName("Se la scrittura fallisce i download aperti in anticipo vengono chiusi")
+        void testErroreScritturaChiudeDownload() throws IOException {
+            RefertoExportServiceImpl service = new RefertoExportServiceImpl(refertoService, blobStorageService,
+                    new SyncTaskExecutor(), 3);
+            List<BlobDownload> aperti = new ArrayList<>();
+            when(blobStorageService.openDownloadStream(anyString())).thenAnswer(inv -> {
+                BlobDownload download = spy(download("contenuto"));
+                aperti.add(download);
+                return download;
+            });
+            OutputStream clientDisconnesso = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    throw new IOException("Broken pipe");
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    throw new IOException("Broken pipe");
+                }
+            };
+
+            assertThrows(IOException.class, () -> service.scriviZip(List.of(
+                    referto(1, "a", "pdf/1.pdf", "immagini/1.png"),
+                    referto(2, "b", "pdf/2.pdf", "immagini/2.png")), clientDisconnesso));
+
+            assertEquals(4, aperti.size());
+            for (BlobDownload download : aperti) {
+                verify(download).close();
+            }
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package it.unisa.project.medsafe.service;
+
+import it.unisa.project.medsafe.dto.IngestioneJobDTO;
+import it.unisa.project.medsafe.dto.RefertoDTO;
+import it.unisa.project.medsafe.entity.IngestioneJob;
+import it.unisa.project.medsafe.entity.StatoIngestione;
+import it.unisa.project.medsafe.exception.UnauthorizedException;
+import it.unisa.project.medsafe.repository.IngestioneJobRepository;
+import it.unisa.project.medsafe.utils.IngestioneJobMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mapstruct.factory.Mappers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("Test RefertoIngestionService")
+public class RefertoIngestionServiceTest {
+
+    @Mock
+    private RefertoService refertoService;
+
+    @Mock
+    private AuthorizationService authorizationService;
+
+    @Mock
+    private IngestioneJobRepository jobRepository;
+
+    @TempDir
+    Path stagingDir;
+
+    private final RefertoDTO dto = RefertoDTO.builder().nomeFile("referto_async").build();
+    private final MockMultipartFile file = new MockMultipartFile("file", "esame.png", "image/png",
+            new byte[] { 1, 2, 3 });
+
+    private RefertoIngestionServiceImpl creaService(Executor executor) throws IOException {
+        return new RefertoIngestionServiceImpl(refertoService, authorizationService, jobRepository,
+                Mappers.getMapper(IngestioneJobMapper.class), executor, stagingDir, Duration.ofHours(1));
+    }
+
+    /**
+     * Il job passa da uno stato all'altro come sul database
+     */
+    private void statiAggiornabili() {
+        when(jobRepository.aggiornaStato(anyString(), any(), any(), any(), any())).thenReturn(1);
+    }
+
+    private void verificaStatoFinale(String id, StatoIngestione stato, String errore) {
+        verify(jobRepository).aggiornaStato(eq(id), eq(Set.of(StatoIngestione.IN_CODA)),
+                eq(StatoIngestione.IN_CORSO), isNull(), any());
+        verify(jobRepository).aggiornaStato(eq(id), eq(Set.of(StatoIngestione.IN_CORSO)), eq(stato),
+                errore == null ? isNull() : eq(errore), any());
+    }
+
+    private long fileInStaging() throws IOException {
+        try (var files = Files.list(stagingDir)) {
+            return files.count();
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Nested
+    @DisplayName("Casi corretti")
+    class Correct {
+
+        @Test
+        @DisplayName("Il job viene completato e il file in staging eliminato")
+        void testJobCompletato() throws IOException {
+            RefertoIngestionServiceImpl service = creaService(new SyncTaskExecutor());
+            statiAggiornabili();
+            doAnswer(inv -> {
+                MultipartFile staged = inv.getArgument(1);
+                assertEquals("esame.png", staged.getOriginalFilename());
+                assertArrayEquals(new byte[] { 1, 2, 3 }, staged.getBytes());
+                return null;
+            }).when(refertoService).addReferto(eq(dto), any());
+
+            IngestioneJobDTO job = service.accoda(dto, file);
+
+            assertEquals(StatoIngestione.IN_CODA, job.getStato());
+            assertEquals("referto_async", job.getNomeFile());
+            verify(jobRepository).save(argThat(salvato -> salvato.getId().equals(job.getId())
+                    && salvato.getStato() == StatoIngestione.IN_CODA));
+            verificaStatoFinale(job.getId(), StatoIngestione.COMPLETATO, null);
+            assertEquals(0, fileInStaging());
+        }
+
+        @Test
+        @DisplayName("Lo stato del job viene letto dal database")
+        void testGetJob() throws IOException {
+            IngestioneJob job = IngestioneJob.builder().id("job-1").stato(StatoIngestione.COMPLETATO)
+                    .nomeFile("referto_async").build();
+            when(jobRepository.findById("job-1")).thenReturn(Optional.of(job));
+
+            IngestioneJobDTO stato = creaService(new SyncTaskExecutor()).getJob("job-1");
+
+            assertEquals(StatoIngestione.COMPLETATO, stato.getStato());
+            assertEquals("referto_async", stato.getNomeFile());
+        }
+
+        @Test
+        @DisplayName("Cartella e file in staging sono accessibili solo al proprietario")
+        void testStagingPrivato() throws IOException {
+            assumeTrue(stagingDir.getFileSystem().supportedFileAttributeViews().contains("posix"));
+            Executor inAttesa = mock(Executor.class);
+            RefertoIngestionServiceImpl service = creaService(inAttesa);
+
+            IngestioneJobDTO job = service.accoda(dto, file);
+
+            assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(stagingDir)));
+            assertEquals("rw-------", PosixFilePermissions.toString(
+                    Files.getPosixFilePermissions(stagingDir.resolve(job.getId()))));
+        }
+
+        @Test
+        @DisplayName("All'avvio i file rimasti in staging chiudono il loro job e vengono eliminati")
+        void testRecuperoStagingAllAvvio() throws IOException {
+            Files.write(stagingDir.resolve("job-interrotto"), new byte[] { 1 });
+            RefertoIngestionServiceImpl service = creaService(new SyncTaskExecutor());
+            when(jobRepository.aggiornaStato(eq("job-interrotto"), any(), eq(StatoIngestione.FALLITO), anyString(),
+                    any())).thenReturn(1);
+
+            service.recuperaStaging();
+
+            assertEquals(0, fileInStaging());
+            verify(jobRepository).aggiornaStato(eq("job-interrotto"),
+                    eq(Set.of(StatoIngestione.IN_CODA, StatoIngestione.IN_CORSO)), eq(StatoIngestione.FALLITO),
+                    anyString(), any());
+            verify(jobRepository).chiudiAbbandonati(eq(Set.of(StatoIngestione.IN_CODA, StatoIngestione.IN_CORSO)),
+                    any(), anyString(), any());
+        }
+
+        @Test
+        @DisplayName("Il worker esegue con il contesto di sicurezza della richiesta")
+        void testContestoSicurezzaPropagato() throws Exception {
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                RefertoIngestionServiceImpl service = creaService(executor);
+                statiAggiornabili();
+                Authentication auth = new TestingAuthenticationToken("medico@test.com", null);
+                SecurityContextHolder.getContext().setAuthentication(auth);
+                AtomicReference<Authentication> nelWorker = new AtomicReference<>();
+                doAnswer(inv -> {
+                    nelWorker.set(SecurityContextHolder.getContext().getAuthentication());
+                    return null;
+                }).when(refertoService).addReferto(any(), any());
+
+                IngestioneJobDTO job = service.accoda(dto, file);
+                executor.shutdown();
+                assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+                assertSame(auth, nelWorker.get());
+                verificaStatoFinale(job.getId(), StatoIngestione.COMPLETATO, null);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    @Nested
+    @DisplayName("Casi di errore")
+    class Incorrect {
+
+        @Test
+        @DisplayName("Un errore durante l'elaborazione porta il job in FALLITO")
+        void testJobFallito() throws IOException {
+            RefertoIngestionServiceImpl service = creaService(new SyncTaskExecutor());
+            statiAggiornabili();
+            doThrow(new RuntimeException("Storage non raggiungibile")).when(refertoService).addReferto(any(), any());
+
+            IngestioneJobDTO job = service.accoda(dto, file);
+
+            verificaStatoFinale(job.getId(), StatoIngestione.FALLITO, "Storage non raggiungibile");
+            assertEquals(0, fileInStaging());
+        }
+
+        @Test
+        @DisplayName("Un job chiuso prima dell'elaborazione non carica il referto")
+        void testJobChiusoPrimaDellElaborazione() throws IOException {
+            RefertoIngestionServiceImpl service = creaService(new SyncTaskExecutor());
+            when(jobRepository.aggiornaStato(anyString(), any(), any(), any(), any())).thenReturn(0);
+
+            service.accoda(dto, file);
+
+            verify(refertoService, never()).addReferto(any(), any());
+            assertEquals(0, fileInStaging());
+        }
+
+        @Test
+        @DisplayName("Con la coda piena il caricamento viene rifiutato senza lasciare file in staging")
+        void testCodaPiena() throws IOException {
+            RefertoIngestionServiceImpl service = creaService(task -> {
+                throw new TaskRejectedException("Coda piena");
+            });
+
+            assertThrows(TaskRejectedException.class, () -> service.accoda(dto, file));
+
+            assertEquals(0, fileInStaging());
+            verify(jobRepository).deleteById(anyString());
+            verify(refertoService, never()).addReferto(any(), any());
+        }
+
+        @Test
+        @DisplayName("Un utente non abilitato viene respinto prima dello staging")
+        void testUtenteNonAbilitato() throws IOException {
+            Executor executor = mock(Executor.class);
+            RefertoIngestionServiceImpl service = creaService(executor);
+            doThrow(new UnauthorizedException("Utente non abilitato")).when(authorizationService).checkCanAddReferto();
+
+            assertThrows(UnauthorizedException.class, () -> service.accoda(dto, file));
+
+            assertEquals(0, fileInStaging());
+            verifyNoInteractions(executor, jobRepository);
+        }
+
+        @Test
+        @DisplayName("getJob con id sconosciuto ritorna null")
+        void testJobInesistente() throws IOException {
+            assertNull(creaService(new SyncTaskExecutor()).getJob("sconosciuto"));
+        }
+    }
+}
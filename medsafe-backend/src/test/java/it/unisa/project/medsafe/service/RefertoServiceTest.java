@@ -1,25 +1,51 @@
 package it.unisa.project.medsafe.service;
 
+import it.unisa.project.medsafe.dto.CursoreReferto;
+import it.unisa.project.medsafe.dto.FiltroRefertiDTO;
+import it.unisa.project.medsafe.dto.FinestraRefertiDTO;
 import it.unisa.project.medsafe.dto.RefertoDTO;
+import it.unisa.project.medsafe.dto.RefertoSummary;
 import it.unisa.project.medsafe.entity.Referto;
 import it.unisa.project.medsafe.entity.TipoEsame;
 import it.unisa.project.medsafe.exception.RefertoNotFoundException;
 import it.unisa.project.medsafe.repository.RefertoRepository;
+import it.unisa.project.medsafe.utils.ImprontaReferto;
+import it.unisa.project.medsafe.utils.PoolBlocchi;
 import it.unisa.project.medsafe.utils.RefertoMapper;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.data.domain.KeysetScrollPosition;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -27,6 +53,8 @@ import static org.mockito.Mockito.*;
 @ExtendWith(MockitoExtension.class)
 public class RefertoServiceTest {
 
+    private static final PageRequest PAGINA = PageRequest.of(0, 20, Sort.by(Sort.Direction.DESC, "dataCaricamento"));
+
     @InjectMocks
     private RefertoServiceImpl refertoService;
 
@@ -45,6 +73,18 @@ public class RefertoServiceTest {
     @Mock
     private AuthorizationService authorizationService;
 
+    @Mock
+    private RicercaFullTextService ricercaFullTextService;
+
+    @Spy
+    private Executor uploadExecutor = new SyncTaskExecutor();
+
+    @Spy
+    private PdfCache pdfCache = new PdfCache(DataSize.ofMegabytes(1));
+
+    @Spy
+    private PoolBlocchi poolBlocchi = new PoolBlocchi(DataSize.ofKilobytes(64), 16);
+
     @Nested
     class Incorrect {
 
@@ -93,17 +133,17 @@ public class RefertoServiceTest {
         @Test
         public void getRefertiByTipoEsameEmptyTest() {
             TipoEsame tipo = TipoEsame.TAC;
-            when(refertoRepository.findByTipoEsame(tipo)).thenReturn(List.of());
-            assertThrows(RefertoNotFoundException.class, () -> refertoService.getRefertiByTipoEsame(tipo));
-            verify(refertoRepository).findByTipoEsame(tipo);
+            when(refertoRepository.findSummaryByTipoEsame(eq(tipo), any(Pageable.class))).thenReturn(Page.empty());
+            assertThrows(RefertoNotFoundException.class, () -> refertoService.getRefertiByTipoEsame(tipo, PAGINA));
+            verify(refertoRepository).findSummaryByTipoEsame(eq(tipo), any(Pageable.class));
         }
 
         @Test
         public void getRefertiByAutoreEmailEmptyTest() {
             String email = "notfound@hospital.com";
-            when(refertoRepository.findByAutoreEmail(email)).thenReturn(List.of());
-            assertThrows(RefertoNotFoundException.class, () -> refertoService.getRefertiByAutoreEmail(email));
-            verify(refertoRepository).findByAutoreEmail(email);
+            when(refertoRepository.findSummaryByAutoreEmail(eq(email), any(Pageable.class))).thenReturn(Page.empty());
+            assertThrows(RefertoNotFoundException.class, () -> refertoService.getRefertiByAutoreEmail(email, PAGINA));
+            verify(refertoRepository).findSummaryByAutoreEmail(eq(email), any(Pageable.class));
         }
 
         @Test
@@ -141,20 +181,23 @@ public class RefertoServiceTest {
 
             Referto referto = Referto.builder().id(1).build();
             MultipartFile file = mock(MultipartFile.class);
-            ByteArrayInputStream pdfStream = new ByteArrayInputStream(new byte[0]);
+
+            byte[] immagine = new byte[] { 1, 2, 3 };
 
             when(file.getOriginalFilename()).thenReturn("immagine.png");
+            when(file.getBytes()).thenReturn(immagine);
             when(blobStorageService.uploadFile(any(), any())).thenReturn("http://blob/immagine.png");
-            when(pdfService.generaPdf(any())).thenReturn(pdfStream);
             when(blobStorageService.uploadPdf(any(), any())).thenReturn("http://blob/referto.pdf");
             when(refertoMapper.refertoDTOToReferto(any())).thenReturn(referto);
 
             refertoService.addReferto(dto, file);
 
             verify(blobStorageService).uploadFile(file, "immagine.png");
-            verify(pdfService).generaPdf(any());
+            verify(pdfService).generaPdf(any(), eq(immagine), any());
+            verify(blobStorageService, never()).downloadFile(any());
             verify(blobStorageService).uploadPdf(any(), eq("referto_rossi"));
             verify(refertoRepository).save(referto);
+            verify(ricercaFullTextService).aggiorna(referto);
         }
 
         @Test
@@ -168,8 +211,6 @@ public class RefertoServiceTest {
             doNothing().when(authorizationService).checkCanModifyReferto(referto, "modificare");
 
             // editReferto now regenerates PDF
-            ByteArrayInputStream pdfStream = new ByteArrayInputStream(new byte[0]);
-            when(pdfService.generaPdf(any())).thenReturn(pdfStream);
             when(blobStorageService.uploadPdf(any(), any())).thenReturn("http://blob/referto.pdf");
 
             when(refertoRepository.save(referto)).thenReturn(referto);
@@ -182,6 +223,7 @@ public class RefertoServiceTest {
             verify(authorizationService).checkCanModifyReferto(referto, "modificare");
             verify(refertoMapper).updateRefertoFromDTO(dto, referto);
             verify(refertoRepository).save(referto);
+            verify(ricercaFullTextService).aggiorna(referto);
         }
 
         @Test
@@ -200,6 +242,7 @@ public class RefertoServiceTest {
             verify(refertoRepository).findById(1);
             verify(authorizationService).checkCanModifyReferto(referto, "eliminare");
             verify(refertoRepository).deleteById(1);
+            verify(ricercaFullTextService).rimuovi(1);
         }
 
         @Test
@@ -250,6 +293,32 @@ public class RefertoServiceTest {
             verify(refertoRepository).findByCodiceFiscale(cf);
         }
 
+        @Test
+        @DisplayName("getRefertoByCodiceFiscale paginato mantiene l'ordinamento già stabile per id")
+        void testGetRefertoByCodiceFiscalePaginato() {
+            String cf = "RSSMRA80A01H501Z";
+            RefertoSummary riepilogo = new RefertoSummary(7, "Mario Rossi", cf, TipoEsame.TAC, "tac_rossi", null, null);
+            PageRequest perId = PageRequest.of(2, 5, Sort.by("id"));
+            when(refertoRepository.findSummaryByCodiceFiscale(cf, perId))
+                    .thenReturn(new PageImpl<>(List.of(riepilogo), perId, 11));
+
+            Page<RefertoSummary> result = refertoService.getRefertoByCodiceFiscale(cf, perId);
+
+            assertEquals(List.of(riepilogo), result.getContent());
+            assertEquals(3, result.getTotalPages());
+            verifyNoInteractions(refertoMapper);
+        }
+
+        @Test
+        @DisplayName("getRefertoByCodiceFiscale paginato senza referti lancia RefertoNotFoundException")
+        void testGetRefertoByCodiceFiscalePaginatoVuoto() {
+            when(refertoRepository.findSummaryByCodiceFiscale(eq("XXXXXX00X00X000X"), any(Pageable.class)))
+                    .thenReturn(Page.empty());
+
+            assertThrows(RefertoNotFoundException.class,
+                    () -> refertoService.getRefertoByCodiceFiscale("XXXXXX00X00X000X", PAGINA));
+        }
+
         @Test
         public void getRefertoByNomeFileSuccessTest() {
             String nomeFile = "referto_rossi";
@@ -269,67 +338,82 @@ public class RefertoServiceTest {
         @Test
         public void getRefertiByTipoEsameSuccessTest() {
             TipoEsame tipo = TipoEsame.TAC;
-            Referto referto1 = Referto.builder().id(1).tipoEsame(tipo).build();
-            Referto referto2 = Referto.builder().id(2).tipoEsame(tipo).build();
-            List<Referto> referti = Arrays.asList(referto1, referto2);
+            List<RefertoSummary> referti = List.of(
+                    new RefertoSummary(1, "Mario Rossi", null, tipo, "tac_1", null, null),
+                    new RefertoSummary(2, "Anna Verdi", null, tipo, "tac_2", null, null));
 
-            RefertoDTO dto1 = RefertoDTO.builder().id(1).tipoEsame(tipo).build();
-            RefertoDTO dto2 = RefertoDTO.builder().id(2).tipoEsame(tipo).build();
+            when(refertoRepository.findSummaryByTipoEsame(eq(tipo), any(Pageable.class)))
+                    .thenReturn(new PageImpl<>(referti));
 
-            when(refertoRepository.findByTipoEsame(tipo)).thenReturn(referti);
-            when(refertoMapper.refertoToRefertoDTO(referto1)).thenReturn(dto1);
-            when(refertoMapper.refertoToRefertoDTO(referto2)).thenReturn(dto2);
-
-            List<RefertoDTO> result = refertoService.getRefertiByTipoEsame(tipo);
+            Page<RefertoSummary> result = refertoService.getRefertiByTipoEsame(tipo, PAGINA);
 
-            assertEquals(2, result.size());
-            verify(refertoRepository).findByTipoEsame(tipo);
+            assertEquals(2, result.getNumberOfElements());
+            verify(refertoRepository).findSummaryByTipoEsame(eq(tipo), any(Pageable.class));
         }
 
         @Test
         public void getRefertiByAutoreEmailSuccessTest() {
             String email = "medico@hospital.com";
-            Referto referto1 = Referto.builder().id(1).autoreEmail(email).build();
-            Referto referto2 = Referto.builder().id(2).autoreEmail(email).build();
-            List<Referto> referti = Arrays.asList(referto1, referto2);
+            List<RefertoSummary> referti = List.of(
+                    new RefertoSummary(1, "Mario Rossi", null, TipoEsame.TAC, "tac_1", email, null),
+                    new RefertoSummary(2, "Anna Verdi", null, TipoEsame.TAC, "tac_2", email, null));
 
-            RefertoDTO dto1 = RefertoDTO.builder().id(1).autoreEmail(email).build();
-            RefertoDTO dto2 = RefertoDTO.builder().id(2).autoreEmail(email).build();
+            when(refertoRepository.findSummaryByAutoreEmail(eq(email), any(Pageable.class)))
+                    .thenReturn(new PageImpl<>(referti));
 
-            when(refertoRepository.findByAutoreEmail(email)).thenReturn(referti);
-            when(refertoMapper.refertoToRefertoDTO(referto1)).thenReturn(dto1);
-            when(refertoMapper.refertoToRefertoDTO(referto2)).thenReturn(dto2);
-
-            List<RefertoDTO> result = refertoService.getRefertiByAutoreEmail(email);
+            Page<RefertoSummary> result = refertoService.getRefertiByAutoreEmail(email, PAGINA);
 
-            assertEquals(2, result.size());
-            verify(refertoRepository).findByAutoreEmail(email);
+            assertEquals(2, result.getNumberOfElements());
+            verify(refertoRepository).findSummaryByAutoreEmail(eq(email), any(Pageable.class));
         }
 
         @Test
         public void getAllRefertiSuccessTest() {
-            Referto referto1 = Referto.builder().id(1).nomePaziente("Mario Rossi").build();
-            Referto referto2 = Referto.builder().id(2).nomePaziente("Anna Verdi").build();
-            Referto referto3 = Referto.builder().id(3).nomePaziente("Luigi Bianchi").build();
-            List<Referto> referti = Arrays.asList(referto1, referto2, referto3);
-
-            RefertoDTO dto1 = RefertoDTO.builder().id(1).nomePaziente("Mario Rossi").build();
-            RefertoDTO dto2 = RefertoDTO.builder().id(2).nomePaziente("Anna Verdi").build();
-            RefertoDTO dto3 = RefertoDTO.builder().id(3).nomePaziente("Luigi Bianchi").build();
-            List<RefertoDTO> dtos = Arrays.asList(dto1, dto2, dto3);
+            List<RefertoSummary> referti = List.of(
+                    new RefertoSummary(1, "Mario Rossi", null, TipoEsame.TAC, "tac_1", null, null),
+                    new RefertoSummary(2, "Anna Verdi", null, TipoEsame.TAC, "tac_2", null, null),
+                    new RefertoSummary(3, "Luigi Bianchi", null, TipoEsame.TAC, "tac_3", null, null));
 
-            when(refertoRepository.findAll()).thenReturn(referti);
-            when(refertoMapper.refertiToRefertiDTO(referti)).thenReturn(dtos);
+            when(refertoRepository.findSummaryBy(any(Pageable.class))).thenReturn(new PageImpl<>(referti, PAGINA, 45));
 
-            List<RefertoDTO> result = refertoService.getAllReferti();
+            Page<RefertoSummary> result = refertoService.getAllReferti(PAGINA);
 
             assertNotNull(result);
-            assertEquals(3, result.size());
-            assertEquals("Mario Rossi", result.get(0).getNomePaziente());
-            assertEquals("Anna Verdi", result.get(1).getNomePaziente());
-            assertEquals("Luigi Bianchi", result.get(2).getNomePaziente());
-            verify(refertoRepository).findAll();
-            verify(refertoMapper).refertiToRefertiDTO(referti);
+            assertEquals(3, result.getNumberOfElements());
+            assertEquals(45, result.getTotalElements());
+            assertEquals("Mario Rossi", result.getContent().get(0).nomePaziente());
+            assertEquals("Anna Verdi", result.getContent().get(1).nomePaziente());
+            assertEquals("Luigi Bianchi", result.getContent().get(2).nomePaziente());
+            verify(refertoRepository, never()).findAll(any(Pageable.class));
+
+            // A parità di data l'ordine tra le pagine è deciso dall'id
+            ArgumentCaptor<Pageable> captor = ArgumentCaptor.forClass(Pageable.class);
+            verify(refertoRepository).findSummaryBy(captor.capture());
+            assertEquals(Sort.by(Sort.Order.desc("dataCaricamento"), Sort.Order.desc("id")),
+                    captor.getValue().getSort());
+            assertEquals(20, captor.getValue().getPageSize());
+        }
+
+        @Test
+        @DisplayName("cercaReferti esegue un'unica query con tutti i criteri e l'ordinamento stabile")
+        void cercaRefertiTest() {
+            FiltroRefertiDTO filtro = FiltroRefertiDTO.builder()
+                    .codiceFiscale("RSSMRA80A01H501Z")
+                    .tipoEsame(TipoEsame.TAC)
+                    .autoreEmail("medico@hospital.com")
+                    .build();
+            RefertoSummary riepilogo = new RefertoSummary(4, "Mario Rossi", "RSSMRA80A01H501Z", TipoEsame.TAC,
+                    "tac_4", "medico@hospital.com", null);
+            when(refertoRepository.cercaRiepiloghi(any(), any())).thenReturn(new PageImpl<>(List.of(riepilogo)));
+
+            Page<RefertoSummary> result = refertoService.cercaReferti(filtro, PAGINA);
+
+            assertEquals(List.of(riepilogo), result.getContent());
+            ArgumentCaptor<Pageable> captor = ArgumentCaptor.forClass(Pageable.class);
+            verify(refertoRepository).cercaRiepiloghi(notNull(), captor.capture());
+            assertEquals(Sort.by(Sort.Order.desc("dataCaricamento"), Sort.Order.desc("id")),
+                    captor.getValue().getSort());
+            verify(refertoRepository, never()).findSummaryByCodiceFiscale(anyString(), any(Pageable.class));
         }
     }
 
@@ -379,6 +463,24 @@ public class RefertoServiceTest {
             assertThrows(RuntimeException.class, () -> refertoService.addReferto(dto, file));
         }
 
+        @Test
+        @DisplayName("addReferto con allegato PDF passa il file in memoria per accodarne le pagine")
+        void testAddRefertoAllegatoPdf() throws IOException {
+            RefertoDTO dto = RefertoDTO.builder().nomeFile("referto_pdf").build();
+            MultipartFile file = mock(MultipartFile.class);
+            byte[] esame = "%PDF-1.4".getBytes();
+            when(file.getOriginalFilename()).thenReturn("esame.PDF");
+            when(file.getBytes()).thenReturn(esame);
+            when(blobStorageService.uploadFile(any(), any())).thenReturn("http://blob/esame.pdf");
+            when(blobStorageService.uploadPdf(any(), any())).thenReturn("http://blob/referto.pdf");
+
+            refertoService.addReferto(dto, file);
+
+            verify(pdfService).generaPdf(any(), eq(esame), any());
+            verify(blobStorageService, never()).downloadFile(any());
+            assertEquals("http://blob/esame.pdf", dto.getFileUrlImmagine());
+        }
+
         @Test
         @DisplayName("editReferto con nuovo file aggiorna immagine e PDF")
         void testEditRefertoConNuovoFile() throws IOException {
@@ -391,13 +493,14 @@ public class RefertoServiceTest {
             MultipartFile newFile = mock(MultipartFile.class);
             when(newFile.isEmpty()).thenReturn(false);
             when(newFile.getOriginalFilename()).thenReturn("new_img.jpg");
+            byte[] immagine = new byte[] { 4, 5, 6 };
+            when(newFile.getBytes()).thenReturn(immagine);
 
             when(refertoRepository.existsById(1)).thenReturn(true);
             when(refertoRepository.findById(1)).thenReturn(Optional.of(referto));
             doNothing().when(authorizationService).checkCanModifyReferto(referto, "modificare");
             when(blobStorageService.uploadFile(any(), any()))
                     .thenReturn("https://account.blob.core.windows.net/upload-dir/new.jpg");
-            when(pdfService.generaPdf(any())).thenReturn(new ByteArrayInputStream(new byte[0]));
             when(blobStorageService.uploadPdf(any(), any()))
                     .thenReturn("https://account.blob.core.windows.net/upload-dir/new.pdf");
             when(refertoRepository.save(referto)).thenReturn(referto);
@@ -406,7 +509,8 @@ public class RefertoServiceTest {
 
             assertTrue(result);
             verify(blobStorageService).uploadFile(any(), any());
-            verify(pdfService).generaPdf(any());
+            verify(pdfService).generaPdf(any(), eq(immagine), any());
+            verify(blobStorageService, never()).downloadFile(any());
         }
 
         @Test
@@ -430,19 +534,29 @@ public class RefertoServiceTest {
         @Test
         @DisplayName("getRefertiByTipoEsame con lista vuota lancia RefertoNotFoundException")
         void testGetRefertiByTipoEsameVuota() {
-            when(refertoRepository.findByTipoEsame(TipoEsame.TAC)).thenReturn(List.of());
+            when(refertoRepository.findSummaryByTipoEsame(eq(TipoEsame.TAC), any(Pageable.class))).thenReturn(Page.empty());
 
             assertThrows(RefertoNotFoundException.class,
-                    () -> refertoService.getRefertiByTipoEsame(TipoEsame.TAC));
+                    () -> refertoService.getRefertiByTipoEsame(TipoEsame.TAC, PAGINA));
+        }
+
+        @Test
+        @DisplayName("cercaReferti senza risultati restituisce una pagina vuota")
+        void testCercaRefertiVuota() {
+            when(refertoRepository.cercaRiepiloghi(any(), any())).thenReturn(Page.empty());
+
+            Page<RefertoSummary> result = refertoService.cercaReferti(new FiltroRefertiDTO(), PAGINA);
+
+            assertTrue(result.isEmpty());
         }
 
         @Test
         @DisplayName("getRefertiByAutoreEmail con lista vuota lancia RefertoNotFoundException")
         void testGetRefertiByAutoreEmailVuota() {
-            when(refertoRepository.findByAutoreEmail("nessuno@test.com")).thenReturn(List.of());
+            when(refertoRepository.findSummaryByAutoreEmail(eq("nessuno@test.com"), any(Pageable.class))).thenReturn(Page.empty());
 
             assertThrows(RefertoNotFoundException.class,
-                    () -> refertoService.getRefertiByAutoreEmail("nessuno@test.com"));
+                    () -> refertoService.getRefertiByAutoreEmail("nessuno@test.com", PAGINA));
         }
 
         @Test
@@ -468,4 +582,322 @@ public class RefertoServiceTest {
             assertThrows(RefertoNotFoundException.class, () -> refertoService.getRefertoById(999));
         }
     }
+    @Nested
+    @DisplayName("Upload immagine e generazione PDF in parallelo")
+    class Pipeline {
+
+        private static final String URL_IMMAGINE = "https://account.blob.core.windows.net/upload-dir/immagini/new.jpg";
+
+        private RefertoDTO dto;
+        private MultipartFile file;
+
+        @BeforeEach
+        void setUp() throws IOException {
+            dto = RefertoDTO.builder().nomeFile("referto").build();
+            file = mock(MultipartFile.class);
+            lenient().when(file.getOriginalFilename()).thenReturn("new.jpg");
+            lenient().when(file.getBytes()).thenReturn(new byte[] { 1 });
+        }
+
+        @Test
+        @DisplayName("L'upload dell'immagine gira sull'executor, non sul thread della richiesta")
+        void testUploadSuExecutor() throws IOException {
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                RefertoServiceImpl service = new RefertoServiceImpl(refertoRepository, refertoMapper, pdfService,
+                        blobStorageService, authorizationService, executor, pdfCache, poolBlocchi,
+                        ricercaFullTextService);
+                Thread chiamante = Thread.currentThread();
+                when(blobStorageService.uploadFile(any(), any())).thenAnswer(inv -> {
+                    assertNotSame(chiamante, Thread.currentThread());
+                    return URL_IMMAGINE;
+                });
+                when(blobStorageService.uploadPdf(any(), any())).thenReturn("http://blob/referto.pdf");
+
+                service.addReferto(dto, file);
+
+                assertEquals(URL_IMMAGINE, dto.getFileUrlImmagine());
+                verify(refertoRepository).save(any());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        @Test
+        @DisplayName("Se la generazione del PDF fallisce l'immagine caricata viene eliminata")
+        void testErrorePdfEliminaImmagine() throws IOException {
+            when(blobStorageService.uploadFile(any(), any())).thenReturn(URL_IMMAGINE);
+            doThrow(new IOException("Errore PDF")).when(pdfService).generaPdf(any(), any(), any());
+
+            assertThrows(RuntimeException.class, () -> refertoService.addReferto(dto, file));
+
+            verify(blobStorageService).deleteFile("immagini/new.jpg");
+            verify(blobStorageService, never()).uploadPdf(any(), any());
+            verify(refertoRepository, never()).save(any());
+        }
+
+        @Test
+        @DisplayName("Se l'upload del PDF fallisce l'immagine caricata viene eliminata")
+        void testErroreUploadPdfEliminaImmagine() throws IOException {
+            when(blobStorageService.uploadFile(any(), any())).thenReturn(URL_IMMAGINE);
+            when(blobStorageService.uploadPdf(any(), any())).thenThrow(new RuntimeException("Storage non raggiungibile"));
+
+            assertThrows(RuntimeException.class, () -> refertoService.addReferto(dto, file));
+
+            verify(blobStorageService).deleteFile("immagini/new.jpg");
+            verify(refertoRepository, never()).save(any());
+        }
+
+        @Test
+        @DisplayName("Se l'upload dell'immagine fallisce non c'è nulla da eliminare")
+        void testErroreUploadImmagine() throws IOException {
+            when(blobStorageService.uploadFile(any(), any())).thenThrow(new IOException("Errore upload"));
+
+            RuntimeException ex = assertThrows(RuntimeException.class, () -> refertoService.addReferto(dto, file));
+
+            assertInstanceOf(IOException.class, ex.getCause());
+            verify(blobStorageService, never()).deleteFile(any());
+            verify(blobStorageService, never()).uploadPdf(any(), any());
+        }
+
+        @Test
+        @DisplayName("editReferto: se l'upload del PDF fallisce resta la vecchia immagine")
+        void testEditErroreUploadPdfMantieneVecchiaImmagine() throws IOException {
+            RefertoDTO edit = RefertoDTO.builder().id(1).nomeFile("referto")
+                    .fileUrlImmagine("https://account.blob.core.windows.net/upload-dir/immagini/old.pdf").build();
+            Referto referto = Referto.builder().id(1)
+                    .fileUrlImmagine("https://account.blob.core.windows.net/upload-dir/immagini/old.pdf")
+                    .urlPdfGenerato("https://account.blob.core.windows.net/upload-dir/pdf/old.pdf")
+                    .build();
+            when(file.isEmpty()).thenReturn(false);
+            when(refertoRepository.existsById(1)).thenReturn(true);
+            when(refertoRepository.findById(1)).thenReturn(Optional.of(referto));
+            when(blobStorageService.uploadFile(any(), any())).thenReturn(URL_IMMAGINE);
+            doAnswer(inv -> {
+                // Il vecchio URL (un allegato PDF) non deve influenzare il nuovo PDF
+                assertNull(inv.<RefertoDTO>getArgument(0).getFileUrlImmagine());
+                return null;
+            }).when(pdfService).generaPdf(any(), any(), any());
+            when(blobStorageService.uploadPdf(any(), any())).thenThrow(new IOException("Errore upload PDF"));
+
+            assertThrows(RuntimeException.class, () -> refertoService.editReferto(edit, file));
+
+            verify(blobStorageService).deleteFile("immagini/new.jpg");
+            verify(blobStorageService, never()).deleteFile("immagini/old.pdf");
+            verify(blobStorageService, never()).deleteFile("pdf/old.pdf");
+            verify(refertoRepository, never()).save(any());
+        }
+    }
+
+    @Nested
+    @DisplayName("Generazione del PDF su richiesta (medsafe.pdf.lazy)")
+    class GenerazioneLazy {
+
+        private static final String URL_PDF = "https://account.blob.core.windows.net/upload-dir/pdf/referto.pdf";
+
+        @BeforeEach
+        void setUp() {
+            ReflectionTestUtils.setField(refertoService, "pdfLazy", true);
+        }
+
+        @Test
+        @DisplayName("addReferto carica solo l'immagine e non genera il PDF")
+        void testAddSenzaPdf() throws IOException {
+            RefertoDTO dto = RefertoDTO.builder().nomeFile("referto").build();
+            MultipartFile file = mock(MultipartFile.class);
+            when(file.getOriginalFilename()).thenReturn("esame.png");
+            when(blobStorageService.uploadFile(file, "esame.png")).thenReturn("http://blob/immagini/esame.png");
+
+            refertoService.addReferto(dto, file);
+
+            assertEquals("http://blob/immagini/esame.png", dto.getFileUrlImmagine());
+            assertNull(dto.getUrlPdfGenerato());
+            verifyNoInteractions(pdfService);
+            verify(blobStorageService, never()).uploadPdf(any(), any());
+            verify(refertoRepository).save(any());
+        }
+
+        @Test
+        @DisplayName("editReferto elimina il PDF superato, incrementa la versione e invalida la cache")
+        void testEditInvalidaPdf() {
+            Referto referto = Referto.builder().id(1).versione(3).urlPdfGenerato(URL_PDF).build();
+            when(refertoRepository.existsById(1)).thenReturn(true);
+            when(refertoRepository.findById(1)).thenReturn(Optional.of(referto));
+            pdfCache.put(1, 3, new byte[] { 1 });
+
+            RefertoDTO dto = RefertoDTO.builder().id(1).nomeFile("referto").fileUrlImmagine("http://blob/img.png")
+                    .urlPdfGenerato(URL_PDF).build();
+            assertTrue(refertoService.editReferto(dto, null));
+
+            assertNull(dto.getUrlPdfGenerato());
+            assertEquals(4, referto.getVersione());
+            assertNull(pdfCache.get(1, 3));
+            verify(blobStorageService).deleteFile("pdf/referto.pdf");
+            verifyNoInteractions(pdfService);
+        }
+
+        @Test
+        @DisplayName("Il PDF viene generato e caricato al primo download, poi servito dalla cache")
+        void testGenerazioneAlPrimoDownload() throws IOException {
+            Referto referto = Referto.builder().id(1).versione(2).nomeFile("referto").build();
+            when(refertoRepository.findById(1)).thenReturn(Optional.of(referto));
+            doAnswer(inv -> {
+                inv.<OutputStream>getArgument(2).write("PDF".getBytes());
+                return null;
+            }).when(pdfService).generaPdf(any(), isNull(), any());
+            when(blobStorageService.uploadPdf(any(), eq("referto"))).thenReturn(URL_PDF);
+            when(refertoRepository.registraPdfGenerato(1, 2, URL_PDF)).thenReturn(1);
+
+            assertArrayEquals("PDF".getBytes(), refertoService.getPdfGenerato(1));
+            assertArrayEquals("PDF".getBytes(), refertoService.getPdfGenerato(1));
+
+            verify(pdfService, times(1)).generaPdf(any(), isNull(), any());
+            verify(blobStorageService, times(1)).uploadPdf(any(), any());
+            verify(blobStorageService, never()).deleteFile(anyString());
+            // Il buffer usato per generazione e upload è tornato al pool
+            assertEquals(1, poolBlocchi.getBlocchiLiberi());
+        }
+
+        @Test
+        @DisplayName("Se il referto è stato modificato durante la generazione il PDF caricato viene eliminato")
+        void testModificaConcorrente() throws IOException {
+            Referto referto = Referto.builder().id(1).versione(2).nomeFile("referto").build();
+            when(refertoRepository.findById(1)).thenReturn(Optional.of(referto));
+            doAnswer(inv -> {
+                inv.<OutputStream>getArgument(2).write("PDF".getBytes());
+                return null;
+            }).when(pdfService).generaPdf(any(), isNull(), any());
+            when(blobStorageService.uploadPdf(any(), any())).thenReturn(URL_PDF);
+            when(refertoRepository.registraPdfGenerato(1, 2, URL_PDF)).thenReturn(0);
+
+            refertoService.getPdfGenerato(1);
+
+            verify(blobStorageService).deleteFile("pdf/referto.pdf");
+        }
+
+        @Test
+        @DisplayName("getPdfGenerato con id inesistente lancia RefertoNotFoundException")
+        void testRefertoInesistente() {
+            when(refertoRepository.findById(99)).thenReturn(Optional.empty());
+
+            assertThrows(RefertoNotFoundException.class, () -> refertoService.getPdfGenerato(99));
+        }
+    }
+
+    @Nested
+    @DisplayName("Modifiche che non cambiano il contenuto stampato")
+    class PdfInvariato {
+
+        private static final String URL_PDF = "https://account.blob.core.windows.net/upload-dir/pdf/referto.pdf";
+
+        private RefertoDTO dto;
+        private Referto referto;
+
+        @BeforeEach
+        void setUp() {
+            dto = RefertoDTO.builder().id(1).nomePaziente("Mario Rossi").codiceFiscale("RSSMRA80A01H501Z")
+                    .tipoEsame(TipoEsame.TAC).testoReferto("Testo").conclusioni("Conclusioni")
+                    .autoreEmail("dott@medsafe.local").fileUrlImmagine("http://blob/img.png")
+                    .urlPdfGenerato(URL_PDF).nomeFile("referto").build();
+            referto = Referto.builder().id(1).versione(2).fileUrlImmagine("http://blob/img.png")
+                    .urlPdfGenerato(URL_PDF).impronta(ImprontaReferto.calcola(dto)).build();
+            when(refertoRepository.existsById(1)).thenReturn(true);
+            when(refertoRepository.findById(1)).thenReturn(Optional.of(referto));
+        }
+
+        @Test
+        @DisplayName("Cambia solo il codice fiscale: il PDF esistente viene mantenuto")
+        void testPdfMantenuto() throws IOException {
+            pdfCache.put(1, 2, new byte[] { 1 });
+            dto.setCodiceFiscale("VRDLGI85B02F205X");
+
+            assertTrue(refertoService.editReferto(dto, null));
+
+            assertEquals(URL_PDF, dto.getUrlPdfGenerato());
+            assertEquals(2, referto.getVersione());
+            assertNotNull(pdfCache.get(1, 2));
+            verifyNoInteractions(pdfService);
+            verify(blobStorageService, never()).uploadPdf(any(), any());
+            verify(blobStorageService, never()).deleteFile(anyString());
+            verify(refertoRepository).save(referto);
+        }
+
+        @Test
+        @DisplayName("Cambiano le conclusioni: il PDF viene rigenerato")
+        void testPdfRigenerato() throws IOException {
+            dto.setConclusioni("Nuove conclusioni");
+            when(blobStorageService.uploadPdf(any(), eq("referto"))).thenReturn("http://blob/pdf/nuovo.pdf");
+
+            assertTrue(refertoService.editReferto(dto, null));
+
+            assertEquals("http://blob/pdf/nuovo.pdf", dto.getUrlPdfGenerato());
+            assertEquals(3, referto.getVersione());
+            verify(blobStorageService).deleteFile("pdf/referto.pdf");
+        }
+    }
+
+    @Nested
+    @DisplayName("Scorrimento cronologico a cursore")
+    class Scorrimento {
+
+        private static final LocalDateTime DATA = LocalDateTime.of(2025, 1, 31, 10, 15, 30);
+
+        private Window<RefertoSummary> finestra(boolean altri, RefertoSummary... referti) {
+            return Window.from(List.of(referti), i -> ScrollPosition.offset(i), altri);
+        }
+
+        @Test
+        @DisplayName("Il primo blocco parte dal più recente e restituisce il cursore dell'ultimo referto")
+        void testPrimoBlocco() {
+            RefertoSummary referto1 = new RefertoSummary(9, "Mario Rossi", null, TipoEsame.TAC, "tac_9", null,
+                    DATA.plusDays(1));
+            RefertoSummary referto2 = new RefertoSummary(7, "Anna Verdi", null, TipoEsame.TAC, "tac_7", null, DATA);
+            when(refertoRepository.findSummaryBy(any(), any(), any())).thenReturn(finestra(true, referto1, referto2));
+
+            FinestraRefertiDTO result = refertoService.scorriReferti(null, " ", null, 500);
+
+            assertEquals(List.of(referto1, referto2), result.getContent());
+            assertEquals("2025-01-31T10:15:30,7", result.getSuccessivo());
+            verify(refertoRepository).findSummaryBy(ScrollPosition.keyset(),
+                    Sort.by(Sort.Order.desc("dataCaricamento"), Sort.Order.desc("id")), Limit.of(100));
+        }
+
+        @Test
+        @DisplayName("Con il cursore la query riparte da data e id dell'ultimo referto ricevuto")
+        void testBloccoSuccessivoPerAutore() {
+            RefertoSummary referto = new RefertoSummary(3, "Mario Rossi", null, TipoEsame.TAC, "tac_3",
+                    "medico@test.com", DATA.minusDays(1));
+            when(refertoRepository.findSummaryByAutoreEmail(eq("medico@test.com"), any(), any(), any()))
+                    .thenReturn(finestra(false, referto));
+
+            FinestraRefertiDTO result = refertoService.scorriReferti("medico@test.com", null,
+                    new CursoreReferto(DATA, 7), 0);
+
+            assertEquals(1, result.getContent().size());
+            assertNull(result.getSuccessivo());
+            ArgumentCaptor<ScrollPosition> captor = ArgumentCaptor.forClass(ScrollPosition.class);
+            verify(refertoRepository).findSummaryByAutoreEmail(eq("medico@test.com"), captor.capture(), any(),
+                    eq(Limit.of(1)));
+            KeysetScrollPosition posizione = (KeysetScrollPosition) captor.getValue();
+            assertEquals(Map.of("dataCaricamento", DATA, "id", 7), posizione.getKeys());
+            assertTrue(posizione.scrollsForward());
+        }
+
+        @Test
+        @DisplayName("I filtri per paziente e per autore scelgono la query corrispondente")
+        void testFiltri() {
+            when(refertoRepository.findSummaryByCodiceFiscale(eq("RSSMRA80A01H501Z"), any(), any(), any()))
+                    .thenReturn(finestra(false));
+            when(refertoRepository.findSummaryByAutoreEmailAndCodiceFiscale(eq("medico@test.com"), eq("RSSMRA80A01H501Z"),
+                    any(), any(), any())).thenReturn(finestra(false));
+
+            FinestraRefertiDTO perPaziente = refertoService.scorriReferti(null, "RSSMRA80A01H501Z", null, 50);
+            FinestraRefertiDTO entrambi = refertoService.scorriReferti("medico@test.com", "RSSMRA80A01H501Z", null, 50);
+
+            assertTrue(perPaziente.getContent().isEmpty());
+            assertNull(perPaziente.getSuccessivo());
+            assertTrue(entrambi.getContent().isEmpty());
+            verify(refertoRepository, never()).findSummaryBy(any(), any(), any());
+        }
+    }
 }
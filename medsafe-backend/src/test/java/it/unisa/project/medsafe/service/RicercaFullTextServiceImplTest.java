@@ -0,0 +1,339 @@
+package it.unisa.project.medsafe.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.unisa.project.medsafe.dto.RisultatoFullText;
+import it.unisa.project.medsafe.entity.Referto;
+import it.unisa.project.medsafe.entity.TipoEsame;
+import it.unisa.project.medsafe.exception.RicercaNonValidaException;
+import it.unisa.project.medsafe.exception.UnauthorizedException;
+import it.unisa.project.medsafe.repository.RefertoRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("Test RicercaFullTextServiceImpl - indice Lucene di testo e conclusioni")
+class RicercaFullTextServiceImplTest {
+
+    private static final Pageable PAGINA = PageRequest.of(0, 20);
+
+    @Mock
+    private RefertoRepository refertoRepository;
+
+    @Mock
+    private AuthorizationService authorizationService;
+
+    @TempDir
+    Path cartella;
+
+    private SimpleMeterRegistry meterRegistry;
+    private RicercaFullTextServiceImpl ricerca;
+
+    /**
+     * Esegue gli aggiornamenti dell'indice sul thread del test
+     */
+    private static class ExecutorSincrono extends ThreadPoolTaskExecutor {
+        @Override
+        public void execute(Runnable task) {
+            task.run();
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        meterRegistry = new SimpleMeterRegistry();
+        ricerca = nuovoIndice();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        ricerca.chiudi();
+    }
+
+    private RicercaFullTextServiceImpl nuovoIndice() throws IOException {
+        return new RicercaFullTextServiceImpl(refertoRepository, authorizationService, new ExecutorSincrono(),
+                cartella, 100, meterRegistry);
+    }
+
+    private Referto referto(int id, String testo, String conclusioni) {
+        return Referto.builder()
+                .id(id)
+                .nomePaziente("Mario Rossi")
+                .codiceFiscale("RSSMRA80A01H501Z")
+                .tipoEsame(TipoEsame.TAC)
+                .testoReferto(testo)
+                .conclusioni(conclusioni)
+                .nomeFile("tac_" + id)
+                .autoreEmail("medico@medsafe.local")
+                .dataCaricamento(LocalDateTime.of(2025, 3, 10, 9, 30))
+                .build();
+    }
+
+    private void indicizza(Referto referto) {
+        when(refertoRepository.findById(referto.getId())).thenReturn(Optional.of(referto));
+        ricerca.aggiorna(referto);
+    }
+
+    @Nested
+    @DisplayName("Casi corretti")
+    class Correct {
+
+        @Test
+        @DisplayName("Trova il referto anche per una forma diversa della parola ed evidenzia i passaggi")
+        void testRicercaConEvidenziazione() {
+            indicizza(referto(1, "Si rilevano due noduli nel lobo superiore destro.", "Nodulo da rivalutare."));
+            indicizza(referto(2, "Frattura composta del radio.", "Controllo tra 30 giorni."));
+
+            Page<RisultatoFullText> risultati = ricerca.cerca("nodulo", PAGINA);
+
+            assertEquals(1, risultati.getTotalElements());
+            RisultatoFullText risultato = risultati.getContent().get(0);
+            assertEquals(1, risultato.referto().id());
+            assertEquals("tac_1", risultato.referto().nomeFile());
+            assertEquals(TipoEsame.TAC, risultato.referto().tipoEsame());
+            assertEquals(LocalDateTime.of(2025, 3, 10, 9, 30), risultato.referto().dataCaricamento());
+            assertTrue(risultato.punteggio() > 0);
+            assertEquals("Si rilevano due <mark>noduli</mark> nel lobo superiore destro.", risultato.testoReferto());
+            assertEquals("<mark>Nodulo</mark> da rivalutare.", risultato.conclusioni());
+            assertEquals(2, meterRegistry.get("medsafe.fulltext.documenti").gauge().value());
+            assertEquals(0, meterRegistry.get("medsafe.fulltext.coda").gauge().value());
+        }
+
+        @Test
+        @DisplayName("Tutte le parole sono obbligatorie e il campo senza corrispondenze non viene restituito")
+        void testTutteLeParole() {
+            indicizza(referto(1, "Frattura composta del radio.", "Nessuna lesione."));
+            indicizza(referto(2, "Frattura scomposta del perone.", null));
+
+            Page<RisultatoFullText> risultati = ricerca.cerca("frattura radio", PAGINA);
+
+            assertEquals(1, risultati.getTotalElements());
+            assertEquals(1, risultati.getContent().get(0).referto().id());
+            assertNull(risultati.getContent().get(0).conclusioni());
+            assertEquals(2, ricerca.cerca("frattura", PAGINA).getTotalElements());
+        }
+
+        @Test
+        @DisplayName("Il testo del referto viene restituito con escape HTML")
+        void testEscapeHtml() {
+            indicizza(referto(1, "Nodulo <script>alert(1)</script> & cisti", null));
+
+            RisultatoFullText risultato = ricerca.cerca("cisti", PAGINA).getContent().get(0);
+
+            assertFalse(risultato.testoReferto().contains("<script>"));
+            assertTrue(risultato.testoReferto().contains("&lt;script&gt;"));
+            assertTrue(risultato.testoReferto().contains("<mark>cisti</mark>"));
+        }
+
+        @Test
+        @DisplayName("Le pagine successive contengono i risultati rimanenti con il totale complessivo")
+        void testPaginazione() {
+            for (int id = 1; id <= 5; id++) {
+                indicizza(referto(id, "Versamento pleurico " + id, null));
+            }
+
+            Page<RisultatoFullText> seconda = ricerca.cerca("versamento", PageRequest.of(1, 2));
+            Page<RisultatoFullText> terza = ricerca.cerca("versamento", PageRequest.of(2, 2));
+
+            assertEquals(5, seconda.getTotalElements());
+            assertEquals(2, seconda.getContent().size());
+            assertEquals(1, terza.getContent().size());
+            assertTrue(ricerca.cerca("versamento", PageRequest.of(3, 2)).getContent().isEmpty());
+        }
+
+        @Test
+        @DisplayName("Una pagina con offset oltre Integer.MAX_VALUE è vuota, con il totale dei risultati")
+        void testOffsetMoltoGrande() {
+            indicizza(referto(1, "Versamento pleurico.", null));
+
+            Page<RisultatoFullText> pagina = ricerca.cerca("versamento", PageRequest.of(Integer.MAX_VALUE / 10, 20));
+
+            assertTrue(pagina.getContent().isEmpty());
+            assertEquals(1, pagina.getTotalElements());
+        }
+
+        @Test
+        @DisplayName("Una modifica sostituisce il documento e un referto eliminato esce dall'indice")
+        void testModificaEdEliminazione() {
+            Referto referto = referto(1, "Nodulo polmonare.", null);
+            indicizza(referto);
+            referto.setTestoReferto("Cisti renale.");
+            ricerca.aggiorna(referto);
+
+            assertEquals(0, ricerca.cerca("nodulo", PAGINA).getTotalElements());
+            assertEquals(1, ricerca.cerca("cisti", PAGINA).getTotalElements());
+
+            when(refertoRepository.findById(1)).thenReturn(Optional.empty());
+            ricerca.rimuovi(1);
+
+            assertEquals(0, ricerca.cerca("cisti", PAGINA).getTotalElements());
+        }
+
+        @Test
+        @DisplayName("Con una transazione attiva l'aggiornamento parte solo dopo il commit")
+        void testAggiornamentoDopoIlCommit() {
+            Referto referto = referto(1, "Nodulo polmonare.", null);
+            TransactionSynchronizationManager.initSynchronization();
+            try {
+                ricerca.aggiorna(referto);
+                verify(refertoRepository, never()).findById(anyInt());
+
+                when(refertoRepository.findById(1)).thenReturn(Optional.of(referto));
+                TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+            } finally {
+                TransactionSynchronizationManager.clearSynchronization();
+            }
+
+            assertEquals(1, ricerca.cerca("nodulo", PAGINA).getTotalElements());
+        }
+
+        @Test
+        @DisplayName("La ricostruzione legge il database a blocchi e sostituisce l'intero indice")
+        void testRicostruzione() {
+            indicizza(referto(99, "Nodulo non più presente nel database.", null));
+            when(refertoRepository.findByIdGreaterThanOrderByIdAsc(0, Limit.of(500)))
+                    .thenReturn(List.of(referto(1, "Frattura del radio.", null), referto(2, "Nodulo tiroideo.", null)));
+
+            ricerca.ricostruisci();
+
+            verify(authorizationService).checkIsAdmin();
+            Page<RisultatoFullText> risultati = ricerca.cerca("nodulo", PAGINA);
+            assertEquals(1, risultati.getTotalElements());
+            assertEquals(2, risultati.getContent().get(0).referto().id());
+        }
+
+        @Test
+        @DisplayName("All'avvio un indice vuoto viene ricostruito, uno già salvato su disco no")
+        void testRicostruzioneAllAvvio() throws IOException {
+            when(refertoRepository.count()).thenReturn(1L);
+            when(refertoRepository.findByIdGreaterThanOrderByIdAsc(0, Limit.of(500)))
+                    .thenReturn(List.of(referto(1, "Nodulo tiroideo.", null)));
+
+            ricerca.ricostruisciSeVuoto();
+            ricerca.chiudi();
+            ricerca = nuovoIndice();
+            ricerca.ricostruisciSeVuoto();
+
+            verify(refertoRepository, times(1)).findByIdGreaterThanOrderByIdAsc(anyInt(), any());
+            assertEquals(1, ricerca.cerca("nodulo", PAGINA).getTotalElements());
+        }
+
+        @Test
+        @DisplayName("Una sintassi non valida viene cercata come testo semplice")
+        void testSintassiNonValida() {
+            indicizza(referto(1, "Nodulo polmonare.", null));
+
+            assertEquals(1, ricerca.cerca("\"nodulo", PAGINA).getTotalElements());
+            assertTrue(ricerca.cerca("  ", PAGINA).isEmpty());
+        }
+    }
+
+    @Nested
+    @DisplayName("Casi di errore")
+    class Incorrect {
+
+        @Test
+        @DisplayName("Un utente non amministratore non può ricostruire l'indice")
+        void testRicostruzioneNonAutorizzata() {
+            doThrow(new UnauthorizedException("Operazione riservata agli amministratori"))
+                    .when(authorizationService).checkIsAdmin();
+
+            assertThrows(UnauthorizedException.class, () -> ricerca.ricostruisci());
+            verify(refertoRepository, never()).findByIdGreaterThanOrderByIdAsc(anyInt(), any());
+        }
+
+        @Test
+        @DisplayName("Espressioni regolari e caratteri jolly iniziali vengono cercati come testo semplice")
+        void testRegexEJollyIniziale() {
+            indicizza(referto(1, "Nodulo polmonare.", null));
+
+            assertEquals(0, ricerca.cerca("/nod.*/", PAGINA).getTotalElements());
+            assertEquals(0, ricerca.cerca("*odulo", PAGINA).getTotalElements());
+            assertEquals(1, ricerca.cerca("nodul*", PAGINA).getTotalElements());
+        }
+
+        @Test
+        @DisplayName("Un testo non interpretabile nemmeno come testo semplice viene rifiutato")
+        void testTestoNonInterpretabile() {
+            assertThrows(RicercaNonValidaException.class, () -> ricerca.cerca("AND", PAGINA));
+        }
+
+        @Test
+        @DisplayName("Una ricerca con troppe parole viene rifiutata")
+        void testTroppeParole() {
+            String testo = IntStream.range(0, 1100).mapToObj(i -> "parola" + i).collect(Collectors.joining(" "));
+
+            assertThrows(RicercaNonValidaException.class, () -> ricerca.cerca(testo, PAGINA));
+        }
+
+        @Test
+        @DisplayName("Un ordinamento diverso dalla pertinenza viene rifiutato")
+        void testOrdinamentoRifiutato() {
+            Pageable ordinata = PageRequest.of(0, 20, Sort.by("dataCaricamento"));
+
+            assertThrows(RicercaNonValidaException.class, () -> ricerca.cerca("nodulo", ordinata));
+        }
+
+        @Test
+        @DisplayName("La cartella dell'indice è accessibile solo al proprietario")
+        void testCartellaPrivata() throws IOException {
+            assumeTrue(cartella.getFileSystem().supportedFileAttributeViews().contains("posix"));
+            Path indice = cartella.resolve("indice");
+
+            new RicercaFullTextServiceImpl(refertoRepository, authorizationService, new ExecutorSincrono(),
+                    indice, 100, meterRegistry).chiudi();
+
+            assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(indice)));
+        }
+
+        @Test
+        @DisplayName("Un link simbolico come cartella dell'indice viene rifiutato")
+        void testLinkSimbolicoRifiutato() throws IOException {
+            Path link = cartella.resolve("link");
+            Files.createSymbolicLink(link, cartella);
+
+            assertThrows(IOException.class, () -> new RicercaFullTextServiceImpl(refertoRepository,
+                    authorizationService, new ExecutorSincrono(), link, 100, meterRegistry));
+        }
+
+        @Test
+        @DisplayName("Un errore durante l'aggiornamento non si propaga e lascia l'indice utilizzabile")
+        void testErroreAggiornamento() {
+            when(refertoRepository.findById(1)).thenThrow(new IllegalStateException("database non raggiungibile"));
+
+            assertDoesNotThrow(() -> ricerca.rimuovi(1));
+            assertEquals(0, meterRegistry.get("medsafe.fulltext.coda").gauge().value());
+            assertTrue(ricerca.cerca("nodulo", PAGINA).isEmpty());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package it.unisa.project.medsafe.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test BufferABlocchi e PoolBlocchi")
+class BufferABlocchiTest {
+
+    // Blocchi da 1 KB, al massimo 4 blocchi liberi conservati
+    private final PoolBlocchi pool = new PoolBlocchi(DataSize.ofKilobytes(1), 4);
+
+    private static byte[] casuali(int n) {
+        byte[] dati = new byte[n];
+        new Random(42).nextBytes(dati);
+        return dati;
+    }
+
+    @Nested
+    @DisplayName("Casi corretti")
+    class Correct {
+
+        @Test
+        @DisplayName("Il contenuto scritto su più blocchi viene riletto identico, senza copie")
+        void testScritturaELettura() throws IOException {
+            byte[] dati = casuali(2500);
+
+            try (BufferABlocchi buffer = pool.nuovoBuffer()) {
+                buffer.write(dati, 0, 1000);
+                buffer.write(dati[1000]);
+                buffer.write(dati, 1001, 1499);
+
+                assertEquals(2500, buffer.dimensione());
+                assertArrayEquals(dati, buffer.toByteArray());
+                try (InputStream lettura = buffer.apriLettura()) {
+                    assertEquals(2500, lettura.available());
+                    assertEquals(dati[0] & 0xFF, lettura.read());
+                    byte[] resto = lettura.readAllBytes();
+                    assertEquals(2499, resto.length);
+                    assertEquals(dati[2499], resto[2498]);
+                    assertEquals(-1, lettura.read());
+                }
+            }
+        }
+
+        @Test
+        @DisplayName("Un buffer vuoto ha dimensione zero e lettura vuota")
+        void testBufferVuoto() throws IOException {
+            try (BufferABlocchi buffer = pool.nuovoBuffer()) {
+                assertEquals(0, buffer.dimensione());
+                assertEquals(0, buffer.toByteArray().length);
+                assertEquals(-1, buffer.apriLettura().read());
+            }
+        }
+
+        @Test
+        @DisplayName("Alla chiusura i blocchi tornano al pool e vengono riusati")
+        void testRiusoBlocchi() throws IOException {
+            BufferABlocchi primo = pool.nuovoBuffer();
+            primo.write(new byte[3000]);
+            primo.close();
+            primo.close();
+            assertEquals(3, pool.getBlocchiLiberi());
+
+            try (BufferABlocchi secondo = pool.nuovoBuffer()) {
+                secondo.write(casuali(1500));
+                assertEquals(1, pool.getBlocchiLiberi());
+            }
+            assertEquals(3, pool.getBlocchiLiberi());
+        }
+
+        @Test
+        @DisplayName("Il pool non conserva più blocchi liberi del massimo configurato")
+        void testMassimoBlocchiLiberi() throws IOException {
+            try (BufferABlocchi buffer = pool.nuovoBuffer()) {
+                buffer.write(new byte[10 * 1024]);
+            }
+            assertEquals(4, pool.getBlocchiLiberi());
+        }
+    }
+
+    @Nested
+    @DisplayName("Casi di errore")
+    class Incorrect {
+
+        @Test
+        @DisplayName("Scrivere o leggere dopo la chiusura lancia IOException")
+        void testUsoDopoChiusura() throws IOException {
+            BufferABlocchi buffer = pool.nuovoBuffer();
+            buffer.write(new byte[10]);
+            InputStream lettura = buffer.apriLettura();
+            buffer.close();
+
+            assertThrows(IOException.class, () -> buffer.write(1));
+            assertThrows(IOException.class, lettura::read);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package it.unisa.project.medsafe.utils;
+
+import it.unisa.project.medsafe.exception.ServizioSovraccaricoException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test Bulkhead")
+class BulkheadTest {
+
+    @Test
+    @DisplayName("esegui restituisce il risultato e rilascia il permesso")
+    void testEseguiRilasciaPermesso() {
+        Bulkhead bulkhead = new Bulkhead("test", 2, Duration.ofMillis(10));
+
+        assertEquals("ok", bulkhead.esegui(() -> {
+            assertEquals(1, bulkhead.getPermessiDisponibili());
+            return "ok";
+        }));
+        assertEquals(2, bulkhead.getPermessiDisponibili());
+    }
+
+    @Test
+    @DisplayName("esegui rilascia il permesso anche in caso di eccezione")
+    void testEseguiConEccezione() {
+        Bulkhead bulkhead = new Bulkhead("test", 1, Duration.ofMillis(10));
+
+        assertThrows(IOException.class, () -> bulkhead.esegui(() -> {
+            throw new IOException("errore");
+        }));
+        assertEquals(1, bulkhead.getPermessiDisponibili());
+    }
+
+    @Test
+    @DisplayName("Senza permessi disponibili lancia ServizioSovraccaricoException dopo l'attesa")
+    void testBulkheadSaturo() {
+        Bulkhead bulkhead = new Bulkhead("test", 1, Duration.ofMillis(10));
+        bulkhead.acquisisci();
+
+        assertThrows(ServizioSovraccaricoException.class, bulkhead::acquisisci);
+
+        bulkhead.rilascia();
+        assertDoesNotThrow(bulkhead::acquisisci);
+    }
+}
@@ -0,0 +1,132 @@
+package it.unisa.project.medsafe.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test ImmaginePdfHelper")
+class ImmaginePdfHelperTest {
+
+    // 150 DPI: riquadro 450x550 pt -> 938x1146 pixel
+    private final ImmaginePdfHelper helper = new ImmaginePdfHelper(150, 0.85f);
+
+    private static byte[] codifica(BufferedImage img, String formato) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(img, formato, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Immagine con contenuto variabile, che non si comprime quasi nulla in PNG
+     */
+    private static BufferedImage conRumore(int larghezza, int altezza, int tipo) {
+        BufferedImage img = new BufferedImage(larghezza, altezza, tipo);
+        Random random = new Random(42);
+        for (int x = 0; x < larghezza; x++) {
+            for (int y = 0; y < altezza; y++) {
+                img.setRGB(x, y, random.nextInt());
+            }
+        }
+        return img;
+    }
+
+    private static BufferedImage decodifica(byte[] bytes) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(bytes));
+    }
+
+    private static boolean isJpeg(byte[] bytes) {
+        return (bytes[0] & 0xFF) == 0xFF && (bytes[1] & 0xFF) == 0xD8;
+    }
+
+    @Nested
+    @DisplayName("Casi corretti")
+    class Correct {
+
+        @Test
+        @DisplayName("Un'immagine più grande del riquadro viene ridotta alla risoluzione di stampa")
+        void testRiduzione() throws IOException {
+            byte[] originale = codifica(conRumore(4000, 2000, BufferedImage.TYPE_INT_RGB), "png");
+
+            byte[] preparata = helper.prepara(originale);
+
+            assertTrue(isJpeg(preparata));
+            BufferedImage risultato = decodifica(preparata);
+            assertEquals(938, risultato.getWidth());
+            assertEquals(469, risultato.getHeight());
+        }
+
+        @Test
+        @DisplayName("La decodifica sottocampiona mantenendo almeno il doppio della dimensione finale")
+        void testPassoSottocampionamento() {
+            assertEquals(2, ImmaginePdfHelper.passoSottocampionamento(4000, 2000, 938, 469));
+            assertEquals(5, ImmaginePdfHelper.passoSottocampionamento(10000, 10000, 938, 938));
+            assertEquals(1, ImmaginePdfHelper.passoSottocampionamento(1500, 1500, 938, 938));
+            assertEquals(1, ImmaginePdfHelper.passoSottocampionamento(200, 200, 200, 200));
+        }
+
+        @Test
+        @DisplayName("Una radiografia in scala di grigi resta in scala di grigi")
+        void testScalaDiGrigi() throws IOException {
+            byte[] originale = codifica(conRumore(2000, 3000, BufferedImage.TYPE_BYTE_GRAY), "png");
+
+            BufferedImage risultato = decodifica(helper.prepara(originale));
+
+            assertEquals(1, risultato.getColorModel().getNumComponents());
+            assertEquals(1146, risultato.getHeight());
+        }
+
+        @Test
+        @DisplayName("Un PNG trasparente viene convertito su sfondo bianco")
+        void testTrasparenza() throws IOException {
+            BufferedImage img = conRumore(2000, 2000, BufferedImage.TYPE_INT_ARGB);
+            for (int x = 0; x < 100; x++) {
+                for (int y = 0; y < 100; y++) {
+                    img.setRGB(x, y, 0x00000000);
+                }
+            }
+
+            BufferedImage risultato = decodifica(helper.prepara(codifica(img, "png")));
+
+            assertFalse(risultato.getColorModel().hasAlpha());
+            assertEquals(0xFFFFFFFF, risultato.getRGB(10, 10) | 0x030303);
+        }
+
+        @Test
+        @DisplayName("Un'immagine a tinta unita già più piccola del JPEG viene lasciata com'è")
+        void testTintaUnita() throws IOException {
+            byte[] originale = codifica(new BufferedImage(3000, 3000, BufferedImage.TYPE_BYTE_GRAY), "png");
+
+            assertSame(originale, helper.prepara(originale));
+        }
+
+        @Test
+        @DisplayName("Un JPEG già piccolo viene lasciato com'è")
+        void testImmaginePiccola() throws IOException {
+            byte[] originale = codifica(new BufferedImage(200, 200, BufferedImage.TYPE_INT_RGB), "jpg");
+
+            assertSame(originale, helper.prepara(originale));
+        }
+    }
+
+    @Nested
+    @DisplayName("Casi di errore")
+    class Incorrect {
+
+        @Test
+        @DisplayName("Byte non decodificabili: viene restituito l'originale")
+        void testFormatoNonSupportato() {
+            byte[] originale = "non è un'immagine".getBytes();
+
+            assertSame(originale, helper.prepara(originale));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package it.unisa.project.medsafe.utils;
+
+import it.unisa.project.medsafe.dto.RefertoDTO;
+import it.unisa.project.medsafe.entity.TipoEsame;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test ImprontaReferto")
+class ImprontaRefertoTest {
+
+    private static RefertoDTO referto() {
+        return RefertoDTO.builder().nomePaziente("Mario Rossi").codiceFiscale("RSSMRA80A01H501Z")
+                .tipoEsame(TipoEsame.TAC).testoReferto("Testo").conclusioni("Conclusioni")
+                .autoreEmail("dott@medsafe.local").fileUrlImmagine("http://blob/img.png").nomeFile("referto")
+                .build();
+    }
+
+    @Test
+    @DisplayName("L'impronta è SHA-256 in esadecimale e non dipende dai campi non stampati")
+    void testCampiNonStampati() {
+        RefertoDTO dto = referto();
+        String impronta = ImprontaReferto.calcola(dto);
+
+        dto.setCodiceFiscale("VRDLGI85B02F205X");
+        dto.setNomeFile("altro_nome");
+        dto.setUrlPdfGenerato("http://blob/pdf/altro.pdf");
+
+        assertEquals(64, impronta.length());
+        assertEquals(impronta, ImprontaReferto.calcola(dto));
+    }
+
+    @Test
+    @DisplayName("Cambiare un campo stampato cambia l'impronta")
+    void testCampiStampati() {
+        String impronta = ImprontaReferto.calcola(referto());
+
+        RefertoDTO tipo = referto();
+        tipo.setTipoEsame(TipoEsame.Ecografia);
+        RefertoDTO immagine = referto();
+        immagine.setFileUrlImmagine(null);
+
+        assertNotEquals(impronta, ImprontaReferto.calcola(tipo));
+        assertNotEquals(impronta, ImprontaReferto.calcola(immagine));
+    }
+
+    @Test
+    @DisplayName("Spostare testo tra campi adiacenti cambia l'impronta")
+    void testConfiniTraCampi() {
+        RefertoDTO a = referto();
+        a.setTestoReferto("Testo Conclusioni");
+        a.setConclusioni("");
+        RefertoDTO b = referto();
+        b.setTestoReferto("Testo");
+        b.setConclusioni(" Conclusioni");
+
+        assertNotEquals(ImprontaReferto.calcola(a), ImprontaReferto.calcola(b));
+    }
+}
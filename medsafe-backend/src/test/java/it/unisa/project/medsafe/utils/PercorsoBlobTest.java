@@ -0,0 +1,48 @@
+package it.unisa.project.medsafe.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Test PercorsoBlob")
+class PercorsoBlobTest {
+
+    @Nested
+    @DisplayName("Casi corretti")
+    class Correct {
+
+        @Test
+        @DisplayName("Dall'URL completo si ottiene il percorso decodificato dopo il container")
+        void testUrlCompleto() {
+            assertEquals("immagini/tac paziente.png", PercorsoBlob
+                    .daUrl("https://account.blob.core.windows.net/upload-dir/immagini/tac%20paziente.png"));
+        }
+
+        @Test
+        @DisplayName("Un percorso che inizia con il container viene accettato")
+        void testPercorsoRelativo() {
+            assertEquals("pdf/referto.pdf", PercorsoBlob.daUrl("upload-dir/pdf/referto.pdf"));
+        }
+    }
+
+    @Nested
+    @DisplayName("Casi di errore")
+    class Incorrect {
+
+        @Test
+        @DisplayName("URL nullo, vuoto o senza container: null")
+        void testUrlNonRiconosciuto() {
+            assertNull(PercorsoBlob.daUrl(null));
+            assertNull(PercorsoBlob.daUrl(""));
+            assertNull(PercorsoBlob.daUrl("https://account.blob.core.windows.net/altro/referto.pdf"));
+        }
+
+        @Test
+        @DisplayName("Codifica percentuale non valida: null")
+        void testCodificaNonValida() {
+            assertNull(PercorsoBlob.daUrl("https://account.blob.core.windows.net/upload-dir/pdf/%zz.pdf"));
+        }
+    }
+}
@@ -0,0 +1,40 @@
+-- Schema di un database creato con ddl-auto=update prima di Flyway (MySQL): senza le colonne
+-- versione e impronta, senza gli indici delle ricerche e con url_pdf_generato obbligatorio.
+-- Usato da MigrazioniTestBase per verificare l'aggiornamento dalla baseline.
+
+CREATE TABLE referto (
+    id                INT           NOT NULL AUTO_INCREMENT,
+    data_caricamento  DATETIME(6),
+    codice_fiscale    VARCHAR(16)   NOT NULL,
+    file_url_immagine VARCHAR(1000) NOT NULL,
+    url_pdf_generato  VARCHAR(1000) NOT NULL,
+    conclusioni       VARCHAR(4000),
+    testo_referto     VARCHAR(4000),
+    autore_email      VARCHAR(255)  NOT NULL,
+    nome_file         VARCHAR(255)  NOT NULL,
+    nome_paziente     VARCHAR(255)  NOT NULL,
+    tipo_esame        ENUM ('Ecografia','Esami_Laboratorio','Radiografia','Risonanza','TAC') NOT NULL,
+    PRIMARY KEY (id),
+    CONSTRAINT uk_referto_nome_file UNIQUE (nome_file)
+) ENGINE = InnoDB;
+
+CREATE TABLE users (
+    id               INT          NOT NULL AUTO_INCREMENT,
+    enabled          BIT          NOT NULL,
+    created_at       DATETIME(6),
+    azure_oid        VARCHAR(100),
+    email            VARCHAR(255) NOT NULL,
+    full_name        VARCHAR(255) NOT NULL,
+    genere           ENUM ('FEMMINA','MASCHIO','NON_SPECIFICATO'),
+    role             ENUM ('ADMIN','MEDICO') NOT NULL,
+    specializzazione ENUM ('ALLERGOLOGIA','ANATOMIA_PATOLOGICA','ANDROLOGIA','ANESTESIA','ANGIOLOGIA','CARDIOCHIRURGIA',
+                           'CARDIOLOGIA','CHIRURGIA_GENERALE','CHIRURGIA_PLASTICA','CHIRURGIA_TORACICA','CHIRURGIA_VASCOLARE',
+                           'DERMATOLOGIA','EMATOLOGIA','ENDOCRINOLOGIA','EPATOLOGIA','GASTROENTEROLOGIA','GENETICA_MEDICA',
+                           'GERIATRIA','GINECOLOGIA','IGIENE','MALATTIE_INFETTIVE','MEDICINA_EMERGENZA','MEDICINA_FISICA',
+                           'MEDICINA_GENERALE','MEDICINA_INTERNA','MEDICINA_LEGALE','NEFROLOGIA','NEONATOLOGIA','NESSUNA',
+                           'NEUROCHIRURGIA','NEUROLOGIA','OCULISTICA','ONCOLOGIA','ORTOPEDIA','OSTETRICIA',
+                           'OTORINOLARINGOIATRIA','PEDIATRIA','PNEUMOLOGIA','PSICHIATRIA','RADIOLOGIA','REUMATOLOGIA',
+                           'UROLOGIA'),
+    PRIMARY KEY (id),
+    CONSTRAINT uk_users_email UNIQUE (email)
+) ENGINE = InnoDB;
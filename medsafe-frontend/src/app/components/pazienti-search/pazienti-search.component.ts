@@ -1,7 +1,7 @@
 import { Component } from '@angular/core';
 import { CommonModule } from '@angular/common';
 import { FormsModule } from '@angular/forms';
-import { RefertiService, RefertoDTO } from '../../services/referti.service';
+import { RefertiService, RefertoSummary } from '../../services/referti.service';
 
 interface Paziente {
   codiceFiscale: string;
@@ -38,7 +38,7 @@ export class PazientiSearchComponent {
 
     // Search by codice fiscale
     this.refertiService.getRefertoByCodiceFiscale(this.searchTerm).subscribe({
-      next: (referti: RefertoDTO[] | any) => {
+      next: (referti: RefertoSummary[] | any) => {
         this.isLoading = false;
         
         if (Array.isArray(referti) && referti.length > 0) {
@@ -1,7 +1,7 @@
 import { Component, OnInit } from '@angular/core';
 import { CommonModule } from '@angular/common';
 import { FormsModule } from '@angular/forms';
-import { RefertiService, RefertoDTO } from '../../services/referti.service';
+import { RefertiService, RefertoDTO, RefertoSummary } from '../../services/referti.service';
 import { UserService } from '../../services/user.service';
 import { User } from '../../models/user.model';
 import { TipoEsame, UserRole } from '../../models/constants';
@@ -18,8 +18,8 @@ export class RefertiEditComponent implements OnInit {
   private userEmail = '';
   currentUser: User | null = null;
 
-  referti: RefertoDTO[] = [];
-  allReferti: RefertoDTO[] = [];
+  referti: RefertoSummary[] = [];
+  allReferti: RefertoSummary[] = [];
   selectedReferto: RefertoDTO | null = null;
   isLoading = false;
   errorMessage = '';
@@ -114,11 +114,20 @@ export class RefertiEditComponent implements OnInit {
     });
   }
 
-  selectReferto(referto: RefertoDTO) {
-    this.selectedReferto = referto;
+  selectReferto(referto: RefertoSummary) {
     this.isEditMode = false;
     this.successMessage = '';
     this.errorMessage = '';
+    // Gli elenchi contengono solo il riepilogo: testo, conclusioni e file arrivano dal dettaglio
+    this.refertiService.getRefertoById(referto.id).subscribe({
+      next: (dettaglio) => {
+        this.selectedReferto = dettaglio;
+      },
+      error: (error: any) => {
+        this.selectedReferto = null;
+        this.errorMessage = 'Errore durante il caricamento del referto: ' + (error.message || 'Errore sconosciuto');
+      }
+    });
   }
 
   enterEditMode() {
@@ -222,14 +231,8 @@ export class RefertiEditComponent implements OnInit {
         // Update the selected referto with new data
         this.selectedReferto = updatedReferto;
         // Update in the list
-        const index = this.referti.findIndex(r => r.id === this.selectedReferto!.id);
-        if (index !== -1) {
-          this.referti[index] = this.selectedReferto;
-        }
-        const allIndex = this.allReferti.findIndex(r => r.id === this.selectedReferto!.id);
-        if (allIndex !== -1) {
-          this.allReferti[allIndex] = this.selectedReferto;
-        }
+        this.aggiornaRiepilogo(this.referti, updatedReferto);
+        this.aggiornaRiepilogo(this.allReferti, updatedReferto);
       },
       error: (error: any) => {
         this.isLoading = false;
@@ -238,6 +241,19 @@ export class RefertiEditComponent implements OnInit {
     });
   }
 
+  private aggiornaRiepilogo(lista: RefertoSummary[], referto: RefertoDTO) {
+    const index = lista.findIndex(r => r.id === referto.id);
+    if (index !== -1) {
+      lista[index] = {
+        ...lista[index],
+        codiceFiscale: referto.codiceFiscale,
+        tipoEsame: referto.tipoEsame,
+        nomeFile: referto.nomeFile,
+        autoreEmail: referto.autoreEmail
+      };
+    }
+  }
+
   deleteReferto() {
     if (!this.selectedReferto || !this.selectedReferto.id) return;
 
@@ -1,7 +1,7 @@
 import { Component, OnInit } from '@angular/core';
 import { CommonModule } from '@angular/common';
 import { FormsModule } from '@angular/forms';
-import { RefertiService, RefertoDTO } from '../../services/referti.service';
+import { RefertiService, RefertoDTO, RefertoSummary, RisultatoFullText } from '../../services/referti.service';
 
 import { UserService } from '../../services/user.service';
 import { AuthService } from '../../services/auth.service';
@@ -18,9 +18,15 @@ import { TipoEsame } from '../../models/constants';
 export class RefertiListComponent implements OnInit {
   private userEmail = '';
 
-  referti: RefertoDTO[] = [];
+  referti: RefertoSummary[] = [];
+  // Referti completi già richiesti, per id: gli elenchi contengono solo il riepilogo
+  dettagli: { [id: number]: RefertoDTO } = {};
   searchCodiceFiscale = '';
   searchTipoEsame = '';
+  searchNomeFile = '';
+  searchTesto = '';
+  // Passaggi evidenziati della ricerca nel testo, per id
+  passaggi: { [id: number]: RisultatoFullText } = {};
   loading = false;
   errorMessage = '';
   searched = false;
@@ -44,118 +50,87 @@ export class RefertiListComponent implements OnInit {
   }
 
   searchReferti(): void {
-    // Se nessun campo è compilato, mostra tutti i referti
-    if (!this.searchCodiceFiscale.trim() && !this.searchTipoEsame) {
-      this.loading = true;
-      this.errorMessage = '';
-      this.searched = true;
-
-      this.refertiService.getAllReferti().subscribe({
-        next: (data) => {
-          this.referti = this.sortReferti(data);
-          this.loading = false;
-        },
-        error: (error) => {
-          this.errorMessage = 'Errore durante il caricamento dei referti';
-          console.error('Errore nella richiesta');
-          this.loading = false;
-        }
-      });
-      return;
-    }
-
     this.loading = true;
     this.errorMessage = '';
     this.searched = true;
     this.referti = [];
+    this.passaggi = {};
 
-    // Array per raccogliere i risultati da tutte le ricerche
-    const searchResults: RefertoDTO[][] = [];
-    let completedSearches = 0;
-    let totalSearches = 0;
-
-    // Conta quante ricerche fare
-    if (this.searchCodiceFiscale.trim()) totalSearches++;
-    if (this.searchTipoEsame) totalSearches++;
-
-    const checkComplete = () => {
-      completedSearches++;
-      if (completedSearches === totalSearches) {
-        // Combina i risultati e filtra duplicati
-        if (searchResults.length === 0) {
-          this.referti = [];
-          this.loading = false;
-          return;
-        }
-
-        // Intersezione dei risultati (solo referti presenti in tutti i risultati)
-        if (searchResults.length === 1) {
-          this.referti = searchResults[0];
-        } else {
-          // Trova referti comuni a tutti i set di risultati
-          const allIds = searchResults.map(results =>
-            new Set(results.map(r => r.id))
-          );
-
-          const commonIds = Array.from(allIds[0]).filter(id =>
-            allIds.every(set => set.has(id))
-          );
-
-          this.referti = searchResults[0].filter(r => commonIds.includes(r.id));
-        }
+    if (this.searchTesto.trim()) {
+      this.cercaNelTesto();
+      return;
+    }
 
+    // Un'unica richiesta con tutti i criteri: i campi vuoti non filtrano
+    this.refertiService.cercaReferti({
+      codiceFiscale: this.searchCodiceFiscale.trim().toUpperCase(),
+      tipoEsame: this.searchTipoEsame,
+      nomeFile: this.searchNomeFile.trim()
+    }).subscribe({
+      next: (data) => {
         // Ordina i referti mettendo quelli dell'utente loggato in cima
-        this.referti = this.sortReferti(this.referti);
-
+        this.referti = this.sortReferti(data);
+        this.loading = false;
+      },
+      error: (error) => {
+        this.errorMessage = 'Errore durante la ricerca dei referti';
+        console.error('Errore nella richiesta');
         this.loading = false;
       }
-    };
-
-    // Esegui ricerche in parallelo
-    if (this.searchCodiceFiscale.trim()) {
-      this.refertiService.getRefertoByCodiceFiscale(this.searchCodiceFiscale.toUpperCase()).subscribe({
-        next: (data) => {
-          searchResults.push(Array.isArray(data) ? data : [data]);
-          checkComplete();
-        },
-        error: (error) => {
-          this.errorMessage = 'Errore durante la ricerca per codice fiscale';
-          console.error('Errore nella richiesta');
-          this.loading = false;
-        }
-      });
-    }
+    });
+  }
 
-    if (this.searchTipoEsame) {
-      this.refertiService.getRefertiByTipoEsame(this.searchTipoEsame).subscribe({
-        next: (data) => {
-          searchResults.push(data);
-          checkComplete();
-        },
-        error: (error) => {
-          this.errorMessage = 'Errore durante la ricerca per tipo esame';
-          console.error('Errore nella richiesta');
-          this.loading = false;
-        }
-      });
-    }
+  private cercaNelTesto(): void {
+    this.refertiService.cercaNelTesto(this.searchTesto.trim()).subscribe({
+      next: (risultati) => {
+        // Ordine di pertinenza restituito dal backend
+        this.referti = risultati.map(r => r.referto);
+        risultati.forEach(r => this.passaggi[r.referto.id] = r);
+        this.loading = false;
+      },
+      error: (error) => {
+        this.errorMessage = 'Errore durante la ricerca nel testo dei referti';
+        console.error('Errore nella richiesta');
+        this.loading = false;
+      }
+    });
   }
 
   resetSearch(): void {
     this.searchCodiceFiscale = '';
     this.searchTipoEsame = '';
+    this.searchNomeFile = '';
+    this.searchTesto = '';
+    this.passaggi = {};
     this.referti = [];
+    this.dettagli = {};
     this.errorMessage = '';
     this.searched = false;
   }
 
-  isMyReferto(referto: RefertoDTO): boolean {
+  mostraDettaglio(id: number): void {
+    if (this.dettagli[id]) {
+      delete this.dettagli[id];
+      return;
+    }
+    this.refertiService.getRefertoById(id).subscribe({
+      next: (referto) => {
+        this.dettagli[id] = referto;
+      },
+      error: (error) => {
+        this.errorMessage = 'Errore durante il caricamento del referto';
+        console.error('Errore nella richiesta');
+      }
+    });
+  }
+
+  isMyReferto(referto: RefertoSummary): boolean {
     // Se non abbiamo ancora l'email dell'utente, non possiamo dire che è suo
     if (!this.userEmail) return false;
     return referto.autoreEmail === this.userEmail;
   }
 
-  sortReferti(referti: RefertoDTO[]): RefertoDTO[] {
+  sortReferti(referti: RefertoSummary[]): RefertoSummary[] {
     return referti.sort((a, b) => {
       const aIsMine = this.isMyReferto(a);
       const bIsMine = this.isMyReferto(b);
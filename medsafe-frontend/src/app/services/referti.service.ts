@@ -1,6 +1,6 @@
 import { Injectable } from '@angular/core';
 import { HttpClient, HttpParams } from '@angular/common/http';
-import { Observable } from 'rxjs';
+import { Observable, map } from 'rxjs';
 import { environment } from '../../environments/environment';
 import { TipoEsame } from '../models/constants';
 
@@ -18,6 +18,61 @@ export interface RefertoDTO {
   dataCaricamento?: string;
 }
 
+/**
+ * Riepilogo restituito dagli elenchi: testo, conclusioni e URL dei file
+ * si ottengono con getRefertoById
+ */
+export interface RefertoSummary {
+  id: number;
+  nomePaziente: string;
+  codiceFiscale: string;
+  tipoEsame: TipoEsame;
+  nomeFile: string;
+  autoreEmail: string;
+  dataCaricamento?: string;
+}
+
+/**
+ * Pagina di risultati restituita dalle ricerche paginate del backend
+ */
+export interface Pagina<T> {
+  content: T[];
+  page: {
+    size: number;
+    number: number;
+    totalElements: number;
+    totalPages: number;
+  };
+}
+
+/**
+ * Risultato della ricerca nel testo: i passaggi contengono le parole trovate in <mark>
+ * (testo già con escape HTML), null se il campo non le contiene
+ */
+export interface RisultatoFullText {
+  referto: RefertoSummary;
+  punteggio: number;
+  testoReferto: string | null;
+  conclusioni: string | null;
+}
+
+/**
+ * Criteri della ricerca combinata: i campi non valorizzati non filtrano
+ */
+export interface FiltroReferti {
+  codiceFiscale?: string;
+  tipoEsame?: string;
+  autoreEmail?: string;
+  dal?: string;
+  al?: string;
+  nomeFile?: string;
+}
+
+/**
+ * Dimensione massima di pagina accettata dal backend
+ */
+export const DIMENSIONE_PAGINA_MAX = 100;
+
 @Injectable({
   providedIn: 'root'
 })
@@ -26,9 +81,14 @@ export class RefertiService {
 
   constructor(private http: HttpClient) { }
 
-  getRefertoByCodiceFiscale(codiceFiscale: string): Observable<RefertoDTO[]> {
-    const params = new HttpParams().set('value', codiceFiscale);
-    return this.http.get<RefertoDTO[]>(`${this.apiUrl}/codiceFiscale`, { params });
+  getRefertoByCodiceFiscale(codiceFiscale: string, pagina = 0, dimensione = DIMENSIONE_PAGINA_MAX): Observable<RefertoSummary[]> {
+    const params = this.paginazione(pagina, dimensione).set('value', codiceFiscale);
+    return this.http.get<Pagina<RefertoSummary>>(`${this.apiUrl}/codiceFiscale`, { params })
+      .pipe(map(p => p.content));
+  }
+
+  getRefertoById(id: number): Observable<RefertoDTO> {
+    return this.http.get<RefertoDTO>(`${this.apiUrl}/${id}`);
   }
 
   getRefertoByNomeFile(nomeFile: string): Observable<RefertoDTO> {
@@ -36,18 +96,43 @@ export class RefertiService {
     return this.http.get<RefertoDTO>(`${this.apiUrl}/nomeFile`, { params });
   }
 
-  getRefertiByTipoEsame(tipoEsame: string): Observable<RefertoDTO[]> {
-    const params = new HttpParams().set('value', tipoEsame);
-    return this.http.get<RefertoDTO[]>(`${this.apiUrl}/tipoEsame`, { params });
+  getRefertiByTipoEsame(tipoEsame: string, pagina = 0, dimensione = DIMENSIONE_PAGINA_MAX): Observable<RefertoSummary[]> {
+    const params = this.paginazione(pagina, dimensione).set('value', tipoEsame);
+    return this.http.get<Pagina<RefertoSummary>>(`${this.apiUrl}/tipoEsame`, { params })
+      .pipe(map(p => p.content));
   }
 
-  getRefertiByAutoreEmail(email: string): Observable<RefertoDTO[]> {
-    const params = new HttpParams().set('value', email);
-    return this.http.get<RefertoDTO[]>(`${this.apiUrl}/email`, { params });
+  getRefertiByAutoreEmail(email: string, pagina = 0, dimensione = DIMENSIONE_PAGINA_MAX): Observable<RefertoSummary[]> {
+    const params = this.paginazione(pagina, dimensione).set('value', email);
+    return this.http.get<Pagina<RefertoSummary>>(`${this.apiUrl}/email`, { params })
+      .pipe(map(p => p.content));
   }
 
-  getAllReferti(): Observable<RefertoDTO[]> {
-    return this.http.get<RefertoDTO[]>(this.apiUrl);
+  cercaReferti(filtro: FiltroReferti, pagina = 0, dimensione = DIMENSIONE_PAGINA_MAX): Observable<RefertoSummary[]> {
+    let params = this.paginazione(pagina, dimensione);
+    for (const [chiave, valore] of Object.entries(filtro)) {
+      if (valore) {
+        params = params.set(chiave, valore);
+      }
+    }
+    return this.http.get<Pagina<RefertoSummary>>(`${this.apiUrl}/search`, { params })
+      .pipe(map(p => p.content));
+  }
+
+  cercaNelTesto(testo: string, pagina = 0, dimensione = DIMENSIONE_PAGINA_MAX): Observable<RisultatoFullText[]> {
+    // Risultati dal più pertinente: nessun parametro sort
+    const params = new HttpParams()
+      .set('q', testo)
+      .set('page', pagina)
+      .set('size', dimensione);
+    return this.http.get<Pagina<RisultatoFullText>>(`${this.apiUrl}/fulltext`, { params })
+      .pipe(map(p => p.content));
+  }
+
+  getAllReferti(pagina = 0, dimensione = DIMENSIONE_PAGINA_MAX): Observable<RefertoSummary[]> {
+    const params = this.paginazione(pagina, dimensione);
+    return this.http.get<Pagina<RefertoSummary>>(this.apiUrl, { params })
+      .pipe(map(p => p.content));
   }
 
   addReferto(formData: FormData): Observable<void> {
@@ -69,4 +154,11 @@ export class RefertiService {
   downloadImmagine(id: number): Observable<Blob> {
     return this.http.get(`${this.apiUrl}/download/immagine/${id}`, { responseType: 'blob' });
   }
+
+  private paginazione(pagina: number, dimensione: number): HttpParams {
+    return new HttpParams()
+      .set('page', pagina)
+      .set('size', dimensione)
+      .set('sort', 'dataCaricamento,desc');
+  }
 }
\ No newline at end of file